@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Facts about the code that passes read. The {@link PassManager}
+ * computes an analysis when a pass needs it and keeps it until a pass
+ * changes the code without preserving it.
+ * @param <T> the result of the analysis
+ */
+final class Analysis<T> {
+
+    static final Analysis<ControlFlowGraph> CFG = new Analysis<>("cfg", List.of(),
+            (code, passes) -> ControlFlowGraph.build(code));
+
+    static final Analysis<Liveness> LIVENESS = new Analysis<>("liveness", List.of(CFG),
+            (code, passes) -> Liveness.compute(code, passes.get(CFG)));
+
+    static final Analysis<FrameLayout> FRAMES = new Analysis<>("frames", List.of(CFG, LIVENESS),
+            (code, passes) -> FrameLayout.compute(code, passes.get(LIVENESS), passes.get(CFG)));
+
+    static final Analysis<CallGraph> CALL_GRAPH = new Analysis<>("call graph", List.of(),
+            (code, passes) -> CallGraph.build(code));
+
+    static final Analysis<Purity> PURITY = new Analysis<>("purity", List.of(CALL_GRAPH),
+            (code, passes) -> Purity.compute(code, passes.get(CALL_GRAPH)));
+
+    final String name;
+
+    /**
+     * analyses this one is computed from, it is invalid once one of them is
+     */
+    final List<Analysis<?>> dependencies;
+    private final BiFunction<List<String>, PassManager, T> compute;
+
+    Analysis(String name, List<Analysis<?>> dependencies, BiFunction<List<String>, PassManager, T> compute) {
+        this.name = name;
+        this.dependencies = dependencies;
+        this.compute = compute;
+    }
+
+    T compute(List<String> code, PassManager passes) {
+        return compute.apply(code, passes);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
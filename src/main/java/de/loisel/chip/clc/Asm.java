@@ -0,0 +1,317 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.Locale;
+
+/**
+ * One instruction of the LoChip assembly, see {@link AssemblyGenerator}. <br>
+ * Registers are numbers: r0 to r7, then fp and sp. The register backend
+ * first writes virtual registers, numbers from {@link #FIRST_VIRTUAL}
+ * on, and replaces them when they are allocated.
+ */
+final class Asm {
+
+    static final String LDI = "ldi";
+    static final String MOV = "mov";
+    static final String LD = "ld";
+    static final String ST = "st";
+    static final String ADD = "add";
+    static final String SUB = "sub";
+    static final String MUL = "mul";
+    static final String DIV = "div";
+    static final String SEQ = "seq";
+    static final String SNE = "sne";
+    static final String SLT = "slt";
+    static final String SGT = "sgt";
+    static final String ADDI = "addi";
+    static final String PUSH = "push";
+    static final String POP = "pop";
+    static final String JMP = "jmp";
+    static final String JZ = "jz";
+    static final String JNZ = "jnz";
+    static final String BEQ = "beq";
+    static final String BNE = "bne";
+    static final String BLT = "blt";
+    static final String BGE = "bge";
+    static final String BGT = "bgt";
+    static final String BLE = "ble";
+    static final String CALL = "call";
+    static final String RET = "ret";
+    static final String HALT = "halt";
+    static final String WORD = ".word";
+
+    /**
+     * a label, its name ends with ':'
+     */
+    static final String LABEL = "label";
+    static final String COMMENT = "#";
+
+    static final int R0 = 0;
+    static final int R7 = 7;
+    static final int FP = 8;
+    static final int SP = 9;
+    static final int NONE = -1;
+    static final int FIRST_VIRTUAL = 16;
+
+    final String op;
+
+    /**
+     * the register written, the address register of "st" and the registers read
+     */
+    int d;
+    int a;
+    int b;
+
+    /**
+     * immediate value or address offset
+     */
+    final int imm;
+
+    /**
+     * jump target, label name or comment text
+     */
+    final String text;
+
+    /**
+     * how many loops the instruction is in
+     */
+    int depth;
+
+    private Asm(String op, int d, int a, int b, int imm, String text) {
+        this.op = op;
+        this.d = d;
+        this.a = a;
+        this.b = b;
+        this.imm = imm;
+        this.text = text;
+    }
+
+    static Asm ldi(int d, int value) {
+        return new Asm(LDI, d, NONE, NONE, value & 0xFFFF, null);
+    }
+
+    static Asm mov(int d, int a) {
+        return new Asm(MOV, d, a, NONE, 0, null);
+    }
+
+    /**
+     * d = word at base + offset, base may be {@link #NONE} for an absolute address
+     */
+    static Asm ld(int d, int base, int offset) {
+        return new Asm(LD, d, base, NONE, offset, null);
+    }
+
+    /**
+     * word at base + offset = value
+     */
+    static Asm st(int base, int offset, int value) {
+        return new Asm(ST, NONE, base, value, offset, null);
+    }
+
+    /**
+     * @param op {@link #ADD} to {@link #SGT}
+     */
+    static Asm alu(String op, int d, int a, int b) {
+        return new Asm(op, d, a, b, 0, null);
+    }
+
+    static Asm addi(int d, int a, int value) {
+        return new Asm(ADDI, d, a, NONE, value, null);
+    }
+
+    static Asm push(int a) {
+        return new Asm(PUSH, NONE, a, NONE, 0, null);
+    }
+
+    static Asm pop(int d) {
+        return new Asm(POP, d, NONE, NONE, 0, null);
+    }
+
+    static Asm jmp(String label) {
+        return new Asm(JMP, NONE, NONE, NONE, 0, label);
+    }
+
+    /**
+     * @param op {@link #JZ} or {@link #JNZ}
+     */
+    static Asm branch(String op, int a, String label) {
+        return new Asm(op, NONE, a, NONE, 0, label);
+    }
+
+    /**
+     * Jumps if the comparison of a and b holds
+     * @param op {@link #BEQ} to {@link #BLE}
+     */
+    static Asm compare(String op, int a, int b, String label) {
+        return new Asm(op, NONE, a, b, 0, label);
+    }
+
+    static Asm call(String function) {
+        return new Asm(CALL, R0, NONE, NONE, 0, function);
+    }
+
+    static Asm ret() {
+        return new Asm(RET, NONE, NONE, NONE, 0, null);
+    }
+
+    static Asm halt() {
+        return new Asm(HALT, NONE, NONE, NONE, 0, null);
+    }
+
+    static Asm label(String name) {
+        return new Asm(LABEL, NONE, NONE, NONE, 0, name);
+    }
+
+    static Asm comment(String text) {
+        return new Asm(COMMENT, NONE, NONE, NONE, 0, text);
+    }
+
+    /**
+     * @param text the address followed by the words
+     */
+    static Asm word(String text) {
+        return new Asm(WORD, NONE, NONE, NONE, 0, text);
+    }
+
+    /**
+     * @return the operator of an "_Operator_", e.g. {@link #ADD} for "+"
+     */
+    static String operator(String operator) {
+        return switch (operator) {
+            case "+" -> ADD;
+            case "-" -> SUB;
+            case "*" -> MUL;
+            case "/" -> DIV;
+            case "==" -> SEQ;
+            case "!=" -> SNE;
+            case "<" -> SLT;
+            case ">" -> SGT;
+            default -> throw new IllegalArgumentException("Unknown operator: " + operator);
+        };
+    }
+
+    /**
+     * @return the compare and branch of a bool operator, e.g. {@link #BLT} for "<"
+     */
+    static String comparison(String operator) {
+        return switch (operator) {
+            case "==" -> BEQ;
+            case "!=" -> BNE;
+            case "<" -> BLT;
+            case ">" -> BGT;
+            default -> throw new IllegalArgumentException("Not a comparison: " + operator);
+        };
+    }
+
+    /**
+     * @return the branch that jumps when the conditional branch would not
+     */
+    static String invert(String branch) {
+        return switch (branch) {
+            case JZ -> JNZ;
+            case JNZ -> JZ;
+            case BEQ -> BNE;
+            case BNE -> BEQ;
+            case BLT -> BGE;
+            case BGE -> BLT;
+            case BGT -> BLE;
+            case BLE -> BGT;
+            default -> throw new IllegalArgumentException("Not a conditional branch: " + branch);
+        };
+    }
+
+    /**
+     * @return the same jump or branch to another label
+     */
+    Asm retarget(String op, String label) {
+        Asm jump = new Asm(op, d, a, b, imm, label);
+        jump.depth = depth;
+        return jump;
+    }
+
+    boolean isAlu() {
+        return op.equals(ADD) || op.equals(SUB) || op.equals(MUL) || op.equals(DIV)
+                || op.equals(SEQ) || op.equals(SNE) || op.equals(SLT) || op.equals(SGT);
+    }
+
+    /**
+     * @return true if the next instruction never runs after this one
+     */
+    boolean isJump() {
+        return op.equals(JMP) || op.equals(RET) || op.equals(HALT);
+    }
+
+    boolean isBranch() {
+        return op.equals(JMP) || isConditional();
+    }
+
+    boolean isConditional() {
+        return switch (op) {
+            case JZ, JNZ, BEQ, BNE, BLT, BGE, BGT, BLE -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return the register written, {@link #NONE} if there is none
+     */
+    int def() {
+        return switch (op) {
+            case LDI, MOV, LD, ADDI, POP, CALL -> d;
+            default -> isAlu() ? d : NONE;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return switch (op) {
+            case LABEL -> text + ":";
+            case COMMENT -> "# " + text;
+            case WORD -> WORD + " " + text;
+            case LDI -> "    ldi " + register(d) + ", " + imm;
+            case MOV -> "    mov " + register(d) + ", " + register(a);
+            case LD -> "    ld " + register(d) + ", " + address(a, imm);
+            case ST -> "    st " + address(a, imm) + ", " + register(b);
+            case ADDI -> "    addi " + register(d) + ", " + register(a) + ", " + imm;
+            case PUSH -> "    push " + register(a);
+            case POP -> "    pop " + register(d);
+            case JMP, CALL -> "    " + op + " " + text;
+            case JZ, JNZ -> "    " + op + " " + register(a) + ", " + text;
+            case BEQ, BNE, BLT, BGE, BGT, BLE -> "    " + op + " " + register(a) + ", " + register(b) + ", " + text;
+            case RET, HALT -> "    " + op;
+            default -> "    " + op + " " + register(d) + ", " + register(a) + ", " + register(b);
+        };
+    }
+
+    static String register(int register) {
+        return switch (register) {
+            case FP -> "fp";
+            case SP -> "sp";
+            default -> register >= FIRST_VIRTUAL ? "v" + (register - FIRST_VIRTUAL) : "r" + register;
+        };
+    }
+
+    private static String address(int base, int offset) {
+        if(base == NONE)
+            return String.format(Locale.ROOT, "[0x%04X]", offset & 0xFFFF);
+        if(offset == 0)
+            return "[" + register(base) + "]";
+        return "[" + register(base) + (offset < 0 ? "-" : "+") + Math.abs(offset) + "]";
+    }
+}
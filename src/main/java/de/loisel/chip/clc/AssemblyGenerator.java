@@ -14,24 +14,69 @@
  * limitations under the License.
  */
 
+
 package de.loisel.chip.clc;
 
-import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Writes the LoChip assembly of a program. <br>
+ * The LoChip has the 16-bit registers r0 to r7, the frame pointer fp and
+ * the stack pointer sp. Memory is byte addressed, a word has 2 bytes.
+ * The globals start at address 0, the stack starts at sp = 0 and grows
+ * down, so the first push writes 0xFFFE. "name:" is a label, '#' starts
+ * a comment.
+ * <pre>
+ * ldi  rd, value         rd = value
+ * mov  rd, ra
+ * ld   rd, [ra+offset]   rd = word at ra + offset, "[address]" without register
+ * st   [ra+offset], rb   word at ra + offset = rb
+ * add, sub, mul, div     rd, ra, rb, signed and wrapping
+ * seq, sne, slt, sgt     rd, ra, rb, rd = 1 if ra == != &lt; &gt; rb, else 0
+ * addi rd, ra, value     rd = ra + value
+ * push ra / pop rd       sp -= 2, word at sp = ra / rd = word at sp, sp += 2
+ * jmp  label
+ * jz   ra, label         jumps if ra is 0, jnz if it is not
+ * beq, bne, blt, bge,    ra, rb, label, jumps if ra == != &lt; &gt;= &gt; &lt;= rb
+ * bgt, ble
+ * call label / ret       pushes the return address and jumps / pops it and jumps
+ * halt
+ * .word address w0 w1    the initial words of a global array
+ * </pre>
+ * The program starts at ".start", which sets the globals, calls "main"
+ * and halts with its value in r0.
+ * <br>
+ * A caller pushes the arguments from the first to the last, calls
+ * and pops them. The function pushes fp, sets fp to sp and reserves its
+ * {@link FrameLayout frame} below fp. The value is returned in r0,
+ * all other registers may be changed by a call. The labels inside a
+ * function start with its name, e.g. "f.while0".
+ */
 interface AssemblyGenerator {
 
     /**
-     * All lines must have the correct syntax and need to be free of
-     * preprocessor commands and comments.
-     * @param lines All lines In the correct order.
+     * The code must be checked and linked, comments
+     * start with '#'. The blocks that never ran in the profile of the config
+     * are moved to the end of their function, see {@link BlockLayout}.
+     * The assembly is kept in a temp file if it gets too large for the heap budget.
+     * @param code The code of the {@link Coder} in the correct order.
+     * @param memoryLayout the addresses of the globals
+     * @param frames the frames of the code
      * @return the assembly code readable for the LoChipAssembler
      */
-    static List<Line> generateAssembly(List<Line> lines) {
-        List<Line> assembly = new ArrayList<>();
-
-
+    static List<Line> generateAssembly(List<String> code, MemoryLayout memoryLayout, FrameLayout frames,
+                                       CompilerConfig config) {
+        List<Line> assembly = config.newList(SpillList.lines(new Line("", "", 0)));
+        CodeGenerator generator = config.backend == Backend.STACK
+                ? new StackGenerator(code, memoryLayout, frames)
+                : new RegisterGenerator(code, memoryLayout, frames);
 
+        // one function at a time, jumps never leave their function
+        generator.generate(function -> {
+            for (Asm instruction : JumpThreading.thread(BlockLayout.arrange(function, config.profile))) {
+                assembly.add(new Line("", instruction.toString(), assembly.size() + 1));
+            }
+        });
         return assembly;
     }
 
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.Locale;
+
+/**
+ * Where the {@link AssemblyGenerator} keeps the values of expressions
+ */
+public enum Backend {
+    /**
+     * Every value is pushed to and popped from the machine stack, the fallback
+     */
+    STACK,
+
+    /**
+     * Values and local ints are kept in registers by a linear scan allocator
+     */
+    REGISTERS;
+
+    /**
+     * Parses the value of "--backend", "stack" or "registers"
+     */
+    public static Backend parse(String option) {
+        return switch (option.strip().toLowerCase(Locale.ROOT)) {
+            case "stack" -> STACK;
+            case "registers" -> REGISTERS;
+            default -> throw new IllegalArgumentException("Not a backend: \"" + option + "\"");
+        };
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compiles many projects concurrently in one JVM. Every compile
+ * has its own coder and diagnostics, only the immutable config,
+ * keyword tables and object units are shared. A library file used
+ * by many projects is compiled once.
+ */
+public final class BatchCompiler implements AutoCloseable {
+
+    private final CompilerConfig config;
+    private final ExecutorService executor;
+    private final CompileTimings timings = new CompileTimings();
+    private final UnitCache units = new UnitCache();
+
+    public BatchCompiler(CompilerConfig config) {
+        this(config, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads How many projects are compiled at the same time
+     */
+    public BatchCompiler(CompilerConfig config, int threads) {
+        this.config = config;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "clc-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return a future that completes with the result or
+     * exceptionally with the errors of the project
+     */
+    public CompletableFuture<CompileResult> compile(Project project) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                CompileResult result = compile(project, config, units);
+                timings.add(result);
+                return result;
+            } catch (RuntimeException e) {
+                timings.addFailure();
+                throw e;
+            }
+        }, executor);
+    }
+
+    /**
+     * @return the futures in the order of the projects
+     */
+    public List<CompletableFuture<CompileResult>> compileAll(Collection<Project> projects) {
+        List<CompletableFuture<CompileResult>> results = new ArrayList<>(projects.size());
+        for (Project project : projects) {
+            results.add(compile(project));
+        }
+        return results;
+    }
+
+    /**
+     * @return the timings of all compiles finished so far
+     */
+    public CompileTimings getTimings() {
+        return timings;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the object units shared by all projects of this compiler
+     */
+    public UnitCache getUnits() {
+        return units;
+    }
+
+    /**
+     * Compiles a single project on the calling thread
+     */
+    public static CompileResult compile(Project project, CompilerConfig config) {
+        return compile(project, config, new UnitCache());
+    }
+
+    /**
+     * Compiles every file of the project into an object unit, unless
+     * the cache already has it, and links the units.
+     */
+    public static CompileResult compile(Project project, CompilerConfig config, UnitCache units) {
+        long startTime = System.nanoTime();
+        List<ObjectUnit> objectUnits = units.compileProject(project, config);
+        long checkNanos = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        Linker.Program program = Linker.link(objectUnits, config);
+        long linkNanos = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        PassManager passes = PassManager.forLevel(config.optLevel, config.profile);
+        List<String> code = passes.run(program.code);
+        FrameLayout frames = passes.frames();
+        long optimizeNanos = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        List<Line> assembly = AssemblyGenerator.generateAssembly(code, program.memoryLayout, frames, config);
+        long generateNanos = System.nanoTime() - startTime;
+
+        List<String> memoryMap = config.newList(SpillList.STRINGS);
+        memoryMap.addAll(program.memoryLayout.toMap());
+        frames.toMap(memoryMap);
+        return new CompileResult(project, assembly, memoryMap, frames, passes.getReports(),
+                checkNanos, linkNanos, optimizeNanos, generateNanos);
+    }
+}
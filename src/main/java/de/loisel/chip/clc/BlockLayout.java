@@ -0,0 +1,194 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.loisel.chip.clc.Asm.*;
+
+/**
+ * Moves the blocks that never ran in the {@link Profile} to the end of
+ * their function, so the code that runs is dense and its branches fall
+ * through. <br>
+ * A block starts at a label or after a jump, branch or return. It is
+ * cold if it begins with a statement whose line is in the profile and
+ * never ran, the first block of a function stays. A block that fell
+ * through into a moved block, or out of one, jumps there instead and
+ * the block it jumps to gets a label if it has none. {@link JumpThreading}
+ * turns most of these jumps back into inverted branches.
+ */
+final class BlockLayout {
+
+    private final List<Asm> code;
+    private final Profile profile;
+    private final List<Asm> arranged = new ArrayList<>();
+
+    private BlockLayout(List<Asm> code, Profile profile) {
+        this.code = code;
+        this.profile = profile;
+    }
+
+    /**
+     * @param code the generated assembly
+     * @return the assembly with the cold blocks of every function last, the same list without a profile
+     */
+    static List<Asm> arrange(List<Asm> code, Profile profile) {
+        if(profile.isEmpty())
+            return code;
+        BlockLayout layout = new BlockLayout(code, profile);
+        List<Block> blocks = layout.blocks();
+        int first = 0;
+        for (int i = 1; i <= blocks.size(); i++) {
+            if(i == blocks.size() || blocks.get(i).function != null) {
+                layout.place(blocks.subList(first, i));
+                first = i;
+            }
+        }
+        return layout.arranged;
+    }
+
+    /**
+     * The instructions of a block, from start to end. exclusive
+     */
+    private static final class Block {
+        final int start;
+        final int end;
+
+        /**
+         * the function whose label is in the block, null for the other blocks
+         */
+        String function;
+        String label;
+        String newLabel;
+        String jumpTo;
+
+        Block(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private List<Block> blocks() {
+        List<Block> blocks = new ArrayList<>();
+        int start = 0;
+        boolean empty = true;
+        for (int i = 0; i < code.size(); i++) {
+            Asm instruction = code.get(i);
+            if(instruction.op.equals(LABEL) && !empty) {
+                blocks.add(new Block(start, i));
+                start = i;
+                empty = true;
+            }
+            if(instruction.op.equals(LABEL) || instruction.op.equals(COMMENT))
+                continue;
+            empty = false;
+            if(instruction.isJump() || instruction.isConditional()) {
+                blocks.add(new Block(start, i + 1));
+                start = i + 1;
+                empty = true;
+            }
+        }
+        if(start < code.size())
+            blocks.add(new Block(start, code.size()));
+
+        for (Block block : blocks) {
+            for (int i = block.start; i < block.end; i++) {
+                Asm instruction = code.get(i);
+                if(!instruction.op.equals(LABEL))
+                    continue;
+                if(block.label == null)
+                    block.label = instruction.text;
+                if(instruction.text.indexOf('.') < 0)
+                    block.function = instruction.text;
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Adds the blocks of a function, the cold ones last
+     * @param function the blocks from the one with the label of the function on
+     */
+    private void place(List<Block> function) {
+        String name = function.get(0).function;
+        List<Block> hot = new ArrayList<>();
+        List<Block> cold = new ArrayList<>();
+        hot.add(function.get(0));
+        for (Block block : function.subList(1, function.size())) {
+            (isCold(block) ? cold : hot).add(block);
+        }
+        if(name == null || cold.isEmpty() || fallsThrough(function.get(function.size() - 1))) {
+            addAll(function);
+            return;
+        }
+
+        List<Block> order = new ArrayList<>(hot);
+        order.addAll(cold);
+        int labels = 0;
+        for (int i = 0; i + 1 < function.size(); i++) {
+            Block block = function.get(i);
+            Block next = function.get(i + 1);
+            if(!fallsThrough(block) || order.indexOf(next) == order.indexOf(block) + 1)
+                continue;
+            if(next.label == null) {
+                next.label = name + ".cold" + labels++;
+                next.newLabel = next.label;
+            }
+            block.jumpTo = next.label;
+        }
+        addAll(order);
+    }
+
+    private void addAll(List<Block> blocks) {
+        for (Block block : blocks) {
+            if(block.newLabel != null)
+                arranged.add(Asm.label(block.newLabel));
+            arranged.addAll(code.subList(block.start, block.end));
+            if(block.jumpTo != null)
+                arranged.add(Asm.jmp(block.jumpTo));
+        }
+    }
+
+    /**
+     * @return true if the block begins with a statement that never ran
+     */
+    private boolean isCold(Block block) {
+        for (int i = block.start; i < block.end; i++) {
+            Asm instruction = code.get(i);
+            if(instruction.op.equals(COMMENT)) {
+                String location = Ir.location(instruction.toString());
+                return location != null && profile.isCold(location);
+            }
+            if(!instruction.op.equals(LABEL))
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the code after the block runs after it
+     */
+    private boolean fallsThrough(Block block) {
+        for (int i = block.end - 1; i >= block.start; i--) {
+            Asm instruction = code.get(i);
+            if(!instruction.op.equals(LABEL) && !instruction.op.equals(COMMENT))
+                return !instruction.isJump();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * Which function calls which. Calls in the values of globals are
+ * made at program start, they are roots like the entry point.
+ */
+final class CallGraph {
+
+    static final class Function {
+        final String name;
+
+        /**
+         * the "_Function_"
+         */
+        final int start;
+
+        /**
+         * the "_EndFunction_"
+         */
+        int end;
+        final Set<String> callees = new LinkedHashSet<>();
+
+        Function(String name, int start) {
+            this.name = name;
+            this.start = start;
+        }
+    }
+
+    private final Map<String, Function> functions = new LinkedHashMap<>();
+    private final Set<String> roots = new LinkedHashSet<>();
+
+    private CallGraph() {
+    }
+
+    static CallGraph build(List<String> code) {
+        CallGraph graph = new CallGraph();
+        Function function = null;
+        for (int i = 0; i < code.size(); i++) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.FUNCTION)) {
+                function = new Function(Ir.operand(instruction), i);
+            } else if(Ir.is(instruction, Ir.END_FUNCTION)) {
+                function.end = i;
+                graph.functions.put(function.name, function);
+                function = null;
+            } else if(Ir.is(instruction, Ir.START_FUN) || Ir.is(instruction, Ir.START_FUN_RET)
+                    || Ir.is(instruction, Ir.TAIL_CALL)) {
+                (function == null ? graph.roots : function.callees).add(Ir.operand(instruction));
+            }
+        }
+        if(graph.functions.containsKey(Linker.ENTRY_POINT))
+            graph.roots.add(Linker.ENTRY_POINT);
+        return graph;
+    }
+
+    /**
+     * @return all functions in the order of the code
+     */
+    Collection<Function> functions() {
+        return functions.values();
+    }
+
+    /**
+     * @return the function, null if it is not in the code
+     */
+    Function function(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * @return the entry point and the functions called by globals
+     */
+    Set<String> roots() {
+        return roots;
+    }
+
+    /**
+     * @return the functions that may run, starting from the roots
+     */
+    Set<String> reachable() {
+        Set<String> reachable = new HashSet<>(roots);
+        Deque<String> work = new ArrayDeque<>(roots);
+        while(!work.isEmpty()) {
+            Function function = functions.get(work.pop());
+            if(function == null)
+                continue;
+            for (String callee : function.callees) {
+                if(reachable.add(callee))
+                    work.push(callee);
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * @return true if the function may call itself, directly or through others
+     */
+    boolean isRecursive(String name) {
+        Deque<String> work = new ArrayDeque<>(functions.get(name).callees);
+        Set<String> seen = new HashSet<>();
+        while(!work.isEmpty()) {
+            String callee = work.pop();
+            if(callee.equals(name))
+                return true;
+            Function function = functions.get(callee);
+            if(function != null && seen.add(callee))
+                work.addAll(function.callees);
+        }
+        return false;
+    }
+}
@@ -17,63 +17,246 @@
 package de.loisel.chip.clc;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Compiles the files of one program. For many programs
+ * in one JVM use the {@link BatchCompiler}.
+ * <br>
+ * Also the command line driver, see {@link #main(String[])}.
+ */
 public class Clc {
 
-    Map<String, List<String>> files = new HashMap<>();
-    List<Line> processedLines;
-    List<Line> assemblyProgram;
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_COMPILE_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_IO_ERROR = 3;
+
+    private static final String USAGE = """
+            Usage: clc [options] <source files>
+              -o <file>                  write the assembly to the file, default: first source with ".asm"
+              -O0, -O1, -O2, -Os         optimization level, default: -O0
+              --backend <name>           "registers" or "stack", where values are kept, default: registers
+              --map <file>               write the memory map to the file
+              --profile <file>           optimize for the counts of an earlier run, hot loops and cold blocks
+              --report                   print the time of every phase and optimization pass
+              --parallel                 check the function bodies in parallel
+              --error-limit <n>          stop after n errors, default: %d
+              --max-heap-budget <size>   keep larger sources in temp files, e.g. "512m"
+              -v, --verbose              print the progress
+              -h, --help                 print this help
+            Exit codes: 0 compiled, 1 errors in the sources, 2 wrong options, 3 files could not be read or written
+            """.formatted(Diagnostics.DEFAULT_ERROR_LIMIT);
+
+    private final File[] srcFiles;
+    private final CompilerConfig config;
+    private File outFile;
+    private File mapFile;
+    private CompileResult result;
 
     public Clc(File[] srcFiles) {
-        loadFiles(srcFiles);
+        this(srcFiles, false);
+    }
+
+    /**
+     * @param parallel check and code the function bodies in parallel
+     */
+    public Clc(File[] srcFiles, boolean parallel) {
+        this(srcFiles, parallel, Diagnostics.DEFAULT_ERROR_LIMIT);
+    }
+
+    /**
+     * @param parallel check and code the function bodies in parallel
+     * @param errorLimit stop compiling after this many errors
+     */
+    public Clc(File[] srcFiles, boolean parallel, int errorLimit) {
+        this(srcFiles, CompilerConfig.DEFAULT.withParallel(parallel).withErrorLimit(errorLimit));
+    }
+
+    /**
+     * The files are read by {@link #compile()}
+     */
+    public Clc(File[] srcFiles, CompilerConfig config) {
+        this.srcFiles = srcFiles.clone();
+        this.config = config;
+    }
+
+    /**
+     * Compiles the files given on the command line and exits with one of the exit codes
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the command line driver without exiting
+     * @return the exit code
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        List<File> sources = new ArrayList<>();
+        File outFile = null;
+        File mapFile = null;
+        File profileFile = null;
+        OptLevel optLevel = OptLevel.O0;
+        Backend backend = Backend.REGISTERS;
+        boolean report = false;
+        boolean parallel = false;
+        boolean verbose = false;
+        int errorLimit = Diagnostics.DEFAULT_ERROR_LIMIT;
+        long maxHeapBudget = 0;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-o" -> outFile = new File(value(args, ++i, arg));
+                    case "--map" -> mapFile = new File(value(args, ++i, arg));
+                    case "--profile" -> profileFile = new File(value(args, ++i, arg));
+                    case "--backend" -> backend = Backend.parse(value(args, ++i, arg));
+                    case "--report" -> report = true;
+                    case "--parallel" -> parallel = true;
+                    case "--error-limit" -> errorLimit = Integer.parseInt(value(args, ++i, arg));
+                    case "--max-heap-budget" -> maxHeapBudget = CompilerConfig.parseSize(value(args, ++i, arg));
+                    case "-v", "--verbose" -> verbose = true;
+                    case "-h", "--help" -> {
+                        out.print(USAGE);
+                        return EXIT_OK;
+                    }
+                    default -> {
+                        if(arg.startsWith("-O"))
+                            optLevel = OptLevel.parse(arg);
+                        else if(arg.startsWith("-"))
+                            throw new IllegalArgumentException("Unknown option: \"" + arg + "\"");
+                        else
+                            sources.add(new File(arg));
+                    }
+                }
+            }
+            if(sources.isEmpty())
+                throw new IllegalArgumentException("No source files given");
+        } catch (IllegalArgumentException e) {
+            err.println("clc: " + e.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        CompilerConfig config;
+        try {
+            Profile profile = profileFile == null ? Profile.EMPTY
+                    : Profile.parse(Files.readAllLines(profileFile.toPath()));
+            config = CompilerConfig.DEFAULT.withParallel(parallel).withErrorLimit(errorLimit).withVerbose(verbose)
+                    .withMaxHeapBudget(maxHeapBudget).withOptLevel(optLevel).withBackend(backend).withProfile(profile);
+        } catch (IllegalArgumentException e) {
+            err.println("clc: " + e.getMessage());
+            return EXIT_USAGE;
+        } catch (IOException e) {
+            err.println("clc: " + e.getMessage());
+            return EXIT_IO_ERROR;
+        }
+
+        Clc clc = new Clc(sources.toArray(new File[0]), config);
+        clc.outFile = outFile != null ? outFile : defaultOutFile(sources.get(0));
+        clc.mapFile = mapFile;
+        try {
+            clc.compile();
+        } catch (ClcException | DiagnosticsException e) {
+            err.println(e.getMessage());
+            return EXIT_COMPILE_ERROR;
+        } catch (UncheckedIOException e) {
+            err.println("clc: " + e.getCause().getMessage());
+            return EXIT_IO_ERROR;
+        }
+
+        if(report)
+            report(clc.result, out);
+        return EXIT_OK;
+    }
+
+    /**
+     * Sets the file the assembly is written to, nothing is written if it is null
+     */
+    public void setOutFile(File outFile) {
+        this.outFile = outFile;
     }
 
+    /**
+     * Sets the file the memory map is written to, nothing is written if it is null
+     */
+    public void setMapFile(File mapFile) {
+        this.mapFile = mapFile;
+    }
+
+    /**
+     * @throws UncheckedIOException if a file can not be read or written
+     */
     public void compile() {
         long startTime = System.currentTimeMillis();
-        
-        Preprocessor processor;
-        Compiler compiler;
-
-        processor= new Preprocessor(files);
-        processedLines = processor.process();
 
-        compiler = new Compiler(processedLines);
-        assemblyProgram = compiler.compile();
-        saveFile(assemblyProgram);
+        result = BatchCompiler.compile(loadFiles(), config);
+        saveFile(outFile, () -> result.assembly.stream().map(line -> line.s).iterator());
+        saveFile(mapFile, result.memoryMap);
 
         message("Took "
                 + (((double)System.currentTimeMillis() - (double)startTime) / 1000)
                 + " seconds to compile.");
     }
 
-    private void saveFile(List<Line> file) {
-
+    /**
+     * @return the result of the last compile, null before
+     */
+    public CompileResult getResult() {
+        return result;
     }
 
-    private void loadFiles(File[] srcFiles) {
-
-        for (File file : srcFiles) {
-            try(BufferedReader br = new BufferedReader(new FileReader(file))) {
+    private static String value(String[] args, int index, String option) {
+        if(index >= args.length)
+            throw new IllegalArgumentException("Missing value of " + option);
+        return args[index];
+    }
 
-                List<String> content = new ArrayList<>();
+    private static File defaultOutFile(File source) {
+        String name = source.getName();
+        if(name.endsWith(".clc"))
+            name = name.substring(0, name.length() - ".clc".length());
+        return new File(source.getAbsoluteFile().getParentFile(), name + ".asm");
+    }
 
-                for(String line; (line = br.readLine()) != null; ) {
-                    content.add(line);
-                }
+    private static void report(CompileResult result, PrintStream out) {
+        out.printf("clc: check %.2f ms, link %.2f ms, optimize %.2f ms, generate %.2f ms%n",
+                result.checkNanos / 1e6, result.linkNanos / 1e6, result.optimizeNanos / 1e6, result.generateNanos / 1e6);
+        for (PassManager.Report pass : result.passes) {
+            out.println("clc:   " + pass);
+        }
+        for (FrameLayout.Frame frame : result.frames.getFrames()) {
+            out.println("clc:   " + frame);
+        }
+    }
 
-                files.put(file.getAbsolutePath(), content);
+    /**
+     * @param lines written one at a time, they are not collected first
+     */
+    private static void saveFile(File file, Iterable<String> lines) {
+        if(file == null)
+            return;
+        try {
+            Files.write(file.toPath(), lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private Project loadFiles() {
+        try {
+            return Project.load(srcFiles.length > 0 ? srcFiles[0].getName() : "", config, srcFiles);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
     private void message(String msg) {
-        System.out.println("clc-Compiler: " + msg);
+        if(config.verbose)
+            System.out.println("clc-Compiler: " + msg);
     }
-}
\ No newline at end of file
+}
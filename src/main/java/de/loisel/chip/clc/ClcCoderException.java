@@ -16,10 +16,10 @@
 
 package de.loisel.chip.clc;
 
-public class ClcCoderException extends RuntimeException {
+public class ClcCoderException extends ClcException {
 
     public ClcCoderException(int line, String message, String fileName) {
-        super("File " + fileName + ": Coder in line " + line + ": " + message);
+        super("Coder", fileName, line, message);
     }
 
 }
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * An open source file that is kept in memory and checked incrementally.
+ * An edit only re-lexes the changed lines and only the top-level
+ * declarations overlapping the edit are checked again, as long as the
+ * names of the functions and globals stay the same.
+ * All line numbers of this class start at 0.
+ */
+public class ClcDocument {
+
+    public static class Diagnostic {
+        public final int line;
+        public final String message;
+
+        Diagnostic(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+
+    public enum SymbolKind {
+        FUNCTION, VARIABLE, KEYWORD,
+    }
+
+    public static class Symbol {
+        public final String name;
+        public final SymbolKind kind;
+        public final int line;
+
+        Symbol(String name, SymbolKind kind, int line) {
+            this.name = name;
+            this.kind = kind;
+            this.line = line;
+        }
+    }
+
+    /**
+     * A top-level declaration. Positions are line and token index,
+     * the results of the last check are relative to firstLine.
+     */
+    private static final class Declaration {
+        static final int OTHER = 0;
+        static final int VARIABLE = 1;
+        static final int ARRAY = 2;
+        static final int FUNCTION = 3;
+
+        int kind = OTHER;
+        int firstLine;
+        int firstToken;
+        int lastLine;
+        int lastToken;
+        String type = "";
+        String name = "";
+
+        List<Diagnostic> diagnostics;
+        List<Symbol> symbols;
+
+        boolean sameSignature(Declaration other) {
+            return kind == other.kind && type.equals(other.type) && name.equals(other.name);
+        }
+    }
+
+    private final Line file;
+    private final List<String> text = new ArrayList<>();
+    private TokenBuffer tokens;
+    private List<Declaration> declarations = new ArrayList<>();
+    private List<Diagnostic> signatureErrors = new ArrayList<>();
+    private int checkedDeclarations;
+
+    public ClcDocument(String absPath, String content) {
+        this.file = new Line(absPath, "", 0);
+        setText(content);
+    }
+
+    /**
+     * Replaces the whole content, everything is checked again
+     */
+    public void setText(String content) {
+        text.clear();
+        text.addAll(splitText(content));
+        tokens = TokenBuffer.tokenize(file.absPath, text);
+        declarations = new ArrayList<>();
+        update(0, -1, 0);
+    }
+
+    /**
+     * Replaces a range of the content. Positions are given
+     * like in the language server protocol.
+     * @param endChar exclusive
+     */
+    public void applyChange(int startLine, int startChar, int endLine, int endChar, String newText) {
+        if(endLine >= text.size()) {        // range reaches the end of the document
+            endLine = text.size() - 1;
+            endChar = text.get(endLine).length();
+        }
+        startChar = Math.min(startChar, text.get(startLine).length());
+        endChar = Math.min(endChar, text.get(endLine).length());
+
+        String prefix = text.get(startLine).substring(0, startChar);
+        String suffix = text.get(endLine).substring(endChar);
+        List<String> newLines = splitText(prefix + newText + suffix);
+
+        List<String> textRange = text.subList(startLine, endLine + 1);
+        textRange.clear();
+        textRange.addAll(newLines);
+        tokens = tokens.relex(text, List.of(new TokenBuffer.Edit(startLine, endLine - startLine + 1, newLines.size())));
+
+        update(startLine, startLine + newLines.size() - 1, newLines.size() - (endLine - startLine + 1));
+    }
+
+    public int lineCount() {
+        return text.size();
+    }
+
+    public String getLine(int line) {
+        return text.get(line);
+    }
+
+    /**
+     * @return how many declarations the last edit checked
+     */
+    public int getCheckedDeclarations() {
+        return checkedDeclarations;
+    }
+
+    public List<Diagnostic> getDiagnostics() {
+        List<Diagnostic> all = new ArrayList<>(signatureErrors);
+        for (Declaration declaration : declarations) {
+            for (Diagnostic diagnostic : declaration.diagnostics) {
+                all.add(new Diagnostic(declaration.firstLine + diagnostic.line, diagnostic.message));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * @return the definition of the name at the position, null if there is none
+     */
+    public Symbol findDefinition(int line, int character) {
+        String name = nameAt(line, character);
+        if(name.isEmpty())
+            return null;
+
+        Symbol found = null;
+        Declaration enclosing = enclosingDeclaration(line);
+        if(enclosing != null) {
+            for (Symbol symbol : enclosing.symbols) {
+                int symbolLine = enclosing.firstLine + symbol.line;
+                if(symbol.name.equals(name) && (found == null || symbolLine <= line))
+                    found = new Symbol(symbol.name, symbol.kind, symbolLine);
+            }
+        }
+        if(found != null)
+            return found;
+
+        for (Symbol symbol : globalSymbols()) {
+            if(symbol.name.equals(name))
+                return symbol;
+        }
+        return null;
+    }
+
+    /**
+     * @return the keywords, globals and the locals defined before the position
+     */
+    public List<Symbol> getCompletions(int line, int character) {
+        String value = text.get(line);
+        String prefix = value.substring(nameStart(line, character), Math.min(character, value.length()));
+
+        List<Symbol> completions = new ArrayList<>();
+        for (String keyword : Compiler.LANG_KEYWORDS) {
+            if(keyword.startsWith(prefix))
+                completions.add(new Symbol(keyword, SymbolKind.KEYWORD, -1));
+        }
+        for (Symbol symbol : globalSymbols()) {
+            if(symbol.name.startsWith(prefix))
+                completions.add(symbol);
+        }
+
+        Declaration enclosing = enclosingDeclaration(line);
+        if(enclosing != null && enclosing.kind == Declaration.FUNCTION) {
+            for (Symbol symbol : enclosing.symbols) {
+                int symbolLine = enclosing.firstLine + symbol.line;
+                if(symbol.kind != SymbolKind.FUNCTION && symbolLine <= line && symbol.name.startsWith(prefix))
+                    completions.add(new Symbol(symbol.name, symbol.kind, symbolLine));
+            }
+        }
+        return completions;
+    }
+
+    /**
+     * Scans the declarations from the first one overlapping the edit,
+     * until the scan is back at the start of an old declaration.
+     * @param editStart first line of the new content
+     * @param editEnd last line of the new content
+     * @param lineShift how many lines were added by the edit
+     */
+    private void update(int editStart, int editEnd, int lineShift) {
+        List<Declaration> old = declarations;
+
+        // declarations before the edit stay the same
+        int kept = 0;
+        while(kept < old.size() && old.get(kept).lastLine < editStart)
+            kept++;
+        declarations = new ArrayList<>(old.subList(0, kept));
+
+        Cursor cursor = new Cursor();
+        if(kept > 0) {
+            cursor.line = old.get(kept - 1).lastLine;
+            cursor.token = old.get(kept - 1).lastToken;
+            cursor.next();
+        }
+        cursor.skipEmpty();
+
+        int synced = old.size();
+        int oldIndex = kept;
+        while(cursor.valid()) {
+            if(cursor.line > editEnd) {
+                int oldLine = cursor.line - lineShift;
+                while(oldIndex < old.size() && (old.get(oldIndex).firstLine < oldLine
+                        || old.get(oldIndex).firstLine == oldLine && old.get(oldIndex).firstToken < cursor.token))
+                    oldIndex++;
+                if(oldIndex < old.size() && old.get(oldIndex).firstLine == oldLine
+                        && old.get(oldIndex).firstToken == cursor.token) {
+                    synced = oldIndex;
+                    break;
+                }
+            }
+            declarations.add(scanDeclaration(cursor));
+            cursor.next();
+            cursor.skipEmpty();
+        }
+        int rescannedEnd = declarations.size();
+
+        // declarations after the edit only move
+        for (Declaration declaration : old.subList(synced, old.size())) {
+            declaration.firstLine += lineShift;
+            declaration.lastLine += lineShift;
+            declarations.add(declaration);
+        }
+
+        boolean signaturesChanged = synced - kept != rescannedEnd - kept;
+        for (int i = kept; !signaturesChanged && i < rescannedEnd; i++) {
+            if(!old.get(i).sameSignature(declarations.get(i)))
+                signaturesChanged = true;
+        }
+
+        if(signaturesChanged)
+            signatureErrors = checkSignatures();
+
+        // one coder for all declarations, like in a full compile
+        Coder coder = new Coder();
+        for (Declaration declaration : declarations) {
+            if(declaration.kind == Declaration.FUNCTION && !coder.isFunction(declaration.name))
+                coder.functionSignature(new Line(declaration.type, file, 0), new Line(declaration.name, file, 0));
+        }
+
+        checkedDeclarations = 0;
+        for (int i = 0; i < declarations.size(); i++) {
+            Declaration declaration = declarations.get(i);
+            boolean rescanned = i >= kept && i < rescannedEnd;
+
+            if(signaturesChanged || rescanned) {
+                check(declaration, coder);
+                checkedDeclarations++;
+            } else if(declaration.kind == Declaration.VARIABLE || declaration.kind == Declaration.ARRAY) {
+                coder.declareGlobal(declaration.name, declaration.kind == Declaration.ARRAY);
+            }
+        }
+    }
+
+    /**
+     * Checks a single declaration
+     * @param coder knows all functions and the globals declared before
+     */
+    private void check(Declaration declaration, Coder coder) {
+        List<Line> lines = new ArrayList<>();
+        for (int l = declaration.firstLine; l <= declaration.lastLine; l++) {
+            int from = l == declaration.firstLine ? declaration.firstToken : 0;
+            int to = l == declaration.lastLine ? declaration.lastToken : lineSize(l) - 1;
+            for (int t = from; t <= to; t++) {
+                // line numbers relative to the declaration, starting at 1 like in the compiler
+                lines.add(new Line(tokens.token(l, t), file, l - declaration.firstLine + 1));
+            }
+        }
+
+        int firstDefinition = coder.getDefinitions().size();
+        Diagnostics diagnostics = new Diagnostics(Integer.MAX_VALUE);
+        try {
+            SyntaxCheck.checkDeclarations(lines, coder, diagnostics);
+        } catch (RuntimeException e) {      // an error the checker did not expect, still show it
+            diagnostics.report(e);
+        }
+        coder.takeCode();
+
+        declaration.diagnostics = new ArrayList<>();
+        for (RuntimeException error : diagnostics.getErrors()) {
+            int line = 0;
+            String message = error.getMessage();
+            if(error instanceof ClcException clcError) {
+                line = Math.max(0, clcError.getLineNumber() - 1);
+                message = clcError.getDetail();
+            }
+            declaration.diagnostics.add(new Diagnostic(line, message));
+        }
+
+        declaration.symbols = new ArrayList<>();
+        List<Line> definitions = coder.getDefinitions();
+        for (Line definition : definitions.subList(firstDefinition, definitions.size())) {
+            SymbolKind kind = coder.isFunction(definition.s) ? SymbolKind.FUNCTION : SymbolKind.VARIABLE;
+            declaration.symbols.add(new Symbol(definition.s, kind, definition.num - 1));
+        }
+    }
+
+    /**
+     * Reports functions that are defined more than once,
+     * globals are reported when they are checked
+     */
+    private List<Diagnostic> checkSignatures() {
+        List<Diagnostic> errors = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Declaration declaration : declarations) {
+            if(declaration.kind != Declaration.FUNCTION)
+                continue;
+            if(!names.add(declaration.name))
+                errors.add(new Diagnostic(declaration.firstLine,
+                        "Name \"" + declaration.name + "\" already exists"));
+        }
+        return errors;
+    }
+
+    private List<Symbol> globalSymbols() {
+        List<Symbol> symbols = new ArrayList<>();
+        for (Declaration declaration : declarations) {
+            if(declaration.kind == Declaration.OTHER || !SyntaxCheck.isVariableName(declaration.name))
+                continue;
+            SymbolKind kind = declaration.kind == Declaration.FUNCTION ? SymbolKind.FUNCTION : SymbolKind.VARIABLE;
+            symbols.add(new Symbol(declaration.name, kind, declaration.firstLine));
+        }
+        return symbols;
+    }
+
+    private Declaration enclosingDeclaration(int line) {
+        for (Declaration declaration : declarations) {
+            if(declaration.firstLine <= line && line <= declaration.lastLine)
+                return declaration;
+        }
+        return null;
+    }
+
+    /*
+        ===========================
+        =====  DECLARATIONS  ======
+        ===========================
+     */
+
+    /**
+     * Finds the end of the top-level declaration at the cursor the same way
+     * as the SyntaxCheck does. Broken statements are kept as declarations of
+     * kind OTHER, so that their errors are reported when they are checked.
+     * @param cursor moved to the last token of the declaration
+     */
+    private static Declaration scanDeclaration(Cursor cursor) {
+        Declaration declaration = new Declaration();
+        declaration.firstLine = cursor.line;
+        declaration.firstToken = cursor.token;
+
+        String first = cursor.get(0);
+        if(first.equals("int") && "[".equals(cursor.get(1)) && "]".equals(cursor.get(2))) {
+            declaration.kind = Declaration.ARRAY;
+            declaration.name = Objects.requireNonNullElse(cursor.get(3), "");
+            cursor.skipTo(";");
+        } else if(first.equals("int") && "=".equals(cursor.get(2))) {
+            declaration.kind = Declaration.VARIABLE;
+            declaration.name = cursor.get(1);
+            cursor.skipTo(";");
+        } else if((first.equals("int") || first.equals("void")) && "(".equals(cursor.get(2))) {
+            declaration.kind = Declaration.FUNCTION;
+            declaration.type = first;
+            declaration.name = cursor.get(1);
+            cursor.skipBlock();
+        } else {
+            cursor.skipStatement();
+        }
+
+        declaration.lastLine = cursor.line;
+        declaration.lastToken = cursor.token;
+        return declaration;
+    }
+
+    /**
+     * Position of a token
+     */
+    private final class Cursor {
+        int line = 0;
+        int token = 0;
+
+        boolean valid() {
+            return line < tokens.lineCount();
+        }
+
+        /**
+         * @return the token ahead of the current one, null at the end
+         */
+        String get(int ahead) {
+            int l = line;
+            int t = token + ahead;
+            while(l < tokens.lineCount() && t >= lineSize(l)) {
+                t -= lineSize(l);
+                l++;
+            }
+            return l < tokens.lineCount() ? tokens.token(l, t) : null;
+        }
+
+        void next() {
+            token++;
+            if(token >= lineSize(line)) {
+                line++;
+                token = 0;
+                skipEmpty();
+            }
+        }
+
+        void skipEmpty() {
+            while(line < tokens.lineCount() && lineSize(line) == 0)
+                line++;
+        }
+
+        /**
+         * Moves to the next value, stays at the last token if there is none
+         */
+        void skipTo(String value) {
+            while(!get(0).equals(value) && hasNext())
+                next();
+        }
+
+        void skipBlock() {
+            int depth = 0;
+            while(true) {
+                String value = get(0);
+                if(value.equals("{")) {
+                    depth++;
+                } else if(value.equals("}")) {
+                    depth--;
+                    if(depth <= 0)
+                        return;
+                }
+                if(!hasNext())
+                    return;
+                next();
+            }
+        }
+
+        void skipStatement() {
+            int depth = 0;
+            while(true) {
+                String value = get(0);
+                if(value.equals("{")) {
+                    depth++;
+                } else if(value.equals("}")) {
+                    depth--;
+                    if(depth <= 0)
+                        return;
+                } else if(value.equals(";") && depth == 0) {
+                    return;
+                }
+                if(!hasNext())
+                    return;
+                next();
+            }
+        }
+
+        boolean hasNext() {
+            return get(1) != null;
+        }
+    }
+
+    /*
+        ===========================
+        =========  TOOLS  =========
+        ===========================
+     */
+
+    /**
+     * @return the number of tokens to check in the line
+     */
+    private int lineSize(int line) {
+        return tokens.isCommand(line) ? 0 : tokens.lineSize(line);     // preprocessor commands are not checked
+    }
+
+    private static List<String> splitText(String content) {
+        return Arrays.asList(content.split("\r?\n", -1));
+    }
+
+    private String nameAt(int line, int character) {
+        String value = text.get(line);
+        int start = nameStart(line, character);
+        int end = Math.min(character, value.length());
+        while(end < value.length() && isNamePart(value.charAt(end)))
+            end++;
+        return value.substring(start, end);
+    }
+
+    private int nameStart(int line, int character) {
+        String value = text.get(line);
+        int start = Math.min(character, value.length());
+        while(start > 0 && isNamePart(value.charAt(start - 1)))
+            start--;
+        return start;
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
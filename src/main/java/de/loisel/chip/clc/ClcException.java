@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+/**
+ * Base of all errors found in clc source code.
+ * Keeps the position of the error apart from the message.
+ */
+public abstract class ClcException extends RuntimeException {
+
+    private final String fileName;
+    private final int lineNumber;
+    private final String detail;
+
+    /**
+     * @param stage The stage that found the error, e.g. "Compiler"
+     */
+    protected ClcException(String stage, String fileName, int lineNumber, String detail) {
+        super("File " + fileName + ": " + stage + " in line " + lineNumber + ": " + detail, null, false, false);
+        this.fileName = fileName;
+        this.lineNumber = lineNumber;
+        this.detail = detail;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the message without file name and line number
+     */
+    public String getDetail() {
+        return detail;
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Walks the linked code and writes the LoChip assembly of it, the
+ * frames, labels, jumps and calls are the same for every backend.
+ * The backends only decide where the values of an expression are kept
+ * while it is evaluated. The code of the {@link Coder} evaluates its
+ * expressions in reverse polish notation, so a backend sees them as
+ * pushes and operations on a stack of values.
+ * <br>
+ * The code outside of functions is collected into the start routine.
+ */
+abstract class CodeGenerator {
+
+    static final String START = ".start";
+
+    /**
+     * Bytes between the frame pointer and the last argument, the saved
+     * frame pointer and the return address
+     */
+    static final int ARGUMENTS_OFFSET = 2 * MemoryLayout.WORD_SIZE;
+
+    private final List<String> code;
+    private final FrameLayout frames;
+    private final Map<String, Integer> globals = new HashMap<>();
+    private final List<Asm> out = new ArrayList<>();
+
+    /**
+     * the frame of the current function, an empty frame in the start routine
+     */
+    FrameLayout.Frame frame;
+    String function;
+    private final Map<String, FrameLayout.Slot> locals = new HashMap<>();
+    private final List<FrameLayout.Slot> parameters = new ArrayList<>();
+    private int loopDepth;
+
+    CodeGenerator(List<String> code, MemoryLayout memoryLayout, FrameLayout frames) {
+        this.code = code;
+        this.frames = frames;
+        for (MemoryLayout.Entry entry : memoryLayout.getEntries()) {
+            globals.put(entry.name, entry.address());
+        }
+    }
+
+    /**
+     * Writes the data of the globals, the start routine and then every
+     * function, one at a time, so only the assembly of one function is
+     * kept on the heap.
+     * @param sink receives the data, the start routine and every function,
+     *             the list is cleared when it returns
+     */
+    void generate(Consumer<List<Asm>> sink) {
+        // arrays and globals whose values are numbers are data
+        int depth = 0;
+        for (int i = 0; i < code.size(); i++) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.FUNCTION))
+                depth++;
+            else if(Ir.is(instruction, Ir.END_FUNCTION))
+                depth--;
+            else if(Ir.is(instruction, Ir.DATA_ARRAY))
+                out.add(Asm.word(String.format(Locale.ROOT, "0x%04X %s",
+                        global(Ir.operand(instruction).split(" ")[0]), Ir.operand(code.get(i + 1)))));
+            else if(depth == 0 && isConstantGlobal(i))
+                out.add(Asm.word(String.format(Locale.ROOT, "0x%04X %s",
+                        global(Ir.operand(instruction)), Ir.operand(code.get(i + 2)))));
+        }
+        flush(sink);
+
+        // the values of the other globals, then the entry point
+        out.add(Asm.label(START));
+        beginFunction(START, null);
+        for (int i = 0; i < code.size(); i++) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.FUNCTION))
+                depth++;
+            else if(Ir.is(instruction, Ir.END_FUNCTION))
+                depth--;
+            else if(depth == 0 && isConstantGlobal(i))
+                i += 4;
+            else if(depth == 0 && !isDeclaration(i))
+                instruction(i);
+        }
+        if(frames.frame(Linker.ENTRY_POINT) != null)
+            call(Linker.ENTRY_POINT, 0, false);
+        out.add(Asm.halt());
+        endFunction();
+        flush(sink);
+
+        for (int i = 0; i < code.size(); i++) {
+            if(!Ir.is(code.get(i), Ir.FUNCTION))
+                continue;
+            String name = Ir.operand(code.get(i));
+            if(isDeclaration(i - 1))
+                instruction(i - 1);
+            out.add(Asm.label(name));
+            beginFunction(name, frames.frame(name));
+            if(parameters.isEmpty())
+                out.add(Asm.label(label("body")));
+            i++;
+            while(!Ir.is(code.get(i), Ir.END_FUNCTION)) {
+                instruction(i);
+                i++;
+            }
+            out.add(Asm.label(label("return")));
+            epilogue();
+            endFunction();
+            flush(sink);
+        }
+    }
+
+    private void flush(Consumer<List<Asm>> sink) {
+        sink.accept(out);
+        out.clear();
+    }
+
+    // the values of the current expression
+
+    abstract void constant(int value);
+
+    abstract void load(String variable);
+
+    /**
+     * Takes the two top values and puts the result of the operator
+     */
+    abstract void operator(String operator);
+
+    /**
+     * Takes the index and puts the element
+     */
+    abstract void loadElement(String array);
+
+    /**
+     * Takes the value
+     */
+    abstract void store(String variable);
+
+    /**
+     * Takes the value and then the index
+     */
+    abstract void storeElement(String array);
+
+    /**
+     * Takes the value of an element of an array initializer
+     */
+    abstract void storeElement(String array, int index);
+
+    abstract void clearArray(String array, int words);
+
+    /**
+     * Takes the value and pushes it as the next argument of a call
+     */
+    abstract void argument();
+
+    /**
+     * Calls the function, its arguments were pushed before
+     * @param value true if the returned value is used
+     */
+    abstract void call(String function, int arguments, boolean value);
+
+    /**
+     * Writes the pushed arguments to the parameters and starts the current function again
+     */
+    abstract void tailCall(int arguments);
+
+    /**
+     * Takes the returned value
+     */
+    abstract void returnValue();
+
+    /**
+     * Takes the condition and jumps if it is 0
+     * @param op {@link Asm#JZ}, or {@link Asm#JNZ} to jump if it is not 0
+     */
+    abstract void branch(String op, String label);
+
+    /**
+     * Takes the two values of a condition and jumps if their comparison holds
+     * @param op {@link Asm#BEQ} to {@link Asm#BLE}
+     */
+    abstract void compare(String op, String label);
+
+    /**
+     * @param index position of the parameter, the caller pushes the first one first
+     */
+    abstract void parameter(int index, FrameLayout.Slot slot);
+
+    /**
+     * Starts the current function, after its label
+     */
+    abstract void prologue();
+
+    /**
+     * Leaves the current function, after its return label
+     */
+    abstract void epilogue();
+
+    /**
+     * The current function or start routine is written
+     */
+    abstract void end();
+
+    void emit(Asm instruction) {
+        instruction.depth = loopDepth;
+        out.add(instruction);
+    }
+
+    /**
+     * @return the instructions of the current function written so far
+     */
+    List<Asm> out() {
+        return out;
+    }
+
+    /**
+     * @return the label of the current function with the suffix
+     */
+    String label(String suffix) {
+        return function + "." + suffix;
+    }
+
+    /**
+     * @return the slot of a local, null for globals
+     */
+    FrameLayout.Slot local(String name) {
+        return locals.get(name);
+    }
+
+    /**
+     * @return the address of a global
+     */
+    int global(String name) {
+        Integer address = globals.get(name);
+        if(address == null)
+            throw new IllegalStateException("Unknown global \"" + name + "\"");
+        return address;
+    }
+
+    List<FrameLayout.Slot> parameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the offset of the slot from the frame pointer, the first word of an array
+     */
+    static int offset(FrameLayout.Slot slot) {
+        return -MemoryLayout.WORD_SIZE * (slot.offset() + slot.words);
+    }
+
+    /**
+     * @return the offset of an argument from the frame pointer
+     */
+    int argumentOffset(int index) {
+        return ARGUMENTS_OFFSET + MemoryLayout.WORD_SIZE * (parameters.size() - 1 - index);
+    }
+
+    private void beginFunction(String name, FrameLayout.Frame frame) {
+        this.function = name;
+        this.frame = frame;
+        locals.clear();
+        parameters.clear();
+        branches.clear();
+        elses.clear();
+        if(frame != null) {
+            for (FrameLayout.Slot slot : frame.getSlots()) {
+                if(slot.kind.equals("param"))
+                    parameters.add(slot);
+            }
+        }
+        prologue();
+    }
+
+    private void endFunction() {
+        end();
+        frame = null;
+    }
+
+    /**
+     * Open calls and array accesses of the current expression
+     */
+    private final Deque<String> calls = new ArrayDeque<>();
+    private final Deque<Integer> arguments = new ArrayDeque<>();
+    private final Deque<String> arrays = new ArrayDeque<>();
+    private String newArray;
+
+    /**
+     * branches of every if, the next one starts at "if{label}.{branch}"
+     */
+    private final Map<Integer, Integer> branches = new HashMap<>();
+    private final Set<Integer> elses = new HashSet<>();
+
+    /**
+     * the bool operator that ends the current condition, it is not computed
+     * but fused with the branch
+     */
+    private String comparison;
+
+    /**
+     * the code of every open loop condition, it is moved below the body
+     */
+    private final Deque<Integer> conditionStarts = new ArrayDeque<>();
+    private final Map<Integer, List<Asm>> conditions = new HashMap<>();
+
+    private void instruction(int i) {
+        String instruction = code.get(i);
+        String operand = Ir.operand(instruction);
+        switch (Ir.opcode(instruction)) {
+            case "#" -> out.add(Asm.comment(instruction.substring(1).strip()));
+            case Ir.PARAMETER -> {
+                FrameLayout.Slot slot = frame.slot(i);
+                locals.put(slot.name, slot);
+                parameter(Integer.parseInt(operand.substring(0, operand.indexOf(' '))), slot);
+                if(!Ir.is(code.get(i + 1), Ir.PARAMETER))
+                    out.add(Asm.label(label("body")));
+            }
+            case Ir.NEW_INT -> {
+                if(frame != null)
+                    locals.put(operand, frame.slot(i));
+            }
+            case Ir.END_NEW_INT, Ir.END_SET_INT -> store(operand);
+            case Ir.INT_VAL -> constant(Integer.parseInt(operand));
+            case Ir.INT_VAR -> load(operand);
+            case Ir.OPERATOR -> {
+                if(isComparison(i))
+                    comparison = operand;
+                else
+                    operator(operand);
+            }
+            case Ir.START_ARRAY_VAL -> arrays.push(operand);
+            case Ir.END_ARRAY_VAL -> loadElement(arrays.pop());
+            case Ir.END_SET_ARRAY_VAL -> storeElement(operand);
+            case Ir.NEW_ARRAY -> {
+                String[] operands = operand.split(" ");
+                newArray = operands[0];
+                if(frame != null)
+                    locals.put(newArray, frame.slot(i));
+                if(Ir.is(code.get(i + 1), Ir.END_NEW_ARRAY))
+                    clearArray(newArray, Integer.parseInt(operands[1]));
+            }
+            case Ir.END_ARRAY_ELEMENT -> storeElement(newArray, Integer.parseInt(operand));
+            case Ir.START_FUN, Ir.START_FUN_RET, Ir.TAIL_CALL -> {
+                calls.push(operand);
+                arguments.push(0);
+            }
+            case Ir.END_FUN_ARGUMENT -> {
+                argument();
+                arguments.push(arguments.pop() + 1);
+            }
+            case Ir.END_FUN, Ir.END_FUN_RET -> call(calls.pop(), arguments.pop(), Ir.is(instruction, Ir.END_FUN_RET));
+            case Ir.END_TAIL_CALL -> {
+                calls.pop();
+                tailCall(arguments.pop());
+            }
+            case Ir.END_RETURN -> {
+                if(Ir.is(code.get(i - 1), Ir.END_INT_VALUE))
+                    returnValue();
+                emit(Asm.jmp(label("return")));
+            }
+            case Ir.IF -> {
+                branches.put(Ir.label(instruction), 0);
+                elses.remove(Ir.label(instruction));
+            }
+            case Ir.THEN -> condition(nextBranch(Ir.label(instruction)), false);
+            case Ir.ELSE_IF, Ir.ELSE -> {
+                int label = Ir.label(instruction);
+                emit(Asm.jmp(label("if" + label + ".end")));
+                out.add(Asm.label(nextBranch(label)));
+                branches.merge(label, 1, Integer::sum);
+                if(Ir.is(instruction, Ir.ELSE))
+                    elses.add(label);
+            }
+            case Ir.END_IF -> {
+                int label = Ir.label(instruction);
+                if(!elses.contains(label))
+                    out.add(Asm.label(nextBranch(label)));
+                out.add(Asm.label(label("if" + label + ".end")));
+            }
+            // the condition is tested below the body, so a pass of the loop takes one branch
+            case Ir.WHILE -> {
+                emit(Asm.jmp(label("while" + Ir.label(instruction))));
+                loopDepth++;
+                conditionStarts.push(out.size());
+            }
+            case Ir.DO -> {
+                int label = Ir.label(instruction);
+                condition(label("while" + label + ".body"), true);
+                List<Asm> condition = out.subList(conditionStarts.pop(), out.size());
+                conditions.put(label, new ArrayList<>(condition));
+                condition.clear();
+                out.add(Asm.label(label("while" + label + ".body")));
+            }
+            case Ir.END_WHILE -> {
+                int label = Ir.label(instruction);
+                out.add(Asm.label(label("while" + label)));
+                out.addAll(conditions.remove(label));
+                loopDepth--;
+                out.add(Asm.label(label("while" + label + ".end")));
+            }
+            default -> {
+                // the start and end of values, statements and data
+            }
+        }
+    }
+
+    /**
+     * Jumps on the condition that was just evaluated
+     * @param jumpIf jumps if the condition is true, else if it is false
+     */
+    private void condition(String label, boolean jumpIf) {
+        if(comparison == null) {
+            branch(jumpIf ? Asm.JNZ : Asm.JZ, label);
+            return;
+        }
+        String op = Asm.comparison(comparison);
+        compare(jumpIf ? op : Asm.invert(op), label);
+        comparison = null;
+    }
+
+    /**
+     * @return true for a bool operator that is the last one of a condition
+     */
+    private boolean isComparison(int i) {
+        return Compiler.BOOL_OPERATORS.contains(Ir.operand(code.get(i)))
+                && Ir.is(code.get(i + 1), Ir.END_INT_VALUE)
+                && (Ir.is(code.get(i + 2), Ir.THEN) || Ir.is(code.get(i + 2), Ir.DO));
+    }
+
+    /**
+     * @return true for the "_NewInt_" of an int whose value is a number,
+     * "_IntValue_ ", "_IntVal_ v", "_EndIntValue_ " and "_EndNewInt_" follow it
+     */
+    private boolean isConstantGlobal(int i) {
+        return Ir.is(code.get(i), Ir.NEW_INT) && Ir.is(code.get(i + 2), Ir.INT_VAL)
+                && Ir.is(code.get(i + 3), Ir.END_INT_VALUE);
+    }
+
+    /**
+     * @return true for the comment before a function
+     */
+    private boolean isDeclaration(int i) {
+        return i >= 0 && i + 1 < code.size() && Ir.isComment(code.get(i)) && Ir.is(code.get(i + 1), Ir.FUNCTION);
+    }
+
+    private String nextBranch(int label) {
+        return label("if" + label + "." + (branches.get(label) + 1));
+    }
+}
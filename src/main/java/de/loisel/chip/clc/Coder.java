@@ -16,11 +16,8 @@
 
 package de.loisel.chip.clc;
 
-import de.loisel.chip.clc.gfg.ShuntingYard;
-
 import java.util.*;
-
-import static de.loisel.chip.clc.SyntaxCheck.isVariableName;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class to create a temporary code that is
@@ -32,79 +29,670 @@ class Coder {
     private List<String> clcCode;
 
     private Map<String, String> functions = new HashMap<>();
-    private Deque<List<String>> lvlVariables = new ArrayDeque<>();
-    private Deque<List<String>> lvlArrays = new ArrayDeque<>();
+    private final Scopes lvlVariables;
+    private final Scopes lvlArrays;
+
+    private final MemoryLayout memoryLayout;
+
+    /**
+     * Names defined by other object units, see {@link #importSymbol(ObjectUnit.Symbol)}
+     */
+    private Set<String> imports = new HashSet<>();
+
+    /**
+     * First use of every imported name, resolved later by the linker
+     */
+    private Map<String, Line> references = new ConcurrentHashMap<>();
+
+    /**
+     * Name of every function, variable and array defined by this coder
+     */
+    private final List<Line> definitions = new ArrayList<>();
+    private final boolean localDefinitions;
+
+    /**
+     * Next label of an if condition or a while loop, counted per function
+     */
+    private int labels;
 
     public Coder() {
+        this(new ArrayList<>(), true);
+    }
+
+    /**
+     * @param code Buffer the code is written to, e.g. a list that is kept in a temp file
+     * @param localDefinitions if false, only functions and globals are kept as definitions
+     */
+    public Coder(List<String> code, boolean localDefinitions) {
+        clcCode = code;
+        this.localDefinitions = localDefinitions;
+        memoryLayout = new MemoryLayout();
+        lvlVariables = new Scopes();
+        lvlArrays = new Scopes();
+        lvlVariables.enter();
+        lvlArrays.enter();
+    }
+
+    /**
+     * Creates a coder that writes into its own buffer and sees
+     * the functions and globals the parent knows at this point.
+     * Used to check and lower function bodies independently.
+     */
+    private Coder(Coder parent) {
         clcCode = new ArrayList<>();
-        lvlVariables.push(new ArrayList<>());
+        localDefinitions = parent.localDefinitions;
+        memoryLayout = parent.memoryLayout;
+        functions = parent.functions;
+        imports = parent.imports;
+        references = parent.references;
+        lvlVariables = new Scopes(parent.lvlVariables);
+        lvlArrays = new Scopes(parent.lvlArrays);
+        lvlVariables.enter();
+        lvlArrays.enter();
     }
 
     /**
-     * Defines a variable, needs to be in clean clc format
-     * @param variable The definition of a Variable including the ';'
+     * Must only be called in global scope, after all function
+     * signatures are known.
+     * @return a coder for one function body
+     */
+    public Coder fork() {
+        return new Coder(this);
+    }
+
+    /**
+     * Hands off the code written so far and continues with an empty buffer
+     */
+    public List<String> takeCode() {
+        List<String> code = clcCode;
+        clcCode = new ArrayList<>();
+        return code;
+    }
+
+    public void appendCode(List<String> code) {
+        clcCode.addAll(code);
+    }
+
+    /**
+     * Hands off the definitions found so far, like {@link #takeCode()}
+     */
+    List<Line> takeDefinitions() {
+        List<Line> taken = new ArrayList<>(definitions);
+        definitions.clear();
+        return taken;
+    }
+
+    void appendDefinitions(List<Line> definitions) {
+        this.definitions.addAll(definitions);
+    }
+
+    public List<String> getCode() {
+        return clcCode;
+    }
+
+    /**
+     * Opens a new block scope, e.g. for a function body or a loop
      */
-    public void variableDefinition(List<Line> variable) {
+    public void enterScope() {
+        lvlVariables.enter();
+        lvlArrays.enter();
+    }
 
-        if(isOnStack(variable.get(1).s))
-            throw new ClcCoderException(variable.get(1).num,
-                    "Variable name \"" + variable.get(1).s + "\" already exists", variable.get(1).fName);
+    /**
+     * Closes the innermost block scope
+     */
+    public void leaveScope() {
+        lvlVariables.leave();
+        lvlArrays.leave();
+    }
+
+    /**
+     * Makes a global known that was already checked, without coding it again
+     */
+    public void declareGlobal(String name, boolean array) {
+        if(array)
+            lvlArrays.defineGlobal(name);
+        else
+            lvlVariables.defineGlobal(name);
+    }
 
-        lvlVariables.peek().add(variable.get(1).s);
-        addDescription(variable);
+    public boolean isFunction(String name) {
+        return functions.containsKey(name);
+    }
 
-        if(variable.get(0).s.equals("int")) {
-            clcCode.add("_NewInt_ " + variable.get(1).s);
-            intVal(variable.subList(3, variable.size() - 1));
-            clcCode.add("_EndNewInt_ " + variable.get(1).s);
+    /**
+     * @return the return type, null if there is no such function
+     */
+    public String functionType(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Makes a symbol of another object unit known. It is not coded again,
+     * its uses are collected as references instead.
+     * Must be called before anything is coded.
+     */
+    public void importSymbol(ObjectUnit.Symbol symbol) {
+        if(symbol.kind == ObjectUnit.SymbolKind.FUNCTION)
+            functions.put(symbol.name, symbol.type);
+        else
+            declareGlobal(symbol.name, symbol.kind == ObjectUnit.SymbolKind.ARRAY);
+        imports.add(symbol.name);
+    }
+
+    public boolean isImported(String name) {
+        return imports.contains(name);
+    }
+
+    /**
+     * @return true if a variable of this name is in scope
+     */
+    public boolean isVariable(String name) {
+        return lvlVariables.contains(name);
+    }
+
+    /**
+     * @return true if an array of this name is in scope
+     */
+    public boolean isArray(String name) {
+        return lvlArrays.contains(name);
+    }
+
+    /**
+     * Keeps the first use of a name, if it is defined by another object unit
+     */
+    void useName(Line name) {
+        if(imports.contains(name.s))
+            references.merge(name.s, name, (first, other) -> first.num <= other.num ? first : other);
+    }
+
+    /**
+     * @return the first use of every imported name, in no particular order
+     */
+    public Collection<Line> getReferences() {
+        return references.values();
+    }
+
+    public List<Line> getDefinitions() {
+        return definitions;
+    }
+
+    public MemoryLayout getMemoryLayout() {
+        return memoryLayout;
+    }
+
+    /**
+     * Makes a function known before any function body is coded
+     * @param type Return type of the function
+     * @param name Name of the function
+     */
+    public void functionSignature(Line type, Line name) {
+        if(isOnStack(name.s) || isArray(name.s))
+            throw new ClcCoderException(name.num,
+                    "Function name \"" + name.s + "\" already exists", name.fName);
+
+        functions.put(name.s, type.s);
+        definitions.add(name);
+    }
+
+    /**
+     * Starts a function and opens the scope of its parameters
+     * @param start index of the return type
+     * @param end index after the ')' of the parameters. exclusive
+     */
+    public void functionDefinition(List<Line> tokens, int start, int end) {
+        String name = tokens.get(start + 1).s;
+        addDescription(tokens, start, end);
+        clcCode.add("_Function_ " + name);
+        labels = 0;
+
+        enterScope();
+        int argumentCounter = 0;
+        for (int i = start + 4; i < end; i += 3) {
+            Line parameter = tokens.get(i);
+            if(isOnStack(parameter.s))
+                throw new ClcCoderException(parameter.num,
+                        "Variable name \"" + parameter.s + "\" already exists", parameter.fName);
+
+            lvlVariables.define(parameter.s);
+            if(localDefinitions)
+                definitions.add(parameter);
+            clcCode.add("_Parameter_ " + argumentCounter + " " + parameter.s);
+            argumentCounter++;
         }
+    }
+
+    /**
+     * Closes the scope opened by {@link #functionDefinition(List, int, int)}
+     */
+    public void endFunction(String name) {
+        leaveScope();
+        clcCode.add("_EndFunction_ " + name);
+    }
+
+    /**
+     * Defines a variable, needs to be in clean clc format
+     * @param start index of the type
+     * @param end index after the ';'. exclusive
+     * @param expressions checks and writes the value
+     */
+    public void variableDefinition(List<Line> tokens, int start, int end, ExpressionParser expressions) {
+        Line name = tokens.get(start + 1);
+        CompilerEvents.VariableDefinition event = new CompilerEvents.VariableDefinition();
+        event.begin();
+        try {
+            defineVariable(tokens, start, end, expressions);
+        } finally {
+            event.name = name.s;
+            event.commit(name.absPath, end - start, lvlVariables.depth() - 1);
+        }
+    }
+
+    private void defineVariable(List<Line> tokens, int start, int end, ExpressionParser expressions) {
+        Line name = tokens.get(start + 1);
+        if(isOnStack(name.s))
+            throw new ClcCoderException(name.num,
+                    "Variable name \"" + name.s + "\" already exists", name.fName);
 
+        addDescription(tokens, start, end);
+
+        // the value can not use the variable it defines,
+        // but a broken value still defines it for the following lines
+        try {
+            if(tokens.get(start).s.equals("int")) {
+                clcCode.add("_NewInt_ " + name.s);
+                intVal(tokens, start + 3, end - 1, expressions);
+                clcCode.add("_EndNewInt_ " + name.s);
+            }
+        } finally {
+            lvlVariables.define(name.s);
+            if(localDefinitions || isGlobalScope())
+                definitions.add(name);
+
+            if(isGlobalScope())
+                memoryLayout.add(name.s, MemoryLayout.Section.VARS, 1, name);
+        }
     }
 
-    private void intVal(List<Line> expression) {
-        for (Line line : expression) {
-            if(isVariableName(line.s) && !isOnStack(line.s) && functions.containsKey(line.s)) {
-                throw new ClcCoderException(line.num, "Name not found: \"" + line.s + "\"", line.fName);
+    /**
+     * Defines an array, needs to be in clean clc format <br>
+     * Global arrays with constant values are emitted as a packed data block,
+     * "[N]" declarations as a zero-filled reservation.
+     * @param start index of the type
+     * @param end index after the ';'. exclusive
+     * @param expressions checks and writes the values that are not constant
+     */
+    public void arrayDefinition(List<Line> tokens, int start, int end, ExpressionParser expressions) {
+        Line nameLine = tokens.get(start + 3);
+        String name = nameLine.s;
+
+        if(isOnStack(name) || isArray(name))
+            throw new ClcCoderException(nameLine.num,
+                    "Variable name \"" + name + "\" already exists", nameLine.fName);
+
+        lvlArrays.define(name);
+        if(localDefinitions || isGlobalScope())
+            definitions.add(nameLine);
+        addDescription(tokens, start, end);
+
+        if(tokens.get(start + 5).s.equals("[")) {               // "int[] name = [3];"
+            int size = Integer.parseInt(tokens.get(start + 6).s);
+            if(size <= 0)
+                throw new ClcCoderException(nameLine.num,
+                        "Array \"" + name + "\" needs a size greater than 0", nameLine.fName);
+            if(isGlobalScope()) {
+                memoryLayout.add(name, MemoryLayout.Section.BSS, size, nameLine);
+                clcCode.add("_ReserveArray_ " + name + " " + size);
+            } else {
+                clcCode.add("_NewArray_ " + name + " " + size);
+                clcCode.add("_EndNewArray_ " + name);
+            }
+            return;
+        }
+
+        // start and end of every value
+        List<int[]> elements = splitElements(tokens, start + 6, end - 2);
+
+        List<Integer> constants = new ArrayList<>(elements.size());
+        for (int[] element : elements) {
+            Integer value = constantValue(tokens, element[0], element[1]);
+            if(value == null)
+                break;
+            constants.add(value);
+        }
+
+        if(isGlobalScope() && constants.size() == elements.size()) {  // "int[] name = { 3, 0 };"
+            memoryLayout.add(name, MemoryLayout.Section.DATA, elements.size(), nameLine);
+            StringBuilder words = new StringBuilder("_DataWords_");
+            for (Integer value : constants) {
+                words.append(' ').append(value);
             }
-            if(functions.containsKey(line.s) && !functions.get(line.s).equals("int"))
-                throw new ClcCoderException(line.num, "Function \"" + line.s + "\" does not return int.", line.fName);
+            clcCode.add("_DataArray_ " + name + " " + elements.size());
+            clcCode.add(words.toString());
+            clcCode.add("_EndDataArray_ " + name);
+            return;
         }
 
-        // shunting yard
+        if(isGlobalScope())
+            memoryLayout.add(name, MemoryLayout.Section.BSS, elements.size(), nameLine);
+
+        clcCode.add("_NewArray_ " + name + " " + elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            clcCode.add("_ArrayElement_ " + i);
+            intVal(tokens, elements.get(i)[0], elements.get(i)[1], expressions);
+            clcCode.add("_EndArrayElement_ " + i);
+        }
+        clcCode.add("_EndNewArray_ " + name);
+    }
+
+    /**
+     * Assigns a value to a variable <br>
+     * e.g.: "x = 5 + y;"
+     * @param start index of the variable name
+     * @param end index after the ';'. exclusive
+     */
+    public void assignment(List<Line> tokens, int start, int end, ExpressionParser expressions) {
+        Line name = tokens.get(start);
+        if(!isVariable(name.s))
+            throw new ClcCoderException(name.num, isArray(name.s)
+                    ? "Array \"" + name.s + "\" needs an index"
+                    : "Name not found: \"" + name.s + "\"", name.fName);
+        useName(name);
+
+        addDescription(tokens, start, end);
+        clcCode.add("_SetInt_ " + name.s);
+        intVal(tokens, start + 2, end - 1, expressions);
+        clcCode.add("_EndSetInt_ " + name.s);
+    }
+
+    /**
+     * Assigns a value to an element of an array <br>
+     * e.g.: "a[i + 1] = 5;"
+     * @param start index of the array name
+     * @param close index of the ']'
+     * @param end index after the ';'. exclusive
+     */
+    public void arrayAssignment(List<Line> tokens, int start, int close, int end, ExpressionParser expressions) {
+        Line name = tokens.get(start);
+        if(!isArray(name.s))
+            throw new ClcCoderException(name.num, isVariable(name.s)
+                    ? "\"" + name.s + "\" is not an array"
+                    : "Name not found: \"" + name.s + "\"", name.fName);
+        useName(name);
+
+        addDescription(tokens, start, end);
+        clcCode.add("_SetArrayVal_ " + name.s);
+        intVal(tokens, start + 2, close, expressions);
+        intVal(tokens, close + 2, end - 1, expressions);
+        clcCode.add("_EndSetArrayVal_ " + name.s);
+    }
+
+    /**
+     * Calls a function without using its value <br>
+     * e.g.: "f(1, x);"
+     * @param start index of the function name
+     * @param end index after the ';'. exclusive
+     */
+    public void call(List<Line> tokens, int start, int end, ExpressionParser expressions) {
+        Line name = tokens.get(start);
+        if(!isFunction(name.s))
+            throw new ClcCoderException(name.num, "Function not found: \"" + name.s + "\"", name.fName);
+        useName(name);
+
+        addDescription(tokens, start, end);
+        clcCode.add("_StartFun_ " + name.s);
+        if(start + 2 < end - 2)                                 // has arguments
+            expressions.parseArguments(tokens, start + 2, end - 2, clcCode);
+        clcCode.add("_EndFun_");
+    }
+
+    /**
+     * Leaves the function, with or without a value
+     * @param start index of the "return"
+     * @param end index after the ';'. exclusive
+     */
+    public void returnStatement(List<Line> tokens, int start, int end, ExpressionParser expressions) {
+        addDescription(tokens, start, end);
+        clcCode.add("_Return_");
+        if(start + 1 < end - 1)
+            intVal(tokens, start + 1, end - 1, expressions);
+        clcCode.add("_EndReturn_");
+    }
+
+    /**
+     * Starts an if condition, its block follows
+     * @param start index of the "if"
+     * @param close index of the ')' of the condition
+     * @return the label of the if condition
+     */
+    public int ifCondition(List<Line> tokens, int start, int close, ExpressionParser expressions) {
+        int label = labels++;
+        addDescription(tokens, start, close + 1);
+        clcCode.add("_If_ " + label);
+        intVal(tokens, start + 2, close, expressions);
+        clcCode.add("_Then_ " + label);
+        return label;
+    }
+
+    /**
+     * Continues an if condition after the block before
+     * @param start index of the "else"
+     * @param close index of the ')' of the condition
+     */
+    public void elseIfCondition(List<Line> tokens, int start, int close, int label, ExpressionParser expressions) {
+        addDescription(tokens, start, close + 1);
+        clcCode.add("_ElseIf_ " + label);
+        intVal(tokens, start + 3, close, expressions);
+        clcCode.add("_Then_ " + label);
+    }
 
+    public void elseBlock(int label) {
+        clcCode.add("_Else_ " + label);
+    }
+
+    /**
+     * Ends an if condition after its last block
+     */
+    public void endIf(int label) {
+        clcCode.add("_EndIf_ " + label);
+    }
+
+    /**
+     * Starts a while loop, its block follows
+     * @param start index of the "while"
+     * @param close index of the ')' of the condition
+     * @return the label of the loop
+     */
+    public int whileLoop(List<Line> tokens, int start, int close, ExpressionParser expressions) {
+        int label = labels++;
+        addDescription(tokens, start, close + 1);
+        clcCode.add("_While_ " + label);
+        intVal(tokens, start + 2, close, expressions);
+        clcCode.add("_Do_ " + label);
+        return label;
+    }
+
+    public void endWhile(int label) {
+        clcCode.add("_EndWhile_ " + label);
+    }
+
+    /**
+     * Writes an expression, its syntax and names are checked on the way
+     * @param start where the expression begins. inclusive
+     * @param end where the expression ends. exclusive
+     */
+    private void intVal(List<Line> tokens, int start, int end, ExpressionParser expressions) {
         clcCode.add("_IntValue_ ");
-        clcCode.addAll(ShuntingYard.infixToRpn(expression, functions.keySet().stream().toList(), stackToList(lvlVariables), stackToList(lvlArrays)));
+        expressions.parse(tokens, start, end, clcCode);
         clcCode.add("_EndIntValue_ ");
     }
 
-    private void addDescription(List<Line> information) {
-        clcCode.add("# " + concat(information));
+    /**
+     * Writes the statement as a comment, led by its source location "file:line"
+     * @param start first token. inclusive
+     * @param end last token. exclusive
+     */
+    private void addDescription(List<Line> tokens, int start, int end) {
+        Line first = tokens.get(start);
+        clcCode.add("# " + first.fName + ":" + first.num + " " + concat(tokens, start, end));
+    }
+
+    private boolean isGlobalScope() {
+        return lvlVariables.depth() == 1;
+    }
+
+    /**
+     * Splits values seperated by ',' on the top bracket level
+     * @return start and end of every value, end exclusive
+     */
+    private static List<int[]> splitElements(List<Line> tokens, int start, int end) {
+        List<int[]> elements = new ArrayList<>();
+        int depth = 0;
+        int elementStart = start;
+        for (int i = start; i < end; i++) {
+            String token = tokens.get(i).s;
+            if(token.equals("(") || token.equals("["))
+                depth++;
+            else if(token.equals(")") || token.equals("]"))
+                depth--;
+            else if(depth == 0 && token.equals(",")) {
+                elements.add(new int[] {elementStart, i});
+                elementStart = i + 1;
+            }
+        }
+        elements.add(new int[] {elementStart, end});
+        return elements;
+    }
+
+    /**
+     * A data word holds -32768 to 65535, the values above 32767 are the
+     * two's complement of the negative ones
+     * @return the 16-bit value of a literal like "5" or "-5", null if not constant
+     */
+    private static Integer constantValue(List<Line> tokens, int start, int end) {
+        int size = end - start;
+        if(size <= 0 || size > 2)
+            return null;
+        Line number = tokens.get(end - 1);
+        Line sign = tokens.get(start);
+        if(!SyntaxCheck.isNum(number.s) || number.s.isEmpty())
+            return null;
+        if(size == 2 && !sign.s.equals("-") && !sign.s.equals("+"))
+            return null;
+
+        boolean negative = size == 2 && sign.s.equals("-");
+        if(number.s.length() > 5 || Integer.parseInt(number.s) > (negative ? -Short.MIN_VALUE : 0xFFFF))
+            throw new ClcCoderException(number.num, "Number \"" + (negative ? "-" : "") + number.s
+                    + "\" does not fit into a 16-bit int", number.fName);
+
+        int value = Integer.parseInt(number.s);
+        if(negative)
+            value = -value;
+        return value & 0xFFFF;
     }
 
     private boolean isOnStack(String name) {
         if(functions.containsKey(name))
             return true;
 
-        for (List<String> names : lvlVariables.stream().toList()) {
-            if(names.contains(name))
+        return lvlVariables.contains(name);
+    }
+
+    /**
+     * Names of nested block scopes. Every visible name is counted once per
+     * scope defining it, so looking a name up does not walk the scopes.
+     * <br>
+     * The globals are numbered in the order they are declared. A fork sees
+     * the globals numbered before it was made without copying them, so
+     * forking a coder per function stays linear in the number of globals.
+     */
+    private static final class Scopes extends AbstractCollection<String> {
+        private final Deque<Set<String>> levels = new ArrayDeque<>();
+        private final Map<String, Integer> visible = new HashMap<>();
+
+        /**
+         * the number of every global, written by the scopes that were not forked
+         */
+        private final Map<String, Integer> globalOrder;
+
+        /**
+         * globals of the parent numbered below this are visible, -1 for scopes that were not forked
+         */
+        private final int inherited;
+
+        Scopes() {
+            globalOrder = new ConcurrentHashMap<>();
+            inherited = -1;
+        }
+
+        /**
+         * @param parent scopes in the global scope
+         */
+        Scopes(Scopes parent) {
+            globalOrder = parent.globalOrder;
+            inherited = globalOrder.size();
+        }
+
+        void enter() {
+            levels.push(new HashSet<>());
+        }
+
+        void leave() {
+            for (String name : levels.pop()) {
+                visible.computeIfPresent(name, (key, count) -> count == 1 ? null : count - 1);
+            }
+        }
+
+        /**
+         * Adds a name to the innermost scope
+         */
+        void define(String name) {
+            if(levels.peek().add(name)) {
+                visible.merge(name, 1, Integer::sum);
+                if(levels.size() == 1)
+                    number(name);
+            }
+        }
+
+        void defineGlobal(String name) {
+            if(levels.getLast().add(name)) {
+                visible.merge(name, 1, Integer::sum);
+                number(name);
+            }
+        }
+
+        private void number(String name) {
+            if(inherited < 0)
+                globalOrder.putIfAbsent(name, globalOrder.size());
+        }
+
+        int depth() {
+            return levels.size();
+        }
+
+        @Override
+        public boolean contains(Object name) {
+            if(visible.containsKey(name))
                 return true;
+            Integer number = inherited < 0 ? null : globalOrder.get(name);
+            return number != null && number < inherited;
         }
 
-        return false;
-    }
+        @Override
+        public Iterator<String> iterator() {
+            return Collections.unmodifiableSet(visible.keySet()).iterator();
+        }
 
-    private List<String> stackToList(Deque<List<String>> stack) {
-        List<String> output = new ArrayList<>();
-        for (List<String> list : stack) {
-            output.addAll(list);
+        @Override
+        public int size() {
+            return visible.size();
         }
-        return  output;
     }
 
-    private String concat(List<Line> values) {
+    private String concat(List<Line> tokens, int start, int end) {
         StringBuilder value = new StringBuilder();
-        for (Line line : values) {
-            value.append(line.s).append(" ");
+        for (int i = start; i < end; i++) {
+            value.append(tokens.get(i).s).append(" ");
         }
         return value.toString();
     }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Output and timings of a successful compile
+ */
+public final class CompileResult {
+
+    /**
+     * Only the name, the sources are not kept after the compile
+     */
+    public final String projectName;
+
+    /**
+     * Kept in a temp file if it is too large for the heap budget of the config
+     */
+    public final List<Line> assembly;
+
+    /**
+     * The globals followed by the stack frames, kept in a temp file like the assembly
+     */
+    public final List<String> memoryMap;
+    public final FrameLayout frames;
+
+    /**
+     * Time and size change of every optimization pass
+     */
+    public final List<PassManager.Report> passes;
+
+    /**
+     * Time to lex, check and code the object units, close to 0 if all were cached
+     */
+    public final long checkNanos;
+    public final long linkNanos;
+    public final long optimizeNanos;
+    public final long generateNanos;
+
+    CompileResult(Project project, List<Line> assembly, List<String> memoryMap, FrameLayout frames,
+                  List<PassManager.Report> passes, long checkNanos, long linkNanos, long optimizeNanos,
+                  long generateNanos) {
+        this.projectName = project.name;
+        this.assembly = assembly instanceof SpillList ? Collections.unmodifiableList(assembly) : List.copyOf(assembly);
+        this.memoryMap = memoryMap instanceof SpillList ? Collections.unmodifiableList(memoryMap) : List.copyOf(memoryMap);
+        this.frames = frames;
+        this.passes = List.copyOf(passes);
+        this.checkNanos = checkNanos;
+        this.linkNanos = linkNanos;
+        this.optimizeNanos = optimizeNanos;
+        this.generateNanos = generateNanos;
+    }
+
+    public long totalNanos() {
+        return checkNanos + linkNanos + optimizeNanos + generateNanos;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Set;
+
+/**
+ * Computes the calls of pure functions whose arguments are numbers. <br>
+ * The call is run by an {@link IrInterpreter} and replaced by its value,
+ * then the code is folded again, so the arguments of an outer call may
+ * become numbers too. A global whose value ends up a number is written
+ * to the data of the program instead of being set at its start, see
+ * {@link CodeGenerator}. A call without a value at compile time, e.g.
+ * one that divides by zero or does not end, is left to the program.
+ */
+final class CompileTimeCalls implements Pass {
+
+    @Override
+    public String name() {
+        return "compile-time calls";
+    }
+
+    @Override
+    public Set<Analysis<?>> requires() {
+        return Set.of(Analysis.PURITY);
+    }
+
+    @Override
+    public boolean run(List<String> code, PassManager passes) {
+        Purity purity = passes.get(Analysis.PURITY);
+        IrInterpreter interpreter = new IrInterpreter(new ArrayList<>(code));
+        boolean changed = false;
+
+        boolean computed = true;
+        while(computed) {
+            computed = false;
+            List<String> rewritten = new ArrayList<>(code.size());
+            for (int i = 0; i < code.size(); i++) {
+                String instruction = code.get(i);
+                int end = Ir.is(instruction, Ir.START_FUN_RET) && purity.isPure(Ir.operand(instruction))
+                        ? callEnd(code, i) : -1;
+                if(end >= 0) {
+                    OptionalInt value = interpreter.call(Ir.operand(instruction), arguments(code, i, end));
+                    if(value.isPresent()) {
+                        rewritten.add(Ir.INT_VAL + " " + (value.getAsInt() & 0xFFFF));
+                        i = end;
+                        computed = true;
+                        continue;
+                    }
+                }
+                rewritten.add(instruction);
+            }
+            if(computed) {
+                code.clear();
+                code.addAll(rewritten);
+                new ConstantFolding().run(code, passes);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param start a "_StartFunRet_"
+     * @return its "_EndFunRet_" if every argument is a number, else -1
+     */
+    private static int callEnd(List<String> code, int start) {
+        // "_FunArgument_ n", "_IntVal_ v", "_EndFunArgument_ n" for every argument
+        int i = start + 1;
+        while(Ir.is(code.get(i), Ir.FUN_ARGUMENT)) {
+            if(!Ir.is(code.get(i + 1), Ir.INT_VAL) || !Ir.is(code.get(i + 2), Ir.END_FUN_ARGUMENT))
+                return -1;
+            i += 3;
+        }
+        return Ir.is(code.get(i), Ir.END_FUN_RET) ? i : -1;
+    }
+
+    private static int[] arguments(List<String> code, int start, int end) {
+        int[] arguments = new int[(end - start - 1) / 3];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = ConstantFolding.value(code.get(start + 3 * i + 2));
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums up the timings of many compiles. Safe to use from
+ * the threads that run the compiles.
+ */
+public final class CompileTimings {
+
+    private final LongAdder compiled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder checkNanos = new LongAdder();
+    private final LongAdder linkNanos = new LongAdder();
+    private final LongAdder optimizeNanos = new LongAdder();
+    private final LongAdder generateNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void add(CompileResult result) {
+        compiled.increment();
+        checkNanos.add(result.checkNanos);
+        linkNanos.add(result.linkNanos);
+        optimizeNanos.add(result.optimizeNanos);
+        generateNanos.add(result.generateNanos);
+        maxNanos.accumulateAndGet(result.totalNanos(), Math::max);
+    }
+
+    void addFailure() {
+        failed.increment();
+    }
+
+    public long getCompiled() {
+        return compiled.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getCheckNanos() {
+        return checkNanos.sum();
+    }
+
+    public long getLinkNanos() {
+        return linkNanos.sum();
+    }
+
+    public long getOptimizeNanos() {
+        return optimizeNanos.sum();
+    }
+
+    public long getGenerateNanos() {
+        return generateNanos.sum();
+    }
+
+    public long getTotalNanos() {
+        return getCheckNanos() + getLinkNanos() + getOptimizeNanos() + getGenerateNanos();
+    }
+
+    /**
+     * @return the longest successful compile
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        long compiled = getCompiled();
+        return String.format("%d compiled, %d failed, %.2f ms per project (check %.2f ms, link %.2f ms, optimize %.2f ms, generate %.2f ms), max %.2f ms",
+                compiled, getFailed(),
+                perProject(getTotalNanos(), compiled),
+                perProject(getCheckNanos(), compiled),
+                perProject(getLinkNanos(), compiled),
+                perProject(getOptimizeNanos(), compiled),
+                perProject(getGenerateNanos(), compiled),
+                getMaxNanos() / 1e6);
+    }
+
+    private static double perProject(long nanos, long compiled) {
+        return compiled == 0 ? 0 : nanos / 1e6 / compiled;
+    }
+}
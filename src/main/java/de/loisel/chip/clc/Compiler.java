@@ -20,62 +20,36 @@ import java.util.*;
 
 class Compiler {
 
-    protected static final String[] COMPILER_KEYWORDS = { "include", "test" /* does nothing */ };
-    protected static final String[] LANG_KEYWORDS = {
+    // shared by all compiles, so none of the tables may be changed
+    static final List<String> COMPILER_KEYWORDS = List.of("include", "define", "test" /* does nothing */);
+    static final List<String> LANG_KEYWORDS = List.of(
             "int",
             "void",
             "return",
             "while",
             "if",
-            "else",
-    };
-    protected static final String[] FUN_TYPES = {
-            "int", "void",
-    };
-    protected static final String[] VAR_TYPES = {   // string does yet have to be implemented
-            "int", "string",
-    };
-    protected static final String[] LANG_SIGNS = {
+            "else"
+    );
+    static final List<String> FUN_TYPES = List.of(
+            "int", "void"
+    );
+    static final List<String> VAR_TYPES = List.of(   // string does yet have to be implemented
+            "int", "string"
+    );
+    static final List<String> LANG_SIGNS = List.of(
             "{", "}", "[", "]", "(", ")",
             ",", ";",
             "+", "-", "*", "/",
             "==", "!=", "<=", ">=", "<", ">",
-            "=",
-    };
-    protected static final String[] MATH_OPERATORS = {
-            "+", "-", "*", "/",
-    };
-    protected static final String[] BOOL_OPERATORS = {
-            "<", ">", "==", "!=",
-    };
-
-    private final List<Line> inLines;
-    private List<Line> assembly;
-    private List<Line> clcCode;
-    private Map<String, List<String>> comCode;
-
-    public Compiler(List<Line> inLines) {
-        this.inLines = inLines;
+            "="
+    );
+    static final List<String> MATH_OPERATORS = List.of(
+            "+", "-", "*", "/"
+    );
+    static final List<String> BOOL_OPERATORS = List.of(
+            "<", ">", "==", "!="
+    );
+
+    private Compiler() {
     }
-
-    public List<Line> compile() {
-        message(inLines.size() + " words and signs to compile.");
-        comCode = new HashMap<>();
-        assembly = new ArrayList<>();
-
-        // Syntax Check
-        SyntaxCheck synChecker = new SyntaxCheck(inLines);
-        clcCode = synChecker.checkSyntax();
-        message("All files parsed successfully!");
-
-        assembly = AssemblyGenerator.generateAssembly(clcCode);
-
-        message("Compiled successfully!");
-        return assembly;
-    }
-
-    private static void message(String msg) {
-        System.out.println("Compiler: " + msg);
-    }
-
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Settings of a compile. Immutable, so one config
+ * can be shared by any number of concurrent compiles.
+ * <br>
+ * A config is made from {@link #DEFAULT} by the "with" methods,
+ * each returns a copy with one setting changed:
+ * <pre>
+ * CompilerConfig.DEFAULT.withOptLevel(OptLevel.O2).withBackend(Backend.STACK)
+ * </pre>
+ */
+public final class CompilerConfig {
+
+    /**
+     * Share of the heap budget a single list may use before it is moved to a temp file.
+     * Source, tokens and code of a file are alive at the same time.
+     */
+    private static final int SPILL_SHARE = 8;
+
+    /**
+     * Blocks and expressions are checked on heap stacks, this only
+     * stops generated code that nests without end
+     */
+    public static final int DEFAULT_NESTING_LIMIT = 100_000;
+
+    /**
+     * Sequential, quiet, at {@link OptLevel#O0} with registers and no heap budget
+     */
+    public static final CompilerConfig DEFAULT = new CompilerConfig(false, Diagnostics.DEFAULT_ERROR_LIMIT, false, 0,
+            DEFAULT_NESTING_LIMIT, OptLevel.O0, Backend.REGISTERS, Profile.EMPTY);
+
+    /**
+     * Check and code the function bodies of a project in parallel
+     */
+    public final boolean parallel;
+
+    /**
+     * Stop compiling a project after this many errors
+     */
+    public final int errorLimit;
+
+    /**
+     * Print the progress of every compile
+     */
+    public final boolean verbose;
+
+    /**
+     * Heap in bytes the sources, tokens and code may use, 0 for no limit.
+     * Larger lists are kept in temp files.
+     */
+    public final long maxHeapBudget;
+
+    /**
+     * How deep blocks, brackets, calls and array accesses may be nested
+     */
+    public final int nestingLimit;
+
+    /**
+     * Passes the linked code runs through, see {@link PassManager}
+     */
+    public final OptLevel optLevel;
+
+    /**
+     * Where the generated code keeps its values, see {@link AssemblyGenerator}
+     */
+    public final Backend backend;
+
+    /**
+     * Counts of an earlier run that guide the optimizations, see {@link Profile}
+     */
+    public final Profile profile;
+
+    private CompilerConfig(boolean parallel, int errorLimit, boolean verbose, long maxHeapBudget, int nestingLimit,
+                           OptLevel optLevel, Backend backend, Profile profile) {
+        if(errorLimit < 1)
+            throw new IllegalArgumentException("Error limit must be at least 1, got: " + errorLimit);
+        if(maxHeapBudget < 0)
+            throw new IllegalArgumentException("Heap budget must not be negative, got: " + maxHeapBudget);
+        if(nestingLimit < 1)
+            throw new IllegalArgumentException("Nesting limit must be at least 1, got: " + nestingLimit);
+        this.parallel = parallel;
+        this.errorLimit = errorLimit;
+        this.verbose = verbose;
+        this.maxHeapBudget = maxHeapBudget;
+        this.nestingLimit = nestingLimit;
+        this.optLevel = Objects.requireNonNull(optLevel);
+        this.backend = Objects.requireNonNull(backend);
+        this.profile = Objects.requireNonNull(profile);
+    }
+
+    /**
+     * @param parallel check and code the function bodies in parallel
+     */
+    public CompilerConfig withParallel(boolean parallel) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the limit is less than 1
+     */
+    public CompilerConfig withErrorLimit(int errorLimit) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    public CompilerConfig withVerbose(boolean verbose) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    /**
+     * @param maxHeapBudget bytes, 0 for no limit
+     * @throws IllegalArgumentException if the budget is negative
+     */
+    public CompilerConfig withMaxHeapBudget(long maxHeapBudget) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the limit is less than 1
+     */
+    public CompilerConfig withNestingLimit(int nestingLimit) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    public CompilerConfig withOptLevel(OptLevel optLevel) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    public CompilerConfig withBackend(Backend backend) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    public CompilerConfig withProfile(Profile profile) {
+        return new CompilerConfig(parallel, errorLimit, verbose, maxHeapBudget, nestingLimit, optLevel, backend, profile);
+    }
+
+    /**
+     * @return a list that is moved to a temp file if it gets too large for the heap budget
+     */
+    <T> List<T> newList(SpillList.Codec<T> codec) {
+        if(maxHeapBudget == 0)
+            return new ArrayList<>();
+        return new SpillList<>(codec, maxHeapBudget / SPILL_SHARE);
+    }
+
+    /**
+     * Parses the value of "--max-heap-budget", e.g. "512m", "2g" or "65536"
+     * @return the size in bytes
+     */
+    public static long parseSize(String size) {
+        String value = size.strip().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 'k' -> unit = 1L << 10;
+            case 'm' -> unit = 1L << 20;
+            case 'g' -> unit = 1L << 30;
+            default -> {
+            }
+        }
+        if(unit > 1)
+            value = value.substring(0, value.length() - 1);
+        try {
+            return Math.multiplyExact(Long.parseLong(value), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Not a size: \"" + size + "\"");
+        }
+    }
+}
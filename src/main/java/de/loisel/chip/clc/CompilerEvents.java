@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events of the compiler phases. They cost nothing
+ * until a recording is started, e.g. with
+ * "-XX:StartFlightRecording=settings=profile,filename=clc.jfr".
+ * Every event knows the file, the number of tokens it covers and
+ * its nesting depth, so a slow declaration or expression can be
+ * found in the recording.
+ */
+public final class CompilerEvents {
+
+    private CompilerEvents() {
+    }
+
+    @Category({"clc", "Compiler"})
+    @StackTrace(false)
+    public abstract static class Phase extends Event {
+        @Label("File")
+        public String fileName;
+
+        @Label("Tokens")
+        public int tokenCount;
+
+        @Label("Depth")
+        @Description("Include depth, scope depth or expression nesting, depending on the event")
+        public int depth;
+
+        /**
+         * Sets the fields and commits, if the event is recorded
+         */
+        public void commit(String fileName, int tokenCount, int depth) {
+            end();
+            if(!shouldCommit())
+                return;
+            this.fileName = fileName;
+            this.tokenCount = tokenCount;
+            this.depth = depth;
+            commit();
+        }
+    }
+
+    @Name("clc.Preprocess")
+    @Label("Preprocess")
+    @Description("Finding the commands and the entry point of one file, tokens counts its lines")
+    public static final class Preprocess extends Phase {
+    }
+
+    @Name("clc.Tokenize")
+    @Label("Tokenize")
+    @Description("Splitting the lines of one file")
+    public static final class Tokenize extends Phase {
+    }
+
+    @Name("clc.IncludeFile")
+    @Label("Include File")
+    @Description("Compiling one file after the files it includes, tokens counts the code of its unit")
+    public static final class IncludeFile extends Phase {
+    }
+
+    @Name("clc.SyntaxCheck")
+    @Label("Syntax Check")
+    public static final class SyntaxCheck extends Phase {
+    }
+
+    @Name("clc.Declaration")
+    @Label("Declaration")
+    @Description("Checking and coding one top-level declaration")
+    public static final class Declaration extends Phase {
+        @Label("Name")
+        public String name;
+
+        @Label("Line")
+        public int line;
+    }
+
+    @Name("clc.VariableDefinition")
+    @Label("Variable Definition")
+    public static final class VariableDefinition extends Phase {
+        @Label("Name")
+        public String name;
+    }
+
+    @Name("clc.OptimizationPass")
+    @Label("Optimization Pass")
+    @Description("One pass over the linked code, tokens counts the instructions after it")
+    public static final class OptimizationPass extends Phase {
+        @Label("Pass")
+        public String name;
+    }
+
+    @Name("clc.InfixToRpn")
+    @Label("Infix To RPN")
+    @Description("Converting one expression or call argument, depth counts the enclosing calls and array accesses")
+    public static final class InfixToRpn extends Phase {
+        @Label("Line")
+        public int line;
+    }
+}
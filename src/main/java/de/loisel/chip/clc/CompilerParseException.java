@@ -16,13 +16,13 @@
 
 package de.loisel.chip.clc;
 
-public class CompilerParseException extends RuntimeException {
+public class CompilerParseException extends ClcException {
 
     /**
      * Constructs a new Exception when there was an error
      * during parsing
      */
     public CompilerParseException(int line, String message, String fileName) {
-        super("File " + fileName + ": Compiler in line " + line + ": " + message);
+        super("Compiler", fileName, line, message);
     }
 }
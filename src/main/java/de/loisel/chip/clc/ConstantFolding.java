@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes operators whose operands are both numbers. In reverse polish
+ * notation the operands of an operator are the two values right before
+ * it, so "2 3 * 1 +" becomes "7" in one walk. Ints are 16-bit and
+ * signed, a comparison is 1 if it is true and 0 if not. A division by
+ * zero is left to the program.
+ */
+final class ConstantFolding implements Pass {
+
+    @Override
+    public String name() {
+        return "constant folding";
+    }
+
+    @Override
+    public boolean run(List<String> code, PassManager passes) {
+        List<String> folded = new ArrayList<>(code.size());
+        for (String instruction : code) {
+            int size = folded.size();
+            if(Ir.is(instruction, Ir.OPERATOR) && size >= 2
+                    && Ir.is(folded.get(size - 2), Ir.INT_VAL) && Ir.is(folded.get(size - 1), Ir.INT_VAL)) {
+                Integer value = fold(Ir.operand(instruction),
+                        value(folded.get(size - 2)), value(folded.get(size - 1)));
+                if(value != null) {
+                    folded.remove(size - 1);
+                    folded.set(size - 2, Ir.INT_VAL + " " + (value & 0xFFFF));
+                    continue;
+                }
+            }
+            folded.add(instruction);
+        }
+
+        if(folded.size() == code.size())
+            return false;
+        code.clear();
+        code.addAll(folded);
+        return true;
+    }
+
+    /**
+     * @return the signed value of an "_IntVal_"
+     */
+    static int value(String instruction) {
+        return (short) Integer.parseInt(Ir.operand(instruction));
+    }
+
+    /**
+     * @return the result, null if it can not be computed at compile time
+     */
+    static Integer fold(String operator, int left, int right) {
+        return switch (operator) {
+            case "+" -> (int) (short) (left + right);
+            case "-" -> (int) (short) (left - right);
+            case "*" -> (int) (short) (left * right);
+            case "/" -> right == 0 ? null : (int) (short) (left / right);
+            case "==" -> left == right ? 1 : 0;
+            case "!=" -> left != right ? 1 : 0;
+            case "<" -> left < right ? 1 : 0;
+            case ">" -> left > right ? 1 : 0;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * Basic blocks of the functions and the jumps between them. <br>
+ * The code of the {@link Coder} is structured, so the jumps follow
+ * from the block instructions: a condition ends with "_Then_" or
+ * "_Do_" and may jump to the next branch or behind the loop, a branch
+ * ends at the next "_ElseIf_", "_Else_" or "_EndIf_" and jumps to its
+ * "_EndIf_", a loop body jumps back to its "_While_", a tail call jumps
+ * back to the parameters of its function and a return leaves the
+ * function. Code outside of functions has no block.
+ */
+final class ControlFlowGraph {
+
+    static final class Block {
+        final int index;
+        final String function;
+
+        /**
+         * first instruction. inclusive
+         */
+        final int start;
+
+        /**
+         * last instruction. exclusive
+         */
+        final int end;
+        final List<Block> successors = new ArrayList<>(2);
+        final List<Block> predecessors = new ArrayList<>(2);
+        boolean reachable;
+
+        Block(int index, String function, int start, int end) {
+            this.index = index;
+            this.function = function;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return function + "[" + start + ", " + end + ")";
+        }
+    }
+
+    private final List<Block> blocks = new ArrayList<>();
+    private final List<Block> entries = new ArrayList<>();
+
+    /**
+     * index of the block of every instruction, -1 outside of functions
+     */
+    private final int[] blockOf;
+
+    private ControlFlowGraph(int size) {
+        blockOf = new int[size];
+        Arrays.fill(blockOf, -1);
+    }
+
+    static ControlFlowGraph build(List<String> code) {
+        ControlFlowGraph graph = new ControlFlowGraph(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            if(!Ir.is(code.get(i), Ir.FUNCTION))
+                continue;
+            int end = i + 1;
+            while(!Ir.is(code.get(end), Ir.END_FUNCTION))
+                end++;
+            graph.addFunction(code, Ir.operand(code.get(i)), i + 1, end);
+            i = end;
+        }
+        return graph;
+    }
+
+    List<Block> blocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the first block of every function
+     */
+    List<Block> entries() {
+        return entries;
+    }
+
+    /**
+     * @return the block of the instruction, null outside of functions
+     */
+    Block blockOf(int instruction) {
+        int block = blockOf[instruction];
+        return block < 0 ? null : blocks.get(block);
+    }
+
+    /**
+     * @param start first instruction after "_Function_"
+     * @param end the "_EndFunction_"
+     */
+    private void addFunction(List<String> code, String function, int start, int end) {
+        Map<Integer, Integer> endIf = new HashMap<>();
+        Map<Integer, Integer> whileStart = new HashMap<>();
+        Map<Integer, Integer> endWhile = new HashMap<>();
+        Map<Integer, Integer> openThen = new HashMap<>();
+        Map<Integer, Integer> nextBranch = new HashMap<>();     // "_Then_" to the start of the next branch
+
+        // relative to the start, so a function does not pay for the code before it
+        BitSet leaders = new BitSet(end - start + 2);
+        leaders.set(0);
+        leaders.set(end - start);
+        for (int i = start; i < end; i++) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.THEN)) {
+                openThen.put(Ir.label(instruction), i);
+                leaders.set(i + 1 - start);
+            } else if(Ir.is(instruction, Ir.ELSE_IF)) {
+                nextBranch.put(openThen.remove(Ir.label(instruction)), i);
+                leaders.set(i - start);
+            } else if(Ir.is(instruction, Ir.ELSE)) {
+                nextBranch.put(openThen.remove(Ir.label(instruction)), i + 1);
+                leaders.set(i + 1 - start);
+            } else if(Ir.is(instruction, Ir.END_IF)) {
+                int label = Ir.label(instruction);
+                Integer then = openThen.remove(label);
+                if(then != null)
+                    nextBranch.put(then, i);
+                endIf.put(label, i);
+                leaders.set(i - start);
+            } else if(Ir.is(instruction, Ir.WHILE)) {
+                whileStart.put(Ir.label(instruction), i);
+                leaders.set(i - start);
+            } else if(Ir.is(instruction, Ir.DO)) {
+                leaders.set(i + 1 - start);
+            } else if(Ir.is(instruction, Ir.END_WHILE)) {
+                endWhile.put(Ir.label(instruction), i);
+                leaders.set(i + 1 - start);
+            } else if(Ir.is(instruction, Ir.END_RETURN) || Ir.is(instruction, Ir.END_TAIL_CALL)) {
+                leaders.set(i + 1 - start);
+            }
+        }
+
+        int first = blocks.size();
+        for (int next = 0; next >= 0; next = leaders.nextSetBit(next + 1)) {
+            int leader = start + next;
+            int blockEnd = leader == end ? end + 1 : start + leaders.nextSetBit(next + 1);
+            Block block = new Block(blocks.size(), function, leader, blockEnd);
+            Arrays.fill(blockOf, leader, blockEnd, block.index);
+            blocks.add(block);
+        }
+        entries.add(blocks.get(first));
+
+        for (int b = first; b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            String last = code.get(block.end - 1);
+            if(Ir.is(last, Ir.THEN)) {
+                link(block, block.end);
+                link(block, nextBranch.get(block.end - 1));
+            } else if(Ir.is(last, Ir.DO)) {
+                link(block, block.end);
+                link(block, fallThrough(code, endWhile.get(Ir.label(last)) + 1, endIf));
+            } else if(Ir.is(last, Ir.ELSE)) {
+                link(block, endIf.get(Ir.label(last)));
+            } else if(Ir.is(last, Ir.END_WHILE)) {
+                link(block, whileStart.get(Ir.label(last)));
+            } else if(Ir.is(last, Ir.END_TAIL_CALL)) {
+                link(block, start);
+            } else if(!Ir.is(last, Ir.END_RETURN) && !Ir.is(last, Ir.END_FUNCTION)) {
+                link(block, fallThrough(code, block.end, endIf));
+            }
+        }
+
+        Deque<Block> work = new ArrayDeque<>();
+        work.push(blocks.get(first));
+        blocks.get(first).reachable = true;
+        while(!work.isEmpty()) {
+            for (Block successor : work.pop().successors) {
+                if(!successor.reachable) {
+                    successor.reachable = true;
+                    work.push(successor);
+                }
+            }
+        }
+    }
+
+    /**
+     * A branch that runs into the next "_ElseIf_" is done and jumps to its "_EndIf_"
+     */
+    private static int fallThrough(List<String> code, int target, Map<Integer, Integer> endIf) {
+        String instruction = code.get(target);
+        return Ir.is(instruction, Ir.ELSE_IF) ? endIf.get(Ir.label(instruction)) : target;
+    }
+
+    private void link(Block from, int target) {
+        Block to = blocks.get(blockOf[target]);
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes the functions that are never called, starting from the
+ * entry point and the values of globals. The code is only changed
+ * if it has an entry point, a library alone keeps all its functions.
+ */
+final class DeadFunctions implements Pass {
+
+    @Override
+    public String name() {
+        return "dead functions";
+    }
+
+    @Override
+    public Set<Analysis<?>> requires() {
+        return Set.of(Analysis.CALL_GRAPH);
+    }
+
+    @Override
+    public boolean run(List<String> code, PassManager passes) {
+        CallGraph graph = passes.get(Analysis.CALL_GRAPH);
+        if(graph.function(Linker.ENTRY_POINT) == null)
+            return false;
+
+        Set<String> reachable = graph.reachable();
+        BitSet dead = new BitSet(code.size());
+        for (CallGraph.Function function : graph.functions()) {
+            if(reachable.contains(function.name))
+                continue;
+            int start = function.start;
+            if(start > 0 && Ir.isComment(code.get(start - 1)))       // the declaration
+                start--;
+            dead.set(start, function.end + 1);
+        }
+
+        if(dead.isEmpty())
+            return false;
+        List<String> alive = new ArrayList<>(code.size() - dead.cardinality());
+        for (int i = dead.nextClearBit(0); i < code.size(); i = dead.nextClearBit(i + 1)) {
+            alive.add(code.get(i));
+        }
+        code.clear();
+        code.addAll(alive);
+        return true;
+    }
+}
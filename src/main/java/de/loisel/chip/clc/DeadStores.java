@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes assignments to local variables that are never read
+ * afterwards. Assignments whose value calls a function are kept,
+ * the function may have side effects.
+ */
+final class DeadStores implements Pass {
+
+    @Override
+    public String name() {
+        return "dead stores";
+    }
+
+    @Override
+    public Set<Analysis<?>> requires() {
+        return Set.of(Analysis.CFG, Analysis.LIVENESS);
+    }
+
+    @Override
+    public boolean run(List<String> code, PassManager passes) {
+        ControlFlowGraph graph = passes.get(Analysis.CFG);
+        Liveness liveness = passes.get(Analysis.LIVENESS);
+        BitSet dead = new BitSet(code.size());
+
+        for (ControlFlowGraph.Block block : graph.blocks()) {
+            BitSet live = (BitSet) liveness.liveOut(block).clone();
+            for (int i = block.end - 1; i >= block.start; i--) {
+                String instruction = code.get(i);
+                if(Ir.is(instruction, Ir.END_SET_INT)) {
+                    int variable = liveness.variable(Ir.operand(instruction));
+                    int start = storeStart(code, i, block.start);
+                    if(variable >= 0 && !live.get(variable) && start >= 0) {
+                        // the value is removed too, so its reads do not count
+                        if(start > block.start && Ir.isComment(code.get(start - 1)))
+                            start--;
+                        dead.set(start, i + 1);
+                        i = start;
+                        continue;
+                    }
+                }
+                liveness.step(instruction, live);
+            }
+        }
+
+        if(dead.isEmpty())
+            return false;
+        List<String> alive = new ArrayList<>(code.size() - dead.cardinality());
+        for (int i = dead.nextClearBit(0); i < code.size(); i = dead.nextClearBit(i + 1)) {
+            alive.add(code.get(i));
+        }
+        code.clear();
+        code.addAll(alive);
+        return true;
+    }
+
+    /**
+     * @param end the "_EndSetInt_"
+     * @return its "_SetInt_", -1 if the value calls a function
+     */
+    private static int storeStart(List<String> code, int end, int blockStart) {
+        for (int i = end - 1; i >= blockStart; i--) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.START_FUN_RET))
+                return -1;
+            if(Ir.is(instruction, Ir.SET_INT))
+                return i;
+        }
+        return -1;
+    }
+}
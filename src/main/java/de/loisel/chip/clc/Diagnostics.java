@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the errors of one compilation, so that more than one
+ * error can be reported per run. The compiler exceptions do not
+ * fill in a stack trace, which makes reporting them cheap.
+ */
+public class Diagnostics {
+
+    public static final int DEFAULT_ERROR_LIMIT = 20;
+
+    private final int errorLimit;
+    private final List<RuntimeException> errors = new ArrayList<>();
+
+    public Diagnostics() {
+        this(DEFAULT_ERROR_LIMIT);
+    }
+
+    /**
+     * @param errorLimit Compilation stops after this many errors
+     */
+    public Diagnostics(int errorLimit) {
+        if(errorLimit < 1)
+            throw new IllegalArgumentException("Error limit must be at least 1, got: " + errorLimit);
+        this.errorLimit = errorLimit;
+    }
+
+    /**
+     * Creates an empty collector with the same error limit
+     */
+    Diagnostics fork() {
+        return new Diagnostics(errorLimit);
+    }
+
+    /**
+     * Adds an error
+     * @throws DiagnosticsException when the error limit is reached
+     */
+    public void report(RuntimeException error) {
+        errors.add(error);
+        if(errors.size() >= errorLimit)
+            throw new DiagnosticsException(errors, true);
+    }
+
+    /**
+     * Adds all errors of another collector in their order
+     */
+    void addAll(Diagnostics other) {
+        for (RuntimeException error : other.errors) {
+            report(error);
+        }
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    public List<RuntimeException> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Throws a single error as it is, multiple errors
+     * bundled in a {@link DiagnosticsException}
+     */
+    public void throwIfErrors() {
+        if(errors.size() == 1)
+            throw errors.get(0);
+        if(errors.size() > 1)
+            throw new DiagnosticsException(errors, false);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.List;
+
+public class DiagnosticsException extends RuntimeException {
+
+    private final transient List<RuntimeException> errors;
+
+    /**
+     * Constructs a new Exception when a compilation
+     * found more than one error
+     * @param limitReached true if the compilation was stopped early
+     */
+    public DiagnosticsException(List<RuntimeException> errors, boolean limitReached) {
+        super(buildMessage(errors, limitReached), null, false, false);
+        this.errors = List.copyOf(errors);
+    }
+
+    public List<RuntimeException> getErrors() {
+        return errors;
+    }
+
+    private static String buildMessage(List<RuntimeException> errors, boolean limitReached) {
+        StringBuilder message = new StringBuilder();
+        message.append(errors.size()).append(" errors");
+        if(limitReached)
+            message.append(", stopped at the error limit");
+        message.append(':');
+        for (RuntimeException error : errors) {
+            message.append(System.lineSeparator()).append(error.getMessage());
+        }
+        return message.toString();
+    }
+}
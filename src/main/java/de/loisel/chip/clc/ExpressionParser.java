@@ -0,0 +1,330 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+import static de.loisel.chip.clc.SyntaxCheck.isNum;
+import static de.loisel.chip.clc.SyntaxCheck.isVariableName;
+
+/**
+ * Precedence climbing parser for mathematical expressions. <br>
+ * Checks the syntax, resolves every name against the scopes of the coder
+ * and writes the expression in reverse polish notation, all while walking
+ * the tokens once. Brackets, calls and array accesses wait on a heap stack
+ * instead of the call stack, so nesting is only limited by the nesting limit.
+ * <br>
+ * A unary '-' is written as "0 x -", a unary '+' is left out.
+ */
+final class ExpressionParser {
+
+    /**
+     * Operator stack entry of a unary '-', binds stronger than every binary operator
+     */
+    private static final String NEGATE = "neg";
+
+    private final Coder coder;
+    private final int nestingLimit;
+
+    /**
+     * @param coder knows the functions, variables and arrays in scope
+     * @param nestingLimit how many brackets, calls and array accesses may be open at once
+     */
+    ExpressionParser(Coder coder, int nestingLimit) {
+        this.coder = coder;
+        this.nestingLimit = nestingLimit;
+    }
+
+    /**
+     * A bracket, call or array access whose content is parsed while
+     * the expression around it waits on the stack
+     */
+    private static final class Group {
+        static final int TOP = 0;
+        static final int BRACKET = 1;
+        static final int ARGUMENT = 2;
+        static final int INDEX = 3;
+
+        final int kind;
+
+        /**
+         * the opening bracket, -1 for the whole expression
+         */
+        final int open;
+
+        /**
+         * first token of the current argument
+         */
+        int start;
+        int argument;
+
+        /**
+         * true if a value has to follow, false if an operator or the end may follow
+         */
+        boolean operand = true;
+        final Deque<String> operators = new ArrayDeque<>();
+        CompilerEvents.InfixToRpn event;
+
+        Group(int kind, int open, int start) {
+            this.kind = kind;
+            this.open = open;
+            this.start = start;
+            begin();
+        }
+
+        /**
+         * Starts timing the current argument
+         */
+        void begin() {
+            if(kind != BRACKET) {
+                event = new CompilerEvents.InfixToRpn();
+                event.begin();
+            }
+        }
+    }
+
+    /**
+     * Checks an expression and writes it in reverse polish notation
+     * @param start where the expression begins. inclusive
+     * @param end where the expression ends. exclusive
+     * @param out the code is appended here
+     */
+    void parse(List<Line> tokens, int start, int end, List<String> out) {
+        parse(tokens, start, end, Group.TOP, out);
+    }
+
+    /**
+     * Checks the arguments of a call, seperated by ',' <br>
+     * Every argument is written between "_FunArgument_ n" and "_EndFunArgument_ n".
+     * @param start first token after the '('. inclusive
+     * @param end the closing ')'. exclusive
+     */
+    void parseArguments(List<Line> tokens, int start, int end, List<String> out) {
+        out.add("_FunArgument_ 0");
+        parse(tokens, start, end, Group.ARGUMENT, out);
+    }
+
+    private void parse(List<Line> tokens, int start, int end, int kind, List<String> out) {
+        Deque<Group> open = new ArrayDeque<>();
+        Group group = new Group(kind, -1, start);
+        int calls = 0;                                  // open calls and array accesses
+
+        int i = start;
+        while (i < end) {
+            Line line = tokens.get(i);
+            String token = line.s;
+
+            if (token.equals(",") && group.kind == Group.ARGUMENT) {
+                endSegment(tokens, group, out, i, calls);
+                out.add("_EndFunArgument_ " + group.argument);
+                group.argument++;
+                out.add("_FunArgument_ " + group.argument);
+                group.start = i + 1;
+                group.operand = true;
+                group.begin();
+                i++;
+            }
+
+            else if (token.equals(")") || token.equals("]")) {
+                if (group.open < 0 || token.equals("]") != (group.kind == Group.INDEX))
+                    throw new CompilerParseException(line.num, "Unexpected: " + token, line.fName);
+                endSegment(tokens, group, out, i, calls);
+
+                if (group.kind == Group.ARGUMENT) {
+                    out.add("_EndFunArgument_ " + group.argument);
+                    out.add("_EndFunRet_");
+                    calls--;
+                } else if (group.kind == Group.INDEX) {
+                    out.add("_EndArrayVal_");
+                    calls--;
+                }
+                group = open.pop();
+                group.operand = false;
+                i++;
+            }
+
+            else if (!group.operand) {
+                if (!Compiler.MATH_OPERATORS.contains(token) && !Compiler.BOOL_OPERATORS.contains(token))
+                    throw new SyntaxErrorException(line, "After value got unexpected: \"" + token + "\".");
+
+                Deque<String> operators = group.operators;
+                while (!operators.isEmpty() && precedence(token) <= precedence(operators.peek())) {
+                    out.add("_Operator_ " + operatorCode(operators.pop()));
+                }
+                operators.push(token);
+                group.operand = true;
+                i++;
+            }
+
+            else if (token.equals("(")) {
+                checkNesting(line, open.size());
+                open.push(group);
+                group = new Group(Group.BRACKET, i, i + 1);
+                i++;
+            }
+
+            else if (token.equals("-")) {
+                out.add("_IntVal_ 0");
+                group.operators.push(NEGATE);
+                i++;
+            }
+
+            else if (token.equals("+")) {
+                i++;
+            }
+
+            else if (isNum(token)) {
+                if (token.length() > 5 || Integer.parseInt(token) > 0xFFFF)
+                    throw new ClcCoderException(line.num,
+                            "Number \"" + token + "\" does not fit into a 16-bit int", line.fName);
+                out.add("_IntVal_ " + token);
+                group.operand = false;
+                i++;
+            }
+
+            else if (isVariableName(token)) {
+                String next = i + 1 < end ? tokens.get(i + 1).s : "";
+                coder.useName(line);
+
+                if (next.equals("(")) {
+                    checkCall(line);
+                    out.add("_StartFunRet_ " + token);
+                    if (i + 2 < end && tokens.get(i + 2).s.equals(")")) {     // no arguments
+                        out.add("_EndFunRet_");
+                        group.operand = false;
+                        i += 3;
+                        continue;
+                    }
+                    checkNesting(line, open.size());
+                    out.add("_FunArgument_ 0");
+                    open.push(group);
+                    group = new Group(Group.ARGUMENT, i + 1, i + 2);
+                    calls++;
+                    i += 2;
+                }
+                else if (next.equals("[") && coder.isArray(token)) {
+                    checkNesting(line, open.size());
+                    out.add("_StartArrayVal_ " + token);
+                    open.push(group);
+                    group = new Group(Group.INDEX, i + 1, i + 2);
+                    calls++;
+                    i += 2;
+                }
+                else {
+                    checkVariable(line, next);
+                    out.add("_IntVar_ " + token);
+                    group.operand = false;
+                    i++;
+                }
+            }
+
+            else if (i == group.start)
+                throw new SyntaxErrorException(line, "Unexpected \"" + token + "\"");
+            else
+                throw new SyntaxErrorException(line, "After operator got unexpected: \"" + token + "\".");
+        }
+
+        if (!open.isEmpty()) {
+            Line bracket = tokens.get(group.open);
+            throw new CompilerParseException(bracket.num, "'" + bracket.s + "' was not closed!", bracket.fName);
+        }
+        endSegment(tokens, group, out, end, calls);
+        if (group.kind == Group.ARGUMENT)
+            out.add("_EndFunArgument_ " + group.argument);
+    }
+
+    /**
+     * Ends the expression of an argument, an array index or the whole expression
+     * and writes the operators that are still waiting
+     * @param end where it ends. exclusive
+     * @param depth how many calls and array accesses it is in
+     */
+    private static void endSegment(List<Line> tokens, Group group, List<String> out, int end, int depth) {
+        if (group.operand) {
+            if (end <= group.start)
+                throw new SyntaxErrorException(tokens.get(group.start), "No mathematical expression found");
+            Line last = tokens.get(end - 1);
+            throw new SyntaxErrorException(last, "\"" + last.s + "\" cannot stand alone.");
+        }
+
+        while (!group.operators.isEmpty()) {
+            out.add("_Operator_ " + operatorCode(group.operators.pop()));
+        }
+
+        if (group.event != null) {
+            Line first = tokens.get(group.start);
+            group.event.line = first.num;
+            group.event.commit(first.absPath, end - group.start, depth);
+        }
+    }
+
+    private void checkNesting(Line line, int depth) {
+        if (depth + 1 >= nestingLimit)
+            throw new SyntaxErrorException(line,
+                    "Expression is nested deeper than " + nestingLimit + " levels");
+    }
+
+    /**
+     * A called name has to be a function that returns a value
+     */
+    private void checkCall(Line name) {
+        String type = coder.functionType(name.s);
+        if (type == null)
+            throw new ClcCoderException(name.num, coder.isVariable(name.s) || coder.isArray(name.s)
+                    ? "\"" + name.s + "\" is not a function"
+                    : "Function not found: \"" + name.s + "\"", name.fName);
+        if (!type.equals("int"))
+            throw new ClcCoderException(name.num, "Function \"" + name.s + "\" does not return int.", name.fName);
+    }
+
+    /**
+     * A name that is not called or indexed has to be a variable
+     * @param next the token after the name, empty at the end
+     */
+    private void checkVariable(Line name, String next) {
+        if (coder.isVariable(name.s) && !next.equals("["))
+            return;
+
+        String message;
+        if (next.equals("["))
+            message = "\"" + name.s + "\" is not an array";
+        else if (coder.isArray(name.s))
+            message = "Array \"" + name.s + "\" needs an index";
+        else if (coder.isFunction(name.s))
+            message = "Function \"" + name.s + "\" needs to be called";
+        else
+            message = "Name not found: \"" + name.s + "\"";
+        throw new ClcCoderException(name.num, message, name.fName);
+    }
+
+    // Operator having higher precedence
+    // value will be returned
+    private static int precedence(String op) {
+        return switch (op) {
+            case "==", "!=" -> 9;   // equality
+            case "<", ">" -> 10;    // relational
+            case "+", "-" -> 11;    // additive
+            case "*", "/" -> 12;    // multiplicative
+            case NEGATE -> 13;      // unary
+            default -> -1;
+        };
+    }
+
+    private static String operatorCode(String op) {
+        return op.equals(NEGATE) ? "-" : op;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * Stack frames of the functions, the place of every parameter, local
+ * int and local array relative to the frame. <br>
+ * A local lives from its declaration to the end of its block scope,
+ * with liveness it already dies after it is read the last time.
+ * Locals whose lifetimes do not overlap share slots, so the frame
+ * is smaller than one slot for every declaration. Parameters live
+ * from the start of the function, they never share slots with each
+ * other.
+ */
+public final class FrameLayout {
+
+    public static final class Slot {
+        public final String name;
+
+        /**
+         * "param", "int" or "array"
+         */
+        public final String kind;
+
+        /**
+         * its declaration in the code
+         */
+        public final int declaration;
+        public final int words;
+
+        /**
+         * first and last instruction the slot is used. inclusive
+         */
+        private final int from;
+        private int to;
+        /**
+         * the last instruction that writes the slot, a dead value is still stored
+         */
+        private int written;
+        private int offset = -1;
+
+        private Slot(String name, String kind, int declaration, int words, int from) {
+            this.name = name;
+            this.kind = kind;
+            this.declaration = declaration;
+            this.words = words;
+            this.from = from;
+            this.written = from;
+        }
+
+        /**
+         * @return the offset in words from the start of the frame
+         */
+        public int offset() {
+            return offset;
+        }
+    }
+
+    public static final class Frame {
+        public final String function;
+
+        /**
+         * sorted by their declarations, a frame is kept for every function of the program
+         */
+        private final ArrayList<Slot> slots = new ArrayList<>();
+        private int words;
+
+        private Frame(String function) {
+            this.function = function;
+        }
+
+        /**
+         * @return the parameters and locals in the order of the code
+         */
+        public List<Slot> getSlots() {
+            return Collections.unmodifiableList(slots);
+        }
+
+        /**
+         * @param declaration the "_Parameter_", "_NewInt_" or "_NewArray_"
+         * @return its slot, null if it declares nothing in this frame
+         */
+        public Slot slot(int declaration) {
+            int low = 0;
+            int high = slots.size() - 1;
+            while(low <= high) {
+                int middle = (low + high) >>> 1;
+                Slot slot = slots.get(middle);
+                if(slot.declaration < declaration)
+                    low = middle + 1;
+                else if(slot.declaration > declaration)
+                    high = middle - 1;
+                else
+                    return slot;
+            }
+            return null;
+        }
+
+        /**
+         * @return the size of the frame in words
+         */
+        public int words() {
+            return words;
+        }
+
+        /**
+         * @return the size in words if every declaration had its own slot
+         */
+        public int unpackedWords() {
+            int unpacked = 0;
+            for (Slot slot : slots) {
+                unpacked += slot.words;
+            }
+            return unpacked;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "frame %s: %d -> %d bytes", function,
+                    unpackedWords() * MemoryLayout.WORD_SIZE, words * MemoryLayout.WORD_SIZE);
+        }
+    }
+
+    private final Map<String, Frame> frames = new LinkedHashMap<>();
+
+    private FrameLayout() {
+    }
+
+    /**
+     * @param liveness null to place the locals by their scopes only
+     */
+    static FrameLayout compute(List<String> code, Liveness liveness, ControlFlowGraph graph) {
+        FrameLayout layout = new FrameLayout();
+        BitSet[] live = liveness == null ? null : liveInstructions(code, liveness, graph);
+        NameTable names = new NameTable();         // most functions use the same few names
+
+        for (int i = 0; i < code.size(); i++) {
+            if(!Ir.is(code.get(i), Ir.FUNCTION))
+                continue;
+            Frame frame = new Frame(Ir.operand(code.get(i)));
+            i = addSlots(code, i, frame, names, liveness, live);
+            pack(frame);
+            layout.frames.put(frame.function, frame);
+        }
+        return layout;
+    }
+
+    /**
+     * @return all frames in the order of the code
+     */
+    public Collection<Frame> getFrames() {
+        return Collections.unmodifiableCollection(frames.values());
+    }
+
+    /**
+     * @return the frame, null if the function is not in the code
+     */
+    public Frame frame(String function) {
+        return frames.get(function);
+    }
+
+    /**
+     * Human-readable map, one slot per line.
+     */
+    public List<String> toMap() {
+        return toMap(new ArrayList<>());
+    }
+
+    /**
+     * Adds the map to a list, e.g. a {@link SpillList}
+     * @return the list
+     */
+    List<String> toMap(List<String> map) {
+        map.add("# clc stack frames");
+        map.add(String.format("# %-8s %-6s %-5s %s", "offset", "size", "kind", "name"));
+        for (Frame frame : frames.values()) {
+            map.add("# " + frame);
+            List<Slot> slots = new ArrayList<>(frame.slots);
+            slots.sort(Comparator.comparingInt(Slot::offset));
+            for (Slot slot : slots) {
+                map.add(String.format("+%-9d %-6d %-5s %s", slot.offset * MemoryLayout.WORD_SIZE,
+                        slot.words * MemoryLayout.WORD_SIZE, slot.kind, slot.name));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Finds the declarations of a function and their lifetimes
+     * @param start the "_Function_"
+     * @return the "_EndFunction_"
+     */
+    private static int addSlots(List<String> code, int start, Frame frame, NameTable names,
+                                Liveness liveness, BitSet[] live) {
+        Deque<Set<Slot>> scopes = new ArrayDeque<>();       // declarations of the open block scopes
+        Map<String, Deque<Slot>> visible = new HashMap<>(); // declarations of every name, the innermost first
+        List<Slot> parameters = new ArrayList<>();
+        scopes.push(new LinkedHashSet<>());
+
+        int i = start + 1;
+        for (; !Ir.is(code.get(i), Ir.END_FUNCTION); i++) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.PARAMETER)) {
+                String operand = Ir.operand(instruction);
+                Slot parameter = new Slot(names.intern(operand, operand.indexOf(' ') + 1, operand.length()),
+                        "param", i, 1, start);
+                declare(scopes, visible, parameter);
+                parameters.add(parameter);
+            } else if(Ir.is(instruction, Ir.NEW_INT)) {
+                int write = i;
+                while(!Ir.is(code.get(write), Ir.END_NEW_INT))
+                    write++;
+                redeclare(scopes.peek(), visible, Ir.operand(instruction), i, frame, liveness, live);
+                // the value is computed before it is written, so it may still read a slot that dies
+                declare(scopes, visible, new Slot(names.intern(Ir.operand(instruction)), "int", i, 1, write));
+            } else if(Ir.is(instruction, Ir.NEW_ARRAY)) {
+                String[] operands = Ir.operand(instruction).split(" ");
+                redeclare(scopes.peek(), visible, operands[0], i, frame, liveness, live);
+                declare(scopes, visible, new Slot(names.intern(operands[0]), "array", i, Integer.parseInt(operands[1]), i));
+            } else if(Ir.is(instruction, Ir.END_SET_INT)) {
+                Slot slot = declaration(visible, Ir.operand(instruction));
+                if(slot != null)
+                    slot.written = i;
+            } else if(Ir.is(instruction, Ir.END_TAIL_CALL)) {
+                // the arguments are written to the parameters before the jump
+                for (Slot slot : parameters) {
+                    if(scopes.getLast().contains(slot))
+                        slot.written = i;
+                }
+            } else if(Ir.is(instruction, Ir.THEN) || Ir.is(instruction, Ir.DO)) {
+                scopes.push(new LinkedHashSet<>());
+            } else if(Ir.is(instruction, Ir.ELSE)) {
+                endScope(close(scopes, visible), i, frame, liveness, live);
+                scopes.push(new LinkedHashSet<>());
+            } else if(Ir.is(instruction, Ir.ELSE_IF) || Ir.is(instruction, Ir.END_IF)
+                    || Ir.is(instruction, Ir.END_WHILE)) {
+                endScope(close(scopes, visible), i, frame, liveness, live);
+            }
+        }
+        endScope(close(scopes, visible), i, frame, liveness, live);
+        frame.slots.sort(Comparator.comparingInt(slot -> slot.declaration));
+        frame.slots.trimToSize();
+        return i;
+    }
+
+    /**
+     * Ends the lifetime of an earlier declaration of the name in the same
+     * scope, unrolled loops declare the locals of their body again
+     * @param position the new declaration
+     */
+    private static void redeclare(Set<Slot> scope, Map<String, Deque<Slot>> visible, String name, int position,
+                                  Frame frame, Liveness liveness, BitSet[] live) {
+        Deque<Slot> declarations = visible.get(name);
+        if(declarations != null && scope.contains(declarations.peek())) {
+            Slot slot = declarations.pop();
+            scope.remove(slot);
+            endScope(List.of(slot), position, frame, liveness, live);
+        }
+    }
+
+    private static void declare(Deque<Set<Slot>> scopes, Map<String, Deque<Slot>> visible, Slot slot) {
+        scopes.peek().add(slot);
+        visible.computeIfAbsent(slot.name, name -> new ArrayDeque<>()).push(slot);
+    }
+
+    /**
+     * @return the declarations of the innermost scope, they are no longer visible
+     */
+    private static Set<Slot> close(Deque<Set<Slot>> scopes, Map<String, Deque<Slot>> visible) {
+        Set<Slot> scope = scopes.pop();
+        for (Slot slot : scope) {
+            visible.get(slot.name).pop();
+        }
+        return scope;
+    }
+
+    /**
+     * @return the declaration a name refers to, null for a global
+     */
+    private static Slot declaration(Map<String, Deque<Slot>> visible, String name) {
+        Deque<Slot> declarations = visible.get(name);
+        return declarations == null ? null : declarations.peek();
+    }
+
+    /**
+     * Sets the end of the lifetimes of the declarations of a block scope
+     * @param end the instruction that closes the scope
+     */
+    private static void endScope(Collection<Slot> declarations, int end, Frame frame, Liveness liveness, BitSet[] live) {
+        for (Slot slot : declarations) {
+            slot.to = end;
+            if(live != null && !slot.kind.equals("array")) {
+                int variable = liveness.variable(slot.name);
+                if(variable >= 0)
+                    slot.to = Math.max(slot.written, live[variable].previousSetBit(end));
+            }
+            frame.slots.add(slot);
+        }
+    }
+
+    /**
+     * @return for every local variable the instructions before which it is live
+     */
+    private static BitSet[] liveInstructions(List<String> code, Liveness liveness, ControlFlowGraph graph) {
+        BitSet[] live = new BitSet[liveness.size()];
+        for (int v = 0; v < live.length; v++) {
+            live[v] = new BitSet(code.size());
+        }
+        for (ControlFlowGraph.Block block : graph.blocks()) {
+            BitSet variables = (BitSet) liveness.liveOut(block).clone();
+            for (int i = block.end - 1; i >= block.start; i--) {
+                liveness.step(code.get(i), variables);
+                for (int v = variables.nextSetBit(0); v >= 0; v = variables.nextSetBit(v + 1)) {
+                    live[v].set(i);
+                }
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Gives every declaration the lowest offset whose slots are free when its lifetime starts
+     */
+    private static void pack(Frame frame) {
+        List<Slot> byStart = new ArrayList<>(frame.slots);
+        byStart.sort(Comparator.comparingInt(slot -> slot.from));
+        int[] busyUntil = new int[frame.unpackedWords()];
+        Arrays.fill(busyUntil, -1);
+
+        for (Slot slot : byStart) {
+            int offset = 0;
+            for (int word = 0; word < slot.words; word++) {
+                if(busyUntil[offset + word] >= slot.from) {
+                    offset += word + 1;
+                    word = -1;
+                }
+            }
+            Arrays.fill(busyUntil, offset, offset + slot.words, slot.to);
+            slot.offset = offset;
+            frame.words = Math.max(frame.words, offset + slot.words);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+/**
+ * Reads the instructions of the {@link Coder}. An instruction is an
+ * opcode like "_SetInt_", optionally followed by a space and its operand.
+ */
+final class Ir {
+
+    static final String FUNCTION = "_Function_";
+    static final String END_FUNCTION = "_EndFunction_";
+    static final String PARAMETER = "_Parameter_";
+    static final String NEW_INT = "_NewInt_";
+    static final String END_NEW_INT = "_EndNewInt_";
+    static final String SET_INT = "_SetInt_";
+    static final String END_SET_INT = "_EndSetInt_";
+    static final String NEW_ARRAY = "_NewArray_";
+    static final String END_NEW_ARRAY = "_EndNewArray_";
+    static final String ARRAY_ELEMENT = "_ArrayElement_";
+    static final String END_ARRAY_ELEMENT = "_EndArrayElement_";
+    static final String RESERVE_ARRAY = "_ReserveArray_";
+    static final String DATA_ARRAY = "_DataArray_";
+    static final String DATA_WORDS = "_DataWords_";
+    static final String END_DATA_ARRAY = "_EndDataArray_";
+    static final String SET_ARRAY_VAL = "_SetArrayVal_";
+    static final String END_SET_ARRAY_VAL = "_EndSetArrayVal_";
+    static final String START_ARRAY_VAL = "_StartArrayVal_";
+    static final String END_ARRAY_VAL = "_EndArrayVal_";
+    static final String INT_VALUE = "_IntValue_";
+    static final String END_INT_VALUE = "_EndIntValue_";
+    static final String INT_VAL = "_IntVal_";
+    static final String INT_VAR = "_IntVar_";
+    static final String OPERATOR = "_Operator_";
+    static final String START_FUN = "_StartFun_";
+    static final String START_FUN_RET = "_StartFunRet_";
+    static final String END_FUN = "_EndFun_";
+    static final String END_FUN_RET = "_EndFunRet_";
+    static final String FUN_ARGUMENT = "_FunArgument_";
+    static final String END_FUN_ARGUMENT = "_EndFunArgument_";
+    static final String TAIL_CALL = "_TailCall_";
+    static final String END_TAIL_CALL = "_EndTailCall_";
+    static final String RETURN = "_Return_";
+    static final String END_RETURN = "_EndReturn_";
+    static final String IF = "_If_";
+    static final String THEN = "_Then_";
+    static final String ELSE_IF = "_ElseIf_";
+    static final String ELSE = "_Else_";
+    static final String END_IF = "_EndIf_";
+    static final String WHILE = "_While_";
+    static final String DO = "_Do_";
+    static final String END_WHILE = "_EndWhile_";
+
+    private Ir() {
+    }
+
+    /**
+     * @return true if the instruction has the opcode, with or without operand
+     */
+    static boolean is(String instruction, String opcode) {
+        return instruction.startsWith(opcode)
+                && (instruction.length() == opcode.length() || instruction.charAt(opcode.length()) == ' ');
+    }
+
+    /**
+     * @return the opcode without operand
+     */
+    static String opcode(String instruction) {
+        int space = instruction.indexOf(' ');
+        return space < 0 ? instruction : instruction.substring(0, space);
+    }
+
+    /**
+     * @return the text after the opcode, empty if there is none
+     */
+    static String operand(String instruction) {
+        int space = instruction.indexOf(' ');
+        return space < 0 ? "" : instruction.substring(space + 1);
+    }
+
+    /**
+     * @return the label of an "_If_", "_While_" or other block instruction
+     */
+    static int label(String instruction) {
+        return Integer.parseInt(operand(instruction));
+    }
+
+    /**
+     * @return true for comments, they start with '#'
+     */
+    static boolean isComment(String instruction) {
+        return !instruction.isEmpty() && instruction.charAt(0) == '#';
+    }
+
+    /**
+     * @return the source location "file:line" a statement comment starts with, null for other instructions
+     */
+    static String location(String instruction) {
+        if(!isComment(instruction))
+            return null;
+        int end = instruction.indexOf(' ', 2);
+        String location = instruction.substring(2, end < 0 ? instruction.length() : end);
+        int colon = location.lastIndexOf(':');
+        if(colon <= 0 || colon == location.length() - 1 || !SyntaxCheck.isNum(location.substring(colon + 1)))
+            return null;
+        return location;
+    }
+
+    /**
+     * @return true for the instructions that open, split or close a block or function
+     */
+    static boolean isStructure(String instruction) {
+        return is(instruction, IF) || is(instruction, THEN) || is(instruction, ELSE_IF) || is(instruction, ELSE)
+                || is(instruction, END_IF) || is(instruction, WHILE) || is(instruction, DO)
+                || is(instruction, END_WHILE) || is(instruction, FUNCTION) || is(instruction, END_FUNCTION);
+    }
+}
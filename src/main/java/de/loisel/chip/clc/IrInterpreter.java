@@ -0,0 +1,235 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * Runs functions of the linked code at compile time. <br>
+ * Ints are 16-bit and signed like on the LoChip. Only the locals of the
+ * functions are known, a function that uses a global can not be run.
+ * A run that divides by zero, indexes outside of an array, takes more
+ * than {@link #MAX_STEPS} instructions or nests more than
+ * {@link #MAX_DEPTH} calls has no value, it is left to the program.
+ * An interpreter can run many calls, the step limit is per call.
+ */
+final class IrInterpreter {
+
+    static final int MAX_STEPS = 100_000;
+    static final int MAX_DEPTH = 200;
+
+    /**
+     * A run ends without a value, thrown to leave the nested calls
+     */
+    private static final class NoValue extends RuntimeException {
+        NoValue() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final List<String> code;
+    private final Map<String, Integer> functions = new HashMap<>();
+
+    /**
+     * where the code goes on after a block instruction that jumps
+     */
+    private final Map<Integer, Integer> jumps = new HashMap<>();
+    private int steps;
+    private int depth;
+
+    IrInterpreter(List<String> code) {
+        this.code = code;
+        for (int i = 0; i < code.size(); i++) {
+            if(Ir.is(code.get(i), Ir.FUNCTION))
+                functions.put(Ir.operand(code.get(i)), i);
+        }
+    }
+
+    /**
+     * @return the value of the call, empty if it has none at compile time
+     */
+    OptionalInt call(String function, int[] arguments) {
+        steps = 0;
+        depth = 0;
+        try {
+            return OptionalInt.of(run(function, arguments));
+        } catch (NoValue e) {
+            return OptionalInt.empty();
+        }
+    }
+
+    private int run(String function, int[] arguments) {
+        Integer start = functions.get(function);
+        if(start == null || ++depth > MAX_DEPTH)
+            throw new NoValue();
+
+        Map<String, Integer> ints = new HashMap<>();
+        Map<String, int[]> arrays = new HashMap<>();
+        Deque<Integer> values = new ArrayDeque<>();
+        Deque<String> indexed = new ArrayDeque<>();
+        Deque<Integer> calls = new ArrayDeque<>();      // the number of values before the arguments
+        Deque<String> callees = new ArrayDeque<>();
+        int[] newArray = null;
+
+        int body = start + 1;
+        while(Ir.is(code.get(body), Ir.PARAMETER) || Ir.isComment(code.get(body)))
+            body++;
+        setParameters(start, body, arguments, ints);
+
+        int i = body;
+        while(true) {
+            if(++steps > MAX_STEPS)
+                throw new NoValue();
+            String instruction = code.get(i);
+            String operand = Ir.operand(instruction);
+            int next = i + 1;
+            switch (Ir.opcode(instruction)) {
+                case Ir.INT_VAL -> values.push(ConstantFolding.value(instruction));
+                case Ir.INT_VAR -> values.push(value(ints.get(operand)));
+                case Ir.OPERATOR -> {
+                    int right = values.pop();
+                    values.push(value(ConstantFolding.fold(operand, values.pop(), right)));
+                }
+                case Ir.END_NEW_INT, Ir.END_SET_INT -> ints.put(operand, values.pop());
+                case Ir.NEW_ARRAY -> {
+                    String[] operands = operand.split(" ");
+                    newArray = new int[Integer.parseInt(operands[1])];
+                    arrays.put(operands[0], newArray);
+                }
+                case Ir.END_ARRAY_ELEMENT -> newArray[Integer.parseInt(operand)] = values.pop();
+                case Ir.START_ARRAY_VAL -> indexed.push(operand);
+                case Ir.END_ARRAY_VAL -> values.push(element(arrays.get(indexed.pop()), values.pop()));
+                case Ir.END_SET_ARRAY_VAL -> {
+                    int value = values.pop();
+                    int[] array = arrays.get(operand);
+                    element(array, values.peek());
+                    array[values.pop()] = value;
+                }
+                case Ir.START_FUN, Ir.START_FUN_RET, Ir.TAIL_CALL -> {
+                    callees.push(operand);
+                    calls.push(values.size());
+                }
+                case Ir.END_FUN, Ir.END_FUN_RET -> {
+                    int value = run(callees.pop(), arguments(values, calls.pop()));
+                    depth--;
+                    if(Ir.is(instruction, Ir.END_FUN_RET))
+                        values.push(value);
+                }
+                case Ir.END_TAIL_CALL -> {
+                    callees.pop();
+                    ints.clear();
+                    arrays.clear();
+                    setParameters(start, body, arguments(values, calls.pop()), ints);
+                    next = body;
+                }
+                case Ir.END_RETURN -> {
+                    return Ir.is(code.get(i - 1), Ir.END_INT_VALUE) ? values.pop() : 0;
+                }
+                case Ir.END_FUNCTION -> {
+                    return 0;
+                }
+                case Ir.THEN -> {
+                    if(values.pop() == 0)
+                        next = nextBranch(i, operand);
+                }
+                case Ir.ELSE_IF, Ir.ELSE -> next = jump(i, Ir.END_IF + " " + operand) + 1;
+                case Ir.DO -> {
+                    if(values.pop() == 0)
+                        next = jump(i, Ir.END_WHILE + " " + operand) + 1;
+                }
+                case Ir.END_WHILE -> next = jumpBack(i, Ir.WHILE + " " + operand);
+                default -> {
+                    // comments, the start and end of values and statements
+                }
+            }
+            i = next;
+        }
+    }
+
+    private void setParameters(int start, int body, int[] arguments, Map<String, Integer> ints) {
+        for (int i = start + 1; i < body; i++) {
+            String instruction = code.get(i);
+            if(!Ir.is(instruction, Ir.PARAMETER))
+                continue;
+            String operand = Ir.operand(instruction);
+            int index = Integer.parseInt(operand.substring(0, operand.indexOf(' ')));
+            if(index >= arguments.length)
+                throw new NoValue();
+            ints.put(operand.substring(operand.indexOf(' ') + 1), arguments[index]);
+        }
+    }
+
+    /**
+     * @return the values from the height on, the first argument first
+     */
+    private static int[] arguments(Deque<Integer> values, int height) {
+        int[] arguments = new int[values.size() - height];
+        for (int i = arguments.length - 1; i >= 0; i--) {
+            arguments[i] = values.pop();
+        }
+        return arguments;
+    }
+
+    private static int value(Integer value) {
+        if(value == null)
+            throw new NoValue();
+        return value;
+    }
+
+    private static int element(int[] array, int index) {
+        if(array == null || index < 0 || index >= array.length)
+            throw new NoValue();
+        return array[index];
+    }
+
+    /**
+     * @param then a "_Then_" whose condition is false
+     * @return the instruction after the next "_ElseIf_" or "_Else_", or the "_EndIf_"
+     */
+    private int nextBranch(int then, String label) {
+        return jumps.computeIfAbsent(then, position -> {
+            for (int i = position + 1; ; i++) {
+                String instruction = code.get(i);
+                if(instruction.equals(Ir.ELSE_IF + " " + label) || instruction.equals(Ir.ELSE + " " + label))
+                    return i + 1;
+                if(instruction.equals(Ir.END_IF + " " + label))
+                    return i;
+            }
+        });
+    }
+
+    /**
+     * @return the next instruction that is equal to the target
+     */
+    private int jump(int from, String target) {
+        return jumps.computeIfAbsent(from, position -> {
+            int i = position + 1;
+            while(!code.get(i).equals(target))
+                i++;
+            return i;
+        });
+    }
+
+    private int jumpBack(int from, String target) {
+        return jumps.computeIfAbsent(from, position -> {
+            int i = position - 1;
+            while(!code.get(i).equals(target))
+                i--;
+            return i;
+        });
+    }
+}
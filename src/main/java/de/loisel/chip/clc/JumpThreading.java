@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+import static de.loisel.chip.clc.Asm.*;
+
+/**
+ * Cleans up the jumps of the generated assembly, the cascades of
+ * if/else-if chains and returns leave many jumps to jumps. <br>
+ * A jump to a jump goes to the final target, a branch over a jump
+ * becomes the inverted branch, a jump to the next instruction and the
+ * code after a jump that has no label are removed. Labels are kept.
+ */
+final class JumpThreading {
+
+    private final List<Asm> code;
+
+    /**
+     * the instructions after the labels
+     */
+    private final Map<String, Integer> labels = new HashMap<>();
+
+    private JumpThreading(List<Asm> code) {
+        this.code = new ArrayList<>(code);
+    }
+
+    /**
+     * @param code the generated assembly, jumps only go to labels of it
+     * @return the assembly with threaded jumps
+     */
+    static List<Asm> thread(List<Asm> code) {
+        JumpThreading threading = new JumpThreading(code);
+        boolean changed = true;
+        while(changed) {
+            threading.findLabels();
+            changed = threading.retarget();
+            changed |= threading.removeJumps();
+        }
+        return threading.code;
+    }
+
+    private void findLabels() {
+        labels.clear();
+        for (int i = 0; i < code.size(); i++) {
+            if(code.get(i).op.equals(LABEL))
+                labels.put(code.get(i).text, i);
+        }
+    }
+
+    /**
+     * Lets jumps and branches skip the jumps they go to
+     */
+    private boolean retarget() {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            Asm jump = code.get(i);
+            if(!jump.isBranch())
+                continue;
+            String target = finalTarget(jump.text);
+            if(!target.equals(jump.text)) {
+                code.set(i, jump.retarget(jump.op, target));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the label that a jump to the label ends at, the label itself if there is no jump
+     */
+    private String finalTarget(String label) {
+        String target = label;
+        // a loop of jumps never ends, it is left as it is
+        for (int hops = 0; hops < labels.size(); hops++) {
+            Integer next = labels.get(target);
+            if(next == null)
+                return target;
+            int at = instructionAt(next);
+            if(at == code.size())
+                return target;
+            Asm instruction = code.get(at);
+            if(!instruction.op.equals(JMP) || instruction.text.equals(target))
+                return target;
+            target = instruction.text;
+        }
+        return label;
+    }
+
+    private boolean removeJumps() {
+        boolean changed = false;
+        List<Asm> threaded = new ArrayList<>(code.size());
+        boolean reachable = true;
+        for (int i = 0; i < code.size(); i++) {
+            Asm instruction = code.get(i);
+            if(instruction.op.equals(LABEL)) {
+                reachable = true;
+            } else if(!reachable && !instruction.op.equals(COMMENT)) {
+                changed = true;
+                continue;
+            }
+
+            if(instruction.isBranch() && fallsThrough(i + 1, instruction.text)) {
+                // the branch goes where the code goes anyway
+                changed = true;
+                continue;
+            }
+            int next = instructionAt(i + 1);
+            if(instruction.isConditional() && next < code.size() && code.get(next).op.equals(JMP)
+                    && onlyComments(i + 1, next) && fallsThrough(next + 1, instruction.text)) {
+                // branches over a jump, the inverted branch jumps instead
+                threaded.add(instruction.retarget(invert(instruction.op), code.get(next).text));
+                threaded.addAll(code.subList(i + 1, next));
+                i = next;
+                changed = true;
+                continue;
+            }
+
+            threaded.add(instruction);
+            if(instruction.isJump())
+                reachable = false;
+        }
+        code.clear();
+        code.addAll(threaded);
+        return changed;
+    }
+
+    /**
+     * @return true if the label is between the position and the next instruction
+     */
+    private boolean fallsThrough(int from, String label) {
+        Integer position = labels.get(label);
+        return position != null && position >= from && onlyLabels(from, position);
+    }
+
+    /**
+     * @return true if there are only labels and comments from the position to the end. exclusive
+     */
+    private boolean onlyLabels(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if(!code.get(i).op.equals(LABEL) && !code.get(i).op.equals(COMMENT))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if there are only comments from the position to the end. exclusive
+     */
+    private boolean onlyComments(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if(!code.get(i).op.equals(COMMENT))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the first instruction from the position on that is no label or comment
+     */
+    private int instructionAt(int from) {
+        int i = from;
+        while(i < code.size() && (code.get(i).op.equals(LABEL) || code.get(i).op.equals(COMMENT)))
+            i++;
+        return i;
+    }
+}
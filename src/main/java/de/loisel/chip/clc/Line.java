@@ -46,6 +46,14 @@ public class Line {
         this.num = line.num;
     }
 
+    public Line(String content, Line line, int lineNum) {
+        this.fName = line.fName;
+        this.path = line.path;
+        this.absPath = line.absPath;
+        this.s = content;
+        this.num = lineNum;
+    }
+
     public int length() {
         return s.length();
     }
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+import static de.loisel.chip.clc.Asm.*;
+
+/**
+ * Linear scan register allocation of one function. <br>
+ * The live interval of a virtual register reaches from the first to
+ * the last instruction it is written, read or live at, in the order of
+ * the code. The intervals are visited by their start, each one takes a
+ * free register. If none is free, the interval with the lowest weight
+ * is spilled: uses in loops count eight times more per loop, divided
+ * by the length of the interval. Every register is saved by the
+ * caller, so intervals that live across a call are always spilled.
+ * <br>
+ * A spilled value is loaded into r7 or r0 before it is read and
+ * written from r7 after it is set.
+ */
+final class LinearScan {
+
+    private static final int[] REGISTERS = {1, 2, 3, 4, 5, 6};
+    private static final int MAX_LOOP_WEIGHT = 4;
+
+    private static final class Interval {
+        final int register;
+        int start = Integer.MAX_VALUE;
+        int end = -1;
+        double weight;
+        boolean acrossCall;
+
+        /**
+         * the register it got, {@link Asm#NONE} if it is spilled
+         */
+        int physical = NONE;
+
+        /**
+         * offset of its slot from the frame pointer if it is spilled
+         */
+        int home;
+
+        Interval(int register) {
+            this.register = register;
+        }
+
+        void add(int instruction) {
+            start = Math.min(start, instruction);
+            end = Math.max(end, instruction);
+        }
+    }
+
+    private final List<Asm> code;
+    private final Map<Integer, Integer> homes;
+    private final Map<Integer, Interval> intervals = new HashMap<>();
+
+    /**
+     * the spilled values of expressions in every slot after the frame
+     */
+    private final List<List<Interval>> spillSlots = new ArrayList<>();
+
+    /**
+     * the last instruction a value in every spill slot is live at
+     */
+    private final List<Integer> slotEnds = new ArrayList<>();
+
+    /**
+     * the words of the frame that are used, the local arrays and the spilled local ints
+     */
+    private int frameWords;
+    private int allocated;
+    private int spilled;
+
+    /**
+     * @param code one function, after its prologue
+     * @param homes the offset of the frame slot of every local int
+     * @param frameWords the words of the frame the local arrays need
+     */
+    LinearScan(List<Asm> code, Map<Integer, Integer> homes, int frameWords) {
+        this.code = code;
+        this.homes = homes;
+        this.frameWords = frameWords;
+    }
+
+    /**
+     * @return the code with registers, the virtual registers are replaced
+     */
+    List<Asm> allocate() {
+        buildIntervals();
+
+        List<Interval> byStart = new ArrayList<>(intervals.values());
+        byStart.sort(Comparator.comparingInt((Interval interval) -> interval.start)
+                .thenComparingInt(interval -> interval.register));
+        List<Interval> active = new ArrayList<>();
+        Deque<Integer> free = new ArrayDeque<>();
+        for (int register : REGISTERS) {
+            free.add(register);
+        }
+
+        for (Interval current : byStart) {
+            // a register read for the last time can be written by the same instruction
+            for (Iterator<Interval> it = active.iterator(); it.hasNext(); ) {
+                Interval interval = it.next();
+                if(interval.end < current.start
+                        || interval.end == current.start && code.get(current.start).def() == current.register) {
+                    free.add(interval.physical);
+                    it.remove();
+                }
+            }
+
+            if(current.acrossCall) {
+                spill(current);
+            } else if(!free.isEmpty()) {
+                current.physical = free.poll();
+                active.add(current);
+            } else {
+                Interval victim = current;
+                for (Interval interval : active) {
+                    if(interval.weight < victim.weight
+                            || interval.weight == victim.weight && interval.end > victim.end)
+                        victim = interval;
+                }
+                if(victim != current) {
+                    current.physical = victim.physical;
+                    victim.physical = NONE;
+                    active.remove(victim);
+                    active.add(current);
+                }
+                spill(victim);
+            }
+        }
+        for (Interval interval : intervals.values()) {
+            if(interval.physical != NONE)
+                allocated++;
+        }
+        return rewrite();
+    }
+
+    /**
+     * @return the size of the frame with the spill slots, in words. Slots
+     * of local ints in registers are left out
+     */
+    int frameWords() {
+        return frameWords + spillSlots.size();
+    }
+
+    int allocated() {
+        return allocated;
+    }
+
+    int spilled() {
+        return spilled;
+    }
+
+    private void buildIntervals() {
+        List<Integer> leaders = leaders();
+        int blocks = leaders.size();
+        Map<String, Integer> labels = new HashMap<>();
+        for (int block = 0; block < blocks; block++) {
+            Asm first = code.get(leaders.get(block));
+            if(first.op.equals(LABEL))
+                labels.put(first.text, block);
+        }
+
+        // only registers read in another block than the one they are set in
+        // take part in the liveness between blocks, temporaries stay out
+        Map<Integer, Integer> global = new HashMap<>();
+        List<Integer> registers = new ArrayList<>();
+        BitSet[] gen = new BitSet[blocks];
+        BitSet[] kill = new BitSet[blocks];
+        List<List<Integer>> exposed = new ArrayList<>();
+        for (int block = 0; block < blocks; block++) {
+            Set<Integer> set = new HashSet<>();
+            List<Integer> reads = new ArrayList<>();
+            for (int i = leaders.get(block); i < end(leaders, block); i++) {
+                Asm instruction = code.get(i);
+                for (int register : new int[] {instruction.a, instruction.b}) {
+                    if(isVirtual(register) && !set.contains(register)) {
+                        reads.add(register);
+                        if(!global.containsKey(register)) {
+                            global.put(register, registers.size());
+                            registers.add(register);
+                        }
+                    }
+                }
+                if(isVirtual(instruction.def()))
+                    set.add(instruction.def());
+            }
+            exposed.add(reads);
+        }
+        for (int block = 0; block < blocks; block++) {
+            gen[block] = new BitSet();
+            kill[block] = new BitSet();
+            for (int register : exposed.get(block)) {
+                gen[block].set(global.get(register));
+            }
+            for (int i = leaders.get(block); i < end(leaders, block); i++) {
+                Integer index = global.get(code.get(i).def());
+                if(index != null)
+                    kill[block].set(index);
+            }
+        }
+
+        // live registers at the start and the end of every block, a backward problem
+        BitSet[] liveIn = new BitSet[blocks];
+        BitSet[] liveOut = new BitSet[blocks];
+        for (int block = 0; block < blocks; block++) {
+            liveIn[block] = (BitSet) gen[block].clone();
+            liveOut[block] = new BitSet();
+        }
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for (int block = blocks - 1; block >= 0; block--) {
+                Asm last = code.get(end(leaders, block) - 1);
+                BitSet out = liveOut[block];
+                if(!last.isJump() && block + 1 < blocks)
+                    out.or(liveIn[block + 1]);
+                if(last.isBranch() && labels.containsKey(last.text))
+                    out.or(liveIn[labels.get(last.text)]);
+
+                BitSet in = (BitSet) out.clone();
+                in.andNot(kill[block]);
+                in.or(gen[block]);
+                if(!in.equals(liveIn[block])) {
+                    liveIn[block] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        // the interval of a register reaches over the whole block if it is live at its start or end
+        for (int block = 0; block < blocks; block++) {
+            int first = leaders.get(block);
+            int last = end(leaders, block) - 1;
+            Set<Integer> live = new HashSet<>();
+            for (int index = liveOut[block].nextSetBit(0); index >= 0; index = liveOut[block].nextSetBit(index + 1)) {
+                live.add(registers.get(index));
+                interval(registers.get(index)).add(last);
+            }
+            for (int index = liveIn[block].nextSetBit(0); index >= 0; index = liveIn[block].nextSetBit(index + 1)) {
+                interval(registers.get(index)).add(first);
+            }
+
+            for (int i = last; i >= first; i--) {
+                Asm instruction = code.get(i);
+                if(instruction.op.equals(CALL)) {
+                    for (int register : live) {
+                        interval(register).acrossCall = true;
+                    }
+                }
+                double weight = Math.pow(8, Math.min(instruction.depth, MAX_LOOP_WEIGHT));
+                for (int register : new int[] {instruction.def(), instruction.a, instruction.b}) {
+                    if(isVirtual(register)) {
+                        Interval interval = interval(register);
+                        interval.add(i);
+                        interval.weight += weight;
+                    }
+                }
+                if(isVirtual(instruction.def()))
+                    live.remove(instruction.def());
+                if(isVirtual(instruction.a))
+                    live.add(instruction.a);
+                if(isVirtual(instruction.b))
+                    live.add(instruction.b);
+            }
+        }
+        for (Interval interval : intervals.values()) {
+            interval.weight /= interval.end - interval.start + 1;
+        }
+    }
+
+    /**
+     * @return the first instruction of every basic block: the start, every
+     * label and every instruction after a jump or a branch
+     */
+    private List<Integer> leaders() {
+        List<Integer> leaders = new ArrayList<>();
+        for (int i = 0; i < code.size(); i++) {
+            if(i == 0 || code.get(i).op.equals(LABEL)
+                    || code.get(i - 1).isJump() || code.get(i - 1).isBranch())
+                leaders.add(i);
+        }
+        return leaders;
+    }
+
+    private int end(List<Integer> leaders, int block) {
+        return block + 1 < leaders.size() ? leaders.get(block + 1) : code.size();
+    }
+
+    private Interval interval(int register) {
+        return intervals.computeIfAbsent(register, Interval::new);
+    }
+
+    /**
+     * Keeps the value in the frame, a local int in its own slot
+     */
+    private void spill(Interval interval) {
+        spilled++;
+        Integer home = homes.get(interval.register);
+        if(home != null) {
+            interval.home = home;
+            frameWords = Math.max(frameWords, -home / MemoryLayout.WORD_SIZE);
+            return;
+        }
+
+        // every interval in a slot starts before this one ends, so
+        // the last end of a slot tells if they overlap
+        int slot = 0;
+        while(slot < spillSlots.size() && slotEnds.get(slot) >= interval.start)
+            slot++;
+        if(slot == spillSlots.size()) {
+            spillSlots.add(new ArrayList<>());
+            slotEnds.add(-1);
+        }
+        spillSlots.get(slot).add(interval);
+        slotEnds.set(slot, Math.max(slotEnds.get(slot), interval.end));
+    }
+
+    private List<Asm> rewrite() {
+        // the slots of spilled values come after the used part of the frame
+        for (int slot = 0; slot < spillSlots.size(); slot++) {
+            for (Interval interval : spillSlots.get(slot)) {
+                interval.home = -MemoryLayout.WORD_SIZE * (frameWords + slot + 1);
+            }
+        }
+
+        List<Asm> allocated = new ArrayList<>(code.size());
+        for (Asm instruction : code) {
+            int def = instruction.def();
+            Interval written = isVirtual(def) ? intervals.get(def) : null;
+            Interval first = isVirtual(instruction.a) ? intervals.get(instruction.a) : null;
+            Interval second = isVirtual(instruction.b) ? intervals.get(instruction.b) : null;
+
+            if(first != null)
+                instruction.a = use(first, R7, allocated, instruction.depth);
+            if(second != null)
+                instruction.b = second == first ? instruction.a : use(second, R0, allocated, instruction.depth);
+            if(written != null)
+                instruction.d = written.physical == NONE ? R7 : written.physical;
+
+            if(!instruction.op.equals(MOV) || instruction.d != instruction.a)
+                allocated.add(instruction);
+            if(written != null && written.physical == NONE)
+                allocated.add(depth(st(FP, written.home, R7), instruction.depth));
+        }
+        return allocated;
+    }
+
+    /**
+     * @return the register to read the value from, the scratch register if it is spilled
+     */
+    private static int use(Interval interval, int scratch, List<Asm> allocated, int depth) {
+        if(interval.physical != NONE)
+            return interval.physical;
+        allocated.add(depth(ld(scratch, FP, interval.home), depth));
+        return scratch;
+    }
+
+    private static Asm depth(Asm instruction, int depth) {
+        instruction.depth = depth;
+        return instruction;
+    }
+
+    private static boolean isVirtual(int register) {
+        return register >= FIRST_VIRTUAL;
+    }
+}
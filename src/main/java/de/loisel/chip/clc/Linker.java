@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Merges object units into one program. All functions and globals
+ * are entered into one hashed symbol index, every reference of a
+ * unit must be defined by exactly one unit.
+ */
+public final class Linker {
+
+    public static final String ENTRY_POINT = "main";
+
+    public static final class Program {
+        public final List<String> code;
+        public final MemoryLayout memoryLayout;
+
+        Program(List<String> code, MemoryLayout memoryLayout) {
+            this.code = code;
+            this.memoryLayout = memoryLayout;
+        }
+    }
+
+    /**
+     * A symbol and the unit that defines it
+     */
+    private static final class Definition {
+        final ObjectUnit unit;
+        final ObjectUnit.Symbol symbol;
+
+        Definition(ObjectUnit unit, ObjectUnit.Symbol symbol) {
+            this.unit = unit;
+            this.symbol = symbol;
+        }
+    }
+
+    private Linker() {
+    }
+
+    /**
+     * @param units Ordered so that every unit comes after the units it uses
+     * @param config its error limit stops the link
+     * @throws LinkerException or {@link DiagnosticsException} for duplicate or missing symbols
+     */
+    public static Program link(List<ObjectUnit> units, CompilerConfig config) {
+        Diagnostics diagnostics = new Diagnostics(config.errorLimit);
+
+        int symbolCount = 0;
+        for (ObjectUnit unit : units) {
+            symbolCount += unit.exports.size();
+        }
+        Map<String, Definition> index = new HashMap<>(symbolCount * 2);
+
+        for (ObjectUnit unit : units) {
+            for (ObjectUnit.Symbol symbol : unit.exports) {
+                Definition first = index.putIfAbsent(symbol.name, new Definition(unit, symbol));
+                if(first != null)
+                    diagnostics.report(new LinkerException(new Line(unit.absPath, symbol.name, symbol.line),
+                            "Symbol \"" + symbol.name + "\" is already defined in "
+                                    + new File(first.unit.absPath).getName() + " line " + first.symbol.line));
+            }
+        }
+
+        for (ObjectUnit unit : units) {
+            for (ObjectUnit.Reference reference : unit.references) {
+                if(!index.containsKey(reference.name))
+                    diagnostics.report(new LinkerException(new Line(unit.absPath, reference.name, reference.line),
+                            "Symbol \"" + reference.name + "\" is not defined by any unit"));
+            }
+        }
+
+        Definition entry = index.get(ENTRY_POINT);
+        if(entry == null || entry.symbol.kind != ObjectUnit.SymbolKind.FUNCTION)
+            diagnostics.report(new LinkerException(new Line("N.A.", "N.A.", -1), "No entry point was found."));
+
+        diagnostics.throwIfErrors();
+
+        MemoryLayout memoryLayout = new MemoryLayout();
+        for (ObjectUnit unit : units) {
+            for (ObjectUnit.Symbol symbol : unit.exports) {
+                if(symbol.section != null)
+                    memoryLayout.add(symbol.name, symbol.section, symbol.words, new Line(unit.absPath, symbol.name, symbol.line));
+            }
+        }
+
+        return new Program(new Concatenation(units), memoryLayout);
+    }
+
+    /**
+     * The code of all units, without copying it
+     */
+    private static final class Concatenation extends AbstractList<String> implements RandomAccess {
+        private final List<List<String>> parts = new ArrayList<>();
+
+        /**
+         * starts[i] is the index of the first instruction of parts[i]
+         */
+        private final int[] starts;
+        private final int size;
+
+        Concatenation(List<ObjectUnit> units) {
+            starts = new int[units.size()];
+            int size = 0;
+            for (ObjectUnit unit : units) {
+                starts[parts.size()] = size;
+                parts.add(unit.code);
+                size += unit.code.size();
+            }
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            Objects.checkIndex(index, size);
+            int part = Arrays.binarySearch(starts, index);
+            if(part < 0)
+                part = -part - 2;
+            while(parts.get(part).isEmpty())       // empty units share their start with the next one
+                part++;
+            return parts.get(part).get(index - starts[part]);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return parts.stream().flatMap(List::stream).iterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
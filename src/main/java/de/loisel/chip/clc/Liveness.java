@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * The local int variables that are still read after each block. <br>
+ * A variable is written at its "_EndNewInt_" or "_EndSetInt_", after
+ * its value was computed, and read at every "_IntVar_". Globals and
+ * arrays are never dead, they are not tracked. Locals of different
+ * scopes with the same name count as one variable.
+ */
+final class Liveness {
+
+    private final Map<String, Integer> variables = new HashMap<>();
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+
+    private Liveness(int blocks) {
+        liveIn = new BitSet[blocks];
+        liveOut = new BitSet[blocks];
+    }
+
+    static Liveness compute(List<String> code, ControlFlowGraph graph) {
+        Liveness liveness = new Liveness(graph.blocks().size());
+        Set<String> globals = new HashSet<>();
+        for (int i = 0; i < code.size(); i++) {
+            String instruction = code.get(i);
+            if(!Ir.is(instruction, Ir.NEW_INT) && !Ir.is(instruction, Ir.PARAMETER))
+                continue;
+            String name = variableName(instruction);
+            if(graph.blockOf(i) == null)
+                globals.add(name);
+            else
+                liveness.variables.putIfAbsent(name, liveness.variables.size());
+        }
+        liveness.variables.keySet().removeAll(globals);
+
+        List<ControlFlowGraph.Block> blocks = graph.blocks();
+        for (ControlFlowGraph.Block block : blocks) {
+            liveness.liveIn[block.index] = new BitSet();
+            liveness.liveOut[block.index] = new BitSet();
+        }
+
+        // backward problem, so the blocks are visited from the end
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for (int b = blocks.size() - 1; b >= 0; b--) {
+                ControlFlowGraph.Block block = blocks.get(b);
+                BitSet out = liveness.liveOut[b];
+                for (ControlFlowGraph.Block successor : block.successors) {
+                    out.or(liveness.liveIn[successor.index]);
+                }
+
+                BitSet in = (BitSet) out.clone();
+                for (int i = block.end - 1; i >= block.start; i--) {
+                    liveness.step(code.get(i), in);
+                }
+                if(!in.equals(liveness.liveIn[b])) {
+                    liveness.liveIn[b] = in;
+                    changed = true;
+                }
+            }
+        }
+        return liveness;
+    }
+
+    /**
+     * @return the variables read after the block, do not change it
+     */
+    BitSet liveOut(ControlFlowGraph.Block block) {
+        return liveOut[block.index];
+    }
+
+    /**
+     * @return the variables read in or after the block, do not change it
+     */
+    BitSet liveIn(ControlFlowGraph.Block block) {
+        return liveIn[block.index];
+    }
+
+    /**
+     * @return how many local variables are tracked
+     */
+    int size() {
+        return variables.size();
+    }
+
+    /**
+     * @return the index of a local variable, -1 for globals and unknown names
+     */
+    int variable(String name) {
+        return variables.getOrDefault(name, -1);
+    }
+
+    /**
+     * Goes back over one instruction
+     * @param live the variables read after the instruction, changed to the ones read before it
+     */
+    void step(String instruction, BitSet live) {
+        if(Ir.is(instruction, Ir.INT_VAR)) {
+            int variable = variable(Ir.operand(instruction));
+            if(variable >= 0)
+                live.set(variable);
+        } else if(Ir.is(instruction, Ir.END_SET_INT) || Ir.is(instruction, Ir.END_NEW_INT)
+                || Ir.is(instruction, Ir.PARAMETER)) {
+            int variable = variable(variableName(instruction));
+            if(variable >= 0)
+                live.clear(variable);
+        }
+    }
+
+    /**
+     * @return the name of a variable instruction, "_Parameter_" has its position first
+     */
+    private static String variableName(String instruction) {
+        String operand = Ir.operand(instruction);
+        return Ir.is(instruction, Ir.PARAMETER) ? operand.substring(operand.indexOf(' ') + 1) : operand;
+    }
+}
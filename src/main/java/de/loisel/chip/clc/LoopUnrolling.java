@@ -0,0 +1,361 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unrolls counted while loops. <br>
+ * A loop is counted if a local int is set to a number right before it,
+ * the condition compares the int with a number and the last statement
+ * of the body adds a number to it or subtracts one, while nothing else
+ * in the body writes it. The trip count is found by stepping the int
+ * through the condition with the 16-bit arithmetic of the program.
+ * <br>
+ * A loop whose passes fit into {@link #BUDGET} instructions becomes one
+ * copy of the body per pass, the int is a number in each copy and the
+ * copy is folded. A longer loop keeps a loop that runs up to
+ * {@link #MAX_FACTOR} copies per pass, the passes that are left over
+ * follow it as folded copies. The blocks in a copy get new labels.
+ * <br>
+ * With a {@link Profile} a loop whose body has a hot line may grow
+ * {@link #HOT_FACTOR} times as far, a loop that was never entered is
+ * left as it is.
+ */
+final class LoopUnrolling implements Pass {
+
+    /**
+     * instructions a loop may grow to, code and data share the 64 KiB of the LoChip
+     */
+    static final int BUDGET = 256;
+
+    /**
+     * most copies of the body in one pass of a partly unrolled loop
+     */
+    static final int MAX_FACTOR = 8;
+
+    /**
+     * how many times the budget a hot loop may grow to
+     */
+    static final int HOT_FACTOR = 4;
+
+    /**
+     * a loop that runs longer never ends
+     */
+    private static final int MAX_TRIPS = 0x10000;
+
+    /**
+     * the next free label of the current function
+     */
+    private int nextLabel;
+
+    /**
+     * the ints declared in the current function, its parameters included
+     */
+    private final Set<String> locals = new HashSet<>();
+
+    @Override
+    public String name() {
+        return "loop unrolling";
+    }
+
+    @Override
+    public boolean run(List<String> code, PassManager passes) {
+        boolean changed = false;
+        // the code is copied, a loop that ends is always the end of the copy
+        // and an inner loop ends before the loop around it, so it is unrolled first
+        List<String> unrolled = new ArrayList<>(code.size());
+        Deque<Integer> starts = new ArrayDeque<>();
+        for (int i = 0; i < code.size(); i++) {
+            String instruction = code.get(i);
+            unrolled.add(instruction);
+            if(Ir.is(instruction, Ir.FUNCTION)) {
+                nextLabel = nextLabel(code, i);
+                locals(code, i);
+                starts.clear();
+            } else if(Ir.is(instruction, Ir.WHILE)) {
+                starts.push(unrolled.size() - 1);
+            } else if(Ir.is(instruction, Ir.END_WHILE)) {
+                changed |= unroll(unrolled, starts.pop(), passes);
+            }
+        }
+        if(changed) {
+            code.clear();
+            code.addAll(unrolled);
+        }
+        return changed;
+    }
+
+    /**
+     * A counted loop, the positions are in the code
+     */
+    private static final class Loop {
+        String variable;
+        int start;          // "_While_"
+        int bodyStart;      // after "_Do_"
+        int end;            // "_EndWhile_"
+        int stepStart;      // "_SetInt_" of the step
+        String operator;
+        int bound;
+        int initial;
+        String step;        // "+" or "-"
+        int stepValue;
+    }
+
+    /**
+     * @param code ends with the "_EndWhile_" of the loop
+     * @param start its "_While_"
+     * @return true if the loop is unrolled
+     */
+    private boolean unroll(List<String> code, int start, PassManager passes) {
+        Loop loop = countedLoop(code, start, code.size() - 1);
+        if(loop == null)
+            return false;
+
+        // the values of the int before every pass and after the last
+        int[] values = new int[16];
+        int trips = 0;
+        values[0] = loop.initial;
+        while(ConstantFolding.fold(loop.operator, values[trips], loop.bound) != 0) {
+            if(trips == MAX_TRIPS)
+                return false;
+            if(trips + 1 == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+            values[trips + 1] = ConstantFolding.fold(loop.step, values[trips], loop.stepValue);
+            trips++;
+        }
+
+        // a loop that runs needs at least one copy of the body, a longer body
+        // is not looked at again, so nested loops are not scanned once per level
+        List<String> body = code.subList(loop.bodyStart, loop.end);
+        int size = size(body, BUDGET * HOT_FACTOR);
+        if(trips > 0 && size > BUDGET * HOT_FACTOR)
+            return false;
+        for (int i = loop.bodyStart; i < loop.stepStart; i++) {
+            String instruction = code.get(i);
+            if(instruction.equals(Ir.SET_INT + " " + loop.variable) || Ir.is(instruction, Ir.PARAMETER))
+                return false;
+        }
+        int budget = budget(code, loop, passes.profile());
+        if(budget == 0)
+            return false;
+        List<String> unrolled = new ArrayList<>();
+
+        if(trips * size <= budget) {
+            for (int pass = 0; pass < trips; pass++) {
+                unrolled.addAll(copy(body, loop.variable, values[pass], passes));
+            }
+        } else {
+            int factor = MAX_FACTOR;
+            while(factor > 1 && (factor * size > budget || trips / factor < 2))
+                factor--;
+            if(factor < 2)
+                return false;
+            int passCount = trips / factor;
+            int last = values[passCount * factor];
+            // the int must not hit the new bound before, it might wrap around
+            for (int pass = 0; pass < passCount; pass++) {
+                if(values[pass * factor] == last)
+                    return false;
+            }
+
+            String label = " " + Ir.label(code.get(loop.start));
+            unrolled.add(Ir.WHILE + label);
+            unrolled.add(Ir.INT_VALUE + " ");
+            unrolled.add(Ir.INT_VAR + " " + loop.variable);
+            unrolled.add(Ir.INT_VAL + " " + (last & 0xFFFF));
+            unrolled.add(Ir.OPERATOR + " !=");
+            unrolled.add(Ir.END_INT_VALUE + " ");
+            unrolled.add(Ir.DO + label);
+            unrolled.addAll(body);
+            for (int copy = 1; copy < factor; copy++) {
+                unrolled.addAll(relabel(body));
+            }
+            unrolled.add(Ir.END_WHILE + label);
+            for (int pass = passCount * factor; pass < trips; pass++) {
+                unrolled.addAll(copy(body, loop.variable, values[pass], passes));
+            }
+        }
+
+        List<String> replaced = code.subList(loop.start, loop.end + 1);
+        replaced.clear();
+        replaced.addAll(unrolled);
+        return true;
+    }
+
+    /**
+     * @return the instructions of the code without comments, at most one more than the limit
+     */
+    private static int size(List<String> code, int limit) {
+        int size = 0;
+        for (int i = 0; i < code.size() && size <= limit; i++) {
+            if(!Ir.isComment(code.get(i)))
+                size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return the instructions the loop may grow to, 0 if it never ran
+     */
+    private static int budget(List<String> code, Loop loop, Profile profile) {
+        String location = loop.start > 0 ? Ir.location(code.get(loop.start - 1)) : null;
+        if(location != null && profile.isCold(location))
+            return 0;
+        for (int i = loop.bodyStart; i < loop.end; i++) {
+            String line = Ir.location(code.get(i));
+            if(line != null && profile.isHot(line))
+                return BUDGET * HOT_FACTOR;
+        }
+        return BUDGET;
+    }
+
+    /**
+     * @return the loop between the instructions, null if it is not counted.
+     * Its body is not checked yet
+     */
+    private Loop countedLoop(List<String> code, int start, int end) {
+        Loop loop = new Loop();
+        loop.end = end;
+        loop.start = start;
+        loop.bodyStart = start + 7;
+
+        // "_IntValue_ ", the int and the bound, the operator, "_EndIntValue_ ", "_Do_"
+        if(loop.bodyStart > end || !Ir.is(code.get(start + 6), Ir.DO) || !Ir.is(code.get(start + 5), Ir.END_INT_VALUE)
+                || !Ir.is(code.get(start + 4), Ir.OPERATOR))
+            return null;
+        loop.operator = Ir.operand(code.get(start + 4));
+        if(Ir.is(code.get(start + 2), Ir.INT_VAR) && Ir.is(code.get(start + 3), Ir.INT_VAL)) {
+            loop.variable = Ir.operand(code.get(start + 2));
+            loop.bound = ConstantFolding.value(code.get(start + 3));
+        } else if(Ir.is(code.get(start + 2), Ir.INT_VAL) && Ir.is(code.get(start + 3), Ir.INT_VAR)) {
+            loop.variable = Ir.operand(code.get(start + 3));
+            loop.bound = ConstantFolding.value(code.get(start + 2));
+            loop.operator = switch (loop.operator) {
+                case "<" -> ">";
+                case ">" -> "<";
+                default -> loop.operator;
+            };
+        } else {
+            return null;
+        }
+        if(!Compiler.BOOL_OPERATORS.contains(loop.operator))
+            return null;
+
+        // "_NewInt_ i" or "_SetInt_ i", the number, the end of the statement
+        int init = previousStatement(code, start);
+        if(init < 4 || !code.get(init).equals(Ir.END_NEW_INT + " " + loop.variable)
+                && !code.get(init).equals(Ir.END_SET_INT + " " + loop.variable)
+                || !Ir.is(code.get(init - 1), Ir.END_INT_VALUE) || !Ir.is(code.get(init - 2), Ir.INT_VAL) || !Ir.is(code.get(init - 3), Ir.INT_VALUE)
+                || !code.get(init - 4).equals(Ir.NEW_INT + " " + loop.variable)
+                && !(code.get(init - 4).equals(Ir.SET_INT + " " + loop.variable) && locals.contains(loop.variable)))
+            return null;
+        loop.initial = ConstantFolding.value(code.get(init - 2));
+
+        // "_SetInt_ i", "_IntValue_ ", i, the step, the operator, "_EndIntValue_ ", "_EndSetInt_ i"
+        int step = previousStatement(code, end);
+        if(step - 6 < loop.bodyStart || !code.get(step).equals(Ir.END_SET_INT + " " + loop.variable)
+                || !code.get(step - 6).equals(Ir.SET_INT + " " + loop.variable)
+                || !code.get(step - 4).equals(Ir.INT_VAR + " " + loop.variable)
+                || !Ir.is(code.get(step - 3), Ir.INT_VAL) || !Ir.is(code.get(step - 2), Ir.OPERATOR))
+            return null;
+        loop.step = Ir.operand(code.get(step - 2));
+        loop.stepValue = ConstantFolding.value(code.get(step - 3));
+        if(!loop.step.equals("+") && !loop.step.equals("-"))
+            return null;
+        loop.stepStart = step - 6;
+        return loop;
+    }
+
+    /**
+     * @return the last instruction before the position that is no comment
+     */
+    private static int previousStatement(List<String> code, int position) {
+        int i = position - 1;
+        while(i >= 0 && Ir.isComment(code.get(i)))
+            i--;
+        return i;
+    }
+
+    /**
+     * Collects the ints of the function. A local can not share its name
+     * with a global, so an int declared anywhere in the function is no global
+     *
+     * @param start a "_Function_"
+     */
+    private void locals(List<String> code, int start) {
+        locals.clear();
+        for (int i = start + 1; !Ir.is(code.get(i), Ir.END_FUNCTION); i++) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.NEW_INT)) {
+                locals.add(Ir.operand(instruction));
+            } else if(Ir.is(instruction, Ir.PARAMETER)) {
+                String parameter = Ir.operand(instruction);
+                locals.add(parameter.substring(parameter.lastIndexOf(' ') + 1));
+            }
+        }
+    }
+
+    /**
+     * @return a pass of the loop with the int as a number, folded
+     */
+    private List<String> copy(List<String> body, String variable, int value, PassManager passes) {
+        List<String> copy = relabel(body);
+        String read = Ir.INT_VAR + " " + variable;
+        copy.replaceAll(instruction -> instruction.equals(read) ? Ir.INT_VAL + " " + (value & 0xFFFF) : instruction);
+        new ConstantFolding().run(copy, passes);
+        return copy;
+    }
+
+    /**
+     * @return a copy of the code whose blocks have new labels
+     */
+    private List<String> relabel(List<String> code) {
+        Map<Integer, Integer> labels = new HashMap<>();
+        List<String> copy = new ArrayList<>(code.size());
+        for (String instruction : code) {
+            if(Ir.isStructure(instruction)) {
+                int label = labels.computeIfAbsent(Ir.label(instruction), old -> nextLabel++);
+                copy.add(Ir.opcode(instruction) + " " + label);
+            } else {
+                copy.add(instruction);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @param start a "_Function_"
+     * @return the label after the highest one of the function
+     */
+    private static int nextLabel(List<String> code, int start) {
+        int label = 0;
+        for (int i = start + 1; !Ir.is(code.get(i), Ir.END_FUNCTION); i++) {
+            if(Ir.isStructure(code.get(i)))
+                label = Math.max(label, Ir.label(code.get(i)) + 1);
+        }
+        return label;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The "#define NAME value" constants of a file. <br>
+ * The value is a constant expression of numbers, constants defined
+ * before, brackets and + - * /. It is folded when it is defined, so
+ * every use of the name is replaced by a single number while the file
+ * is split and is coded as an immediate value, not as a variable.
+ * A constant is known from its "#define" to the end of its file.
+ * <br>
+ * Values are 16-bit ints, the arithmetic is signed and wraps around.
+ * A negative value is written as its two's complement, "-1" as "65535".
+ */
+final class MacroTable {
+
+    static final String DEFINE = "#define";
+
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Defines the constant if the command is a "#define"
+     * @param command A preprocessor command as split by {@link Preprocessor#command(String)}
+     * @return false if the command is no "#define"
+     */
+    boolean define(Line command) {
+        if(!command.s.startsWith(DEFINE)
+                || command.s.length() > DEFINE.length() && command.s.charAt(DEFINE.length()) != ' ')
+            return false;
+
+        // the command is cleared, the name ends at the next space
+        int nameStart = Math.min(DEFINE.length() + 1, command.s.length());
+        int nameEnd = command.s.indexOf(' ', nameStart);
+        String name = command.s.substring(nameStart, nameEnd < 0 ? command.s.length() : nameEnd);
+        if(name.isEmpty())
+            throw new PreprocessorException(command, "\"#define\" needs a name and a value.");
+        if(!SyntaxCheck.isVariableName(name) || Compiler.LANG_KEYWORDS.contains(name))
+            throw new PreprocessorException(command, "\"" + name + "\" is no valid constant name.");
+        if(values.containsKey(name))
+            throw new PreprocessorException(command, "Constant \"" + name + "\" is already defined.");
+        if(nameEnd < 0)
+            throw new PreprocessorException(command, "Constant \"" + name + "\" needs a value.");
+
+        List<String> tokens = new ArrayList<>();
+        Preprocessor.splitLine(command.s.substring(nameEnd), new NameTable(),
+                (token, column, length) -> tokens.add(token));
+
+        Folder folder = new Folder(command, tokens);
+        int value = folder.expression();
+        if(folder.index < tokens.size())
+            throw new PreprocessorException(command, "Unexpected \"" + tokens.get(folder.index) + "\" in constant.");
+
+        values.put(name, Integer.toString(value & 0xFFFF));
+        return true;
+    }
+
+    /**
+     * @return the value if the token is a constant, else the token
+     */
+    String expand(String token) {
+        if(values.isEmpty())
+            return token;
+        return values.getOrDefault(token, token);
+    }
+
+    /**
+     * Folds the value of a "#define", the tokens after the name
+     */
+    private final class Folder {
+        final Line command;
+        final List<String> tokens;
+        int index;
+
+        Folder(Line command, List<String> tokens) {
+            this.command = command;
+            this.tokens = tokens;
+        }
+
+        int expression() {
+            int value = term();
+            while(accept("+") || accept("-")) {
+                String operator = previous();
+                int right = term();
+                value = (short) (operator.equals("+") ? value + right : value - right);
+            }
+            return value;
+        }
+
+        private int term() {
+            int value = unary();
+            while(accept("*") || accept("/")) {
+                String operator = previous();
+                int right = unary();
+                if(operator.equals("*")) {
+                    value = (short) (value * right);
+                } else if(right == 0) {
+                    throw new PreprocessorException(command, "Division by zero in constant.");
+                } else {
+                    value = (short) (value / right);
+                }
+            }
+            return value;
+        }
+
+        private int unary() {
+            if(accept("-"))
+                return (short) -unary();
+            if(accept("+"))
+                return unary();
+            return value();
+        }
+
+        private int value() {
+            if(index == tokens.size())
+                throw new PreprocessorException(command, "Constant ends after \"" + previous() + "\".");
+            String token = tokens.get(index++);
+
+            if(token.equals("(")) {
+                int value = expression();
+                if(!accept(")"))
+                    throw new PreprocessorException(command, "'(' was not closed!");
+                return value;
+            }
+            if(SyntaxCheck.isNum(token)) {
+                if(token.length() > 5 || Integer.parseInt(token) > 0xFFFF)
+                    throw new PreprocessorException(command, "Number \"" + token + "\" does not fit into a 16-bit int");
+                return (short) Integer.parseInt(token);
+            }
+            String defined = values.get(token);
+            if(defined != null)
+                return (short) Integer.parseInt(defined);
+            throw new PreprocessorException(command, "\"" + token + "\" is no constant.");
+        }
+
+        private boolean accept(String token) {
+            if(index < tokens.size() && tokens.get(index).equals(token)) {
+                index++;
+                return true;
+            }
+            return false;
+        }
+
+        private String previous() {
+            return tokens.get(index - 1);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compile-time layout of all global variables and arrays.
+ * Packed data blocks come first, followed by the global
+ * int variables and the zero-filled reservations.
+ */
+public class MemoryLayout {
+
+    /**
+     * Size of an int in bytes. Int is currently only supported as 16-bit number
+     */
+    public static final int WORD_SIZE = 2;
+    public static final int ALIGNMENT = WORD_SIZE;
+
+    public enum Section {
+        DATA,   // arrays with constant initializer lists
+        VARS,   // global int variables, initialized at program start
+        BSS,    // zero-filled reservations
+    }
+
+    public static class Entry {
+        public final String name;
+        public final Section section;
+        public final int words;
+        public final Line origin;
+        private int address = -1;
+
+        private Entry(String name, Section section, int words, Line origin) {
+            this.name = name;
+            this.section = section;
+            this.words = words;
+            this.origin = origin;
+        }
+
+        public int address() {
+            return address;
+        }
+
+        public int size() {
+            return words * WORD_SIZE;
+        }
+    }
+
+    private final int baseAddress;
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean placed = true;
+
+    public MemoryLayout() {
+        this(0);
+    }
+
+    public MemoryLayout(int baseAddress) {
+        this.baseAddress = align(baseAddress);
+    }
+
+    void add(String name, Section section, int words, Line origin) {
+        entries.add(new Entry(name, section, words, origin));
+        placed = false;
+    }
+
+    /**
+     * @return all entries ordered by their address
+     */
+    public List<Entry> getEntries() {
+        place();
+        List<Entry> ordered = new ArrayList<>(entries.size());
+        for (Section section : Section.values()) {
+            for (Entry entry : entries) {
+                if(entry.section == section)
+                    ordered.add(entry);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * @return first address after the last global
+     */
+    public int endAddress() {
+        place();
+        int end = baseAddress;
+        for (Entry entry : entries) {
+            end = Math.max(end, entry.address + entry.size());
+        }
+        return end;
+    }
+
+    /**
+     * Human-readable map, one global per line.
+     */
+    public List<String> toMap() {
+        List<String> map = new ArrayList<>();
+        map.add("# clc memory layout");
+        map.add(String.format("# %-8s %-6s %-6s %-5s %s", "address", "size", "align", "sect", "name"));
+        for (Entry entry : getEntries()) {
+            map.add(String.format("0x%04X     %-6d %-6d %-5s %s   (%s:%d)",
+                    entry.address, entry.size(), ALIGNMENT,
+                    entry.section.name().toLowerCase(), entry.name,
+                    entry.origin.fName, entry.origin.num));
+        }
+        map.add(String.format("# %d bytes, end address 0x%04X", endAddress() - baseAddress, endAddress()));
+        return map;
+    }
+
+    private void place() {
+        if(placed)
+            return;
+
+        int address = baseAddress;
+        for (Section section : Section.values()) {
+            for (Entry entry : entries) {
+                if(entry.section != section)
+                    continue;
+                address = align(address);
+                entry.address = address;
+                address += entry.size();
+            }
+        }
+        placed = true;
+    }
+
+    private static int align(int address) {
+        return (address + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+/**
+ * Names and numbers of the source, every distinct text is kept once.
+ * A name is looked up by its span in the source line, so only its
+ * first occurrence creates a String. Not thread safe, every file
+ * or compile uses its own table.
+ */
+final class NameTable {
+
+    private String[] names = new String[256];
+    private int size;
+
+    /**
+     * @param start first char of the name in text. inclusive
+     * @param end end of the name in text. exclusive
+     * @return the name, the same instance for every equal span
+     */
+    String intern(String text, int start, int end) {
+        int length = end - start;
+        int mask = names.length - 1;
+        int slot = hash(text, start, end) & mask;
+
+        while (names[slot] != null) {
+            String name = names[slot];
+            if (name.length() == length && text.regionMatches(start, name, 0, length))
+                return name;
+            slot = (slot + 1) & mask;
+        }
+
+        String name = text.substring(start, end);
+        names[slot] = name;
+        if (++size * 2 > names.length)
+            grow();
+        return name;
+    }
+
+    String intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for (String name : old) {
+            if (name == null)
+                continue;
+            int slot = hash(name, 0, name.length()) & mask;
+            while (names[slot] != null)
+                slot = (slot + 1) & mask;
+            names[slot] = name;
+        }
+    }
+
+    /**
+     * Same as String.hashCode of the span, spread over the low bits
+     */
+    private static int hash(String text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A single compiled source file: its code, the functions and globals
+ * it defines and the names it uses from other units. Units are
+ * immutable and can be written to and read from a binary file,
+ * so a library is only compiled once. See {@link Linker}.
+ */
+public final class ObjectUnit {
+
+    private static final int MAGIC = 0x434C434F;      // "CLCO"
+    private static final int VERSION = 1;
+
+    public enum SymbolKind {
+        FUNCTION, VARIABLE, ARRAY,
+    }
+
+    public static final class Symbol {
+        public final String name;
+        public final SymbolKind kind;
+
+        /**
+         * Return type of a function, "int" for globals
+         */
+        public final String type;
+
+        /**
+         * Section and size of a global, null and 0 for functions
+         */
+        public final MemoryLayout.Section section;
+        public final int words;
+        public final int line;
+
+        Symbol(String name, SymbolKind kind, String type, MemoryLayout.Section section, int words, int line) {
+            this.name = name;
+            this.kind = kind;
+            this.type = type;
+            this.section = section;
+            this.words = words;
+            this.line = line;
+        }
+    }
+
+    public static final class Reference {
+        public final String name;
+        public final int line;
+
+        Reference(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    public final String absPath;
+    public final List<Symbol> exports;
+    public final List<Reference> references;
+    public final List<String> code;
+
+    /**
+     * Hash of the source and of all imported units, equal
+     * fingerprints mean the unit does not need to be compiled again
+     */
+    public final long fingerprint;
+
+    ObjectUnit(String absPath, List<Symbol> exports, List<Reference> references, List<String> code, long fingerprint) {
+        this.absPath = absPath;
+        this.exports = List.copyOf(exports);
+        this.references = List.copyOf(references);
+        this.code = code instanceof SpillList ? Collections.unmodifiableList(code) : List.copyOf(code);
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Checks and codes a single file. The "#include" commands of the
+     * file are ignored, the included units must be passed as imports.
+     * @param imports All units whose symbols the file may use
+     * @throws ClcException or {@link DiagnosticsException} if the file has errors
+     */
+    public static ObjectUnit compile(String absPath, List<String> source, Collection<ObjectUnit> imports, CompilerConfig config) {
+        Coder coder = new Coder(config.newList(SpillList.STRINGS), false);
+        for (ObjectUnit unit : imports) {
+            for (Symbol symbol : unit.exports) {
+                coder.importSymbol(symbol);
+            }
+        }
+
+        // the tokens are only alive during the check
+        check(tokenize(absPath, source, config), coder, config);
+
+        List<Symbol> exports = new ArrayList<>();
+        for (Line definition : coder.getDefinitions()) {
+            if(coder.isFunction(definition.s) && !coder.isImported(definition.s))
+                exports.add(new Symbol(definition.s, SymbolKind.FUNCTION, coder.functionType(definition.s), null, 0, definition.num));
+        }
+        for (MemoryLayout.Entry entry : coder.getMemoryLayout().getEntries()) {
+            SymbolKind kind = entry.section == MemoryLayout.Section.VARS ? SymbolKind.VARIABLE : SymbolKind.ARRAY;
+            exports.add(new Symbol(entry.name, kind, "int", entry.section, entry.words, entry.origin.num));
+        }
+
+        // references of parallel checked functions are collected in any order, sorted for a stable output
+        List<Line> used = new ArrayList<>(coder.getReferences());
+        used.sort(Comparator.comparingInt((Line line) -> line.num).thenComparing(line -> line.s));
+        List<Reference> references = new ArrayList<>(used.size());
+        for (Line line : used) {
+            references.add(new Reference(line.s, line.num));
+        }
+
+        return new ObjectUnit(absPath, exports, references, coder.getCode(), fingerprint(absPath, source, imports));
+    }
+
+    /**
+     * Splits the lines of a file, without the preprocessor commands
+     */
+    static List<Line> tokenize(String absPath, List<String> source, CompilerConfig config) {
+        CompilerEvents.Tokenize event = new CompilerEvents.Tokenize();
+        event.begin();
+
+        Line file = new Line(absPath, "", 0);
+        List<Line> lines = config.newList(SpillList.lines(file));
+
+        NameTable names = new NameTable();
+        MacroTable macros = new MacroTable();
+        int[] lineNum = {1};
+        Preprocessor.TokenSink sink = (token, column, length) ->
+                lines.add(new Line(macros.expand(token), file, lineNum[0]));
+        for (String line : source) {
+            String command = Preprocessor.command(line);
+            if(command == null)
+                Preprocessor.splitLine(line, names, sink);
+            else
+                macros.define(new Line(command, file, lineNum[0]));
+            lineNum[0]++;
+        }
+
+        event.commit(absPath, lines.size(), 0);
+        return lines;
+    }
+
+    private static void check(List<Line> lines, Coder coder, CompilerConfig config) {
+        try {
+            Diagnostics diagnostics = new Diagnostics(config.errorLimit);
+            new SyntaxCheck(lines, coder, config.parallel, config.nestingLimit, diagnostics).checkSyntax();
+            diagnostics.throwIfErrors();
+        } finally {
+            if(lines instanceof SpillList<Line> spilled)
+                spilled.close();
+        }
+    }
+
+    static long fingerprint(String absPath, List<String> source, Collection<ObjectUnit> imports) {
+        long hash = hash(0xcbf29ce484222325L, absPath);
+        for (String line : source) {
+            hash = hash(hash, line);
+        }
+        long importHash = 0;
+        for (ObjectUnit unit : imports) {
+            importHash += unit.fingerprint;         // independent of the order of the imports
+        }
+        return hash * 31 + importHash;
+    }
+
+    /**
+     * FNV-1a over the chars of a string and a separator
+     */
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return (hash ^ '\n') * 0x100000001b3L;
+    }
+
+    /*
+        ===========================
+        ========  BINARY  =========
+        ===========================
+     */
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fingerprint);
+        writeString(out, absPath);
+
+        out.writeInt(exports.size());
+        for (Symbol symbol : exports) {
+            writeString(out, symbol.name);
+            out.writeByte(symbol.kind.ordinal());
+            writeString(out, symbol.type);
+            out.writeByte(symbol.section == null ? -1 : symbol.section.ordinal());
+            out.writeInt(symbol.words);
+            out.writeInt(symbol.line);
+        }
+
+        out.writeInt(references.size());
+        for (Reference reference : references) {
+            writeString(out, reference.name);
+            out.writeInt(reference.line);
+        }
+
+        out.writeInt(code.size());
+        for (String instruction : code) {
+            writeString(out, instruction);
+        }
+        out.flush();
+    }
+
+    public static ObjectUnit read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if(in.readInt() != MAGIC)
+            throw new IOException("Not a clc object unit");
+        int version = in.readInt();
+        if(version != VERSION)
+            throw new IOException("Unsupported object unit version: " + version);
+        long fingerprint = in.readLong();
+        String absPath = readString(in);
+
+        int exportCount = in.readInt();
+        List<Symbol> exports = new ArrayList<>(exportCount);
+        for (int i = 0; i < exportCount; i++) {
+            String name = readString(in);
+            SymbolKind kind = SymbolKind.values()[in.readByte()];
+            String type = readString(in);
+            int section = in.readByte();
+            exports.add(new Symbol(name, kind, type,
+                    section < 0 ? null : MemoryLayout.Section.values()[section], in.readInt(), in.readInt()));
+        }
+
+        int referenceCount = in.readInt();
+        List<Reference> references = new ArrayList<>(referenceCount);
+        for (int i = 0; i < referenceCount; i++) {
+            references.add(new Reference(readString(in), in.readInt()));
+        }
+
+        int codeSize = in.readInt();
+        List<String> code = new ArrayList<>(codeSize);
+        for (int i = 0; i < codeSize; i++) {
+            code.add(readString(in));
+        }
+
+        return new ObjectUnit(absPath, exports, references, code, fingerprint);
+    }
+
+    /**
+     * Unlike writeUTF, not limited to 64 KiB, e.g. for large data blocks
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.Locale;
+
+/**
+ * How much the code is optimized, see {@link PassManager#forLevel(OptLevel)}
+ */
+public enum OptLevel {
+    /**
+     * No passes, the fastest compile
+     */
+    O0,
+
+    /**
+     * Cheap passes that never make the code larger
+     */
+    O1,
+
+    /**
+     * All passes, the fastest code
+     */
+    O2,
+
+    /**
+     * All passes that do not make the code larger, the smallest code
+     */
+    Os;
+
+    /**
+     * Parses an option like "-O2", "O2", "2" or "s"
+     */
+    public static OptLevel parse(String option) {
+        String level = option.strip();
+        if(level.startsWith("-"))
+            level = level.substring(1);
+        if(level.startsWith("O"))
+            level = level.substring(1);
+        return switch (level.toLowerCase(Locale.ROOT)) {
+            case "0" -> O0;
+            case "1" -> O1;
+            case "2" -> O2;
+            case "s" -> Os;
+            default -> throw new IllegalArgumentException("Not an optimization level: \"" + option + "\"");
+        };
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Changes the linked code of a program, see {@link PassManager}
+ */
+interface Pass {
+
+    String name();
+
+    /**
+     * The analyses the pass reads with {@link PassManager#get(Analysis)},
+     * they are computed before the pass runs
+     */
+    default Set<Analysis<?>> requires() {
+        return Set.of();
+    }
+
+    /**
+     * The analyses that are still valid after the pass changed the code
+     */
+    default Set<Analysis<?>> preserves() {
+        return Set.of();
+    }
+
+    /**
+     * @param code changed in place
+     * @return true if the code was changed
+     */
+    boolean run(List<String> code, PassManager passes);
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * Runs the optimization passes of an {@link OptLevel} over the linked
+ * code of a program. <br>
+ * Passes declare the analyses they read. An analysis is computed once
+ * and kept for the following passes, until a pass changes the code
+ * without preserving it. Every pass and computed analysis is reported
+ * with its time and the change of the code size.
+ * <br>
+ * A pass manager runs one program, it is not thread safe.
+ */
+public final class PassManager {
+
+    /**
+     * Time and size change of one pass or analysis
+     */
+    public static final class Report {
+        public final String name;
+        public final boolean analysis;
+        public final long nanos;
+        public final int sizeBefore;
+        public final int sizeAfter;
+
+        Report(String name, boolean analysis, long nanos, int sizeBefore, int sizeAfter) {
+            this.name = name;
+            this.analysis = analysis;
+            this.nanos = nanos;
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+        }
+
+        @Override
+        public String toString() {
+            if(analysis)
+                return String.format(Locale.ROOT, "%s (analysis): %.3f ms", name, nanos / 1e6);
+            return String.format(Locale.ROOT, "%s: %.3f ms, %d -> %d instructions (%+d)",
+                    name, nanos / 1e6, sizeBefore, sizeAfter, sizeAfter - sizeBefore);
+        }
+    }
+
+    private final OptLevel level;
+    private final List<Pass> passes;
+    private final Profile profile;
+    private final Map<Analysis<?>, Object> analyses = new HashMap<>();
+    private final List<Report> reports = new ArrayList<>();
+    private List<String> code;
+
+    /**
+     * analyses the running pass may read, null between passes
+     */
+    private Set<Analysis<?>> declared;
+
+    PassManager(OptLevel level, List<Pass> passes) {
+        this(level, passes, Profile.EMPTY);
+    }
+
+    PassManager(OptLevel level, List<Pass> passes, Profile profile) {
+        this.level = level;
+        this.passes = passes;
+        this.profile = profile;
+    }
+
+    public static PassManager forLevel(OptLevel level) {
+        return forLevel(level, Profile.EMPTY);
+    }
+
+    /**
+     * @param profile counts of an earlier run, the passes read it with {@link #profile()}
+     */
+    public static PassManager forLevel(OptLevel level, Profile profile) {
+        return new PassManager(level, switch (level) {
+            case O0 -> List.of();
+            case O1 -> List.of(new ConstantFolding(), new UnreachableCode(), new TailCalls());
+            case O2 -> List.of(new ConstantFolding(), new CompileTimeCalls(), new LoopUnrolling(),
+                    new UnreachableCode(), new TailCalls(), new DeadStores(), new DeadFunctions());
+            case Os -> List.of(new ConstantFolding(), new CompileTimeCalls(), new UnreachableCode(), new TailCalls(),
+                    new DeadStores(), new DeadFunctions());
+        }, profile);
+    }
+
+    public OptLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the counts of an earlier run, {@link Profile#EMPTY} without one
+     */
+    Profile profile() {
+        return profile;
+    }
+
+    /**
+     * @param code The linked code, it is not changed
+     * @return the optimized code, the same list at {@link OptLevel#O0}
+     */
+    public List<String> run(List<String> code) {
+        if(passes.isEmpty()) {
+            this.code = code;
+            return code;
+        }
+        this.code = new ArrayList<>(code);
+
+        for (Pass pass : passes) {
+            Set<Analysis<?>> required = new LinkedHashSet<>();
+            for (Analysis<?> analysis : pass.requires()) {
+                addWithDependencies(analysis, required);
+            }
+            for (Analysis<?> analysis : required) {
+                get(analysis);
+            }
+
+            CompilerEvents.OptimizationPass event = new CompilerEvents.OptimizationPass();
+            event.begin();
+            declared = required;
+            int sizeBefore = this.code.size();
+            long startTime = System.nanoTime();
+            boolean changed = pass.run(this.code, this);
+            long nanos = System.nanoTime() - startTime;
+            declared = null;
+
+            if(changed)
+                invalidate(pass.preserves());
+            reports.add(new Report(pass.name(), false, nanos, sizeBefore, this.code.size()));
+            event.name = pass.name();
+            event.commit("program", this.code.size(), 0);
+        }
+        return this.code;
+    }
+
+    /**
+     * @return the analysis of the current code, computed if it is not cached
+     * @throws IllegalStateException if the running pass did not declare it
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(Analysis<T> analysis) {
+        if(declared != null && !declared.contains(analysis))
+            throw new IllegalStateException("Pass reads \"" + analysis + "\" without requiring it");
+
+        Object result = analyses.get(analysis);
+        if(result == null) {
+            long startTime = System.nanoTime();
+            result = analysis.compute(code, this);
+            analyses.put(analysis, result);
+            reports.add(new Report(analysis.name, true, System.nanoTime() - startTime, code.size(), code.size()));
+        }
+        return (T) result;
+    }
+
+    /**
+     * @return the stack frames of the optimized code, at {@link OptLevel#O0} the
+     * locals share slots by their scopes only, above also by liveness
+     */
+    public FrameLayout frames() {
+        if(passes.isEmpty())
+            return FrameLayout.compute(code, null, null);
+        return get(Analysis.FRAMES);
+    }
+
+    /**
+     * @return every pass and computed analysis in the order they ran
+     */
+    public List<Report> getReports() {
+        return Collections.unmodifiableList(reports);
+    }
+
+    private static void addWithDependencies(Analysis<?> analysis, Set<Analysis<?>> required) {
+        for (Analysis<?> dependency : analysis.dependencies) {
+            addWithDependencies(dependency, required);
+        }
+        required.add(analysis);
+    }
+
+    private void invalidate(Set<Analysis<?>> preserved) {
+        analyses.keySet().retainAll(preserved);
+        boolean removed = true;
+        while(removed) {
+            removed = analyses.keySet().removeIf(analysis -> !analyses.keySet().containsAll(analysis.dependencies));
+        }
+    }
+}
@@ -19,168 +19,173 @@ package de.loisel.chip.clc;
 import java.util.*;
 
 /**
- * the preprocessor "cleans" the files
+ * the preprocessor "cleans" the files: it splits the lines into tokens
+ * and reads the commands, {@link UnitCache} includes the files
  */
 class Preprocessor {
 
-    private final Map<String, List<String>> files;
-
-    public Preprocessor(Map<String, List<String>> files) {
-        this.files = files;
-    }
-
     /**
-     * Processes the file. Remove comments, multiple spaces,
-     * empty lines.
-     * @return Files<Filename, LineMap<Linenumber, Line-content>>
+     * Signs and keywords in the order they are matched
      */
-    public List<Line> process() {
-
-        // Remove unnecessary stuff
-        Map<String, List<Line>> clearedFiles = new HashMap<>();
-        files.forEach((name, file) -> clearedFiles.put(name, clearCode(name, file)));
+    private static final List<String> TOKEN_KEYS = concat(Compiler.LANG_SIGNS, Compiler.LANG_KEYWORDS);
 
-        List<Line> allLines = execPreprocessorCommands(clearedFiles);
-
-        // Splitting lines until there is only one statement per line
-
-        allLines = splitLines(allLines);
-
-        return allLines;
+    private Preprocessor() {
     }
 
-    private static List<Line> execPreprocessorCommands(Map<String, List<Line>> clearedFiles) {
-        List<Line> allLines = new ArrayList<>();
-
-        String startName = "";
-
-        for(Map.Entry<String, List<Line>> entry: clearedFiles.entrySet()) {
-            for (Line line : entry.getValue()) {
-                if(line.s.contains("int main()") && startName.isEmpty()) {
-                    startName = entry.getKey();
-                } else if(line.s.contains("int main()") && !startName.isEmpty()) {
-                    throw new PreprocessorException(line,
-                            "Found multiple entry points: \"" + startName + "\" and \"" + entry.getKey() + "\".");
-                }
-            }
+    /**
+     * @param include A "#include" command
+     * @return names of all files matching the include
+     */
+    static List<String> includedFiles(Collection<String> fileNames, Line include) {
+        String includeName = include.s.substring(include.s.indexOf('"') + 1, include.s.lastIndexOf('"'));
+        List<String> included = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if(fileName.contains(includeName))
+                included.add(fileName);
         }
-
-        if(startName.isEmpty())
-            throw new PreprocessorException(new Line("N.A.", "N.A.", -1), "No entry point was found.");
-
-        includeFile(clearedFiles, allLines, startName);
-
-
-
-        return allLines;
+        return included;
     }
 
-    private static void includeFile(Map<String, List<Line>> clearedFiles, List<Line> allLines, String includeFile) {
-        for (Line line : clearedFiles.get(includeFile)) {
-            if(!line.s.contains("#include")) {
-                allLines.add(line);
-                continue;
-            }
+    /**
+     * Receives the tokens of a line, see {@link #splitLine(String, NameTable, TokenSink)}
+     */
+    @FunctionalInterface
+    interface TokenSink {
+        /**
+         * @param token the text of the token
+         * @param column where the token starts in the source line
+         * @param length how many chars of the source line it spans
+         */
+        void token(String token, int column, int length);
+    }
 
-            for (Map.Entry<String, List<Line>> entry: clearedFiles.entrySet()) {
-                if(entry.getKey().contains(
-                        line.s.substring(line.s.indexOf('"') + 1, line.s.lastIndexOf('"'))
-                )) {
-                    includeFile(clearedFiles, allLines, entry.getKey());
-                }
+    /**
+     * Splits a source line into signs, keywords and names. Comments and
+     * spaces are skipped by index instead of being cleared first, so
+     * nothing of the line is copied. Signs and keywords are the shared
+     * constants, names and numbers are taken from the name table.
+     * Tokens never span more than one line.
+     * @param line A line that is no preprocessor command, see {@link #command(String)}
+     */
+    static void splitLine(String line, NameTable names, TokenSink sink) {
+        int end = line.indexOf("//");
+        if(end < 0)
+            end = line.length();
+        while(end > 0 && Character.isWhitespace(line.charAt(end - 1)))
+            end--;
+
+        int index = skipSpaces(line, 0, end);
+        while(index < end) {
+            String key = keyAt(line, index, TOKEN_KEYS);
+
+            if(key != null) {               // line contains sign or keyword
+                sink.token(key, index, key.length());
+                index += key.length();
+            } else {                        // line contains name
+                int nameEnd = findNextKey(line, index, end);
+                while(Character.isWhitespace(line.charAt(nameEnd - 1)))
+                    nameEnd--;
+
+                sink.token(name(line, index, nameEnd, names), index, nameEnd - index);
+                index = nameEnd;
             }
 
+            index = skipSpaces(line, index, end);
         }
     }
 
-    private static List<Line> splitLines(List<Line> lines) {
-        List<Line> splitLines = new ArrayList<>();
-
-        List<String> keys = new ArrayList<>();
-        keys.addAll(Arrays.asList(Compiler.LANG_SIGNS));
-        keys.addAll(Arrays.asList(Compiler.LANG_KEYWORDS));
-
-        for (Line line : lines) {
-            String value = line.s;
-
-            if(value.charAt(0) == '#') {       // dont split preprocessor commands
-                splitLines.add(line);
-                continue;
-            }
-
-            boolean lineEnd = false;
-            while(!lineEnd) {
-
-                boolean foundKey = false;
-                for (String key : keys) {
-
-                    if(value.indexOf(key) == 0) {       // line contains sign or keyword
-
-                        splitLines.add(new Line(key, line));
-                        value = value.substring(key.length()).strip();
-                        foundKey = true;
-
-                        break;
-                    }
-
-                }
-
-                if(!foundKey) {                 // line contains name
-                    int nextKey = findNextKey(value, Arrays.asList(Compiler.LANG_SIGNS));
-
-                    String name = (nextKey > -1) ? value.substring(0, nextKey).strip() : value;
-
-                    splitLines.add(new Line(name, line));
-                    value = value.substring(name.length()).strip();
-                }
-
-                if(value.isEmpty())
-                    lineEnd = true;
-            }
+    /**
+     * @return the cleared command if the line is a preprocessor command like "#include", else null
+     */
+    static String command(String line) {
+        int start = skipSpaces(line, 0, line.length());
+        if(start == line.length() || line.charAt(start) != '#')
+            return null;
+        return clearLine(line);
+    }
 
+    /**
+     * A name with spaces in it is wrong anyway, but it is reported
+     * with the spaces cleared like the rest of the line
+     */
+    private static String name(String line, int start, int end, NameTable names) {
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if(c == '\t' || isClearedSpace(c) && i + 1 < end && isClearedSpace(line.charAt(i + 1)))
+                return names.intern(clearSpaces(line.substring(start, end)));
         }
-
-        return splitLines;
+        return names.intern(line, start, end);
     }
 
     /**
-     * returns -1 if no key was found
-     * @return index of the next key
+     * @return true for the chars a run of spaces is made of, tabs count as spaces
      */
-    private static int findNextKey(String line, List<String> keys) {
-        int index = -1;
-
-        for (int i = 0; i < line.length(); i++) {
+    private static boolean isClearedSpace(char c) {
+        return c == ' ' || c == '\t';
+    }
 
-            for (String key : keys) {
-                if(line.indexOf(key, i) - i == 0)
-                    return i;
-            }
+    /**
+     * @return the first key that starts at the index, null if there is none
+     */
+    private static String keyAt(String line, int index, List<String> keys) {
+        for (String key : keys) {
+            if(line.startsWith(key, index))
+                return key;
+        }
+        return null;
+    }
 
+    /**
+     * @return index of the next sign after from, end if there is none
+     */
+    private static int findNextKey(String line, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if(keyAt(line, i, Compiler.LANG_SIGNS) != null)
+                return i;
         }
 
-        return index;
+        return end;
     }
 
-    private static List<Line> clearCode(String name, List<String> file) {
-        List<Line> lines = new ArrayList<>();
-
-        int lineNum = 1;
-        for (String line : file) {
-            if(line.contains("//"))
-                line = line.substring(0, line.indexOf("//"));
-            line = line.strip();
+    private static int skipSpaces(String line, int index, int end) {
+        while(index < end && Character.isWhitespace(line.charAt(index)))
+            index++;
+        return index;
+    }
 
-            line = line.replace('\t', ' ');
-            line = line.replaceAll("\s{2,}", " ");
+    /**
+     * Removes comments and multiple spaces of a single line
+     * @return the cleared line, empty if nothing is left
+     */
+    static String clearLine(String line) {
+        if(line.contains("//"))
+            line = line.substring(0, line.indexOf("//"));
+        return clearSpaces(line.strip());
+    }
 
-            // remove empty lines
-            if(!line.isEmpty())
-                // add line-numbers to generate error messages later in the process
-                lines.add(new Line(name, line, lineNum));
-            lineNum++;
+    /**
+     * Replaces tabs by a space and every run of spaces by a single one
+     */
+    private static String clearSpaces(String text) {
+        StringBuilder cleared = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int run = i;
+            while(run < text.length() && isClearedSpace(text.charAt(run)))
+                run++;
+            if(run - i > 1) {
+                cleared.append(' ');
+                i = run - 1;
+            } else {
+                cleared.append(c == '\t' ? ' ' : c);
+            }
         }
+        return cleared.toString();
+    }
 
-        return lines;
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> all = new ArrayList<>(first);
+        all.addAll(second);
+        return List.copyOf(all);
     }
 }
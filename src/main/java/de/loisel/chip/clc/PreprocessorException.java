@@ -16,12 +16,12 @@
 
 package de.loisel.chip.clc;
 
-public class PreprocessorException extends RuntimeException {
+public class PreprocessorException extends ClcException {
     /**
      * Constructs a new Exception when there was an error
      * during preprocessing
      */
     public PreprocessorException(Line line, String message) {
-        super("File " + line.fName + ": Preprocessor in line " + line + ": " + message);
+        super("Preprocessor", line.fName, line.num, message);
     }
 }
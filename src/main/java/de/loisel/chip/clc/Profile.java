@@ -0,0 +1,328 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * How often the parts of a program ran, mapped back to its source. <br>
+ * A profile is collected from a run of the assembly: the instructions run
+ * and cycles taken by every function, the count of every basic block and
+ * of every source line, found by the "# file:line" comments the compiler
+ * writes in front of each statement. A line counts how often its first
+ * instruction ran, the copies of a line are added up.
+ * <br>
+ * Given to the compiler with {@link CompilerConfig}, a profile lets hot
+ * loops unroll further and moves the blocks that never ran to the end of
+ * their function. Immutable.
+ * <pre>
+ * function name location calls cycles
+ * block label location count
+ * line location count
+ * </pre>
+ * A location is "file:line", "-" if there is none. A block without a
+ * label is named by "@" and its line in the assembly.
+ */
+public final class Profile {
+
+    public static final Profile EMPTY = new Profile(new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>());
+
+    /**
+     * A line is hot if it ran at least this share of the hottest line, 1 / HOT_SHARE
+     */
+    static final int HOT_SHARE = 16;
+
+    private static final String NO_LOCATION = "-";
+
+    private static final Set<String> ENDS_BLOCK = Set.of(Asm.JMP, Asm.JZ, Asm.JNZ, Asm.BEQ, Asm.BNE, Asm.BLT,
+            Asm.BGE, Asm.BGT, Asm.BLE, Asm.RET, Asm.HALT);
+
+    public static final class Function {
+        public final String name;
+
+        /**
+         * "file:line" of the declaration, null for ".start"
+         */
+        public final String location;
+        public final long calls;
+
+        /**
+         * cycles of its own instructions, without the functions it calls
+         */
+        public final long cycles;
+
+        Function(String name, String location, long calls, long cycles) {
+            this.name = name;
+            this.location = location;
+            this.calls = calls;
+            this.cycles = cycles;
+        }
+    }
+
+    public static final class Block {
+        public final String label;
+
+        /**
+         * "file:line" of the last statement that started before the block, null if there is none
+         */
+        public final String location;
+        public final long count;
+
+        Block(String label, String location, long count) {
+            this.label = label;
+            this.location = location;
+            this.count = count;
+        }
+    }
+
+    private final Map<String, Function> functions;
+    private final Map<String, Block> blocks;
+    private final Map<String, Long> lines;
+    private final long hottestLine;
+
+    private Profile(Map<String, Function> functions, Map<String, Block> blocks, Map<String, Long> lines) {
+        this.functions = Collections.unmodifiableMap(functions);
+        this.blocks = Collections.unmodifiableMap(blocks);
+        this.lines = Collections.unmodifiableMap(lines);
+        this.hottestLine = lines.values().stream().mapToLong(Long::longValue).max().orElse(0);
+    }
+
+    /**
+     * @param assembly the assembly that ran, with its labels and comments
+     * @param counts how often each instruction ran, in the order of the assembly
+     *               without labels, comments and data
+     * @param cycles the cycles each instruction took, in the same order
+     */
+    public static Profile collect(List<String> assembly, long[] counts, long[] cycles) {
+        Map<String, Function> functions = new LinkedHashMap<>();
+        Map<String, Block> blocks = new LinkedHashMap<>();
+        Map<String, Long> lines = new LinkedHashMap<>();
+
+        List<String> waitingLines = new ArrayList<>();
+        String location = null;
+        String label = null;
+        String function = null;
+        String functionLocation = null;
+        long functionCalls = -1;
+        long functionCycles = 0;
+        boolean blockStarts = true;
+        int instruction = 0;
+
+        for (int i = 0; i < assembly.size(); i++) {
+            String line = assembly.get(i).strip();
+            if(line.isEmpty() || line.startsWith(Asm.WORD))
+                continue;
+            if(Ir.isComment(line)) {
+                String statement = Ir.location(line);
+                if(statement != null) {
+                    waitingLines.add(statement);
+                    location = statement;
+                }
+                continue;
+            }
+            if(line.endsWith(":")) {
+                String name = line.substring(0, line.length() - 1);
+                if(isFunction(name)) {
+                    if(function != null)
+                        functions.put(function, new Function(function, functionLocation, functionCalls, functionCycles));
+                    function = name;
+                    functionLocation = name.equals(CodeGenerator.START) ? null : location;
+                    functionCalls = -1;
+                    functionCycles = 0;
+                }
+                if(label == null)
+                    label = name;
+                blockStarts = true;
+                continue;
+            }
+
+            if(instruction == counts.length)
+                throw new IllegalArgumentException("More instructions than counts: " + counts.length);
+            long count = counts[instruction];
+            for (String statement : waitingLines) {
+                lines.merge(statement, count, Long::sum);
+            }
+            waitingLines.clear();
+            if(blockStarts) {
+                String name = label != null ? label : "@" + (i + 1);
+                blocks.put(name, new Block(name, location, count));
+                label = null;
+            }
+            if(function != null) {
+                if(functionCalls < 0)
+                    functionCalls = count;
+                functionCycles += cycles[instruction];
+            }
+
+            int space = line.indexOf(' ');
+            blockStarts = ENDS_BLOCK.contains(space < 0 ? line : line.substring(0, space));
+            instruction++;
+        }
+        if(instruction != counts.length)
+            throw new IllegalArgumentException("Fewer instructions than counts: " + instruction);
+        if(function != null)
+            functions.put(function, new Function(function, functionLocation, Math.max(functionCalls, 0), functionCycles));
+        return new Profile(functions, blocks, lines);
+    }
+
+    /**
+     * Reads a profile written by {@link #toLines()}, empty lines and
+     * lines starting with '#' are skipped
+     * @throws IllegalArgumentException if a line is no entry
+     */
+    public static Profile parse(List<String> text) {
+        Map<String, Function> functions = new LinkedHashMap<>();
+        Map<String, Block> blocks = new LinkedHashMap<>();
+        Map<String, Long> lines = new LinkedHashMap<>();
+
+        for (int i = 0; i < text.size(); i++) {
+            String line = text.get(i).strip();
+            if(line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split(" +");
+            int lineNum = i + 1;
+            String duplicate = switch (fields[0]) {
+                case "function" -> {
+                    expectFields(fields, 5, lineNum);
+                    Function function = new Function(fields[1], location(fields[2]),
+                            number(fields[3], lineNum), number(fields[4], lineNum));
+                    yield functions.putIfAbsent(function.name, function) != null ? function.name : null;
+                }
+                case "block" -> {
+                    expectFields(fields, 4, lineNum);
+                    Block block = new Block(fields[1], location(fields[2]), number(fields[3], lineNum));
+                    yield blocks.putIfAbsent(block.label, block) != null ? block.label : null;
+                }
+                case "line" -> {
+                    expectFields(fields, 3, lineNum);
+                    yield lines.putIfAbsent(fields[1], number(fields[2], lineNum)) != null ? fields[1] : null;
+                }
+                default -> throw new IllegalArgumentException("Line " + lineNum + " of the profile: unknown entry \""
+                        + fields[0] + "\"");
+            };
+            if(duplicate != null)
+                throw new IllegalArgumentException("Line " + lineNum + " of the profile: \"" + duplicate
+                        + "\" is listed twice");
+        }
+        return new Profile(functions, blocks, lines);
+    }
+
+    /**
+     * @return the profile as text, the functions, blocks and lines in the order they were found
+     */
+    public List<String> toLines() {
+        List<String> text = new ArrayList<>();
+        text.add("# clc profile");
+        text.add("# function name location calls cycles");
+        for (Function function : functions.values()) {
+            text.add("function " + function.name + " " + text(function.location) + " " + function.calls
+                    + " " + function.cycles);
+        }
+        text.add("# block label location count");
+        for (Block block : blocks.values()) {
+            text.add("block " + block.label + " " + text(block.location) + " " + block.count);
+        }
+        text.add("# line location count");
+        for (Map.Entry<String, Long> line : lines.entrySet()) {
+            text.add("line " + line.getKey() + " " + line.getValue());
+        }
+        return text;
+    }
+
+    public boolean isEmpty() {
+        return functions.isEmpty() && blocks.isEmpty() && lines.isEmpty();
+    }
+
+    /**
+     * @return the function, null if it is not in the profile
+     */
+    public Function function(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * @return the block, null if it is not in the profile
+     */
+    public Block block(String label) {
+        return blocks.get(label);
+    }
+
+    public Collection<Function> getFunctions() {
+        return functions.values();
+    }
+
+    public Collection<Block> getBlocks() {
+        return blocks.values();
+    }
+
+    /**
+     * @param location "file:line"
+     * @return how often the statements of the line started, empty if it is not in the profile
+     */
+    public OptionalLong lineCount(String location) {
+        Long count = lines.get(location);
+        return count == null ? OptionalLong.empty() : OptionalLong.of(count);
+    }
+
+    /**
+     * @return true if the line is in the profile and never ran
+     */
+    public boolean isCold(String location) {
+        Long count = lines.get(location);
+        return count != null && count == 0;
+    }
+
+    /**
+     * @return true if the line ran at least 1 / {@link #HOT_SHARE} as often as the hottest line
+     */
+    public boolean isHot(String location) {
+        Long count = lines.get(location);
+        return count != null && count > 0 && count * HOT_SHARE >= hottestLine;
+    }
+
+    /**
+     * Functions are the labels without '.' and ".start"
+     */
+    private static boolean isFunction(String label) {
+        return label.indexOf('.') < 0 || label.equals(CodeGenerator.START);
+    }
+
+    private static void expectFields(String[] fields, int count, int lineNum) {
+        if(fields.length != count)
+            throw new IllegalArgumentException("Line " + lineNum + " of the profile: \"" + fields[0] + "\" needs "
+                    + (count - 1) + " values, got " + (fields.length - 1));
+    }
+
+    private static long number(String field, int lineNum) {
+        try {
+            long value = Long.parseLong(field);
+            if(value >= 0)
+                return value;
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Line " + lineNum + " of the profile: \"" + field + "\" is no count");
+    }
+
+    private static String location(String field) {
+        return field.equals(NO_LOCATION) ? null : field;
+    }
+
+    private static String text(String location) {
+        return location == null ? NO_LOCATION : location;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * The source files of one program. Immutable.
+ */
+public final class Project {
+
+    public final String name;
+
+    /**
+     * Absolute path and lines of every file
+     */
+    public final Map<String, List<String>> sources;
+
+    public Project(String name, Map<String, List<String>> sources) {
+        this.name = name;
+        Map<String, List<String>> copy = new HashMap<>();
+        sources.forEach((path, lines) -> copy.put(path, lines instanceof SpillList
+                ? Collections.unmodifiableList(lines)        // too large to copy
+                : List.copyOf(lines)));
+        this.sources = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Reads the files of a project
+     */
+    public static Project load(String name, File... files) throws IOException {
+        return load(name, CompilerConfig.DEFAULT, files);
+    }
+
+    /**
+     * Reads the files of a project, large files are kept
+     * in temp files if the config has a heap budget
+     */
+    public static Project load(String name, CompilerConfig config, File... files) throws IOException {
+        Map<String, List<String>> sources = new HashMap<>();
+        for (File file : files) {
+            List<String> lines = config.newList(SpillList.STRINGS);
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    lines.add(line);
+                }
+            }
+            sources.put(file.getAbsolutePath(), lines);
+        }
+        return new Project(name, sources);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * Which functions are pure. A pure function reads and writes only its
+ * parameters and locals and calls only pure functions, so its value
+ * depends on nothing but its arguments. Locals can not share their
+ * name with a global, so every other name a function uses is a global.
+ */
+final class Purity {
+
+    private final Set<String> pure = new HashSet<>();
+
+    private Purity() {
+    }
+
+    static Purity compute(List<String> code, CallGraph graph) {
+        Purity purity = new Purity();
+        for (CallGraph.Function function : graph.functions()) {
+            if(isLocal(code, function))
+                purity.pure.add(function.name);
+        }
+
+        // a call of an impure function makes the caller impure, up the call graph
+        boolean changed = true;
+        while(changed) {
+            changed = purity.pure.removeIf(name -> !purity.pure.containsAll(graph.function(name).callees));
+        }
+        return purity;
+    }
+
+    boolean isPure(String function) {
+        return pure.contains(function);
+    }
+
+    /**
+     * @return true if the function uses no globals
+     */
+    private static boolean isLocal(List<String> code, CallGraph.Function function) {
+        Set<String> locals = new HashSet<>();
+        for (int i = function.start + 1; i < function.end; i++) {
+            String instruction = code.get(i);
+            String operand = Ir.operand(instruction);
+            switch (Ir.opcode(instruction)) {
+                case Ir.PARAMETER -> locals.add(operand.substring(operand.indexOf(' ') + 1));
+                case Ir.NEW_INT -> locals.add(operand);
+                case Ir.NEW_ARRAY -> locals.add(operand.substring(0, operand.indexOf(' ')));
+                case Ir.INT_VAR, Ir.SET_INT, Ir.SET_ARRAY_VAL, Ir.START_ARRAY_VAL -> {
+                    if(!locals.contains(operand))
+                        return false;
+                }
+                default -> {
+                    // values, operators, blocks and calls
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+import static de.loisel.chip.clc.Asm.*;
+
+/**
+ * Keeps values in registers. Every value of an expression and every
+ * local int gets a virtual register, the virtual registers of a
+ * function are then given to r1 to r6 by a {@link LinearScan}. Values
+ * that do not fit are spilled, locals to their slot in the frame and
+ * the values of expressions to slots after the frame.
+ */
+final class RegisterGenerator extends CodeGenerator {
+
+    private final Deque<Integer> values = new ArrayDeque<>();
+    private final Map<FrameLayout.Slot, Integer> variables = new HashMap<>();
+
+    /**
+     * the frame slot of the local int of every virtual register, the
+     * values of expressions have none
+     */
+    private final Map<Integer, Integer> homes = new HashMap<>();
+    private int next = FIRST_VIRTUAL;
+
+    /**
+     * first instruction of the current function
+     */
+    private int start;
+    private int spilled;
+    private int allocated;
+
+    RegisterGenerator(List<String> code, MemoryLayout memoryLayout, FrameLayout frames) {
+        super(code, memoryLayout, frames);
+    }
+
+    /**
+     * @return how many virtual registers got a register
+     */
+    int allocated() {
+        return allocated;
+    }
+
+    /**
+     * @return how many virtual registers were kept in the frame
+     */
+    int spilled() {
+        return spilled;
+    }
+
+    @Override
+    void constant(int value) {
+        int register = next++;
+        emit(ldi(register, value));
+        values.push(register);
+    }
+
+    @Override
+    void load(String variable) {
+        FrameLayout.Slot slot = local(variable);
+        if(slot != null) {
+            values.push(variable(slot));
+            return;
+        }
+        int register = next++;
+        emit(ld(register, NONE, global(variable)));
+        values.push(register);
+    }
+
+    @Override
+    void operator(String operator) {
+        int right = values.pop();
+        int left = values.pop();
+        int register = next++;
+        emit(alu(Asm.operator(operator), register, left, right));
+        values.push(register);
+    }
+
+    @Override
+    void loadElement(String array) {
+        int address = elementAddress(array, values.pop());
+        int register = next++;
+        emit(ld(register, address, elementOffset(array)));
+        values.push(register);
+    }
+
+    @Override
+    void store(String variable) {
+        int value = values.pop();
+        FrameLayout.Slot slot = local(variable);
+        if(slot == null) {
+            emit(st(NONE, global(variable), value));
+            return;
+        }
+
+        // the value is written to the variable directly
+        int register = variable(slot);
+        List<Asm> out = out();
+        Asm last = out.get(out.size() - 1);
+        if(!homes.containsKey(value) && last.def() == value)
+            last.d = register;
+        else
+            emit(mov(register, value));
+    }
+
+    @Override
+    void storeElement(String array) {
+        int value = values.pop();
+        int address = elementAddress(array, values.pop());
+        emit(st(address, elementOffset(array), value));
+    }
+
+    @Override
+    void storeElement(String array, int index) {
+        int value = values.pop();
+        FrameLayout.Slot slot = local(array);
+        int offset = MemoryLayout.WORD_SIZE * index;
+        emit(slot == null ? st(NONE, global(array) + offset, value) : st(FP, offset(slot) + offset, value));
+    }
+
+    @Override
+    void clearArray(String array, int words) {
+        for (int i = 0; i < words; i++) {
+            constant(0);
+            storeElement(array, i);
+        }
+    }
+
+    @Override
+    void argument() {
+        emit(push(values.pop()));
+    }
+
+    @Override
+    void call(String function, int arguments, boolean value) {
+        emit(Asm.call(function));
+        if(arguments > 0)
+            emit(addi(SP, SP, MemoryLayout.WORD_SIZE * arguments));
+        if(value) {
+            int register = next++;
+            emit(mov(register, R0));
+            values.push(register);
+        }
+    }
+
+    @Override
+    void tailCall(int arguments) {
+        for (int i = arguments - 1; i >= 0; i--) {
+            emit(pop(variable(parameters().get(i))));
+        }
+        emit(jmp(label("body")));
+    }
+
+    @Override
+    void returnValue() {
+        emit(mov(R0, values.pop()));
+    }
+
+    @Override
+    void branch(String op, String label) {
+        emit(Asm.branch(op, values.pop(), label));
+    }
+
+    @Override
+    void compare(String op, String label) {
+        int right = values.pop();
+        emit(Asm.compare(op, values.pop(), right, label));
+    }
+
+    @Override
+    void parameter(int index, FrameLayout.Slot slot) {
+        emit(ld(variable(slot), FP, argumentOffset(index)));
+    }
+
+    @Override
+    void prologue() {
+        next = FIRST_VIRTUAL;
+        emit(push(FP));
+        emit(mov(FP, SP));
+        start = out().size();
+    }
+
+    @Override
+    void epilogue() {
+        emit(mov(SP, FP));
+        emit(pop(FP));
+        emit(ret());
+    }
+
+    @Override
+    void end() {
+        List<Asm> body = out().subList(start, out().size());
+        int arrayWords = 0;
+        if(frame != null) {
+            for (FrameLayout.Slot slot : frame.getSlots()) {
+                if(slot.kind.equals("array"))
+                    arrayWords = Math.max(arrayWords, slot.offset() + slot.words);
+            }
+        }
+        LinearScan scan = new LinearScan(body, homes, arrayWords);
+        List<Asm> allocatedCode = scan.allocate();
+        body.clear();
+        if(scan.frameWords() > 0)
+            body.add(addi(SP, SP, -MemoryLayout.WORD_SIZE * scan.frameWords()));
+        body.addAll(allocatedCode);
+
+        allocated += scan.allocated();
+        spilled += scan.spilled();
+        variables.clear();
+        homes.clear();
+    }
+
+    /**
+     * @return the virtual register of a local int
+     */
+    private int variable(FrameLayout.Slot slot) {
+        Integer register = variables.get(slot);
+        if(register == null) {
+            register = next++;
+            variables.put(slot, register);
+            homes.put(register, offset(slot));
+        }
+        return register;
+    }
+
+    /**
+     * @param index the register of the index
+     * @return the register of the address of the element, relative to {@link #elementOffset(String)}
+     */
+    private int elementAddress(String array, int index) {
+        int address = next++;
+        emit(alu(ADD, address, index, index));
+        if(local(array) != null)
+            emit(alu(ADD, address, address, FP));
+        return address;
+    }
+
+    private int elementOffset(String array) {
+        FrameLayout.Slot slot = local(array);
+        return slot == null ? global(array) : offset(slot);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only list for the bounded-heap mode. Elements are kept on the
+ * heap until their estimated size exceeds the threshold, then all of them
+ * are moved to a temp file. The file is read through memory mappings,
+ * which are outside the Java heap. The temp files are deleted by
+ * {@link #close()}, when the list is no longer reachable or when the JVM exits.
+ */
+final class SpillList<T> extends AbstractList<T> implements RandomAccess, AutoCloseable {
+
+    /**
+     * Converts the elements to bytes and back
+     */
+    interface Codec<T> {
+        void write(DataOutput out, T value) throws IOException;
+
+        T read(ByteBuffer in);
+
+        /**
+         * @return the estimated heap size of an element in bytes
+         */
+        long heapSize(T value);
+    }
+
+    static final Codec<String> STRINGS = new Codec<>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException {
+            writeString(out, value);
+        }
+
+        @Override
+        public String read(ByteBuffer in) {
+            return readString(in);
+        }
+
+        @Override
+        public long heapSize(String value) {
+            return 48 + value.length();
+        }
+    };
+
+    /**
+     * Tokens of a single file, the line numbers are kept and the
+     * file of the template line is used for every token
+     */
+    static Codec<Line> lines(Line file) {
+        return new Codec<>() {
+            @Override
+            public void write(DataOutput out, Line value) throws IOException {
+                out.writeInt(value.num);
+                writeString(out, value.s);
+            }
+
+            @Override
+            public Line read(ByteBuffer in) {
+                int num = in.getInt();
+                return new Line(readString(in), file, num);
+            }
+
+            @Override
+            public long heapSize(Line value) {
+                return 88 + value.s.length();
+            }
+        };
+    }
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * Index and data files are mapped in segments of this size
+     */
+    private static final int SEGMENT_SIZE = 1 << 28;
+
+    private final Codec<T> codec;
+    private final long threshold;
+    private List<T> heap = new ArrayList<>();
+    private long heapSize;
+
+    private Spill spill;
+    private int size;
+
+    /**
+     * @param threshold bytes on the heap before the elements are moved to a temp file
+     */
+    SpillList(Codec<T> codec, long threshold) {
+        this.codec = codec;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return true if the elements were moved to a temp file
+     */
+    boolean isSpilled() {
+        return spill != null;
+    }
+
+    @Override
+    public boolean add(T value) {
+        if(spill == null) {
+            heap.add(value);
+            heapSize += codec.heapSize(value);
+            if(heapSize > threshold)
+                moveToFile();
+        } else {
+            spill.append(codec, value);
+        }
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public T get(int index) {
+        Objects.checkIndex(index, size);
+        if(spill == null)
+            return heap.get(index);
+        return codec.read(spill.record(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        if(spill != null)
+            spill.cleanable.clean();
+        heap = new ArrayList<>();
+    }
+
+    private void moveToFile() {
+        try {
+            spill = new Spill(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create spill file", e);
+        }
+        for (T value : heap) {
+            spill.append(codec, value);
+        }
+        heap = null;
+    }
+
+    /**
+     * The temp files, separate from the list so that the cleaner
+     * can delete them after the list is gone
+     */
+    private static final class Spill implements Runnable {
+        private final Path dataPath;
+        private final Path indexPath;
+        private final DataOutputStream data;
+        private final DataOutputStream index;
+        private final Cleaner.Cleanable cleanable;
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+        private long dataSize;
+        private long indexSize;
+
+        private MappedByteBuffer[] dataSegments;
+        private MappedByteBuffer[] indexSegments;
+
+        Spill(Object owner) throws IOException {
+            dataPath = Files.createTempFile("clc", ".spill");
+            indexPath = Files.createTempFile("clc", ".index");
+            dataPath.toFile().deleteOnExit();       // the cleaner does not run when the JVM exits
+            indexPath.toFile().deleteOnExit();
+            data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dataPath), 1 << 16));
+            index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath), 1 << 16));
+            cleanable = CLEANER.register(owner, this);
+        }
+
+        <T> void append(Codec<T> codec, T value) {
+            try {
+                recordBytes.reset();
+                codec.write(record, value);
+                index.writeLong(dataSize);
+                indexSize += Long.BYTES;
+                recordBytes.writeTo(data);
+                dataSize += recordBytes.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write spill file", e);
+            }
+            dataSegments = null;        // mapped again on the next read
+            indexSegments = null;
+        }
+
+        /**
+         * @return a buffer positioned at the record
+         */
+        ByteBuffer record(int i) {
+            if(dataSegments == null)
+                map();
+
+            long start = read(indexSegments, (long) i * Long.BYTES, Long.BYTES).getLong();
+            long end = (long) (i + 1) * Long.BYTES < indexSize
+                    ? read(indexSegments, (long) (i + 1) * Long.BYTES, Long.BYTES).getLong()
+                    : dataSize;
+            return read(dataSegments, start, (int) (end - start));
+        }
+
+        private static ByteBuffer read(MappedByteBuffer[] segments, long position, int length) {
+            int segment = (int) (position / SEGMENT_SIZE);
+            int offset = (int) (position % SEGMENT_SIZE);
+            if(offset + length <= SEGMENT_SIZE)
+                return segments[segment].slice(offset, length);
+
+            // the record crosses two segments
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            copy.put(segments[segment].slice(offset, SEGMENT_SIZE - offset));
+            copy.put(segments[segment + 1].slice(0, length - (SEGMENT_SIZE - offset)));
+            return copy.flip();
+        }
+
+        private void map() {
+            try {
+                data.flush();
+                index.flush();
+                dataSegments = map(dataPath, dataSize);
+                indexSegments = map(indexPath, indexSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read spill file", e);
+            }
+        }
+
+        private static MappedByteBuffer[] map(Path path, long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer[] segments = new MappedByteBuffer[(int) (size / SEGMENT_SIZE) + 1];
+                for (int i = 0; i < segments.length; i++) {
+                    long start = (long) i * SEGMENT_SIZE;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+                }
+                return segments;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                data.close();
+                index.close();
+                Files.deleteIfExists(dataPath);
+                Files.deleteIfExists(indexPath);
+            } catch (IOException e) {
+                // the temp directory is cleaned up by the system
+            }
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
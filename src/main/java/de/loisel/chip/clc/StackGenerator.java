@@ -0,0 +1,180 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.List;
+
+import static de.loisel.chip.clc.Asm.*;
+
+/**
+ * Evaluates every expression on the machine stack: each value is
+ * pushed, each operator pops its operands and pushes the result. Only
+ * r1 and r2 are used, the code is long but needs no allocation.
+ * The fallback of the {@link RegisterGenerator}.
+ */
+final class StackGenerator extends CodeGenerator {
+
+    private static final int R1 = 1;
+    private static final int R2 = 2;
+
+    StackGenerator(List<String> code, MemoryLayout memoryLayout, FrameLayout frames) {
+        super(code, memoryLayout, frames);
+    }
+
+    @Override
+    void constant(int value) {
+        emit(ldi(R1, value));
+        emit(push(R1));
+    }
+
+    @Override
+    void load(String variable) {
+        FrameLayout.Slot slot = local(variable);
+        emit(slot == null ? ld(R1, NONE, global(variable)) : ld(R1, FP, offset(slot)));
+        emit(push(R1));
+    }
+
+    @Override
+    void operator(String operator) {
+        emit(pop(R2));
+        emit(pop(R1));
+        emit(alu(Asm.operator(operator), R1, R1, R2));
+        emit(push(R1));
+    }
+
+    @Override
+    void loadElement(String array) {
+        emit(pop(R1));
+        emit(ld(R1, elementAddress(array, R1), elementOffset(array)));
+        emit(push(R1));
+    }
+
+    @Override
+    void store(String variable) {
+        FrameLayout.Slot slot = local(variable);
+        emit(pop(R1));
+        emit(slot == null ? st(NONE, global(variable), R1) : st(FP, offset(slot), R1));
+    }
+
+    @Override
+    void storeElement(String array) {
+        emit(pop(R2));
+        emit(pop(R1));
+        emit(st(elementAddress(array, R1), elementOffset(array), R2));
+    }
+
+    @Override
+    void storeElement(String array, int index) {
+        emit(pop(R1));
+        FrameLayout.Slot slot = local(array);
+        int offset = MemoryLayout.WORD_SIZE * index;
+        emit(slot == null ? st(NONE, global(array) + offset, R1) : st(FP, offset(slot) + offset, R1));
+    }
+
+    @Override
+    void clearArray(String array, int words) {
+        emit(ldi(R1, 0));
+        for (int i = 0; i < words; i++) {
+            emit(push(R1));
+            storeElement(array, i);
+        }
+    }
+
+    @Override
+    void argument() {
+        // the value is already on the stack
+    }
+
+    @Override
+    void call(String function, int arguments, boolean value) {
+        emit(Asm.call(function));
+        if(arguments > 0)
+            emit(addi(SP, SP, MemoryLayout.WORD_SIZE * arguments));
+        if(value)
+            emit(push(R0));
+    }
+
+    @Override
+    void tailCall(int arguments) {
+        for (int i = arguments - 1; i >= 0; i--) {
+            emit(pop(R1));
+            emit(st(FP, offset(parameters().get(i)), R1));
+        }
+        emit(jmp(label("body")));
+    }
+
+    @Override
+    void returnValue() {
+        emit(pop(R0));
+    }
+
+    @Override
+    void branch(String op, String label) {
+        emit(pop(R1));
+        emit(Asm.branch(op, R1, label));
+    }
+
+    @Override
+    void compare(String op, String label) {
+        emit(pop(R2));
+        emit(pop(R1));
+        emit(Asm.compare(op, R1, R2, label));
+    }
+
+    @Override
+    void parameter(int index, FrameLayout.Slot slot) {
+        emit(ld(R1, FP, argumentOffset(index)));
+        emit(st(FP, offset(slot), R1));
+    }
+
+    @Override
+    void prologue() {
+        emit(push(FP));
+        emit(mov(FP, SP));
+        if(frame != null && frame.words() > 0)
+            emit(addi(SP, SP, -MemoryLayout.WORD_SIZE * frame.words()));
+    }
+
+    @Override
+    void epilogue() {
+        emit(mov(SP, FP));
+        emit(pop(FP));
+        emit(ret());
+    }
+
+    @Override
+    void end() {
+    }
+
+    /**
+     * Turns the index in the register into the address of the element,
+     * relative to {@link #elementOffset(String)}
+     * @return the register
+     */
+    private int elementAddress(String array, int index) {
+        emit(alu(ADD, index, index, index));
+        if(local(array) != null)
+            emit(alu(ADD, index, index, FP));
+        return index;
+    }
+
+    private int elementOffset(String array) {
+        FrameLayout.Slot slot = local(array);
+        return slot == null ? global(array) : offset(slot);
+    }
+}
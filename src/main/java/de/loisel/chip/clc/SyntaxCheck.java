@@ -17,66 +17,333 @@
 package de.loisel.chip.clc;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 class SyntaxCheck {
 
     private static final String RETURN = "return";
 
-    private final Coder coder = new Coder();
+    /**
+     * Minimum number of functions before the bodies are checked in parallel
+     */
+    static final int PARALLEL_THRESHOLD = 4;
+
+    private final Coder coder;
+    private final ExpressionParser expressions;
+    private final boolean parallel;
+    private final int nestingLimit;
+    private final Diagnostics diagnostics;
+
+    /**
+     * Index of the matching bracket of every bracket in allLines,
+     * so no block or expression is scanned for its end more than once
+     */
+    private int[] partners;
 
     List<Line> allLines;
-    List<Line> clcCode;
 
     public SyntaxCheck(List<Line> lines) {
+        this(lines, false);
+    }
+
+    /**
+     * @param parallel if true, function bodies are checked and coded
+     *                 on the common ForkJoinPool
+     */
+    public SyntaxCheck(List<Line> lines, boolean parallel) {
+        this(lines, parallel, new Diagnostics());
+    }
+
+    /**
+     * @param diagnostics collects all errors, checking continues
+     *                    after the next ';' or '}'
+     */
+    public SyntaxCheck(List<Line> lines, boolean parallel, Diagnostics diagnostics) {
+        this(lines, new Coder(), parallel, diagnostics);
+    }
+
+    SyntaxCheck(List<Line> lines, Coder coder, boolean parallel, Diagnostics diagnostics) {
+        this(lines, coder, parallel, CompilerConfig.DEFAULT_NESTING_LIMIT, diagnostics);
+    }
+
+    /**
+     * @param nestingLimit how deep blocks and expressions may be nested,
+     *                     deeper code is reported instead of checked
+     */
+    SyntaxCheck(List<Line> lines, Coder coder, boolean parallel, int nestingLimit, Diagnostics diagnostics) {
         this.allLines = lines;
+        this.coder = coder;
+        this.expressions = new ExpressionParser(coder, nestingLimit);
+        this.parallel = parallel;
+        this.nestingLimit = nestingLimit;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * A top-level declaration found by {@link #scanDeclarations()}
+     */
+    private static final class Declaration {
+        static final int VARIABLE = 0;
+        static final int ARRAY = 1;
+        static final int FUNCTION = 2;
+
+        final int kind;
+        final int start;
+
+        Declaration(int kind, int start) {
+            this.kind = kind;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Checks the top-level declarations in lines without registering
+     * function signatures, used to recheck single declarations of a
+     * {@link ClcDocument}. The coder must already know all functions
+     * and the globals declared before.
+     */
+    static void checkDeclarations(List<Line> lines, Coder coder, Diagnostics diagnostics) {
+        SyntaxCheck checker = new SyntaxCheck(lines, coder, false, diagnostics);
+        try {
+            checker.partners = checker.balancedParenthesis(lines);
+        } catch (CompilerParseException e) {
+            diagnostics.report(e);
+            return;
+        }
+
+        for (Declaration declaration : checker.scanDeclarations())
+            checker.checkDeclarationRecovering(declaration);
+    }
+
+    /**
+     * Code, definitions and errors of one declaration checked by {@link #checkParallel(List)}
+     */
+    private static final class Part {
+        final List<String> code;
+        final List<Line> definitions;
+        final Diagnostics diagnostics;
+
+        Part(List<String> code, List<Line> definitions, Diagnostics diagnostics) {
+            this.code = code;
+            this.definitions = definitions;
+            this.diagnostics = diagnostics;
+        }
     }
 
     /**
      * check for clc Syntax over all lines
      */
-    List<Line> checkSyntax() {
-        balancedParenthesis(allLines);
+    List<String> checkSyntax() {
+        CompilerEvents.SyntaxCheck event = new CompilerEvents.SyntaxCheck();
+        event.begin();
+        try {
+            return checkAll();
+        } finally {
+            event.commit(allLines.isEmpty() ? "" : allLines.get(0).absPath, allLines.size(), 0);
+        }
+    }
+
+    private List<String> checkAll() {
+        try {
+            partners = balancedParenthesis(allLines);
+        } catch (CompilerParseException e) {      // no way to find the statement boundaries
+            diagnostics.report(e);
+            return coder.getCode();
+        }
+
+        List<Declaration> declarations = scanDeclarations();
+
+        int functionCount = 0;
+        for (Declaration declaration : declarations) {
+            if (declaration.kind == Declaration.FUNCTION) {
+                try {
+                    coder.functionSignature(allLines.get(declaration.start), allLines.get(declaration.start + 1));
+                } catch (ClcCoderException e) {
+                    diagnostics.report(e);
+                }
+                functionCount++;
+            }
+        }
+
+        if (parallel && functionCount >= PARALLEL_THRESHOLD) {
+            checkParallel(declarations);
+        } else {
+            for (Declaration declaration : declarations)
+                checkDeclarationRecovering(declaration);
+        }
+
+        return coder.getCode();
+    }
+
+    /**
+     * Globals are checked in order on the calling thread. Every function body
+     * is checked by its own task with a forked coder, that sees the globals
+     * declared before it. The code, definitions and errors are merged in
+     * source order, so they are the same as in a sequential check.
+     */
+    private void checkParallel(List<Declaration> declarations) {
+        List<Future<Part>> parts = new ArrayList<>(declarations.size());
+
+        for (Declaration declaration : declarations) {
+            if (declaration.kind != Declaration.FUNCTION) {
+                SyntaxCheck checker = new SyntaxCheck(allLines, coder, false, nestingLimit, diagnostics.fork());
+                checker.partners = partners;
+                parts.add(CompletableFuture.completedFuture(checker.checkPart(declaration)));
+                continue;
+            }
+
+            SyntaxCheck checker = new SyntaxCheck(allLines, coder.fork(), false, nestingLimit, diagnostics.fork());
+            checker.partners = partners;
+            parts.add(ForkJoinPool.commonPool().submit(() -> checker.checkPart(declaration)));
+        }
+
+        // joining in source order keeps the output and the reported errors deterministic
+        for (Future<Part> future : parts) {
+            try {
+                Part part = future.get();
+                coder.appendCode(part.code);
+                coder.appendDefinitions(part.definitions);
+                diagnostics.addAll(part.diagnostics);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private Part checkPart(Declaration declaration) {
+        try {
+            checkDeclarationRecovering(declaration);
+        } catch (DiagnosticsException e) {
+            // error limit of this part reached, the errors are merged by the caller
+        }
+        return new Part(coder.takeCode(), coder.takeDefinitions(), diagnostics);
+    }
+
+    /**
+     * Finds the boundaries of all top-level declarations
+     * without checking their content.
+     */
+    private List<Declaration> scanDeclarations() {
+        List<Declaration> declarations = new ArrayList<>();
 
         int nextIndex = -1;
         for (int i = 0; i < allLines.size(); i++) {
-            if (i < nextIndex)
+            if (i < nextIndex) {
+                i = nextIndex - 1;
                 continue;
-
+            }
 
             Line line = allLines.get(i);
 
             switch (line.s) {
                 case "int": {
-                    if (allLines.size() <= i + 4)
-                        throw new SyntaxErrorException(line, "Statement not complete");
-
-                    else if (allLines.get(i + 1).s.equals("[")
+                    if (allLines.size() <= i + 4) {
+                        diagnostics.report(new SyntaxErrorException(line, "Statement not complete"));
+                        nextIndex = allLines.size();
+                    } else if (allLines.get(i + 1).s.equals("[")
                             && allLines.get(i + 2).s.equals("]")) {     // array declaration
-                        nextIndex = i + checkArrDec(i);
+                        declarations.add(new Declaration(Declaration.ARRAY, i));
+                        nextIndex = findStatementEnd(i) + 1;
                     } else if (allLines.get(i + 2).s.equals("=")) {        // variable declaration
-                        nextIndex = i + checkVarDec(allLines, i);
+                        declarations.add(new Declaration(Declaration.VARIABLE, i));
+                        nextIndex = findStatementEnd(i) + 1;
                     } else if (allLines.get(i + 2).s.equals("(")) {        // function declaration
-                        nextIndex = i + checkFunDec(i);
+                        declarations.add(new Declaration(Declaration.FUNCTION, i));
+                        nextIndex = findFunctionEnd(i) + 1;
                     }
                     break;
                 }
 
                 case "void": {
-                    nextIndex = i + checkFunDec(i);
+                    declarations.add(new Declaration(Declaration.FUNCTION, i));
+                    nextIndex = findFunctionEnd(i) + 1;
                     break;
                 }
 
                 default: {
-                    throw new SyntaxErrorException(line, "Unexpected expression: \"" + line.s + "\"");
+                    diagnostics.report(new SyntaxErrorException(line, "Unexpected expression: \"" + line.s + "\""));
+                    nextIndex = recoveryIndex(i, allLines.size());
                 }
             }
+        }
+
+        return declarations;
+    }
+
+    /**
+     * Checks a declaration, errors are reported instead of thrown
+     */
+    private void checkDeclarationRecovering(Declaration declaration) {
+        CompilerEvents.Declaration event = new CompilerEvents.Declaration();
+        event.begin();
+        int tokens = 0;
+        try {
+            tokens = checkDeclaration(declaration);
+        } catch (SyntaxErrorException | CompilerParseException | ClcCoderException | IndexOutOfBoundsException e) {
+            report(e, allLines.get(declaration.start));
+        } finally {
+            Line start = allLines.get(declaration.start);
+            int nameIndex = declaration.start + (declaration.kind == Declaration.ARRAY ? 3 : 1);
+            event.name = nameIndex < allLines.size() ? allLines.get(nameIndex).s : "";
+            event.line = start.num;
+            event.commit(start.absPath, tokens, 0);
+        }
+    }
+
+    /**
+     * @return number of tokens of the declaration
+     */
+    private int checkDeclaration(Declaration declaration) {
+        return switch (declaration.kind) {
+            case Declaration.ARRAY -> checkArrDec(declaration.start);
+            case Declaration.VARIABLE -> checkVarDec(allLines, declaration.start);
+            default -> checkFunDec(declaration.start);
+        };
+    }
+
+    /**
+     * @return index of the next ';', or the last index if there is none
+     */
+    private int findStatementEnd(int index) {
+        for (int i = index; i < allLines.size(); i++) {
+            if (allLines.get(i).s.equals(";"))
+                return i;
+        }
+        return allLines.size() - 1;
+    }
 
+    /**
+     * @return index of the '}' closing the function body, or the last index if there is none
+     */
+    private int findFunctionEnd(int index) {
+        int depth = 0;
+        for (int i = index; i < allLines.size(); i++) {
+            String token = allLines.get(i).s;
+            if (token.equals("{")) {
+                depth++;
+            } else if (token.equals("}")) {
+                depth--;
+                if (depth == 0)
+                    return i;
+            }
         }
+        return allLines.size() - 1;
+    }
 
-        return this.clcCode;
+    MemoryLayout getMemoryLayout() {
+        return coder.getMemoryLayout();
     }
 
     /**
@@ -88,7 +355,7 @@ class SyntaxCheck {
     private int checkFunDec(int index) {
         int countLines = 0;
 
-        if (!Arrays.asList(Compiler.FUN_TYPES).contains(allLines.get(index).s))               // wrong return type
+        if (!Compiler.FUN_TYPES.contains(allLines.get(index).s))               // wrong return type
             throw new SyntaxErrorException(allLines.get(index),
                     "Unknown type \"" + allLines.get(index).s + "\" for function.");
         else if (!isVariableName(allLines.get(index + 1).s))                        // not a valid name
@@ -99,27 +366,20 @@ class SyntaxCheck {
                     "Expected \"(\" for function declaration, got: \"" + allLines.get(index + 1).s + "\".");
 
         // find ')'
-        int roundClosingIndex = -1;
-        for (int i = index + 3; i < allLines.size(); i++) {
-            if (allLines.get(i).s.equals(")")) {
-                roundClosingIndex = i;
-                break;
-            }
-        }
+        int roundClosingIndex = partners[index + 2];
         if (roundClosingIndex == -1)                                                 // no ')' was found
             throw new SyntaxErrorException(allLines.get(index), "Missing ')' for function definition");
         countLines += roundClosingIndex - index + 1;
 
         // if true, there are arguments
         if (roundClosingIndex > index + 3) {
-            List<Line> subList = allLines.subList(index + 3, roundClosingIndex);
-
-            if (!Arrays.asList(Compiler.VAR_TYPES).contains(subList.get(0).s))
+            if (!Compiler.VAR_TYPES.contains(allLines.get(index + 3).s))
                 throw new SyntaxErrorException(allLines.get(index),
-                        "Expected variable type, got: \"" + subList.get(0).s + "\"");
+                        "Expected variable type, got: \"" + allLines.get(index + 3).s + "\"");
 
             String lastThing = "COM";
-            for (Line line : subList) {
+            for (int i = index + 3; i < roundClosingIndex; i++) {
+                Line line = allLines.get(i);
                 String val = line.s;
 
                 switch (lastThing) {
@@ -138,7 +398,7 @@ class SyntaxCheck {
                         break;
                     }
                     case "COM": {
-                        if (!Arrays.asList(Compiler.VAR_TYPES).contains(val))
+                        if (!Compiler.VAR_TYPES.contains(val))
                             throw new SyntaxErrorException(allLines.get(index),
                                     "Expected variable type after ',', got: \"" + line.s + "\"");
                         lastThing = "TYPE";
@@ -150,13 +410,20 @@ class SyntaxCheck {
                 }
 
             }
+            if (!lastThing.equals("NAME"))
+                throw new SyntaxErrorException(allLines.get(index), "Expected variable name before ')'");
         }
 
 
         if (allLines.size() > roundClosingIndex + 1 && !allLines.get(roundClosingIndex + 1).s.equals("{"))
             throw new SyntaxErrorException(allLines.get(index), "Expected \"{\" after function definition");
 
-        countLines += checkCodeBlock(roundClosingIndex + 1);
+        coder.functionDefinition(allLines, index, roundClosingIndex + 1);
+        try {
+            countLines += checkCodeBlock(roundClosingIndex + 1);
+        } finally {
+            coder.endFunction(allLines.get(index + 1).s);
+        }
 
         return countLines;
     }
@@ -171,303 +438,202 @@ class SyntaxCheck {
         int countLines;
 
         // find '}'
-        int closeIndex = 0;
-        Deque<Character> stack = new ArrayDeque<>();
-        stack.push('{');
-        for (int i = index + 1; i < allLines.size(); i++) {
-            if (allLines.get(i).s.equals("{"))
-                stack.push('{');
-            else if (allLines.get(i).s.equals("}"))
-                stack.pop();
-            if (stack.isEmpty()) {
-                closeIndex = i;
-                break;
-            }
-        }
-        if(closeIndex == 0) {
+        int closeIndex = partners[index];
+        if(closeIndex < 0) {
             throw new SyntaxErrorException(allLines.get(index), "Code-block was not closed");
         }
 
         countLines = closeIndex + 1 - index;
 
         // check content of Code block
-        int nextIndex = -1;
-        for (int i = index + 1; i < closeIndex; i++) {
-            if (i < nextIndex)
-                continue;
-
-            String val = allLines.get(i).s;
-
-            if ("while".equals(val)) {                           // while loop
-                nextIndex = i + checkWhileLoop(allLines, i);
-            } else if (RETURN.equals(val)) {                   // return statement
-                nextIndex = i + checkReturn(allLines, i);
-            } else if ("if".equals(val)) {                       // if condition
-                nextIndex = i + checkIfCond(allLines, i);
-            } else if (                                          // array declaration
-                    Arrays.asList(Compiler.VAR_TYPES).contains(val)
-                            && allLines.size() > i + 1
-                            && allLines.get(i + 1).s.equals("[")
-            ) {
-                nextIndex = i + checkArrDec(i);
-            } else if (Arrays.asList(Compiler.VAR_TYPES).contains(val)) { // variable declaration
-                nextIndex = i + checkVarDec(allLines, i);
-            } else if (                                          // function call
-                    isVariableName(val)
-                            && allLines.size() > i + 1
-                            && allLines.get(i + 1).s.equals("(")
-            ) {
-                nextIndex = i + checkLineFunCall(allLines, i);
-            } else if (                                          // variable assignment
-                    isVariableName(val)
-                            && allLines.size() > i + 1
-                            && allLines.get(i + 1).s.equals("=")
-            ) {
-                nextIndex = i + checkVarAssign(allLines, i);
-            } else if (                                          // array assignment
-                    isVariableName(val)
-                            && allLines.size() > i + 1
-                            && allLines.get(i + 1).s.equals("[")
-            ) {
-                nextIndex = i + checkArrAssign(allLines, i);
-            } else {
-                throw new SyntaxErrorException(allLines.get(i), "Cannot parse statement: \"" + val + "\"");
-            }
+        coder.enterScope();
+        try {
+            checkStatements(index + 1, closeIndex);
+        } finally {
+            coder.leaveScope();
         }
 
         return countLines;
     }
 
     /**
-     * check syntax of an array assignment <br>
-     * e.g.: "arrName[2] = 5;"
-     *
-     * @param index of array name
-     * @return lines to skip
+     * A block of an if condition or a while loop, that is
+     * checked while the blocks around it wait on the stack
      */
-    private int checkArrAssign(List<Line> allLines, int index) {
-        int countLines = 0;
-
-        // always
-
-        if(allLines.size() < index + 7) { // not long enough
-            throw new SyntaxErrorException(allLines.get(index), "Not a complete assignment");
+    private static final class Block {
+        static final int IF = 0;            // "if" and "else if", an "else" may follow
+        static final int ELSE = 1;
+        static final int WHILE = 2;
+
+        /**
+         * the closing '}'
+         */
+        final int end;
+        final int kind;
+
+        /**
+         * label of the if condition or loop, see {@link Coder#ifCondition}
+         */
+        final int label;
+
+        Block(int end, int kind, int label) {
+            this.end = end;
+            this.kind = kind;
+            this.label = label;
         }
-
-        if (!isVariableName(allLines.get(index).s)) {   // wrong identifier
-            throw new SyntaxErrorException(allLines.get(index), "Not a variable name");
-        }
-        if(!allLines.get(index + 1).s.equals("[")) {    // missing '['
-            throw new SyntaxErrorException(allLines.get(index),
-                    "Expected [, got :\"" + allLines.get(index + 1).s + "\".");
-        }
-
-        countLines += checkArrAccess(allLines, index);
-
-        countLines += checkAssignMath(allLines, index + countLines + 1); // +1 for the '='
-
-        countLines++; // for ';'
-
-        return countLines;
     }
 
     /**
-     * Check the access of an array <br>
-     * e.g.: "arrName[i + 1]"
-     * @param index Index of array name in allLines
-     * @return lines to skip
+     * check all statements of a code block, errors are reported
+     * and checking continues after the next ';' or '}'. Nested
+     * blocks are checked on a heap stack instead of recursively.
+     * Every statement is coded as soon as it is checked.
+     *
+     * @param start first statement. inclusive
+     * @param end closing '}' of the code block. exclusive
      */
-    private int checkArrAccess(List<Line> allLines, int index) {
-        int countLines = 0;
-
-        if(!isVariableName(allLines.get(index).s))
-            throw new SyntaxErrorException(allLines.get(index),
-                    "Expected array name instead got: \"" + allLines.get(index).s + "\"."
-                    );
-        if(index >= allLines.size() || !allLines.get(index + 1).s.equals("["))
-            throw new SyntaxErrorException(allLines.get(index),
-                    "Expected \"[\" for array access, got:" + allLines.get(index).s + "\".");
+    private void checkStatements(int start, int end) {
+        Deque<Block> blocks = new ArrayDeque<>();
+        try {
+            int i = start;
+            while (true) {
+                int blockEnd = blocks.isEmpty() ? end : blocks.peek().end;
+                if (i >= blockEnd) {
+                    if (blocks.isEmpty())
+                        return;
+
+                    Block block = blocks.pop();
+                    coder.leaveScope();
+                    i = block.end + 1;
+                    if (block.kind == Block.WHILE)
+                        coder.endWhile(block.label);
+                    else if (block.kind == Block.ELSE)
+                        coder.endIf(block.label);
+                    else
+                        i = checkElse(i, blocks.isEmpty() ? end : blocks.peek().end, block.label, blocks);
+                    continue;
+                }
 
-        // check for closing ']'
-        Deque<Character> stack = new ArrayDeque<>();
-        int closeIndex = -1;
-        for (int i = index + 1; i < allLines.size(); i++) {
-            if (allLines.get(i).s.equals("[")) {
-                stack.push('[');
-            } else if (allLines.get(i).s.equals("]")) {
-                stack.pop();
-                if(stack.isEmpty()) {
-                    closeIndex = i;
-                    break;
+                try {
+                    i = checkStatement(i, blocks);
+                } catch (SyntaxErrorException | CompilerParseException | ClcCoderException | IndexOutOfBoundsException e) {
+                    report(e, allLines.get(i));
+                    i = recoveryIndex(i, blockEnd);
                 }
             }
+        } finally {
+            while (!blocks.isEmpty()) {         // leave the scopes of blocks an error limit stopped in
+                blocks.pop();
+                coder.leaveScope();
+            }
         }
-
-        if (closeIndex < 0) {
-            throw new SyntaxErrorException(allLines.get(index), "No closing ']' found for array access.");
-        }
-
-        countLines += closeIndex - index + 1;
-
-        checkMathExp(index + 2, closeIndex);
-
-        return countLines;
     }
 
     /**
-     * check math expression for assignment <br>
-     * Always ends with ;
-     * @param index Index where expression begins
-     * @return lines to skip
+     * check syntax of a single statement in a code block
+     *
+     * @param i index of the statement
+     * @param blocks the blocks the statement is in, "if" and "while" open a new one
+     * @return index of the next statement
      */
-    private int checkAssignMath(List<Line> allLines, int index) {
-        int countLines;
-
-        int closeIndex = -1;
-        for (int i = index; i < allLines.size(); i++) {
-            if (allLines.get(i).s.equals(";")) {
-                closeIndex = i;
-                break;
-            }
+    private int checkStatement(int i, Deque<Block> blocks) {
+        String val = allLines.get(i).s;
+
+        if ("while".equals(val)) {                           // while loop
+            return openWhileLoop(i, blocks);
+        } else if (RETURN.equals(val)) {                   // return statement
+            return i + checkReturn(allLines, i);
+        } else if ("if".equals(val)) {                       // if condition
+            return openIfCond(i, blocks);
+        } else if (                                          // array declaration
+                Compiler.VAR_TYPES.contains(val)
+                        && allLines.size() > i + 1
+                        && allLines.get(i + 1).s.equals("[")
+        ) {
+            return i + checkArrDec(i);
+        } else if (Compiler.VAR_TYPES.contains(val)) { // variable declaration
+            return i + checkVarDec(allLines, i);
+        } else if (                                          // function call
+                isVariableName(val)
+                        && allLines.size() > i + 1
+                        && allLines.get(i + 1).s.equals("(")
+        ) {
+            return i + checkLineFunCall(allLines, i);
+        } else if (                                          // variable assignment
+                isVariableName(val)
+                        && allLines.size() > i + 1
+                        && allLines.get(i + 1).s.equals("=")
+        ) {
+            return i + checkVarAssign(allLines, i);
+        } else if (                                          // array assignment
+                isVariableName(val)
+                        && allLines.size() > i + 1
+                        && allLines.get(i + 1).s.equals("[")
+        ) {
+            return i + checkArrAssign(allLines, i);
         }
-        if (closeIndex == -1)
-            throw new SyntaxErrorException(allLines.get(index), "No ';' after variable assignment found");
-        countLines = closeIndex - index + 1;
 
-        checkMathExp(index, closeIndex);
-
-        return  countLines;
+        throw new SyntaxErrorException(allLines.get(i), "Cannot parse statement: \"" + val + "\"");
     }
 
     /**
-     * check syntax of a mathematical expression <br>
-     * e.g.: 5 + 2
+     * Opens the block of an if condition, else if, else or while loop
      *
-     * @param start where the expression begins. inclusive
-     * @param end where the expression ends. exclusive
+     * @param index of the '{'
+     * @return index of the first statement in the block
      */
-    private void checkMathExp(int start, int end) {
-        if(end <= start)
-            throw new SyntaxErrorException(allLines.get(start), "No mathematical expression found");
-
-        List<Line> lines = allLines.subList(start, end);
-        if (lines.isEmpty())
-            throw new SyntaxErrorException(new Line("", "ERR", -1),
-                    "Critical Error in checkMathExp. Empty list. No mathematical expression was found. This Could be a internal error"
-            );
-
-        balancedParenthesis(lines);
-
-        if (allLines.get(start).s.equals("*") || allLines.get(start).s.equals("/") || allLines.get(start).s.equals("["))
-            throw new SyntaxErrorException(allLines.get(start), "Unexpected \"" + allLines.get(start).s + "\"");
-
-        String last = "START";
-
-        int nextIndex = -1;
-        for (int i = start; i < end; i++) {
-            if(i < nextIndex)
-                continue;
+    private int openBlock(int index, int kind, int label, Deque<Block> blocks) {
+        if (blocks.size() + 1 >= nestingLimit)
+            throw new SyntaxErrorException(allLines.get(index),
+                    "Blocks are nested deeper than " + nestingLimit + " levels");
 
-            Line line = allLines.get(i);
-            boolean hasNext = i + 1  < allLines.size();
-
-            switch (last) {
-                case "START": {
-                if (
-                           line.s.equals("*")
-                        || line.s.equals("/")
-                        || line.s.equals("[")
-                        || Arrays.asList(Compiler.BOOL_OPERATORS).contains(line.s)
-                )
-                        throw new SyntaxErrorException(line, "Unexpected \"" + line.s + "\"");
-                    if (line.s.equals("(")) {
-                        // start new checkMathExp recursively
-                        nextIndex = i + checkMathExpInBrackets(i);
-                        last = "VAL";
-                    }
-                    else if (isVariableName(line.s) && hasNext && allLines.get(i + 1).s.equals("(")) {
-                        nextIndex = i + checkInFunCall(allLines, i);
-                        last = "VAL";
-                    }
-                    else if (isVariableName(line.s) && hasNext && allLines.get(i + 1).s.equals("[")) {
-                        nextIndex = i + checkArrAccess(allLines, i);
-                        last = "VAL";
-                    }
-                    else if (isVariableName(line.s) || isNum(line.s))
-                        last = "VAL";
-                    else if (line.s.equals("-") || line.s.equals("+"))
-                        last = "SIGN";
-                    else
-                        throw new SyntaxErrorException(line,
-                                "Unexpected sign at begin of math. expression: \"" + line.s + "\".");
-                    break;
-                }
-                case "VAL": {
-                    if (Arrays.asList(Compiler.MATH_OPERATORS).contains(line.s)
-                            || Arrays.asList(Compiler.BOOL_OPERATORS).contains(line.s)) {
-                        last = "SIGN";
-                    }
-                    else
-                        throw new SyntaxErrorException(line, "After value got unexpected: " + line.s + "\".");
-                    break;
-                }
-                case "SIGN": {
-                    if (line.s.equals("(")) {
-                        // start new checkMathExp recursively
-                        nextIndex = i + checkMathExpInBrackets(i);
-                        last = "VAL";
-                    }
-                    else if (isVariableName(line.s) && hasNext && allLines.get(i + 1).s.equals("(")) {
-                        nextIndex = i + checkInFunCall(allLines, i);
-                        last = "VAL";
-                    }
-                    else if (isVariableName(line.s) && hasNext && allLines.get(i + 1).s.equals("[")) {
-                        nextIndex = i + checkArrAccess(allLines, i);
-                        last = "VAL";
-                    }
-                    else if (isVariableName(line.s) || isNum(line.s))
-                        last = "VAL";
-                    else
-                        throw new SyntaxErrorException(line, "After operator got unexpected: " + line.s + "\".");
-                    break;
-                }
-                default:
-                    break;
-            }
-        }
+        int closeIndex = partners[index];
+        if (closeIndex < 0)
+            throw new SyntaxErrorException(allLines.get(index), "Code-block was not closed");
 
-        if(last.equals("SIGN")) {
-            throw new SyntaxErrorException(allLines.get(end - 1),
-                    "\"" + allLines.get(end - 1).s + "\" cannot stand alone.");
-        }
+        coder.enterScope();
+        blocks.push(new Block(closeIndex, kind, label));
+        return index + 1;
     }
 
     /**
-     * Check mathematical expression that is in "()" brackets
-     * @param index Index where the "(" is located
+     * check syntax of an array assignment <br>
+     * e.g.: "arrName[2] = 5;"
+     *
+     * @param index of array name
      * @return lines to skip
      */
-    private int checkMathExpInBrackets(int index) {
+    private int checkArrAssign(List<Line> allLines, int index) {
+        if(allLines.size() < index + 7) { // not long enough
+            throw new SyntaxErrorException(allLines.get(index), "Not a complete assignment");
+        }
 
-        // find closing ')'
-        Deque<Character> stack = new ArrayDeque<>();
-        int closeIndex = -1;
-        for (int i = index; i < allLines.size(); i++) {
-            if(allLines.get(i).s.equals("("))
-                stack.push('(');
-            else if(allLines.get(i).s.equals(")")) {
-                stack.pop();
-                if(stack.isEmpty()) {
-                    closeIndex = i;
-                    break;
-                }
-            }
+        if (!isVariableName(allLines.get(index).s)) {   // wrong identifier
+            throw new SyntaxErrorException(allLines.get(index), "Not a variable name");
+        }
+        if(!allLines.get(index + 1).s.equals("[")) {    // missing '['
+            throw new SyntaxErrorException(allLines.get(index),
+                    "Expected [, got :\"" + allLines.get(index + 1).s + "\".");
         }
+
+        // check for closing ']'
+        int closeIndex = partners[index + 1];
         if (closeIndex < 0) {
-            throw new SyntaxErrorException(allLines.get(index), "No closing ')' found for function call.");
+            throw new SyntaxErrorException(allLines.get(index), "No closing ']' found for array access.");
         }
-        checkMathExp(index + 1, closeIndex);
-        return closeIndex - index + 1;
+        if(!allLines.get(closeIndex + 1).s.equals("=")) {
+            throw new SyntaxErrorException(allLines.get(closeIndex + 1),
+                    "Expected \"=\" for assignment, got: \"" + allLines.get(closeIndex + 1).s + "\"");
+        }
+
+        int endIndex = findSemicolon(closeIndex + 2);
+        if (endIndex < 0) {
+            throw new SyntaxErrorException(allLines.get(index), "No ';' after variable assignment found");
+        }
+
+        coder.arrayAssignment(allLines, index, closeIndex, endIndex + 1, expressions);
+
+        return endIndex - index + 1;
     }
 
     /**
@@ -477,8 +643,6 @@ class SyntaxCheck {
      * @return lines to skip
      */
     private int checkVarAssign(List<Line> allLines, int index) {
-        int countLines;
-
         if(!isVariableName(allLines.get(index).s)) {
             throw new SyntaxErrorException(allLines.get(index),
                     "Expected variable name, got: \"" + allLines.get(index).s + "\"");
@@ -489,65 +653,14 @@ class SyntaxCheck {
         }
 
         // check for closing ';'
-        int closeIndex = -1;
-        for (int i = index + 3; i < allLines.size(); i++) {
-            if (allLines.get(i).s.equals(";")) {
-                closeIndex = i;
-                break;
-            }
-        }
+        int closeIndex = findSemicolon(index + 2);
         if (closeIndex < 0) {
             throw new SyntaxErrorException(allLines.get(index), "No closing ';' found for assignment.");
         }
 
-        countLines = closeIndex - index + 1;
-
-        checkMathExp(index + 2, closeIndex);
+        coder.assignment(allLines, index, closeIndex + 1, expressions);
 
-        return countLines;
-    }
-
-    /**
-     * Check for a function call in e.g. mathematical expressions
-     * @param index Index where the function name is in allLines
-     * @return how many lines the function call goes
-     */
-    private int checkInFunCall(List<Line> allLines, int index) {
-        int countLines = 0;
-
-        if(!isVariableName(allLines.get(index).s))
-            throw new SyntaxErrorException(allLines.get(index),
-                    "Expected function name, got:\"" + allLines.get(index).s + "\".");
-        if(allLines.size() <= index + 1 && !allLines.get(index + 1).s.equals("("))
-            throw new SyntaxErrorException(allLines.get(index),
-                    "Expected \"(\" bracket at function call, got:\"" + allLines.get(index).s + "\".");
-
-        // find closing ')'
-        Deque<Character> stack = new ArrayDeque<>();
-        int closeIndex = -1;
-        for (int i = index + 1; i < allLines.size(); i++) {
-            if(allLines.get(i).s.equals("("))
-                stack.push('(');
-            else if(allLines.get(i).s.equals(")")) {
-                stack.pop();
-                if(stack.isEmpty()) {
-                    closeIndex = i;
-                    break;
-                }
-            }
-        }
-        if (closeIndex < 0) {
-            throw new SyntaxErrorException(allLines.get(index), "No closing ')' found for function call.");
-        }
-
-        countLines += closeIndex - index + 1;
-
-        int startBracket = index + 2;
-        int endBracket = closeIndex - 1;
-        if(startBracket < endBracket)
-            checkArgumentInList(startBracket, endBracket);
-
-        return countLines;
+        return closeIndex - index + 1;
     }
 
     /**
@@ -557,8 +670,6 @@ class SyntaxCheck {
      * @return lines to skip
      */
     private int checkLineFunCall(List<Line> allLines, int index) {
-        int countLines;
-
         if(!isVariableName(allLines.get(index).s)) {
             throw new SyntaxErrorException(allLines.get(index),
                     "Expected function name, got: \"" + allLines.get(index).s + "\"");
@@ -569,142 +680,140 @@ class SyntaxCheck {
         }
 
         // check for closing ';'
-        int closeIndex = -1;
-        for (int i = index + 6; i < allLines.size(); i++) {
-            if (allLines.get(i).s.equals(";")) {
-                closeIndex = i;
-                break;
-            }
-        }
+        int closeIndex = findSemicolon(index + 1);
 
         if (closeIndex < 0) {
             throw new SyntaxErrorException(allLines.get(index), "No closing ';' found for function call.");
         }
-        if(allLines.size() < closeIndex + 1 || !allLines.get(closeIndex).s.equals(";")) {
-            throw new SyntaxErrorException(allLines.get(index), "No closing ';' found.");
-        }
-        if(!allLines.get(closeIndex - 1).s.equals(")")) {
-            throw new SyntaxErrorException(allLines.get(index), "No closing ')' found.");
+        if(partners[index + 1] != closeIndex - 1) {
+            throw new SyntaxErrorException(allLines.get(index), "Expected ';' after the ')' of the function call.");
         }
 
-        countLines = checkInFunCall(allLines, index) + 1;
+        coder.call(allLines, index, closeIndex + 1, expressions);
 
-        return countLines;
+        return closeIndex - index + 1;
     }
 
     /**
      * check syntax of a return statement
      *
-     * @param index of if
+     * @param index of return
      * @return lines to skip
      */
     private int checkReturn(List<Line> allLines, int index) {
-        int countLines = 2;
-
         if(!allLines.get(index).s.equals(RETURN)) {
             throw new SyntaxErrorException(allLines.get(index),
                     "Expected \"return\", got: \"" + allLines.get(index).s + "\".");
         }
 
-        if(!allLines.get(index + 1).s.equals(RETURN)) {       // got a return value
-            countLines += checkAssignMath(allLines, index + 1);
+        int closeIndex = findSemicolon(index + 1);
+        if (closeIndex < 0) {
+            throw new SyntaxErrorException(allLines.get(index), "No ';' after return found");
         }
 
-        return countLines;
+        coder.returnStatement(allLines, index, closeIndex + 1, expressions);
+
+        return closeIndex - index + 1;
     }
 
     /**
-     * check syntax of an if condition
+     * Finds the ')' of a condition and checks that a block follows
      *
-     * @param index Index of if in allLines
-     * @return lines to skip
+     * @param index of the '(' of the condition
+     * @param statement e.g. "if()", for the error message
+     * @return index of the ')'
      */
-    private int checkIfCond(List<Line> allLines, int index) {
-        int countLines = 0;
+    private int conditionEnd(int index, String statement) {
+        int closeIndex = partners[index];
+        if (closeIndex < 0) {
+            throw new SyntaxErrorException(allLines.get(index), "No closing ')' found for " + statement + ".");
+        }
+        if(!allLines.get(closeIndex + 1).s.equals("{"))
+            throw new SyntaxErrorException(allLines.get(closeIndex + 1),
+                    "Expected \"{\" for the code block after " + statement + ", got: \"" + allLines.get(closeIndex + 1).s + "\".");
+        return closeIndex;
+    }
 
+    /**
+     * check syntax of the head of an if condition and open its block
+     *
+     * @param index Index of if in allLines
+     * @return index of the first statement in the block
+     */
+    private int openIfCond(int index, Deque<Block> blocks) {
         if(!allLines.get(index).s.equals("if"))
             throw new SyntaxErrorException(allLines.get(index),
                     "Expected \"if\" at start of if-condition, got: \"" + allLines.get(index).s + "\".");
-        countLines ++;
 
         if(!allLines.get(index + 1).s.equals("("))
             throw new SyntaxErrorException(allLines.get(index + 1),
                     "Expected \"(\" for the condition if, got: \"" + allLines.get(index + 1).s + "\".");
 
-        countLines += checkMathExpInBrackets(index + 1);
-
-        if(!allLines.get(index + countLines).s.equals("{"))
-            throw new SyntaxErrorException(allLines.get(index + countLines),
-                    "Expected \"{\" for the code block after if(), got: \"" + allLines.get(index + countLines).s + "\".");
-
-        countLines += checkCodeBlock(index + countLines);
-
-        int nextIndex = -1;
-        for (int i = index + countLines; i < allLines.size(); i++) {
-            if(i < nextIndex)
-                continue;
+        int closeIndex = conditionEnd(index + 1, "if()");
+        int label = coder.ifCondition(allLines, index, closeIndex, expressions);
 
-            if(i + 1 < allLines.size() && allLines.get(i).s.equals("else") && allLines.get(i + 1).s.equals("if")) {
-                countLines += 2;
-
-                if(!allLines.get(index + countLines).s.equals("("))
-                    throw new SyntaxErrorException(allLines.get(index + countLines),
-                            "Expected \"(\" after else if, got: \"" + allLines.get(index + countLines).s + "\".");
-
-                countLines += checkMathExpInBrackets(index + countLines);
+        return openBlock(closeIndex + 1, Block.IF, label, blocks);
+    }
 
-                if(!allLines.get(index + countLines).s.equals("{"))
-                    throw new SyntaxErrorException(allLines.get(index + countLines),
-                            "Expected \"{\" for the code block after else if(), got: \"" + allLines.get(index + countLines).s + "\".");
+    /**
+     * check syntax of an "else if" or "else" after the block of an if condition
+     *
+     * @param index Index after the closing '}' of the previous block
+     * @param end where the enclosing block ends. exclusive
+     * @param label of the if condition
+     * @return index of the first statement in the next block,
+     *         index if the if condition ends
+     */
+    private int checkElse(int index, int end, int label, Deque<Block> blocks) {
+        if(index + 1 >= end || !allLines.get(index).s.equals("else")) {
+            coder.endIf(label);
+            return index;                       // no "else if" or "else" found
+        }
 
-                countLines += checkCodeBlock(index + countLines);
+        try {
+            if(allLines.get(index + 1).s.equals("if")) {
+                if(!allLines.get(index + 2).s.equals("("))
+                    throw new SyntaxErrorException(allLines.get(index + 2),
+                            "Expected \"(\" after else if, got: \"" + allLines.get(index + 2).s + "\".");
 
-                nextIndex = index + countLines;
-            } else if (i + 1 < allLines.size() && allLines.get(i).s.equals("else")) {
-                countLines ++;
+                int closeIndex = conditionEnd(index + 2, "else if()");
+                coder.elseIfCondition(allLines, index, closeIndex, label, expressions);
 
-                if(!allLines.get(index + countLines).s.equals("{"))
-                    throw new SyntaxErrorException(allLines.get(index + countLines),
-                            "Expected \"{\" for the code block after else, got: \"" + allLines.get(index + countLines).s + "\".");
+                return openBlock(closeIndex + 1, Block.IF, label, blocks);
+            }
 
-                countLines += checkCodeBlock(index + countLines);
+            if(!allLines.get(index + 1).s.equals("{"))
+                throw new SyntaxErrorException(allLines.get(index + 1),
+                        "Expected \"{\" for the code block after else, got: \"" + allLines.get(index + 1).s + "\".");
 
-                nextIndex = index + countLines;
-            } else {
-                nextIndex = allLines.size(); // no "else if" or "else" found
-            }
+            coder.elseBlock(label);
+            return openBlock(index + 1, Block.ELSE, label, blocks);
+        } catch (SyntaxErrorException | CompilerParseException | ClcCoderException | IndexOutOfBoundsException e) {
+            report(e, allLines.get(index));
+            coder.endIf(label);
+            return recoveryIndex(index, end);
         }
-
-        return countLines;
     }
 
     /**
-     * check syntax of a while loop
+     * check syntax of the head of a while loop and open its block
      *
      * @param index Index of while in allLines
-     * @return lines to skip
+     * @return index of the first statement in the block
      */
-    private int checkWhileLoop(List<Line> allLines, int index) {
-        int countLines = 0;
-
+    private int openWhileLoop(int index, Deque<Block> blocks) {
         if(!allLines.get(index).s.equals("while"))
             throw new SyntaxErrorException(allLines.get(index),
                     "Expected \"while\" at start of loop, got: \"" + allLines.get(index).s + "\".");
-        countLines ++;
 
         if(!allLines.get(index + 1).s.equals("("))
             throw new SyntaxErrorException(allLines.get(index + 1),
                     "Expected \"(\" for the condition at while loop, got: \"" + allLines.get(index + 1).s + "\".");
 
-        countLines += checkMathExpInBrackets(index + 1);
-
-        if(!allLines.get(index + countLines).s.equals("{"))
-            throw new SyntaxErrorException(allLines.get(index + countLines),
-                    "Expected \"{\" for the code block after while(), got: \"" + allLines.get(index + countLines).s + "\".");
-
-        countLines += checkCodeBlock(index + countLines);
+        int closeIndex = conditionEnd(index + 1, "while()");
+        int label = coder.whileLoop(allLines, index, closeIndex, expressions);
 
-        return countLines;
+        return openBlock(closeIndex + 1, Block.WHILE, label, blocks);
     }
 
     /**
@@ -714,8 +823,6 @@ class SyntaxCheck {
      * @return lines to skip
      */
     private int checkVarDec(List<Line> allLines, int index) {
-        int countLines;
-
         if (!isVariableName(allLines.get(index + 1).s)) {
             throw new SyntaxErrorException(allLines.get(index + 3), "'"
                     + allLines.get(index + 1).s + "' is not a variable name.");
@@ -724,17 +831,14 @@ class SyntaxCheck {
                     + allLines.get(index + 2).s + "'.");
         }
 
-        countLines = 3 + checkAssignMath(allLines, index + 3);
-
-        int end = -1;
-        for (int i = index; i < allLines.size(); i++) {
-            if(allLines.get(i).s.equals(";"))
-                end = i;
-        }
+        // the value is checked while it is coded
+        int closeIndex = findSemicolon(index + 3);
+        if (closeIndex == -1)
+            throw new SyntaxErrorException(allLines.get(index + 3), "No ';' after variable assignment found");
 
-        coder.variableDefinition(allLines.subList(index, end + 1));
+        coder.variableDefinition(allLines, index, closeIndex + 1, expressions);
 
-        return countLines;
+        return closeIndex - index + 1;
     }
 
     /**
@@ -781,22 +885,12 @@ class SyntaxCheck {
         else {
 
             // check for closing '}'
-            int closeIndex = -1;
-            for (int i = index + 6; i < allLines.size(); i++) {
-                if (allLines.get(i).s.equals("}")) {
-                    closeIndex = i;
-                    break;
-                }
-            }
+            int closeIndex = partners[index + 5];
 
             if (closeIndex < 0) {
                 throw new SyntaxErrorException(allLines.get(index), "No closing '}' found.");
-            } else if ((closeIndex - index) < 1) {
-                throw new SyntaxErrorException(allLines.get(index), "Array declaration values missing.");
             }
 
-            checkArgumentInList(index + 6, closeIndex);
-
             if (!allLines.get(closeIndex + 1).s.equals(";")) {
                 throw new SyntaxErrorException(allLines.get(closeIndex),
                         "Expected ';' got: '" + allLines.get(closeIndex).s + "'");
@@ -804,55 +898,26 @@ class SyntaxCheck {
             countLines = closeIndex - index + 2;
         }
 
-        return countLines;
-    }
-
-    /**
-     * Checks a list of arguments seperated by ',' <br>
-     * e.g.: "arg1, 5 + 6, 233"
-     * @param start where the expression begins. inclusive
-     * @param end where the expression ends. exclusive
-     */
-    private void checkArgumentInList(int start, int end) {
-        if(end <= start)
-            throw new SyntaxErrorException(allLines.get(start), "No arguments found");
-
-        // now we have to check for arguments
-        // it is a little more complicated
-        // at first we have to check that all brackets are matching.
-        // If all are closed we can look for a ','.
-        // If not, either we hit the end or the argument continues.
-        // When we found a whole argument we send it to check for mathematical expression
-        // After that we have to check the next argument.
-
-        balancedParenthesis(allLines.subList(start, end));
-
-        Deque<Character> stack = new ArrayDeque<>();
-        int nextArgIndex = start;
-        for(int i = nextArgIndex; i < end; i++) {
-
-            if(allLines.get(i).s.equals("(") || allLines.get(i).s.equals("["))
-                stack.push(allLines.get(i).s.charAt(0));
-            else if(allLines.get(i).s.equals(")") || allLines.get(i).s.equals("]"))
-                stack.pop();
-            else if(stack.isEmpty() && allLines.get(i).s.equals(",")) {
-                checkMathExp(nextArgIndex, i);
-                nextArgIndex = i + 1;
-            }
+        coder.arrayDefinition(allLines, index, index + countLines, expressions);      // checks the values
 
-        }
+        return countLines;
     }
 
     /**
      * Check if brackets are matching.
      * Supported brackets are: {}[]()
+     * @return index of the matching bracket for every bracket, -1 for other tokens
      */
-    private void balancedParenthesis(List<Line> lines) {
+    private int[] balancedParenthesis(List<Line> lines) {
 
         Deque<Character> stack = new ArrayDeque<>();
+        Deque<Integer> openIndices = new ArrayDeque<>();
+        int[] matches = new int[lines.size()];
+        Arrays.fill(matches, -1);
 
         Line oldLine = null;
-        for (Line line : lines) {
+        for (int index = 0; index < lines.size(); index++) {
+            Line line = lines.get(index);
 
             if (oldLine != null
                     && !oldLine.fName.equals(line.fName)
@@ -875,6 +940,7 @@ class SyntaxCheck {
                 if (x == '(' || x == '[' || x == '{') {
                     // Push the element in the stack
                     stack.push(x);
+                    openIndices.push(index);
                 }
                 // If current character is not opening
                 // bracket, then it must be closing. So stack
@@ -905,6 +971,9 @@ class SyntaxCheck {
                             // skip unimportant characters
                             break;
                     }
+                    int open = openIndices.pop();
+                    matches[open] = index;
+                    matches[index] = open;
                 }
             }
         }
@@ -915,6 +984,8 @@ class SyntaxCheck {
                     last.num, "'" + stack.pop() + "' was not closed!", last.fName
             );
         }
+
+        return matches;
     }
 
     /*
@@ -923,17 +994,90 @@ class SyntaxCheck {
         ===========================
      */
 
+    /**
+     * Finds the end of a statement. Brackets are skipped as a whole,
+     * the search stops at the block the statement is in.
+     * @return index of the next ';', -1 if there is none before a '{' or '}'
+     */
+    private int findSemicolon(int index) {
+        for (int i = index; i < allLines.size(); i++) {
+            String val = allLines.get(i).s;
+            if (val.equals(";"))
+                return i;
+            else if (val.equals("{") || val.equals("}"))
+                return -1;
+            else if ((val.equals("(") || val.equals("[")) && partners[i] > i)
+                i = partners[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Reports an error, a statement that ended too early
+     * is reported at its first line
+     */
+    private void report(RuntimeException error, Line statement) {
+        if (error instanceof IndexOutOfBoundsException)
+            error = new SyntaxErrorException(statement, "Statement not complete");
+        diagnostics.report(error);
+    }
+
+    /**
+     * Finds where checking continues after an error
+     *
+     * @param index where the broken statement begins
+     * @param end where to stop at the latest. exclusive
+     * @return index after the next ';' or the next closed '}'
+     */
+    private int recoveryIndex(int index, int end) {
+        int depth = 0;
+        for (int i = index; i < end; i++) {
+            String val = allLines.get(i).s;
+            if (val.equals("{")) {
+                depth++;
+            } else if (val.equals("}")) {
+                depth--;
+                if (depth <= 0)
+                    return i + 1;
+            } else if (val.equals(";") && depth == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
     private void throwUnexpectedBracket(Line line) {
         throw new CompilerParseException(line.num, "Unexpected: " + line.s, line.fName);
     }
 
+    /**
+     * @return true if the text only has the digits 0 to 9, also if it is empty
+     */
     public static boolean isNum(String number) {
-        return number.matches("^\\d*$");
+        for (int i = 0; i < number.length(); i++) {
+            if(!isDigit(number.charAt(i)))
+                return false;
+        }
+        return true;
     }
 
+    /**
+     * @return true for a letter, '_' or '$' followed by letters, digits, '_' or '$'
+     */
     public static boolean isVariableName(String name) {
         name = name.strip();
-        return name.matches("^[a-zA-Z_$][a-zA-Z_$\\d]*$");
+        if(name.isEmpty() || isDigit(name.charAt(0)))
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(!isDigit(c) && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '_' && c != '$')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
 }
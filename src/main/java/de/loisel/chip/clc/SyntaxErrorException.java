@@ -16,14 +16,14 @@
 
 package de.loisel.chip.clc;
 
-public class SyntaxErrorException extends RuntimeException{
+public class SyntaxErrorException extends ClcException {
 
     /**
      * Constructs a new Exception when there was an error
      * during syntax check
      */
     public SyntaxErrorException(Line line, String message) {
-        super("File " + line.fName + ": Compiler in line " + line.num + ": " + message);
+        super("Compiler", line.fName, line.num, message);
     }
 
 }
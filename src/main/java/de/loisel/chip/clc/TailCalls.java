@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns the calls of a function to itself that are the last thing it
+ * does into jumps. <br>
+ * "return f(a, b);" in f and "f(a);" followed by a "return;" or the end
+ * of a void f become "_TailCall_ f", the arguments and "_EndTailCall_ f".
+ * The arguments are computed with the old parameters, then written to the
+ * parameters and the function starts again in its own frame, so deep
+ * recursion runs in constant stack space.
+ */
+final class TailCalls implements Pass {
+
+    @Override
+    public String name() {
+        return "tail calls";
+    }
+
+    @Override
+    public Set<Analysis<?>> requires() {
+        return Set.of(Analysis.CALL_GRAPH);
+    }
+
+    @Override
+    public boolean run(List<String> code, PassManager passes) {
+        CallGraph graph = passes.get(Analysis.CALL_GRAPH);
+        List<String> rewritten = new ArrayList<>(code.size());
+        boolean changed = false;
+
+        int copied = 0;
+        for (CallGraph.Function function : graph.functions()) {
+            if(!function.callees.contains(function.name))
+                continue;
+            for (int i = function.start + 1; i < function.end; i++) {
+                int end = tailCallEnd(code, i, function);
+                if(end < 0)
+                    continue;
+
+                rewritten.addAll(code.subList(copied, i));
+                int callStart = Ir.is(code.get(i), Ir.RETURN) ? i + 2 : i;
+                int callEnd = Ir.is(code.get(i), Ir.RETURN) ? end - 2 : callEnd(code, i);
+                rewritten.add(Ir.TAIL_CALL + " " + function.name);
+                rewritten.addAll(code.subList(callStart + 1, callEnd));
+                rewritten.add(Ir.END_TAIL_CALL + " " + function.name);
+                copied = end + 1;
+                i = end;
+                changed = true;
+            }
+        }
+
+        if(!changed)
+            return false;
+        rewritten.addAll(code.subList(copied, code.size()));
+        code.clear();
+        code.addAll(rewritten);
+        return true;
+    }
+
+    /**
+     * @param i an instruction of the function
+     * @return the last instruction of the tail call starting at i, -1 if there is none
+     */
+    private static int tailCallEnd(List<String> code, int i, CallGraph.Function function) {
+        String self = function.name;
+        String instruction = code.get(i);
+
+        // "_Return_", "_IntValue_ ", the call, "_EndIntValue_ ", "_EndReturn_"
+        if(Ir.is(instruction, Ir.RETURN)) {
+            if(!code.get(i + 1).equals(Ir.INT_VALUE + " ") || !code.get(i + 2).equals(Ir.START_FUN_RET + " " + self))
+                return -1;
+            int end = callEnd(code, i + 2);
+            return Ir.is(code.get(end + 1), Ir.END_INT_VALUE) && Ir.is(code.get(end + 2), Ir.END_RETURN)
+                    ? end + 2 : -1;
+        }
+
+        // the call statement of a void function, the "return;" after it is dropped
+        if(instruction.equals(Ir.START_FUN + " " + self)) {
+            int end = callEnd(code, i);
+            int next = end + 1;
+            while(Ir.isComment(code.get(next)))
+                next++;
+            if(next == function.end)
+                return end;
+            if(Ir.is(code.get(next), Ir.RETURN) && Ir.is(code.get(next + 1), Ir.END_RETURN))
+                return next + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @param start a "_StartFun_" or "_StartFunRet_"
+     * @return its "_EndFun_" or "_EndFunRet_", calls in the arguments are skipped
+     */
+    private static int callEnd(List<String> code, int start) {
+        int depth = 0;
+        for (int i = start + 1; ; i++) {
+            String instruction = code.get(i);
+            if(Ir.is(instruction, Ir.START_FUN_RET)) {
+                depth++;
+            } else if(Ir.is(instruction, Ir.END_FUN_RET)) {
+                if(depth-- == 0)
+                    return i;
+            } else if(Ir.is(instruction, Ir.END_FUN) && depth == 0) {
+                return i;
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tokens of one source file, kept by line. clc tokens never
+ * span lines, so after an edit only the edited lines are split
+ * again and the token ranges of all other lines are reused.
+ * Buffers are immutable, {@link #relex(List, List)} returns a new one.
+ * <br>
+ * A token is kept as its text and its span in the source line. Names
+ * and numbers come from a name table, signs and keywords are shared
+ * constants, so splitting a line does not copy any of it.
+ */
+public final class TokenBuffer {
+
+    /**
+     * Replaces lines of the old buffer with new lines
+     */
+    public static final class Edit {
+        final int firstLine;
+        final int oldLines;
+        final int newLines;
+
+        /**
+         * @param firstLine first edited line in the old buffer, starting at 0
+         * @param oldLines how many lines of the old buffer are replaced
+         * @param newLines how many lines replace them
+         */
+        public Edit(int firstLine, int oldLines, int newLines) {
+            if(firstLine < 0 || oldLines < 0 || newLines < 0)
+                throw new IllegalArgumentException("Edit out of range: " + firstLine + ", " + oldLines + ", " + newLines);
+            this.firstLine = firstLine;
+            this.oldLines = oldLines;
+            this.newLines = newLines;
+        }
+
+        /**
+         * @return an edit of a single line, that was changed in place
+         */
+        public static Edit changed(int line) {
+            return new Edit(line, 1, 1);
+        }
+    }
+
+    /**
+     * Tokens and their spans, filled while lines are split
+     */
+    private static final class Tokens implements Preprocessor.TokenSink {
+        String[] text;
+        int[] spans;            // column and length of every token
+        int size;
+
+        Tokens(int capacity) {
+            text = new String[Math.max(capacity, 16)];
+            spans = new int[text.length * 2];
+        }
+
+        @Override
+        public void token(String token, int column, int length) {
+            if(size == text.length) {
+                text = Arrays.copyOf(text, size * 2);
+                spans = Arrays.copyOf(spans, size * 4);
+            }
+            text[size] = token;
+            spans[size * 2] = column;
+            spans[size * 2 + 1] = length;
+            size++;
+        }
+    }
+
+    private final Line file;
+    private final NameTable names;
+    private final String[] tokens;
+    private final int[] spans;
+
+    /**
+     * lineStart[i] is the index of the first token of line i,
+     * lineStart[lineCount] the number of tokens
+     */
+    private final int[] lineStart;
+
+    private final int relexedLines;
+
+    private TokenBuffer(Line file, NameTable names, String[] tokens, int[] spans, int[] lineStart, int relexedLines) {
+        this.file = file;
+        this.names = names;
+        this.tokens = tokens;
+        this.spans = spans;
+        this.lineStart = lineStart;
+        this.relexedLines = relexedLines;
+    }
+
+    /**
+     * Splits all lines of a file
+     * @param absPath Path of the file
+     * @param lines Content of the file
+     */
+    public static TokenBuffer tokenize(String absPath, List<String> lines) {
+        return tokenize(absPath, lines, new NameTable());
+    }
+
+    /**
+     * Splits all lines of a file
+     * @param names table the names are taken from, may be shared by the files of a compile
+     */
+    static TokenBuffer tokenize(String absPath, List<String> lines, NameTable names) {
+        CompilerEvents.Tokenize event = new CompilerEvents.Tokenize();
+        event.begin();
+
+        Line file = new Line(absPath, "", 0);
+        Tokens tokens = new Tokens(lines.size() * 4);
+        int[] lineStart = new int[lines.size() + 1];
+
+        for (int i = 0; i < lines.size(); i++) {
+            lineStart[i] = tokens.size;
+            tokenizeLine(lines.get(i), names, tokens);
+        }
+        lineStart[lines.size()] = tokens.size;
+
+        event.commit(absPath, tokens.size, 0);
+        return new TokenBuffer(file, names, Arrays.copyOf(tokens.text, tokens.size),
+                Arrays.copyOf(tokens.spans, tokens.size * 2), lineStart, lines.size());
+    }
+
+    /**
+     * Splits only the edited lines again
+     * @param lines The whole content of the file after the edits
+     * @param edits Edits sorted by line, not overlapping
+     * @return a buffer for the new content
+     */
+    public TokenBuffer relex(List<String> lines, List<Edit> edits) {
+        int newLineCount = lineCount();
+        for (Edit edit : edits) {
+            newLineCount += edit.newLines - edit.oldLines;
+        }
+        if(newLineCount != lines.size())
+            throw new IllegalArgumentException("Edits result in " + newLineCount
+                    + " lines, but the content has " + lines.size());
+
+        // split the edited lines first, so the new buffer can be sized exactly
+        Tokens edited = new Tokens(0);
+        int[] editedStart = new int[relexedLines(edits) + 1];
+        int newTokenCount = tokens.length;
+        int newLine = 0;
+        int oldLine = 0;
+        int relexed = 0;
+        for (Edit edit : edits) {
+            if(edit.firstLine < oldLine || edit.firstLine + edit.oldLines > lineCount())
+                throw new IllegalArgumentException("Edits must be sorted, not overlapping and inside the buffer");
+
+            newLine += edit.firstLine - oldLine;
+            for (int i = 0; i < edit.newLines; i++) {
+                editedStart[relexed + i] = edited.size;
+                tokenizeLine(lines.get(newLine + i), names, edited);
+            }
+
+            newTokenCount -= lineStart[edit.firstLine + edit.oldLines] - lineStart[edit.firstLine];
+            newLine += edit.newLines;
+            oldLine = edit.firstLine + edit.oldLines;
+            relexed += edit.newLines;
+        }
+        editedStart[relexed] = edited.size;
+        newTokenCount += edited.size;
+
+        String[] newTokens = new String[newTokenCount];
+        int[] newSpans = new int[newTokenCount * 2];
+        int[] newLineStart = new int[lines.size() + 1];
+        int next = 0;
+        newLine = 0;
+        oldLine = 0;
+
+        int editedLine = 0;
+
+        for (Edit edit : edits) {
+            next = copyLines(oldLine, edit.firstLine, newTokens, newSpans, next, newLineStart, newLine);
+            newLine += edit.firstLine - oldLine;
+
+            for (int i = 0; i < edit.newLines; i++, editedLine++) {
+                newLineStart[newLine++] = next;
+                int from = editedStart[editedLine];
+                int count = editedStart[editedLine + 1] - from;
+                System.arraycopy(edited.text, from, newTokens, next, count);
+                System.arraycopy(edited.spans, from * 2, newSpans, next * 2, count * 2);
+                next += count;
+            }
+            oldLine = edit.firstLine + edit.oldLines;
+        }
+        next = copyLines(oldLine, lineCount(), newTokens, newSpans, next, newLineStart, newLine);
+        newLineStart[lines.size()] = next;
+
+        return new TokenBuffer(file, names, newTokens, newSpans, newLineStart, relexed);
+    }
+
+    private static int relexedLines(List<Edit> edits) {
+        int lines = 0;
+        for (Edit edit : edits) {
+            lines += edit.newLines;
+        }
+        return lines;
+    }
+
+    /**
+     * Copies the tokens of untouched lines, their ranges are only shifted
+     * @return next free index in newTokens
+     */
+    private int copyLines(int from, int to, String[] newTokens, int[] newSpans, int next, int[] newLineStart, int newLine) {
+        int shift = next - lineStart[from];
+        for (int i = from; i < to; i++) {
+            newLineStart[newLine++] = lineStart[i] + shift;
+        }
+        int count = lineStart[to] - lineStart[from];
+        System.arraycopy(tokens, lineStart[from], newTokens, next, count);
+        System.arraycopy(spans, lineStart[from] * 2, newSpans, next * 2, count * 2);
+        return next + count;
+    }
+
+    public String absPath() {
+        return file.absPath;
+    }
+
+    public int lineCount() {
+        return lineStart.length - 1;
+    }
+
+    public int tokenCount() {
+        return tokens.length;
+    }
+
+    /**
+     * @return how many lines were split to create this buffer
+     */
+    public int relexedLines() {
+        return relexedLines;
+    }
+
+    /**
+     * @param line starting at 0
+     */
+    public int lineSize(int line) {
+        return lineStart[line + 1] - lineStart[line];
+    }
+
+    /**
+     * @param line starting at 0
+     * @param index of the token in the line
+     */
+    public String token(int line, int index) {
+        return tokens[lineStart[line] + index];
+    }
+
+    /**
+     * @param line starting at 0
+     * @param index of the token in the line
+     * @return where the token starts in the source line
+     */
+    public int column(int line, int index) {
+        return spans[(lineStart[line] + index) * 2];
+    }
+
+    /**
+     * @param line starting at 0
+     * @param index of the token in the line
+     * @return how many chars of the source line the token spans
+     */
+    public int sourceLength(int line, int index) {
+        return spans[(lineStart[line] + index) * 2 + 1];
+    }
+
+    /**
+     * @return true if the line is a preprocessor command like "#include"
+     */
+    public boolean isCommand(int line) {
+        return lineSize(line) == 1 && token(line, 0).charAt(0) == '#';
+    }
+
+    /**
+     * Constants are replaced by their value, the "#define" commands are left out.
+     * They are applied here and not while splitting, so an edit of a "#define"
+     * does not have to split the lines that use it again.
+     * @return all tokens with their line numbers, starting at 1
+     */
+    public List<Line> toLines() {
+        List<Line> lines = new ArrayList<>(tokens.length);
+        MacroTable macros = new MacroTable();
+        for (int line = 0; line < lineCount(); line++) {
+            if(isCommand(line) && macros.define(new Line(tokens[lineStart[line]], file, line + 1)))
+                continue;
+            for (int i = lineStart[line]; i < lineStart[line + 1]; i++) {
+                lines.add(new Line(macros.expand(tokens[i]), file, line + 1));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Removes comments and splits the line. Preprocessor
+     * commands are kept as a single token.
+     */
+    private static void tokenizeLine(String line, NameTable names, Tokens tokens) {
+        String command = Preprocessor.command(line);
+        if(command != null) {               // dont split preprocessor commands
+            int column = line.indexOf('#');
+            tokens.token(command, column, line.length() - column);
+            return;
+        }
+        Preprocessor.splitLine(line, names, tokens);
+    }
+}
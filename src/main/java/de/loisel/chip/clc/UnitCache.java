@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiles every source file into an {@link ObjectUnit} only once.
+ * Units are found by their path and fingerprint, so a library shared by
+ * many projects is compiled for the first project and reused by all others.
+ * Safe to use from many threads.
+ */
+public final class UnitCache {
+
+    private static final List<String> ENTRY_POINT = List.of("int", "main", "(", ")");
+
+    /**
+     * A fingerprint is only a hash, so a unit of another file never counts as a hit
+     */
+    private static final class Key {
+        final String absPath;
+        final long fingerprint;
+
+        Key(String absPath, long fingerprint) {
+            this.absPath = absPath;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && fingerprint == key.fingerprint && absPath.equals(key.absPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(fingerprint);
+        }
+    }
+
+    private final Map<Key, CompletableFuture<ObjectUnit>> units = new ConcurrentHashMap<>();
+    private final LongAdder compiled = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    /**
+     * @return the compiled unit, or the cached one if the file and its imports did not change
+     */
+    public ObjectUnit compile(String absPath, List<String> source, Collection<ObjectUnit> imports, CompilerConfig config) {
+        Key key = new Key(absPath, ObjectUnit.fingerprint(absPath, source, imports));
+
+        CompletableFuture<ObjectUnit> future = new CompletableFuture<>();
+        CompletableFuture<ObjectUnit> cached = units.putIfAbsent(key, future);
+        if(cached != null) {
+            reused.increment();
+            try {
+                return cached.join();
+            } catch (CompletionException e) {      // the other compile failed, report its errors here as well
+                if(e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                throw e;
+            }
+        }
+
+        try {
+            ObjectUnit unit = ObjectUnit.compile(absPath, source, imports, config);
+            compiled.increment();
+            future.complete(unit);
+            return unit;
+        } catch (RuntimeException e) {
+            units.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Compiles the file with "int main()" and all files it includes
+     * @return the units, every unit after the units it includes
+     */
+    public List<ObjectUnit> compileProject(Project project, CompilerConfig config) {
+        Map<String, List<Line>> includes = new HashMap<>();
+        String entryFile = "";
+        for (Map.Entry<String, List<String>> file : project.sources.entrySet()) {
+            List<Line> fileIncludes = new ArrayList<>();
+            Line entry = scan(file.getKey(), file.getValue(), fileIncludes);
+            includes.put(file.getKey(), fileIncludes);
+
+            if(entry != null && entryFile.isEmpty()) {
+                entryFile = file.getKey();
+            } else if(entry != null) {
+                throw new PreprocessorException(entry,
+                        "Found multiple entry points: \"" + entryFile + "\" and \"" + file.getKey() + "\".");
+            }
+        }
+        if(entryFile.isEmpty())
+            throw new PreprocessorException(new Line("N.A.", "N.A.", -1), "No entry point was found.");
+
+        List<ObjectUnit> order = new ArrayList<>();
+        compileIncluded(entryFile, project, config, includes, new HashMap<>(), new ArrayDeque<>(), order);
+        return order;
+    }
+
+    /**
+     * Finds the preprocessor commands and the entry point of a file without keeping its tokens
+     * @param includes The "#include" commands are added here
+     * @return the "int main()" line, null if there is none
+     */
+    private static Line scan(String absPath, List<String> source, List<Line> includes) {
+        CompilerEvents.Preprocess event = new CompilerEvents.Preprocess();
+        event.begin();
+
+        Line file = new Line(absPath, "", 0);
+        Line entry = null;
+        NameTable names = new NameTable();
+        List<String> tokens = new ArrayList<>();
+        int lineNum = 1;
+        for (String line : source) {
+            String command = Preprocessor.command(line);
+            if(command != null) {
+                if(command.startsWith("#include"))
+                    includes.add(new Line(command, file, lineNum));
+            } else if(entry == null && line.contains("main")) {
+                tokens.clear();
+                Preprocessor.splitLine(line, names, (token, column, length) -> tokens.add(token));
+                for (int i = 0; i + 3 < tokens.size(); i++) {
+                    if(tokens.subList(i, i + 4).equals(ENTRY_POINT))
+                        entry = new Line(Preprocessor.clearLine(line), file, lineNum);
+                }
+            }
+            lineNum++;
+        }
+
+        event.commit(absPath, source.size(), 0);
+        return entry;
+    }
+
+    /**
+     * @param imported All units a file may use, including the indirect includes
+     * @param including Files that are currently compiled, to find include cycles
+     */
+    private Set<ObjectUnit> compileIncluded(String fileName, Project project, CompilerConfig config,
+                                            Map<String, List<Line>> includes, Map<String, Set<ObjectUnit>> imported,
+                                            Deque<String> including, List<ObjectUnit> order) {
+        Set<ObjectUnit> done = imported.get(fileName);
+        if(done != null)
+            return done;
+
+        CompilerEvents.IncludeFile event = new CompilerEvents.IncludeFile();
+        event.begin();
+        int depth = including.size();
+
+        including.push(fileName);
+        Set<ObjectUnit> imports = new LinkedHashSet<>();
+        for (Line include : includes.get(fileName)) {
+            for (String included : Preprocessor.includedFiles(includes.keySet(), include)) {
+                if(including.contains(included))
+                    throw new PreprocessorException(include, "Include cycle: \"" + included + "\" includes itself.");
+                imports.addAll(compileIncluded(included, project, config, includes, imported, including, order));
+            }
+        }
+        including.pop();
+
+        ObjectUnit unit = compile(fileName, project.sources.get(fileName), imports, config);
+        order.add(unit);
+        event.commit(fileName, unit.code.size(), depth);
+
+        Set<ObjectUnit> visible = new LinkedHashSet<>(imports);
+        visible.add(unit);
+        imported.put(fileName, visible);
+        return visible;
+    }
+
+    /**
+     * @return how many units were compiled
+     */
+    public long getCompiled() {
+        return compiled.sum();
+    }
+
+    /**
+     * @return how many compiles were saved by cached units
+     */
+    public long getReused() {
+        return reused.sum();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes the statements of blocks that can not be reached, e.g. the
+ * ones after a "return". The block instructions are kept so the code
+ * stays well formed, the conditions of unreachable blocks become 0.
+ */
+final class UnreachableCode implements Pass {
+
+    @Override
+    public String name() {
+        return "unreachable code";
+    }
+
+    @Override
+    public Set<Analysis<?>> requires() {
+        return Set.of(Analysis.CFG);
+    }
+
+    @Override
+    public boolean run(List<String> code, PassManager passes) {
+        ControlFlowGraph graph = passes.get(Analysis.CFG);
+        List<String> reachable = new ArrayList<>(code.size());
+        boolean condition = false;
+        boolean skipValue = false;
+
+        for (int i = 0; i < code.size(); i++) {
+            String instruction = code.get(i);
+            ControlFlowGraph.Block block = graph.blockOf(i);
+            if(block == null || block.reachable) {
+                reachable.add(instruction);
+                continue;
+            }
+
+            if(skipValue) {
+                if(Ir.is(instruction, Ir.END_INT_VALUE)) {
+                    reachable.add(instruction);
+                    skipValue = false;
+                }
+            } else if(Ir.isStructure(instruction)) {
+                reachable.add(instruction);
+                condition = Ir.is(instruction, Ir.IF) || Ir.is(instruction, Ir.ELSE_IF) || Ir.is(instruction, Ir.WHILE);
+            } else if(condition && Ir.is(instruction, Ir.INT_VALUE)) {
+                reachable.add(instruction);
+                reachable.add(Ir.INT_VAL + " 0");
+                skipValue = true;
+            }
+        }
+
+        if(reachable.equals(code))
+            return false;
+        code.clear();
+        code.addAll(reachable);
+        return true;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc.lsp;
+
+import de.loisel.chip.clc.ClcDocument;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Language server for clc over stdio. Serves diagnostics,
+ * go-to-definition and completion for the open documents.
+ */
+public class ClcLanguageServer {
+
+    private static final int METHOD_NOT_FOUND = -32601;
+    private static final int INVALID_PARAMS = -32602;
+
+    private static final int COMPLETION_FUNCTION = 3;
+    private static final int COMPLETION_VARIABLE = 6;
+    private static final int COMPLETION_KEYWORD = 14;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final Map<String, ClcDocument> documents = new HashMap<>();
+    private boolean shutdown;
+
+    public ClcLanguageServer(InputStream in, OutputStream out) {
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int exitCode = new ClcLanguageServer(System.in, System.out).run();
+        System.exit(exitCode);
+    }
+
+    /**
+     * Handles messages until "exit" or the end of the input
+     * @return the exit code, 0 if "shutdown" was requested before
+     */
+    public int run() throws IOException {
+        String message;
+        while((message = readMessage()) != null) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> request = (Map<String, Object>) Json.parse(message);
+            String method = (String) request.get("method");
+
+            if("exit".equals(method))
+                return shutdown ? 0 : 1;
+
+            try {
+                handle(request);
+            } catch (RuntimeException e) {
+                if(request.containsKey("id"))
+                    sendError(request.get("id"), INVALID_PARAMS, String.valueOf(e.getMessage()));
+                else
+                    log(e.toString());
+            }
+        }
+        return 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(Map<String, Object> request) throws IOException {
+        String method = (String) request.get("method");
+        Object id = request.get("id");
+        Map<String, Object> params = (Map<String, Object>) request.getOrDefault("params", Map.of());
+
+        if(method == null)          // a response from the client
+            return;
+
+        switch (method) {
+            case "initialize" -> sendResult(id, initialize());
+            case "initialized", "$/cancelRequest", "$/setTrace", "workspace/didChangeConfiguration" -> {
+                // nothing to do
+            }
+            case "shutdown" -> {
+                shutdown = true;
+                sendResult(id, null);
+            }
+            case "textDocument/didOpen" -> didOpen(params);
+            case "textDocument/didChange" -> didChange(params);
+            case "textDocument/didClose" -> didClose(params);
+            case "textDocument/definition" -> sendResult(id, definition(params));
+            case "textDocument/completion" -> sendResult(id, completion(params));
+            default -> {
+                if(id != null)
+                    sendError(id, METHOD_NOT_FOUND, "Method not supported: " + method);
+            }
+        }
+    }
+
+    private Map<String, Object> initialize() {
+        Map<String, Object> sync = new LinkedHashMap<>();
+        sync.put("openClose", true);
+        sync.put("change", 2);          // incremental
+
+        Map<String, Object> capabilities = new LinkedHashMap<>();
+        capabilities.put("textDocumentSync", sync);
+        capabilities.put("definitionProvider", true);
+        capabilities.put("completionProvider", Map.of("resolveProvider", false));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("capabilities", capabilities);
+        result.put("serverInfo", Map.of("name", "clc-language-server"));
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void didOpen(Map<String, Object> params) throws IOException {
+        Map<String, Object> textDocument = (Map<String, Object>) params.get("textDocument");
+        String uri = (String) textDocument.get("uri");
+
+        ClcDocument document = new ClcDocument(toPath(uri), (String) textDocument.get("text"));
+        documents.put(uri, document);
+        publishDiagnostics(uri, document);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void didChange(Map<String, Object> params) throws IOException {
+        String uri = (String) ((Map<String, Object>) params.get("textDocument")).get("uri");
+        ClcDocument document = documents.get(uri);
+        if(document == null)
+            return;
+
+        for (Object change : (List<Object>) params.get("contentChanges")) {
+            Map<String, Object> contentChange = (Map<String, Object>) change;
+            String text = (String) contentChange.get("text");
+            Map<String, Object> range = (Map<String, Object>) contentChange.get("range");
+
+            if(range == null) {
+                document.setText(text);
+            } else {
+                Map<String, Object> start = (Map<String, Object>) range.get("start");
+                Map<String, Object> end = (Map<String, Object>) range.get("end");
+                document.applyChange(toInt(start.get("line")), toInt(start.get("character")),
+                        toInt(end.get("line")), toInt(end.get("character")), text);
+            }
+        }
+        publishDiagnostics(uri, document);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void didClose(Map<String, Object> params) throws IOException {
+        String uri = (String) ((Map<String, Object>) params.get("textDocument")).get("uri");
+        documents.remove(uri);
+
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("uri", uri);
+        notification.put("diagnostics", List.of());
+        sendNotification("textDocument/publishDiagnostics", notification);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object definition(Map<String, Object> params) {
+        String uri = (String) ((Map<String, Object>) params.get("textDocument")).get("uri");
+        Map<String, Object> position = (Map<String, Object>) params.get("position");
+        ClcDocument document = documents.get(uri);
+        if(document == null)
+            return null;
+
+        ClcDocument.Symbol symbol = document.findDefinition(
+                toInt(position.get("line")), toInt(position.get("character")));
+        if(symbol == null)
+            return null;
+
+        String line = document.getLine(symbol.line);
+        int start = findName(line, symbol.name);
+
+        Map<String, Object> location = new LinkedHashMap<>();
+        location.put("uri", uri);
+        location.put("range", range(symbol.line, start, symbol.line, start + symbol.name.length()));
+        return location;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object completion(Map<String, Object> params) {
+        String uri = (String) ((Map<String, Object>) params.get("textDocument")).get("uri");
+        Map<String, Object> position = (Map<String, Object>) params.get("position");
+        ClcDocument document = documents.get(uri);
+        if(document == null)
+            return List.of();
+
+        List<Object> items = new ArrayList<>();
+        Set<String> added = new HashSet<>();
+        for (ClcDocument.Symbol symbol : document.getCompletions(
+                toInt(position.get("line")), toInt(position.get("character")))) {
+            if(!added.add(symbol.name))
+                continue;
+
+            int kind = switch (symbol.kind) {
+                case FUNCTION -> COMPLETION_FUNCTION;
+                case VARIABLE -> COMPLETION_VARIABLE;
+                case KEYWORD -> COMPLETION_KEYWORD;
+            };
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("label", symbol.name);
+            item.put("kind", kind);
+            items.add(item);
+        }
+        return items;
+    }
+
+    private void publishDiagnostics(String uri, ClcDocument document) throws IOException {
+        List<Object> diagnostics = new ArrayList<>();
+        for (ClcDocument.Diagnostic diagnostic : document.getDiagnostics()) {
+            int line = Math.min(diagnostic.line, document.lineCount() - 1);
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("range", range(line, 0, line, document.getLine(line).length()));
+            item.put("severity", 1);
+            item.put("source", "clc");
+            item.put("message", diagnostic.message);
+            diagnostics.add(item);
+        }
+
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("uri", uri);
+        notification.put("diagnostics", diagnostics);
+        sendNotification("textDocument/publishDiagnostics", notification);
+    }
+
+    /*
+        ===========================
+        =======  TRANSPORT  =======
+        ===========================
+     */
+
+    /**
+     * @return the content of the next message, null at the end of the input
+     */
+    private String readMessage() throws IOException {
+        int contentLength = -1;
+        String header;
+        while((header = readHeaderLine()) != null && !header.isEmpty()) {
+            int colon = header.indexOf(':');
+            if(colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length"))
+                contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+        }
+        if(header == null || contentLength < 0)
+            return null;
+
+        byte[] content = in.readNBytes(contentLength);
+        if(content.length < contentLength)
+            return null;
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    private String readHeaderLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != -1) {
+            if(c == '\n')
+                return line.toString();
+            if(c != '\r')
+                line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private void sendResult(Object id, Object result) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("result", result);
+        send(response);
+    }
+
+    private void sendError(Object id, int code, String message) throws IOException {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("error", error);
+        send(response);
+    }
+
+    private void sendNotification(String method, Object params) throws IOException {
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("jsonrpc", "2.0");
+        notification.put("method", method);
+        notification.put("params", params);
+        send(notification);
+    }
+
+    private void send(Map<String, Object> message) throws IOException {
+        byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        out.write(("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    /*
+        ===========================
+        =========  TOOLS  =========
+        ===========================
+     */
+
+    private static Map<String, Object> range(int startLine, int startChar, int endLine, int endChar) {
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("start", Map.of("line", startLine, "character", startChar));
+        range.put("end", Map.of("line", endLine, "character", endChar));
+        return range;
+    }
+
+    private static int findName(String line, String name) {
+        int index = line.indexOf(name);
+        while(index >= 0) {
+            boolean startOk = index == 0 || !isNamePart(line.charAt(index - 1));
+            int end = index + name.length();
+            boolean endOk = end >= line.length() || !isNamePart(line.charAt(end));
+            if(startOk && endOk)
+                return index;
+            index = line.indexOf(name, index + 1);
+        }
+        return 0;
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static int toInt(Object number) {
+        return ((Number) number).intValue();
+    }
+
+    private static String toPath(String uri) {
+        try {
+            URI parsed = URI.create(uri);
+            if("file".equals(parsed.getScheme()))
+                return parsed.getPath();
+        } catch (IllegalArgumentException e) {
+            // not a valid uri, use it as it is
+        }
+        return uri;
+    }
+
+    private static void log(String message) {
+        System.err.println("clc-language-server: " + message);
+    }
+}
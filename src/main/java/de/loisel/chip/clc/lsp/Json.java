@@ -0,0 +1,211 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc.lsp;
+
+import java.util.*;
+
+/**
+ * Minimal JSON reader and writer for the language server protocol.
+ * Objects are read as Map, arrays as List, numbers as Long or Double.
+ */
+interface Json {
+
+    static Object parse(String json) {
+        int[] index = {0};
+        Object value = parseValue(json, index);
+        skipWhitespace(json, index);
+        if(index[0] != json.length())
+            throw new IllegalArgumentException("Unexpected content at " + index[0]);
+        return value;
+    }
+
+    static String write(Object value) {
+        StringBuilder json = new StringBuilder();
+        write(value, json);
+        return json.toString();
+    }
+
+    private static void write(Object value, StringBuilder json) {
+        if(value == null) {
+            json.append("null");
+        } else if(value instanceof String string) {
+            writeString(string, json);
+        } else if(value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if(value instanceof Map<?, ?> map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if(!first)
+                    json.append(',');
+                first = false;
+                writeString(entry.getKey().toString(), json);
+                json.append(':');
+                write(entry.getValue(), json);
+            }
+            json.append('}');
+        } else if(value instanceof Collection<?> list) {
+            json.append('[');
+            boolean first = true;
+            for (Object element : list) {
+                if(!first)
+                    json.append(',');
+                first = false;
+                write(element, json);
+            }
+            json.append(']');
+        } else {
+            throw new IllegalArgumentException("Cannot write " + value.getClass());
+        }
+    }
+
+    private static void writeString(String value, StringBuilder json) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if(c < 0x20)
+                        json.append(String.format("\\u%04x", (int) c));
+                    else
+                        json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    private static Object parseValue(String json, int[] index) {
+        skipWhitespace(json, index);
+        if(index[0] >= json.length())
+            throw new IllegalArgumentException("Unexpected end of JSON");
+
+        char c = json.charAt(index[0]);
+        switch (c) {
+            case '{': {
+                Map<String, Object> map = new LinkedHashMap<>();
+                index[0]++;
+                skipWhitespace(json, index);
+                if(json.charAt(index[0]) == '}') {
+                    index[0]++;
+                    return map;
+                }
+                while(true) {
+                    skipWhitespace(json, index);
+                    String key = parseString(json, index);
+                    skipWhitespace(json, index);
+                    expect(json, index, ':');
+                    map.put(key, parseValue(json, index));
+                    skipWhitespace(json, index);
+                    if(json.charAt(index[0]) == ',') {
+                        index[0]++;
+                        continue;
+                    }
+                    expect(json, index, '}');
+                    return map;
+                }
+            }
+            case '[': {
+                List<Object> list = new ArrayList<>();
+                index[0]++;
+                skipWhitespace(json, index);
+                if(json.charAt(index[0]) == ']') {
+                    index[0]++;
+                    return list;
+                }
+                while(true) {
+                    list.add(parseValue(json, index));
+                    skipWhitespace(json, index);
+                    if(json.charAt(index[0]) == ',') {
+                        index[0]++;
+                        continue;
+                    }
+                    expect(json, index, ']');
+                    return list;
+                }
+            }
+            case '"':
+                return parseString(json, index);
+            default:
+                break;
+        }
+
+        if(json.startsWith("true", index[0])) {
+            index[0] += 4;
+            return Boolean.TRUE;
+        } else if(json.startsWith("false", index[0])) {
+            index[0] += 5;
+            return Boolean.FALSE;
+        } else if(json.startsWith("null", index[0])) {
+            index[0] += 4;
+            return null;
+        }
+
+        int start = index[0];
+        while(index[0] < json.length() && "+-0123456789.eE".indexOf(json.charAt(index[0])) >= 0)
+            index[0]++;
+        String number = json.substring(start, index[0]);
+        if(number.isEmpty())
+            throw new IllegalArgumentException("Unexpected '" + c + "' at " + start);
+        if(number.contains(".") || number.contains("e") || number.contains("E"))
+            return Double.parseDouble(number);
+        return Long.parseLong(number);
+    }
+
+    private static String parseString(String json, int[] index) {
+        expect(json, index, '"');
+        StringBuilder value = new StringBuilder();
+        while(true) {
+            char c = json.charAt(index[0]++);
+            if(c == '"')
+                return value.toString();
+            if(c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = json.charAt(index[0]++);
+            switch (escaped) {
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'u' -> {
+                    value.append((char) Integer.parseInt(json.substring(index[0], index[0] + 4), 16));
+                    index[0] += 4;
+                }
+                default -> value.append(escaped);
+            }
+        }
+    }
+
+    private static void expect(String json, int[] index, char expected) {
+        if(index[0] >= json.length() || json.charAt(index[0]) != expected)
+            throw new IllegalArgumentException("Expected '" + expected + "' at " + index[0]);
+        index[0]++;
+    }
+
+    private static void skipWhitespace(String json, int[] index) {
+        while(index[0] < json.length() && Character.isWhitespace(json.charAt(index[0])))
+            index[0]++;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssemblyGeneratorTest {
+
+    private static final String[] LOOP = {
+            "int main() {",
+            "    int sum = 0;",
+            "    int i = 0;",
+            "    while(i < 10) {",
+            "        sum = sum + i * i;",
+            "        i = i + 1;",
+            "    }",
+            "    return sum;",
+            "}"};
+
+    @Test
+    void stackBackendPushesEveryValue() {
+        List<String> loop = function(assemble(Backend.STACK, LOOP), "main");
+
+        assertTrue(loop.contains("push r1"));
+        assertTrue(loop.contains("pop r0"));
+        assertTrue(loop.contains("main.while0:"));
+        assertTrue(loop.contains("blt r1, r2, main.while0.body"));
+    }
+
+    @Test
+    void conditionsBranchOnTheComparison() {
+        List<String> main = function(assemble(Backend.REGISTERS, LOOP), "main");
+
+        // the condition is below the body, the loop takes one branch per pass
+        List<String> jumps = main.stream().filter(line -> line.startsWith("j") || line.startsWith("b")).toList();
+        assertEquals(2, jumps.size(), jumps.toString());
+        assertEquals("jmp main.while0", jumps.get(0));
+        assertTrue(jumps.get(1).matches("blt r\\d, r\\d, main\\.while0\\.body"), jumps.toString());
+        assertTrue(main.stream().noneMatch(line -> line.startsWith("slt")));
+        assertTrue(main.indexOf("main.while0:") > main.indexOf("main.while0.body:"));
+    }
+
+    @Test
+    void jumpsAreThreaded() {
+        List<String> main = function(assemble(Backend.REGISTERS,
+                "int g = 0;",
+                "int main() {",
+                "    int x = g;",
+                "    if(x) {",
+                "        if(x == 2) {",
+                "            x = 1;",
+                "        } else {",
+                "            x = 4;",
+                "        }",
+                "    } else if(x < 3) {",
+                "        return 9;",
+                "    }",
+                "    return x;",
+                "}"), "main");
+
+        assertTrue(main.stream().anyMatch(line -> line.startsWith("bne") && line.endsWith("main.if1.1")));
+        assertTrue(main.stream().anyMatch(line -> line.startsWith("bge") && line.endsWith("main.if0.2")));
+        // the jump to the end of the inner if goes to the end of the outer one
+        assertEquals(2, Collections.frequency(main, "jmp main.if0.end"), main.toString());
+        assertFalse(main.contains("jmp main.if1.end"));
+        assertFalse(main.get(main.size() - 1).startsWith("jmp"));
+    }
+
+    @Test
+    void registerBackendKeepsLocalsInRegisters() {
+        List<String> loop = function(assemble(Backend.REGISTERS, LOOP), "main");
+
+        assertTrue(loop.stream().noneMatch(line -> line.startsWith("push") && !line.equals("push fp")), loop.toString());
+        assertTrue(loop.stream().noneMatch(line -> line.contains("[fp-")), loop.toString());
+        assertFalse(loop.contains("addi sp, sp, -4"));          // no slot is needed
+    }
+
+    @Test
+    void valuesLiveAcrossCallsAreSpilled() {
+        List<String> main = function(assemble(Backend.REGISTERS,
+                "int one() {",
+                "    return 1;",
+                "}",
+                "int main() {",
+                "    int x = 5;",
+                "    int y = one();",
+                "    return x + y;",
+                "}"), "main");
+
+        // registers are caller-saved, x waits in its slot
+        assertTrue(main.contains("st [fp-2], r7"), main.toString());
+        assertTrue(main.contains("ld r7, [fp-2]"), main.toString());
+        assertTrue(main.contains("call one"));
+    }
+
+    @Test
+    void startCallsMain() {
+        List<String> assembly = assemble(Backend.REGISTERS, "int g = 3;", "int main() {", "    return g;", "}");
+
+        int start = assembly.indexOf(".start:");
+        assertTrue(start >= 0);
+        assertEquals(".word 0x0000 3", assembly.get(start - 1));       // a number is data
+        assertTrue(assembly.subList(start, assembly.size()).stream().noneMatch(line -> line.startsWith("ldi")));
+        assertTrue(assembly.indexOf("call main") > start);
+        assertTrue(assembly.indexOf("halt") > assembly.indexOf("call main"));
+        assertEquals(Backend.STACK, Backend.parse(" Stack"));
+        assertThrows(IllegalArgumentException.class, () -> Backend.parse("heap"));
+    }
+
+    /**
+     * @return the instructions of a function without comments
+     */
+    private static List<String> function(List<String> assembly, String name) {
+        int from = assembly.indexOf(name + ":");
+        int to = assembly.indexOf(name + ".return:");
+        return assembly.subList(from, to).stream().filter(line -> !line.startsWith("#")).toList();
+    }
+
+    private static List<String> assemble(Backend backend, String... source) {
+        CompilerConfig config = CompilerConfig.DEFAULT.withOptLevel(OptLevel.O1).withBackend(backend);
+        return TestSources.compile(config, source).assembly.stream().map(line -> line.s.strip()).toList();
+    }
+}
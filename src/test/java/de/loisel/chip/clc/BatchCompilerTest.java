@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchCompilerTest {
+
+    @Test
+    void concurrentCompilesMatchSequential() {
+        List<Project> projects = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            projects.add(project(i));
+        }
+
+        List<CompileResult> results;
+        try (BatchCompiler compiler = new BatchCompiler(CompilerConfig.DEFAULT, 8)) {
+            results = compiler.compileAll(projects).stream().map(CompletableFuture::join).toList();
+
+            assertEquals(projects.size(), compiler.getTimings().getCompiled());
+            assertEquals(0, compiler.getTimings().getFailed());
+        }
+
+        for (int i = 0; i < projects.size(); i++) {
+            CompileResult expected = BatchCompiler.compile(projects.get(i), CompilerConfig.DEFAULT);
+            CompileResult actual = results.get(i);
+            assertEquals(projects.get(i).name, actual.projectName);
+            assertEquals(expected.memoryMap, actual.memoryMap);
+        }
+    }
+
+    @Test
+    void failedProjectCompletesExceptionally() {
+        Project broken = new Project("broken", Map.of("/test/broken.clc", List.of(
+                "int g = 4 + ;",
+                "int main() {",
+                "    return 0;",
+                "}"
+        )));
+
+        try (BatchCompiler compiler = new BatchCompiler(CompilerConfig.DEFAULT, 2)) {
+            List<CompletableFuture<CompileResult>> futures = compiler.compileAll(List.of(broken, project(0)));
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> futures.get(0).get());
+            assertTrue(e.getCause() instanceof SyntaxErrorException);
+            assertNotNull(futures.get(1).join());
+            assertEquals(1, compiler.getTimings().getFailed());
+        }
+    }
+
+    private static Project project(int i) {
+        return new Project("p" + i, Map.of("/test/p" + i + ".clc", List.of(
+                "int g" + i + " = " + i + ";",
+                "int[] data = { " + i + ", 2 };",
+                "int add(int x, int y) {",
+                "    return x + y;",
+                "}",
+                "int main() {",
+                "    int r = add(g" + i + ", 2);",
+                "    return 0;",
+                "}"
+        )));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClcDocumentTest {
+
+    static final String SOURCE = String.join("\n",
+            "int g = 1;",
+            "int add(int x, int y) {",
+            "    int s = x + y;",
+            "    return s;",
+            "}",
+            "int main() {",
+            "    int r = add(1, 2);",
+            "    return 0;",
+            "}",
+            "");
+
+    @Test
+    void editChecksOnlyOverlappingDeclaration() {
+        ClcDocument document = new ClcDocument("/test/doc.clc", SOURCE);
+        assertTrue(document.getDiagnostics().isEmpty());
+        assertEquals(3, document.getCheckedDeclarations());
+
+        document.applyChange(2, 16, 2, 17, "");     // "int s = x + ;"
+        List<ClcDocument.Diagnostic> diagnostics = document.getDiagnostics();
+        assertEquals(1, diagnostics.size());
+        assertEquals(2, diagnostics.get(0).line);
+        assertEquals(1, document.getCheckedDeclarations());
+
+        document.applyChange(2, 16, 2, 16, "y");
+        assertTrue(document.getDiagnostics().isEmpty());
+        assertEquals(1, document.getCheckedDeclarations());
+    }
+
+    @Test
+    void insertedLinesMoveLaterDiagnostics() {
+        ClcDocument document = new ClcDocument("/test/doc.clc", SOURCE.replace("return 0;", "return 0 + ;"));
+        assertEquals(7, document.getDiagnostics().get(0).line);
+
+        document.applyChange(0, 0, 0, 0, "int h = 2;\n\n");
+        assertEquals(9, document.getDiagnostics().get(0).line);
+    }
+
+    @Test
+    void unclosedFunctionIsReportedAndRecovers() {
+        ClcDocument document = new ClcDocument("/test/doc.clc", SOURCE);
+
+        document.applyChange(0, 0, 0, 0, "void broken() {\n");
+        assertEquals(1, document.getDiagnostics().size());
+
+        document.applyChange(0, 0, 1, 0, "");
+        assertTrue(document.getDiagnostics().isEmpty());
+    }
+
+    @Test
+    void definitionAndCompletion() {
+        ClcDocument document = new ClcDocument("/test/doc.clc", SOURCE);
+
+        ClcDocument.Symbol add = document.findDefinition(6, 13);
+        assertEquals("add", add.name);
+        assertEquals(1, add.line);
+        assertEquals(ClcDocument.SymbolKind.FUNCTION, add.kind);
+
+        ClcDocument.Symbol x = document.findDefinition(2, 12);
+        assertEquals("x", x.name);
+        assertEquals(1, x.line);
+
+        List<String> names = document.getCompletions(3, 11).stream().map(symbol -> symbol.name).toList();
+        assertTrue(names.contains("s"));
+        assertTrue(names.contains("add"));
+        assertFalse(names.contains("r"));
+    }
+
+    /**
+     * An edit of a 50k line document rechecks one declaration and takes
+     * less than 20 ms at the 99th percentile. Runs with the "benchmark" tag.
+     */
+    @Test
+    @Tag("benchmark")
+    void editLatencyOnLargeDocument() {
+        int functions = 7_200;        // about 50k lines
+        StringBuilder source = new StringBuilder("int g = 1;\n");
+        for (int i = 0; i < functions; i++) {
+            source.append("int f").append(i).append("(int x, int y) {\n")
+                    .append("    int k = x + y * ").append(i).append(";\n")
+                    .append("    while(k < 3) {\n")
+                    .append("        k = k + g;\n")
+                    .append("    }\n")
+                    .append("    return k;\n")
+                    .append("}\n");
+        }
+        ClcDocument document = new ClcDocument("/test/big.clc", source.toString());
+
+        Random random = new Random(42);
+        long[] latencies = new long[1_000];
+        for (int i = -200; i < latencies.length; i++) {     // the first runs warm up
+            int line = 1 + 7 * random.nextInt(functions) + 3;
+            long start = System.nanoTime();
+            document.applyChange(line, 12, line, 13, (i & 1) == 0 ? "g" : "k");
+            document.getDiagnostics();
+            if(i >= 0)
+                latencies[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(latencies);
+        double p99 = latencies[latencies.length * 99 / 100] / 1e6;
+        System.out.printf(Locale.ROOT, "ClcDocumentTest: %d lines, p99 edit latency %.2f ms%n", document.lineCount(), p99);
+
+        assertEquals(1, document.getCheckedDeclarations());
+        assertTrue(p99 < 20, "p99 edit latency was " + p99 + " ms");
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClcTest {
+
+    static final File FOLDER = new File("src/test/resources" + File.separator + "example-project");
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    void writesAssemblyAndMap() throws IOException {
+        Path dir = Files.createTempDirectory("clc-test");
+        try {
+            Path asm = dir.resolve("easy.asm");
+            Path map = dir.resolve("easy.map");
+            int exitCode = run("-O2", "--report", "-o", asm.toString(), "--map", map.toString(),
+                    new File(FOLDER, "easy-test.clc").getPath());
+
+            assertEquals(Clc.EXIT_OK, exitCode, err.toString());
+            assertTrue(Files.exists(asm));
+            assertTrue(Files.readString(map).contains("i1"));
+            assertTrue(out.toString().contains("constant folding: "));
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void exitCodes() {
+        assertEquals(Clc.EXIT_OK, run("--help"));
+        assertEquals(Clc.EXIT_USAGE, run());
+        assertEquals(Clc.EXIT_USAGE, run("-O3", "a.clc"));
+        assertEquals(Clc.EXIT_USAGE, run("--max-heap-budget", "lots", "a.clc"));
+        assertEquals(Clc.EXIT_IO_ERROR, run(new File(FOLDER, "missing.clc").getPath()));
+        assertEquals(Clc.EXIT_COMPILE_ERROR, run("-o", "", new File(FOLDER, "example.clc").getPath(),
+                new File(FOLDER, "example-include.clc").getPath()));
+        assertTrue(err.toString().contains("Function not found: \"test\""));
+    }
+
+    private int run(String... args) {
+        return Clc.run(args, new PrintStream(out), new PrintStream(err));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoderTest {
+
+    @Test
+    void statementsAreLowered() {
+        List<String> code = TestSources.code(
+                "int[] a = [2];",
+                "void tick(int n) {",
+                "    a[0] = n;",
+                "    return;",
+                "}",
+                "int main() {",
+                "    int x = 0;",
+                "    while(x < 3) {",
+                "        if(x == 0) {",
+                "            tick(x);",
+                "        } else if(x == 1) {",
+                "            x = x + 1;",
+                "        } else {",
+                "            x = 3;",
+                "        }",
+                "    }",
+                "    return x;",
+                "}");
+
+        List<String> markers = code.stream()
+                .filter(line -> !line.startsWith("#") && !line.startsWith("_Int") && !line.startsWith("_Operator_")
+                        && !line.startsWith("_EndInt"))
+                .toList();
+        assertEquals(List.of(
+                "_ReserveArray_ a 2",
+                "_Function_ tick", "_Parameter_ 0 n",
+                "_SetArrayVal_ a", "_EndSetArrayVal_ a",
+                "_Return_", "_EndReturn_",
+                "_EndFunction_ tick",
+                "_Function_ main",
+                "_NewInt_ x", "_EndNewInt_ x",
+                "_While_ 0", "_Do_ 0",
+                "_If_ 1", "_Then_ 1",
+                "_StartFun_ tick", "_FunArgument_ 0", "_EndFunArgument_ 0", "_EndFun_",
+                "_ElseIf_ 1", "_Then_ 1",
+                "_SetInt_ x", "_EndSetInt_ x",
+                "_Else_ 1",
+                "_SetInt_ x", "_EndSetInt_ x",
+                "_EndIf_ 1",
+                "_EndWhile_ 0",
+                "_Return_", "_EndReturn_",
+                "_EndFunction_ main"), markers);
+    }
+
+    @Test
+    void statementAfterReturnIsChecked() {
+        Diagnostics diagnostics = new Diagnostics();
+        new SyntaxCheck(TestSources.lines("int main() {", "    return 0;", "    y = 1;", "}"), false, diagnostics).checkSyntax();
+
+        assertEquals(1, diagnostics.getErrors().size());
+        assertTrue(diagnostics.getErrors().get(0).getMessage().contains("Name not found: \"y\""));
+    }
+
+    @Test
+    void targetsAreResolved() {
+        Diagnostics diagnostics = new Diagnostics();
+        new SyntaxCheck(TestSources.lines(
+                "int[] a = [2];",
+                "int main() {",
+                "    int x = 0;",
+                "    a = 1;",
+                "    x[0] = 1;",
+                "    missing(1);",
+                "    return 0;",
+                "}"), false, diagnostics).checkSyntax();
+
+        List<String> messages = diagnostics.getErrors().stream().map(Throwable::getMessage).toList();
+        assertEquals(3, messages.size(), messages.toString());
+        assertTrue(messages.get(0).contains("Array \"a\" needs an index"));
+        assertTrue(messages.get(1).contains("\"x\" is not an array"));
+        assertTrue(messages.get(2).contains("Function not found: \"missing\""));
+    }
+
+    @Test
+    void globalsArePacked() {
+        Diagnostics diagnostics = new Diagnostics();
+        SyntaxCheck check = new SyntaxCheck(TestSources.lines(
+                "int[] table = { 3, -1, 65535, -32768 };",
+                "int count = 2;",
+                "int[] buffer = [3];",
+                "int[] mixed = { 1, count };",
+                "int limit = 7;",
+                "int main() {",
+                "    return table[0];",
+                "}"), false, diagnostics);
+        List<String> code = check.checkSyntax();
+        assertFalse(diagnostics.hasErrors(), diagnostics.getErrors().toString());
+
+        int table = code.indexOf("_DataArray_ table 4");
+        assertEquals(List.of("_DataArray_ table 4", "_DataWords_ 3 65535 65535 32768", "_EndDataArray_ table"),
+                code.subList(table, table + 3));
+        assertTrue(code.contains("_ReserveArray_ buffer 3"));
+        assertTrue(code.contains("_NewArray_ mixed 2"));          // not constant, set at run time
+
+        // data first, then the ints, then the reservations, every entry aligned to a word
+        assertEquals(List.of(
+                "# clc memory layout",
+                "# address  size   align  sect  name",
+                "0x0000     8      2      data  table   (test.clc:1)",
+                "0x0008     2      2      vars  count   (test.clc:2)",
+                "0x000A     2      2      vars  limit   (test.clc:5)",
+                "0x000C     6      2      bss   buffer   (test.clc:3)",
+                "0x0012     4      2      bss   mixed   (test.clc:4)",
+                "# 22 bytes, end address 0x0016"), check.getMemoryLayout().toMap());
+    }
+
+    @Test
+    void dataWordsAreChecked() {
+        for (String value : new String[] {"-65535", "-32769", "65536"}) {
+            Diagnostics diagnostics = new Diagnostics();
+            new SyntaxCheck(TestSources.lines("int[] t = { 1, " + value + " };", "int main() {", "    return 0;", "}"),
+                    false, diagnostics).checkSyntax();
+
+            assertEquals(1, diagnostics.getErrors().size(), value);
+            assertTrue(diagnostics.getErrors().get(0).getMessage()
+                    .contains("Number \"" + value + "\" does not fit into a 16-bit int"), value);
+        }
+    }
+
+}
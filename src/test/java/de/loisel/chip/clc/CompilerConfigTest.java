@@ -0,0 +1,62 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompilerConfigTest {
+
+    @Test
+    void defaultIsQuiet() {
+        CompilerConfig config = CompilerConfig.DEFAULT;
+
+        assertFalse(config.verbose);
+        assertFalse(config.parallel);
+        assertEquals(Diagnostics.DEFAULT_ERROR_LIMIT, config.errorLimit);
+        assertEquals(OptLevel.O0, config.optLevel);
+        assertEquals(Backend.REGISTERS, config.backend);
+        assertSame(Profile.EMPTY, config.profile);
+    }
+
+    @Test
+    void settingsAreChangedOnACopy() {
+        CompilerConfig config = CompilerConfig.DEFAULT.withOptLevel(OptLevel.O2).withBackend(Backend.STACK)
+                .withErrorLimit(5).withMaxHeapBudget(1 << 20);
+
+        assertEquals(OptLevel.O2, config.optLevel);
+        assertEquals(Backend.STACK, config.backend);
+        assertEquals(5, config.errorLimit);
+        assertEquals(1 << 20, config.maxHeapBudget);
+        assertEquals(CompilerConfig.DEFAULT_NESTING_LIMIT, config.nestingLimit);
+        assertEquals(OptLevel.O0, CompilerConfig.DEFAULT.optLevel);
+
+        assertThrows(IllegalArgumentException.class, () -> config.withErrorLimit(0));
+        assertThrows(IllegalArgumentException.class, () -> config.withNestingLimit(0));
+        assertThrows(IllegalArgumentException.class, () -> config.withMaxHeapBudget(-1));
+        assertThrows(NullPointerException.class, () -> config.withProfile(null));
+    }
+
+    @Test
+    void sizesAreParsed() {
+        assertEquals(512L << 20, CompilerConfig.parseSize("512m"));
+        assertEquals(2L << 30, CompilerConfig.parseSize(" 2G "));
+        assertEquals(65536, CompilerConfig.parseSize("65536"));
+        assertThrows(IllegalArgumentException.class, () -> CompilerConfig.parseSize("lots"));
+    }
+}
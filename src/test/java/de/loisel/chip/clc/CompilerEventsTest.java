@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompilerEventsTest {
+
+    @Test
+    void phasesAreRecorded() throws IOException {
+        List<String> library = List.of(
+                "int g = 4;",
+                "int add(int x, int y) {",
+                "    int sum = x + y;",
+                "    return sum;",
+                "}");
+        List<String> main = List.of(
+                "#include \"lib.clc\"",
+                "int main() {",
+                "    int r = add(add(1, g), 2);",
+                "    return 0;",
+                "}");
+        Project project = new Project("events", Map.of("/test/lib.clc", library, "/test/main.clc", main));
+
+        List<RecordedEvent> events;
+        Path file = Files.createTempFile("clc", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("clc.*").withThreshold(Duration.ZERO);
+            recording.start();
+
+            BatchCompiler.compile(project, CompilerConfig.DEFAULT);
+
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+
+        Map<String, RecordedEvent> tokenized = byFile(events, "clc.Tokenize");
+        assertEquals(Set.of("/test/lib.clc", "/test/main.clc"), tokenized.keySet());
+        assertTrue(tokenized.get("/test/main.clc").getInt("tokenCount") > 0);
+
+        assertEquals(5, byFile(events, "clc.Preprocess").get("/test/main.clc").getInt("tokenCount"));
+        Map<String, RecordedEvent> included = byFile(events, "clc.IncludeFile");
+        assertEquals(0, included.get("/test/main.clc").getInt("depth"));
+        assertEquals(1, included.get("/test/lib.clc").getInt("depth"));
+        assertNotNull(find(events, "clc.SyntaxCheck"));
+
+        List<String> declarations = events.stream()
+                .filter(event -> event.getEventType().getName().equals("clc.Declaration"))
+                .map(event -> event.getString("name"))
+                .toList();
+        assertEquals(List.of("g", "add", "main"), declarations);
+
+        Map<String, Integer> scopeDepths = events.stream()
+                .filter(event -> event.getEventType().getName().equals("clc.VariableDefinition"))
+                .collect(Collectors.toMap(event -> event.getString("name"), event -> event.getInt("depth")));
+        assertEquals(0, (int) scopeDepths.get("g"));
+        assertTrue(scopeDepths.get("sum") > 0);
+
+        int maxDepth = events.stream()
+                .filter(event -> event.getEventType().getName().equals("clc.InfixToRpn"))
+                .mapToInt(event -> event.getInt("depth"))
+                .max().orElse(-1);
+        assertEquals(2, maxDepth);      // "1" inside add(add(1, g), 2)
+    }
+
+    /**
+     * @return the events of the type by their file
+     */
+    private static Map<String, RecordedEvent> byFile(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .collect(Collectors.toMap(event -> event.getString("fileName"), event -> event));
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No event " + name));
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compiles generated programs of growing size along one axis at a time,
+ * times every phase and fits the growth exponent of time over size.
+ * A phase fails if it grows clearly faster than linear. Runs with the
+ * "complexity" tag in its own task, wall-clock times are too noisy for
+ * the default build. The sizes can be scaled with -Dclc.complexityTest.scale.
+ */
+@Tag("complexity")
+class ComplexityTest {
+
+    /**
+     * Highest accepted exponent, leaves room for n log n and measuring noise
+     */
+    static final double MAX_EXPONENT = 1.3;
+
+    /**
+     * Phases faster than this at the largest size are too noisy to fit
+     */
+    static final long MIN_NANOS = 10_000_000;
+
+    static final int STEPS = 5;
+    static final int RUNS = 7;
+
+    static final double SCALE = Double.parseDouble(System.getProperty("clc.complexityTest.scale", "1"));
+
+    /**
+     * Numbers in the programs stay below it, so any scale fits into 16 bits
+     */
+    static final int MAX_LITERAL = 30_000;
+
+    static final String FILE = "/test/main.clc";
+    static final CompilerConfig CONFIG = CompilerConfig.DEFAULT.withOptLevel(OptLevel.O2);
+
+    @Test
+    void lineLength() {
+        assertNearLinear("line length", 2_000, statements -> {
+            StringBuilder line = new StringBuilder("    int x = 0;");
+            for (int i = 0; i < statements; i++) {
+                line.append(" x = x + ").append(i % MAX_LITERAL).append(';');
+            }
+            return program(List.of(line.toString()));
+        });
+    }
+
+    @Test
+    void nestingDepth() {
+        assertNearLinear("nesting depth", 400, depth -> {
+            List<String> body = new ArrayList<>();
+            body.add("    int x = 0;");
+            for (int i = 0; i < depth; i++) {
+                body.add("while(x < " + i % MAX_LITERAL + ") {");
+                body.add("x = x + 1;");
+            }
+            body.add("x = " + "(".repeat(depth) + "x" + ")".repeat(depth) + ";");
+            body.add("x = " + "id(".repeat(depth) + "x" + ")".repeat(depth) + ";");
+            body.add("x = " + "a[".repeat(depth) + "0" + "]".repeat(depth) + ";");
+            for (int i = 0; i < depth; i++) {
+                body.add("}");
+            }
+
+            List<String> source = new ArrayList<>();
+            source.add("int[] a = [1];");
+            source.addAll(List.of("int id(int v) {", "    return v;", "}"));
+            source.addAll(program(body));
+            return source;
+        });
+    }
+
+    @Test
+    void functionCount() {
+        assertNearLinear("functions", 500, functions -> {
+            List<String> source = new ArrayList<>();
+            source.addAll(List.of("int f0(int v) {", "    return v;", "}"));
+            for (int i = 1; i < functions; i++) {
+                source.add("int f" + i + "(int v) {");
+                source.add("    int w = f" + (i - 1) + "(v) + " + i % MAX_LITERAL + ";");
+                source.add("    return w;");
+                source.add("}");
+            }
+            source.addAll(program(List.of("    int r = f" + (functions - 1) + "(1);")));
+            return source;
+        });
+    }
+
+    @Test
+    void globalCount() {
+        assertNearLinear("globals", 2_000, globals -> {
+            List<String> source = new ArrayList<>();
+            source.add("int g0 = 1;");
+            for (int i = 1; i < globals; i++) {
+                source.add("int g" + i + " = g" + (i - 1) + " + " + i % MAX_LITERAL + ";");
+            }
+            source.addAll(program(List.of("    int r = g" + (globals - 1) + ";")));
+            return source;
+        });
+    }
+
+    @Test
+    void expressionLength() {
+        assertNearLinear("expression length", 1_000, terms -> {
+            List<String> expression = new ArrayList<>();
+            expression.add("    int y = 2;");
+            expression.add("    int x = 1");
+            for (int i = 0; i < terms; i++) {
+                expression.add("        + id(" + i % MAX_LITERAL + ") * a[" + (i & 1) + "] - y");
+            }
+            expression.add("        ;");
+
+            List<String> source = new ArrayList<>();
+            source.add("int[] a = { 1, 2 };");
+            source.addAll(List.of("int id(int v) {", "    return v;", "}"));
+            source.addAll(program(expression));
+            return source;
+        });
+    }
+
+    /**
+     * Wraps statements in "int main()"
+     */
+    private static List<String> program(List<String> body) {
+        List<String> source = new ArrayList<>();
+        source.add("int main() {");
+        source.addAll(body);
+        source.add("    return 0;");
+        source.add("}");
+        return source;
+    }
+
+    private static void assertNearLinear(String axis, int baseSize, IntFunction<List<String>> generator) {
+        int[] sizes = new int[STEPS];
+        Map<String, long[]> phases = new LinkedHashMap<>();
+
+        for (int step = 0; step < STEPS; step++) {
+            sizes[step] = Math.max(1, (int) (baseSize * SCALE)) << step;
+        }
+
+        // the largest program warms up every path the smaller ones take
+        List<String> largest = generator.apply(sizes[STEPS - 1]);
+        for (int run = 0; run < RUNS; run++) {
+            time(largest, new LinkedHashMap<>(), 0);
+        }
+
+        // every run goes over all sizes, so a slow moment of the machine does not bend one size only
+        List<List<String>> sources = new ArrayList<>();
+        for (int size : sizes) {
+            sources.add(generator.apply(size));
+        }
+        for (int run = 0; run < RUNS; run++) {
+            for (int step = 0; step < STEPS; step++) {
+                // the garbage of the run before is collected outside of the timed phases
+                System.gc();
+                time(sources.get(step), phases, step);
+            }
+        }
+
+        List<String> failed = new ArrayList<>();
+        StringBuilder report = new StringBuilder("ComplexityTest " + axis + ":");
+        phases.forEach((phase, nanos) -> {
+            double exponent = exponent(sizes, nanos);
+            report.append(String.format(" %s %.2f (%.1f ms)", phase, exponent, nanos[STEPS - 1] / 1e6));
+            if (nanos[STEPS - 1] >= MIN_NANOS && exponent > MAX_EXPONENT)
+                failed.add(phase);
+        });
+        System.out.println(report);
+
+        assertTrue(failed.isEmpty(), "Superlinear growth in " + failed + " along " + axis + ": " + report);
+    }
+
+    /**
+     * Compiles the source once like a project and keeps the fastest time of every phase.
+     * The optimizations of {@link OptLevel#O2} run, so every pass is timed.
+     */
+    private static void time(List<String> source, Map<String, long[]> phases, int step) {
+        long start = System.nanoTime();
+        TokenBuffer.tokenize(FILE, source);
+        long buffered = System.nanoTime();
+        ObjectUnit.tokenize(FILE, source, CONFIG);
+        long tokenized = System.nanoTime();
+        // the unit tokenizes on its own, so check is the whole compile of the file
+        ObjectUnit unit = ObjectUnit.compile(FILE, source, List.of(), CONFIG);
+        long checked = System.nanoTime();
+        Linker.Program program = Linker.link(List.of(unit), CONFIG);
+        long linked = System.nanoTime();
+        PassManager passes = PassManager.forLevel(CONFIG.optLevel, CONFIG.profile);
+        List<String> code = passes.run(program.code);
+        FrameLayout frames = passes.frames();
+        long optimized = System.nanoTime();
+        AssemblyGenerator.generateAssembly(code, program.memoryLayout, frames, CONFIG);
+        long generated = System.nanoTime();
+
+        record(phases, "editor tokenize", step, buffered - start);
+        record(phases, "tokenize", step, tokenized - buffered);
+        record(phases, "check", step, checked - tokenized);
+        record(phases, "link", step, linked - checked);
+        record(phases, "optimize", step, optimized - linked);
+        record(phases, "generate", step, generated - optimized);
+    }
+
+    private static void record(Map<String, long[]> phases, String phase, int step, long nanos) {
+        long[] times = phases.computeIfAbsent(phase, p -> {
+            long[] empty = new long[STEPS];
+            Arrays.fill(empty, Long.MAX_VALUE);
+            return empty;
+        });
+        times[step] = Math.min(times[step], nanos);
+    }
+
+    /**
+     * Least squares slope of log(time) over log(size)
+     */
+    static double exponent(int[] sizes, long[] nanos) {
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            double x = Math.log(sizes[i]);
+            double y = Math.log(Math.max(1, nanos[i]));
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        int n = sizes.length;
+        return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiagnosticsTest {
+
+    static final int ERROR_PATH_FACTOR = 3;
+
+    static final List<String> VALID = List.of(
+            "int g = 4;",
+            "int[] numbers = { 3, 0 };",
+            "int add(int x, int y) {",
+            "    int sum = x + y;",
+            "    return sum;",
+            "}",
+            "int main() {",
+            "    int i = 2;",
+            "    while(i < 10) {",
+            "        i = i + 1;",
+            "    }",
+            "    return 0;",
+            "}"
+    );
+
+    static final List<String> INVALID = List.of(
+            "int g = 4 + ;",
+            "int[] numbers = { 3, 0 };",
+            "int add(int x, int y) {",
+            "    int sum = x * ;",
+            "    return sum;",
+            "}",
+            "int main() {",
+            "    int i = 2;",
+            "    while(i < 10) {",
+            "        i = = 1;",
+            "    }",
+            "    return 0;",
+            "}"
+    );
+
+    @Test
+    void reportsAllErrors() {
+        DiagnosticsException e = assertThrows(DiagnosticsException.class, () -> compile(INVALID, 20));
+
+        assertEquals(3, e.getErrors().size());
+        assertTrue(e.getErrors().get(0).getMessage().contains("line 1"));
+        assertTrue(e.getErrors().get(1).getMessage().contains("line 4"));
+        assertTrue(e.getErrors().get(2).getMessage().contains("line 10"));
+    }
+
+    @Test
+    void singleErrorKeepsItsType() {
+        List<String> source = List.of(
+                "int g = 4 + ;",
+                "int main() {",
+                "    return 0;",
+                "}"
+        );
+
+        assertThrows(SyntaxErrorException.class, () -> compile(source, 20));
+    }
+
+    @Test
+    void checksNestedCallsAndLastArgument() {
+        List<String> nested = List.of(
+                "int add(int x, int y) {",
+                "    return x + y;",
+                "}",
+                "int main() {",
+                "    int r = add(add(1, 2), add(3, (4)));",
+                "    add(r, 1);",
+                "    return 0;",
+                "}"
+        );
+        assertDoesNotThrow(() -> compile(nested, 20));
+
+        List<String> brokenLast = List.of(
+                "int add(int x, int y) {",
+                "    return x + y;",
+                "}",
+                "int main() {",
+                "    int r = add(1, 2 + );",
+                "    return 0;",
+                "}"
+        );
+        assertThrows(SyntaxErrorException.class, () -> compile(brokenLast, 20));
+    }
+
+    @Test
+    void deepNestingNeedsNoStack() {
+        assertDoesNotThrow(() -> compile(nested(50_000), 20));
+    }
+
+    @Test
+    void nestingLimitIsReported() {
+        Diagnostics diagnostics = new Diagnostics();
+        new SyntaxCheck(TestSources.lines(nested(200)), new Coder(), false, 100, diagnostics).checkSyntax();
+
+        assertEquals(1, diagnostics.getErrors().size());
+        assertTrue(diagnostics.getErrors().get(0).getMessage().contains("nested deeper than 100 levels"));
+    }
+
+    /**
+     * @return a program with loops, brackets, calls and array accesses nested depth levels deep
+     */
+    private static List<String> nested(int depth) {
+        List<String> source = new ArrayList<>(List.of(
+                "int[] a = [1];",
+                "int id(int v) {",
+                "    return v;",
+                "}",
+                "int main() {",
+                "    int x = 0;"));
+        for (int i = 0; i < depth; i++) {
+            source.add("while(x < 1) {");
+        }
+        source.add("x = " + "(".repeat(depth) + "x" + ")".repeat(depth) + ";");
+        source.add("x = " + "id(".repeat(depth) + "x" + ")".repeat(depth) + ";");
+        source.add("x = " + "a[".repeat(depth) + "0" + "]".repeat(depth) + ";");
+        for (int i = 0; i < depth; i++) {
+            source.add("}");
+        }
+        source.add("    return 0;");
+        source.add("}");
+        return source;
+    }
+
+    @Test
+    void stopsAtErrorLimit() {
+        DiagnosticsException e = assertThrows(DiagnosticsException.class, () -> compile(INVALID, 2));
+
+        assertEquals(2, e.getErrors().size());
+    }
+
+    @Test
+    void errorsHaveNoStackTrace() {
+        DiagnosticsException e = assertThrows(DiagnosticsException.class, () -> compile(INVALID, 20));
+
+        assertEquals(0, e.getStackTrace().length);
+        for (RuntimeException error : e.getErrors()) {
+            assertEquals(0, error.getStackTrace().length);
+        }
+    }
+
+    /**
+     * Errors are reported without stack traces, so a compile with errors
+     * may cost at most {@link #ERROR_PATH_FACTOR} times a valid compile.
+     * Runs with the "benchmark" tag.
+     */
+    @Test
+    @Tag("benchmark")
+    void errorPathThroughput() {
+        int runs = Integer.getInteger("clc.benchmark.runs", 2_000);
+
+        long validTime = time(VALID, runs);
+        long invalidTime = time(INVALID, runs);
+
+        System.out.printf(Locale.ROOT, "DiagnosticsTest: valid %.1f compiles/s, invalid %.1f compiles/s%n",
+                runs / (validTime / 1e9), runs / (invalidTime / 1e9));
+        assertTrue(invalidTime <= ERROR_PATH_FACTOR * validTime,
+                "compiles with errors took " + invalidTime / 1e6 + " ms, valid ones " + validTime / 1e6 + " ms");
+    }
+
+    private static long time(List<String> source, int runs) {
+        for (int i = 0; i < runs; i++) {        // warm up
+            compileQuietly(source);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            compileQuietly(source);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void compileQuietly(List<String> source) {
+        try {
+            compile(source, Diagnostics.DEFAULT_ERROR_LIMIT);
+        } catch (DiagnosticsException | SyntaxErrorException e) {
+            // expected for invalid sources
+        }
+    }
+
+    private static void compile(List<String> source, int errorLimit) {
+        TestSources.unit(CompilerConfig.DEFAULT.withErrorLimit(errorLimit), source);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionParserTest {
+
+    @Test
+    void precedence() {
+        assertEquals(List.of("_IntVal_ 1", "_IntVal_ 2", "_IntVal_ 3", "_Operator_ *", "_Operator_ +",
+                        "_IntVal_ 7", "_Operator_ =="),
+                value("1 + 2 * 3 == 7"));
+        assertEquals(List.of("_IntVal_ 8", "_IntVal_ 2", "_Operator_ -", "_IntVal_ 1", "_Operator_ -"),
+                value("8 - 2 - 1"));
+        assertEquals(List.of("_IntVal_ 8", "_IntVal_ 2", "_IntVal_ 1", "_Operator_ -", "_Operator_ -"),
+                value("8 - (2 - 1)"));
+    }
+
+    @Test
+    void brackets() {
+        assertEquals(List.of("_IntVal_ 5", "_IntVal_ 3", "_IntVal_ 10", "_Operator_ *", "_IntVal_ 8",
+                        "_Operator_ -", "_Operator_ +"),
+                value("5 + ( 3 * 10 - 8 )"));
+        assertEquals(List.of("_IntVal_ 3", "_IntVal_ 5", "_IntVar_ g", "_Operator_ -", "_Operator_ *"),
+                value("3 * (5 - g)"));
+    }
+
+    @Test
+    void unarySigns() {
+        assertEquals(List.of("_IntVal_ 0", "_IntVar_ g", "_Operator_ -", "_IntVal_ 2", "_Operator_ *"),
+                value("-g * 2"));
+        assertEquals(List.of("_IntVal_ 3", "_IntVal_ 0", "_IntVal_ 1", "_Operator_ -", "_Operator_ -"),
+                value("3 - -1"));
+        assertEquals(List.of("_IntVal_ 5"), value("+5"));
+    }
+
+    @Test
+    void callsAndArrays() {
+        assertEquals(List.of("_StartFunRet_ add", "_FunArgument_ 0", "_StartArrayVal_ a", "_IntVal_ 0",
+                        "_EndArrayVal_", "_EndFunArgument_ 0", "_FunArgument_ 1", "_StartFunRet_ one",
+                        "_EndFunRet_", "_EndFunArgument_ 1", "_EndFunRet_"),
+                value("add(a[0], one())"));
+    }
+
+    @Test
+    void callsInBrackets() {
+        assertEquals(List.of("_IntVal_ 3", "_StartArrayVal_ a", "_IntVal_ 1", "_EndArrayVal_", "_Operator_ *"),
+                value("3 * (a[1])"));
+        assertEquals(List.of("_IntVal_ 3", "_IntVal_ 5", "_StartFunRet_ add", "_FunArgument_ 0", "_IntVal_ 3",
+                        "_EndFunArgument_ 0", "_FunArgument_ 1", "_IntVal_ 5", "_IntVal_ 1", "_Operator_ +",
+                        "_EndFunArgument_ 1", "_EndFunRet_", "_Operator_ -", "_Operator_ *"),
+                value("3 * (5 - add(3, 5 + 1))"));
+    }
+
+    @Test
+    void namesAreResolved() {
+        assertError("r = h + 1;", "Name not found: \"h\"");
+        assertError("r = a + 1;", "Array \"a\" needs an index");
+        assertError("r = g[1];", "\"g\" is not an array");
+        assertError("r = g(1);", "\"g\" is not a function");
+        assertError("r = nothing();", "Function \"nothing\" does not return int.");
+        assertError("r = one;", "Function \"one\" needs to be called");
+        assertError("int s = s;", "Name not found: \"s\"");
+    }
+
+    @Test
+    void syntaxErrors() {
+        assertError("r = 1 +;", "\"+\" cannot stand alone.");
+        assertError("r = * 2;", "Unexpected \"*\"");
+        assertError("r = 1 (g);", "After value got unexpected: \"(\".");
+        assertError("r = add(1, );", "No mathematical expression found");
+        assertError("r = 70000;", "does not fit into a 16-bit int");
+    }
+
+    /**
+     * @return the code of the value of "r" in main
+     */
+    private static List<String> value(String expression) {
+        List<String> code = TestSources.code(program("int r = " + expression + ";"));
+
+        int start = code.indexOf("_NewInt_ r") + 2;
+        return code.subList(start, code.indexOf("_EndNewInt_ r") - 1);
+    }
+
+    private static void assertError(String statement, String message) {
+        Diagnostics diagnostics = new Diagnostics();
+        new SyntaxCheck(TestSources.lines(program("int r = 0; " + statement)), false, diagnostics).checkSyntax();
+
+        assertEquals(1, diagnostics.getErrors().size(), statement + ": " + diagnostics.getErrors());
+        String error = diagnostics.getErrors().get(0).getMessage();
+        assertTrue(error.contains(message), statement + ": " + error);
+    }
+
+    private static String[] program(String statement) {
+        return new String[] {
+                "int[] a = { 1, 2 };",
+                "int g = 2;",
+                "int add(int x, int y) {",
+                "    return x + y;",
+                "}",
+                "int one() {",
+                "    return 1;",
+                "}",
+                "void nothing() {",
+                "}",
+                "int main() {",
+                "    " + statement,
+                "    return 0;",
+                "}"};
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeapBudgetTest {
+
+    /**
+     * Peak heap may be this many times the size of the source file
+     */
+    static final int HEAP_MULTIPLE = 4;
+
+    /**
+     * Heap of the JVM itself, independent of the source
+     */
+    static final long BASE_HEAP = 64L << 20;
+
+    static final int MAX_LITERAL = 30_000;
+
+    @Test
+    void spilledCompileMatchesHeapCompile() {
+        List<String> source = new ArrayList<>();
+        for (int i = 0; source.size() < 5_000; i++) {
+            appendFunction(source, i);
+        }
+        source.addAll(List.of("int main() {", "    return 0;", "}"));
+        Project project = new Project("p", Map.of("/test/big.clc", source));
+
+        CompilerConfig onHeap = CompilerConfig.DEFAULT;
+        CompilerConfig spilled = CompilerConfig.DEFAULT.withMaxHeapBudget(8 << 10);
+
+        List<ObjectUnit> expected = new UnitCache().compileProject(project, onHeap);
+        List<ObjectUnit> actual = new UnitCache().compileProject(project, spilled);
+
+        assertEquals(expected.get(0).code, actual.get(0).code);
+        assertEquals(expected.get(0).exports.size(), actual.get(0).exports.size());
+
+        List<Line> assembly = BatchCompiler.compile(project, onHeap).assembly;
+        List<Line> spilledAssembly = BatchCompiler.compile(project, spilled).assembly;
+        assertEquals(assembly.size(), spilledAssembly.size());
+        for (int i = 0; i < assembly.size(); i++) {
+            assertEquals(assembly.get(i).s, spilledAssembly.get(i).s);
+            assertEquals(assembly.get(i).num, spilledAssembly.get(i).num);
+        }
+    }
+
+    @Test
+    void spillListKeepsOrder() {
+        try (SpillList<String> list = new SpillList<>(SpillList.STRINGS, 1 << 10)) {
+            for (int i = 0; i < 10_000; i++) {
+                list.add("token" + i);
+            }
+            assertTrue(list.isSpilled());
+            assertEquals(10_000, list.size());
+            assertEquals("token0", list.get(0));
+            assertEquals("token9999", list.get(9_999));
+            assertEquals("token4711", list.subList(4_000, 5_000).get(711));
+        }
+    }
+
+    /**
+     * Compiles a generated program in a JVM whose heap is limited to
+     * a multiple of the source size. Runs with the "heap" tag,
+     * the size can be set with -Dclc.heapTest.lines.
+     */
+    @Test
+    @Tag("heap")
+    void peakHeapScalesWithSource() throws IOException, InterruptedException {
+        int lineCount = Integer.getInteger("clc.heapTest.lines", 10_000_000);
+        Path source = Files.createTempFile("clc-heap", ".clc");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(source)) {
+                List<String> function = new ArrayList<>();
+                for (int i = 0, lines = 0; lines < lineCount; i++) {
+                    function.clear();
+                    appendFunction(function, i);
+                    for (String line : function) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                    lines += function.size();
+                }
+                writer.write("int main() {");
+                writer.newLine();
+                writer.write("    return 0;");
+                writer.newLine();
+                writer.write("}");
+                writer.newLine();
+            }
+
+            long maxHeap = HEAP_MULTIPLE * Files.size(source) + BASE_HEAP;
+            Process process = new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Xmx" + maxHeap,
+                    "-cp", System.getProperty("java.class.path"),
+                    HeapBudgetTest.class.getName(),
+                    source.toString(), Long.toString(maxHeap / 2))
+                    .inheritIO()
+                    .start();
+
+            assertEquals(0, process.waitFor(), "compile needed more than " + (maxHeap >> 20) + " MiB heap");
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+
+    /**
+     * Runs in the heap-limited JVM of {@link #peakHeapScalesWithSource()}
+     * @param args source file and heap budget
+     */
+    public static void main(String[] args) {
+        CompilerConfig config = CompilerConfig.DEFAULT.withMaxHeapBudget(Long.parseLong(args[1]));
+        long start = System.nanoTime();
+        new Clc(new File[] { new File(args[0]) }, config).compile();
+        System.out.printf("HeapBudgetTest: compiled in %.1f s with %d MiB max heap%n",
+                (System.nanoTime() - start) / 1e9, Runtime.getRuntime().maxMemory() >> 20);
+    }
+
+    /**
+     * Appends function i, its numbers are kept below {@link #MAX_LITERAL}
+     * so they fit into a 16-bit int
+     */
+    private static void appendFunction(List<String> source, int i) {
+        if(i % 10 == 0)
+            source.add("int g" + i + " = " + i % MAX_LITERAL + ";");
+        source.add("int f" + i + "(int x, int y) {");
+        source.add("    int a = x + y * " + i % MAX_LITERAL + ";");
+        source.add("    int b = a - 2;");
+        source.add("    while(a < 10) {");
+        source.add("        a = a + 1;");
+        source.add("        if(a == b) {");
+        source.add("            b = b - 1;");
+        source.add("        }");
+        source.add("    }");
+        source.add("    return a + b;");
+        source.add("}");
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkerTest {
+
+    static final List<String> LIB = List.of(
+            "int counter = 0;",
+            "int[] table = { 1, 2, 3 };",
+            "int add(int x, int y) {",
+            "    return x + y;",
+            "}"
+    );
+
+    static List<String> main(int i) {
+        return List.of(
+                "#include \"lib.clc\"",
+                "int main() {",
+                "    int r = add(counter, " + i + ");",
+                "    return 0;",
+                "}"
+        );
+    }
+
+    @Test
+    void libraryIsCompiledOnce() {
+        UnitCache units = new UnitCache();
+        for (int i = 0; i < 10; i++) {
+            Project project = new Project("p" + i, Map.of(
+                    "/lib/lib.clc", LIB,
+                    "/p" + i + "/main.clc", main(i)));
+            CompileResult result = BatchCompiler.compile(project, CompilerConfig.DEFAULT, units);
+            assertTrue(result.memoryMap.stream().anyMatch(line -> line.contains("table")));
+        }
+
+        assertEquals(11, units.getCompiled());
+        assertEquals(9, units.getReused());
+    }
+
+    @Test
+    void sameSourceAtAnotherPathIsCompiledAgain() {
+        UnitCache units = new UnitCache();
+        ObjectUnit lib = units.compile("/a/lib.clc", LIB, List.of(), CompilerConfig.DEFAULT);
+        ObjectUnit copy = units.compile("/b/lib.clc", LIB, List.of(), CompilerConfig.DEFAULT);
+
+        assertEquals("/a/lib.clc", lib.absPath);
+        assertEquals("/b/lib.clc", copy.absPath);
+        assertEquals(2, units.getCompiled());
+        assertSame(lib, units.compile("/a/lib.clc", LIB, List.of(), CompilerConfig.DEFAULT));
+    }
+
+    @Test
+    void callsAreResolvedAcrossUnits() {
+        List<ObjectUnit> units = new UnitCache().compileProject(new Project("p", Map.of(
+                "/lib/lib.clc", LIB,
+                "/p/main.clc", main(1))), CompilerConfig.DEFAULT);
+
+        assertEquals("/lib/lib.clc", units.get(0).absPath);
+        ObjectUnit main = units.get(1);
+        assertEquals(List.of("add", "counter"), main.references.stream().map(reference -> reference.name).toList());
+        assertTrue(main.code.stream().noneMatch(line -> line.startsWith("_Function_ add")));
+
+        Linker.Program program = Linker.link(units, CompilerConfig.DEFAULT);
+        assertTrue(program.code.contains("_Function_ add"));
+        assertTrue(program.code.contains("_Function_ main"));
+        assertEquals(4, program.memoryLayout.getEntries().stream().mapToInt(entry -> entry.words).sum());
+    }
+
+    @Test
+    void reportsDuplicateSymbols() {
+        ObjectUnit lib = ObjectUnit.compile("/lib/lib.clc", LIB, List.of(), CompilerConfig.DEFAULT);
+        ObjectUnit copy = ObjectUnit.compile("/lib/copy.clc", LIB, List.of(), CompilerConfig.DEFAULT);
+        ObjectUnit main = ObjectUnit.compile("/p/main.clc", main(1), List.of(lib), CompilerConfig.DEFAULT);
+
+        DiagnosticsException e = assertThrows(DiagnosticsException.class, () -> Linker.link(List.of(lib, copy, main), CompilerConfig.DEFAULT));
+        assertEquals(3, e.getErrors().size());
+        assertTrue(e.getErrors().get(0).getMessage().contains("copy.clc"));
+
+        e = assertThrows(DiagnosticsException.class,
+                () -> Linker.link(List.of(lib, copy, main), CompilerConfig.DEFAULT.withErrorLimit(2)));
+        assertEquals(2, e.getErrors().size());
+        assertTrue(e.getMessage().contains("stopped at the error limit"));
+    }
+
+    @Test
+    void reportsMissingSymbols() throws IOException {
+        ObjectUnit lib = ObjectUnit.compile("/lib/lib.clc", LIB, List.of(), CompilerConfig.DEFAULT);
+        ObjectUnit main = read(write(ObjectUnit.compile("/p/main.clc", main(1), List.of(lib), CompilerConfig.DEFAULT)));
+
+        DiagnosticsException e = assertThrows(DiagnosticsException.class, () -> Linker.link(List.of(main), CompilerConfig.DEFAULT));
+        assertEquals(2, e.getErrors().size());
+        assertTrue(e.getErrors().get(0).getMessage().contains("main.clc: Linker in line 3"));
+
+        assertThrows(LinkerException.class, () -> Linker.link(List.of(lib), CompilerConfig.DEFAULT));     // no entry point
+    }
+
+    @Test
+    void binaryRoundTrip() throws IOException {
+        ObjectUnit lib = ObjectUnit.compile("/lib/lib.clc", LIB, List.of(), CompilerConfig.DEFAULT);
+        ObjectUnit read = read(write(lib));
+
+        assertEquals(lib.absPath, read.absPath);
+        assertEquals(lib.fingerprint, read.fingerprint);
+        assertEquals(lib.code, read.code);
+        assertEquals(lib.exports.size(), read.exports.size());
+        for (int i = 0; i < lib.exports.size(); i++) {
+            assertEquals(lib.exports.get(i).name, read.exports.get(i).name);
+            assertEquals(lib.exports.get(i).kind, read.exports.get(i).kind);
+            assertEquals(lib.exports.get(i).section, read.exports.get(i).section);
+            assertEquals(lib.exports.get(i).words, read.exports.get(i).words);
+        }
+    }
+
+    private static byte[] write(ObjectUnit unit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        unit.write(out);
+        return out.toByteArray();
+    }
+
+    private static ObjectUnit read(byte[] bytes) throws IOException {
+        return ObjectUnit.read(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.*;
+
+/**
+ * Runs the assembly of the {@link AssemblyGenerator} like the LoChip
+ * would, a stand-in for the real VM in tests. <br>
+ * The run starts at ".start" and ends at "halt", its value is r0. It is
+ * deterministic, memory and registers start at 0. Besides the value it
+ * counts the instructions and estimates the cycles with {@link #cycles(String, boolean)},
+ * the cost of a LoChip instruction without caches or pipelining.
+ * The counts and cycles of every instruction make the {@link Profile} of the run.
+ * It also keeps the high-water marks of the memory: the deepest stack
+ * and the highest address written below the stack, the globals.
+ * <br>
+ * A run that divides by zero, jumps to an unknown label or runs longer
+ * than its step limit throws a {@link Trap}.
+ */
+final class LoChipVm {
+
+    static final int DEFAULT_STEP_LIMIT = 50_000_000;
+    static final int MEMORY_SIZE = 0x10000;
+
+    private static final int FP = 8;
+    private static final int SP = 9;
+    private static final int NONE = -1;
+
+    /**
+     * A run that can not go on
+     */
+    static final class Trap extends RuntimeException {
+        Trap(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * What a run returned and what it took
+     */
+    static final class Result {
+        final int value;
+        final long instructions;
+        final long cycles;
+
+        /**
+         * bytes between the start of the stack and its deepest point
+         */
+        final int stackBytes;
+
+        /**
+         * the highest address written below the stack, plus one
+         */
+        final int dataBytes;
+
+        Result(int value, long instructions, long cycles, int stackBytes, int dataBytes) {
+            this.value = value;
+            this.instructions = instructions;
+            this.cycles = cycles;
+            this.stackBytes = stackBytes;
+            this.dataBytes = dataBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "value %d, %d instructions, %d cycles, %d stack bytes, %d data bytes",
+                    value, instructions, cycles, stackBytes, dataBytes);
+        }
+    }
+
+    /**
+     * A decoded instruction, the registers are 0 to 7, fp and sp
+     */
+    private static final class Instruction {
+        final String op;
+        final int d;
+        final int a;
+        final int b;
+        final int imm;
+        int target = NONE;
+        final String label;
+
+        Instruction(String op, int d, int a, int b, int imm, String label) {
+            this.op = op;
+            this.d = d;
+            this.a = a;
+            this.b = b;
+            this.imm = imm;
+            this.label = label;
+        }
+    }
+
+    private final List<Instruction> program = new ArrayList<>();
+    private final List<String> assembly = new ArrayList<>();
+
+    /**
+     * the text of every instruction, in the order of the program
+     */
+    private final List<String> source = new ArrayList<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final byte[] data = new byte[MEMORY_SIZE];
+    private int wordsEnd;
+    private long stepLimit = DEFAULT_STEP_LIMIT;
+
+    /**
+     * how often each instruction ran in the last run
+     */
+    private long[] counts;
+
+    /**
+     * the cycles each instruction took in the last run
+     */
+    private long[] instructionCycles;
+
+    LoChipVm(List<Line> assembly) {
+        for (Line line : assembly) {
+            this.assembly.add(line.s);
+            load(line.s.strip());
+        }
+        for (Instruction instruction : program) {
+            if(instruction.label != null)
+                instruction.target = label(instruction.label);
+        }
+    }
+
+    LoChipVm stepLimit(long stepLimit) {
+        this.stepLimit = stepLimit;
+        return this;
+    }
+
+    /**
+     * @return the cycles of an instruction, a taken branch refills the fetch
+     */
+    static int cycles(String op, boolean taken) {
+        return switch (op) {
+            case "mul" -> 4;
+            case "div" -> 16;
+            case "ld", "st", "push", "pop" -> 2;
+            case "call", "ret" -> 3;
+            case "jmp" -> 2;
+            case "jz", "jnz", "beq", "bne", "blt", "bge", "bgt", "ble" -> taken ? 2 : 1;
+            default -> 1;
+        };
+    }
+
+    Result run() {
+        int[] registers = new int[10];
+        byte[] memory = data.clone();
+        counts = new long[program.size()];
+        instructionCycles = new long[program.size()];
+        long cycles = 0;
+        int lowestSp = MEMORY_SIZE;
+        int dataEnd = wordsEnd;
+
+        int pc = label(CodeGenerator.START);
+        for (long steps = 0; ; steps++) {
+            if(steps == stepLimit)
+                throw new Trap("More than " + stepLimit + " instructions");
+            if(pc >= program.size())
+                throw new Trap("Ran past the end of the program");
+            Instruction in = program.get(pc);
+            counts[pc]++;
+            int next = pc + 1;
+            boolean taken = false;
+
+            switch (in.op) {
+                case "ldi" -> registers[in.d] = in.imm & 0xFFFF;
+                case "mov" -> registers[in.d] = registers[in.a];
+                case "addi" -> registers[in.d] = (registers[in.a] + in.imm) & 0xFFFF;
+                case "ld" -> registers[in.d] = read(memory, address(registers, in.a, in.imm));
+                case "st" -> {
+                    int address = address(registers, in.a, in.imm);
+                    write(memory, address, registers[in.b]);
+                    if(address < registers[SP] || registers[SP] == 0)
+                        dataEnd = Math.max(dataEnd, address + 2);
+                }
+                case "push" -> {
+                    registers[SP] = (registers[SP] - 2) & 0xFFFF;
+                    write(memory, registers[SP], registers[in.a]);
+                }
+                case "pop" -> {
+                    registers[in.d] = read(memory, registers[SP]);
+                    registers[SP] = (registers[SP] + 2) & 0xFFFF;
+                }
+                case "jmp" -> {
+                    next = in.target;
+                    taken = true;
+                }
+                case "jz", "jnz" -> {
+                    taken = (registers[in.a] == 0) == in.op.equals("jz");
+                    if(taken)
+                        next = in.target;
+                }
+                case "beq", "bne", "blt", "bge", "bgt", "ble" -> {
+                    int left = (short) registers[in.a];
+                    int right = (short) registers[in.b];
+                    taken = switch (in.op) {
+                        case "beq" -> left == right;
+                        case "bne" -> left != right;
+                        case "blt" -> left < right;
+                        case "bge" -> left >= right;
+                        case "bgt" -> left > right;
+                        default -> left <= right;
+                    };
+                    if(taken)
+                        next = in.target;
+                }
+                case "call" -> {
+                    registers[SP] = (registers[SP] - 2) & 0xFFFF;
+                    write(memory, registers[SP], next);
+                    next = in.target;
+                }
+                case "ret" -> {
+                    next = read(memory, registers[SP]);
+                    registers[SP] = (registers[SP] + 2) & 0xFFFF;
+                }
+                case "halt" -> {
+                    cycles += cycles(in.op, false);
+                    instructionCycles[pc] += cycles(in.op, false);
+                    return new Result((short) registers[0], steps + 1, cycles,
+                            lowestSp == MEMORY_SIZE ? 0 : MEMORY_SIZE - lowestSp, dataEnd);
+                }
+                default -> registers[in.d] = alu(in.op, (short) registers[in.a], (short) registers[in.b]) & 0xFFFF;
+            }
+            if(registers[SP] != 0)
+                lowestSp = Math.min(lowestSp, registers[SP]);
+            cycles += cycles(in.op, taken);
+            instructionCycles[pc] += cycles(in.op, taken);
+            pc = next;
+        }
+    }
+
+    /**
+     * @return how often each instruction ran in the last run, in the order of {@link #source()}
+     */
+    long[] counts() {
+        return counts;
+    }
+
+    /**
+     * @return the functions, blocks and source lines of the last run
+     */
+    Profile profile() {
+        return Profile.collect(assembly, counts, instructionCycles);
+    }
+
+    /**
+     * @return the text of the instructions, without labels, comments and data
+     */
+    List<String> source() {
+        return Collections.unmodifiableList(source);
+    }
+
+    private static int alu(String op, int left, int right) {
+        return switch (op) {
+            case "add" -> left + right;
+            case "sub" -> left - right;
+            case "mul" -> left * right;
+            case "div" -> {
+                if(right == 0)
+                    throw new Trap("Division by zero");
+                yield left / right;
+            }
+            case "seq" -> left == right ? 1 : 0;
+            case "sne" -> left != right ? 1 : 0;
+            case "slt" -> left < right ? 1 : 0;
+            case "sgt" -> left > right ? 1 : 0;
+            default -> throw new Trap("Unknown instruction: " + op);
+        };
+    }
+
+    private void load(String line) {
+        if(line.isEmpty() || line.startsWith("#"))
+            return;
+        if(line.endsWith(":")) {
+            labels.put(line.substring(0, line.length() - 1), program.size());
+            return;
+        }
+
+        int space = line.indexOf(' ');
+        String op = space < 0 ? line : line.substring(0, space);
+        String[] operands = space < 0 ? new String[0] : line.substring(space + 1).split(", ");
+        if(op.equals(".word")) {
+            String[] words = operands[0].split(" ");
+            int address = Integer.decode(words[0]);
+            for (int i = 1; i < words.length; i++, address += 2) {
+                write(data, address, Integer.parseInt(words[i]));
+            }
+            wordsEnd = Math.max(wordsEnd, address);
+            return;
+        }
+
+        source.add(line);
+        program.add(switch (op) {
+            case "ldi" -> new Instruction(op, register(operands[0]), NONE, NONE, Integer.parseInt(operands[1]), null);
+            case "mov" -> new Instruction(op, register(operands[0]), register(operands[1]), NONE, 0, null);
+            case "addi" -> new Instruction(op, register(operands[0]), register(operands[1]), NONE,
+                    Integer.parseInt(operands[2]), null);
+            case "ld" -> new Instruction(op, register(operands[0]), base(operands[1]), NONE, offset(operands[1]), null);
+            case "st" -> new Instruction(op, NONE, base(operands[0]), register(operands[1]), offset(operands[0]), null);
+            case "push" -> new Instruction(op, NONE, register(operands[0]), NONE, 0, null);
+            case "pop" -> new Instruction(op, register(operands[0]), NONE, NONE, 0, null);
+            case "jmp", "call" -> new Instruction(op, NONE, NONE, NONE, 0, operands[0]);
+            case "jz", "jnz" -> new Instruction(op, NONE, register(operands[0]), NONE, 0, operands[1]);
+            case "beq", "bne", "blt", "bge", "bgt", "ble" -> new Instruction(op, NONE, register(operands[0]),
+                    register(operands[1]), 0, operands[2]);
+            case "ret", "halt" -> new Instruction(op, NONE, NONE, NONE, 0, null);
+            default -> new Instruction(op, register(operands[0]), register(operands[1]), register(operands[2]), 0, null);
+        });
+    }
+
+    private int label(String name) {
+        Integer position = labels.get(name);
+        if(position == null)
+            throw new Trap("Unknown label: " + name);
+        return position;
+    }
+
+    private static int register(String name) {
+        return switch (name) {
+            case "fp" -> FP;
+            case "sp" -> SP;
+            default -> {
+                if(!name.matches("r[0-7]"))
+                    throw new Trap("Not a register: " + name);
+                yield name.charAt(1) - '0';
+            }
+        };
+    }
+
+    /**
+     * @return the register of "[ra+offset]", {@link #NONE} for "[address]"
+     */
+    private static int base(String address) {
+        String inner = address.substring(1, address.length() - 1);
+        if(inner.startsWith("0x"))
+            return NONE;
+        int sign = Math.max(inner.indexOf('+'), inner.indexOf('-'));
+        return register(sign < 0 ? inner : inner.substring(0, sign));
+    }
+
+    private static int offset(String address) {
+        String inner = address.substring(1, address.length() - 1);
+        if(inner.startsWith("0x"))
+            return Integer.decode(inner);
+        int sign = Math.max(inner.indexOf('+'), inner.indexOf('-'));
+        return sign < 0 ? 0 : Integer.parseInt(inner.substring(sign));
+    }
+
+    private static int address(int[] registers, int base, int offset) {
+        return ((base == NONE ? 0 : registers[base]) + offset) & 0xFFFF;
+    }
+
+    private static int read(byte[] memory, int address) {
+        return memory[address] & 0xFF | (memory[(address + 1) & 0xFFFF] & 0xFF) << 8;
+    }
+
+    private static void write(byte[] memory, int address, int value) {
+        memory[address] = (byte) value;
+        memory[(address + 1) & 0xFFFF] = (byte) (value >> 8);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoChipVmTest {
+
+    private static final String[] PROGRAM = {
+            "int[] squares = [8];",
+            "int calls = 0;",
+            "int fib(int n) {",
+            "    calls = calls + 1;",
+            "    if(n < 2) {",
+            "        return n;",
+            "    }",
+            "    return fib(n - 1) + fib(n - 2);",
+            "}",
+            "int sum(int n, int acc) {",
+            "    if(n == 0) {",
+            "        return acc;",
+            "    }",
+            "    return sum(n - 1, acc + n);",
+            "}",
+            "int main() {",
+            "    int i = 0;",
+            "    while(i < 8) {",
+            "        squares[i] = i * i;",
+            "        i = i + 1;",
+            "    }",
+            "    int total = 0;",
+            "    i = 7;",
+            "    while(i > 0 - 1) {",
+            "        if(squares[i] > 20) {",
+            "            total = total + squares[i] / 2;",
+            "        } else if(squares[i] == 4) {",
+            "            total = total - 100;",
+            "        } else {",
+            "            total = total + 1;",
+            "        }",
+            "        i = i - 1;",
+            "    }",
+            "    return total + fib(10) + sum(200, 0) - calls;",
+            "}"};
+
+    // 24 + 18 + 12 + 1 + 1 - 100 + 1 + 1, fib(10), the sum, the calls of fib
+    private static final int VALUE = -42 + 55 + 20100 - 177;
+
+    @Test
+    void programsRunAtEveryLevel() {
+        for (Backend backend : Backend.values()) {
+            for (OptLevel level : OptLevel.values()) {
+                LoChipVm.Result result = new LoChipVm(compile(level, backend, PROGRAM)).run();
+                assertEquals(VALUE, result.value, backend + " " + level);
+            }
+        }
+    }
+
+    @Test
+    void optimizationsSaveCycles() {
+        LoChipVm.Result stack = new LoChipVm(compile(OptLevel.O0, Backend.STACK, PROGRAM)).run();
+        LoChipVm.Result registers = new LoChipVm(compile(OptLevel.O0, Backend.REGISTERS, PROGRAM)).run();
+        LoChipVm.Result optimized = new LoChipVm(compile(OptLevel.O2, Backend.REGISTERS, PROGRAM)).run();
+
+        assertTrue(registers.cycles < stack.cycles, "registers " + registers.cycles + ", stack " + stack.cycles);
+        assertTrue(registers.instructions < stack.instructions,
+                "registers " + registers.instructions + ", stack " + stack.instructions);
+        assertTrue(optimized.cycles < registers.cycles, "O2 " + optimized.cycles + ", O0 " + registers.cycles);
+        // the tail calls of "sum" run in one frame
+        assertTrue(optimized.stackBytes < registers.stackBytes);
+    }
+
+    @Test
+    void memoryHighWaterMarks() {
+        String[] source = {
+                "int[] table = {1, 2, 3, 4};",
+                "int last = 0;",
+                "int depth(int n) {",
+                "    if(n == 0) {",
+                "        return 0;",
+                "    }",
+                "    return depth(n - 1) + 1;",
+                "}",
+                "int main() {",
+                "    last = depth(10);",
+                "    return last;",
+                "}"};
+        LoChipVm.Result result = new LoChipVm(compile(OptLevel.O0, Backend.STACK, source)).run();
+
+        assertEquals(10, result.value);
+        assertEquals(10, new LoChipVm(compile(OptLevel.O2, Backend.REGISTERS, source)).run().value);
+        assertEquals(10, result.dataBytes);                     // four words of "table" and "last"
+        // return address, frame pointer and argument of 11 calls
+        assertTrue(result.stackBytes >= 11 * 6, result.toString());
+    }
+
+    @Test
+    void runsAreDeterministicAndTrapped() {
+        LoChipVm vm = new LoChipVm(compile(OptLevel.O0, Backend.REGISTERS, PROGRAM));
+        LoChipVm.Result first = vm.run();
+        LoChipVm.Result second = vm.run();
+        assertEquals(first.toString(), second.toString());
+        assertEquals(first.instructions, Arrays.stream(vm.counts()).sum());
+
+        List<Line> divide = compile(OptLevel.O2, Backend.REGISTERS,
+                "int zero = 0;", "int main() {", "    return 1 / zero;", "}");
+        assertThrows(LoChipVm.Trap.class, () -> new LoChipVm(divide).run());
+
+        List<Line> forever = compile(OptLevel.O2, Backend.STACK,
+                "int g = 1;", "int main() {", "    while(g) {", "    }", "    return 0;", "}");
+        assertThrows(LoChipVm.Trap.class, () -> new LoChipVm(forever).stepLimit(10_000).run());
+    }
+
+    /**
+     * @return the assembly of a single file program
+     */
+    static List<Line> compile(OptLevel level, Backend backend, String... source) {
+        return compile(level, backend, Profile.EMPTY, source);
+    }
+
+    static List<Line> compile(OptLevel level, Backend backend, Profile profile, String... source) {
+        CompilerConfig config = CompilerConfig.DEFAULT.withOptLevel(level).withBackend(backend).withProfile(profile);
+        return TestSources.compile(config, source).assembly;
+    }
+}
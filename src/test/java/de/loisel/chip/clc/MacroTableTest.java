@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MacroTableTest {
+
+    @Test
+    void valuesAreFolded() {
+        MacroTable macros = new MacroTable();
+        define(macros, "#define WIDTH 8");
+        define(macros, "#define SIZE (WIDTH + 2) * 3 / 2");
+        define(macros, "#define LAST -1");
+
+        assertEquals("15", macros.expand("SIZE"));
+        assertEquals("65535", macros.expand("LAST"));
+        assertEquals("other", macros.expand("other"));
+        assertFalse(macros.define(new Line("test.clc", "#include \"a.clc\"", 1)));
+    }
+
+    @Test
+    void usesAreImmediateValues() {
+        List<String> code = TestSources.code(
+                "#define LIMIT 4 * 4",
+                "int main() {",
+                "    int x = LIMIT - 1;",
+                "    return x;",
+                "}");
+
+        assertTrue(code.contains("_IntVal_ 16"));
+        assertFalse(code.stream().anyMatch(line -> line.contains("LIMIT")));
+    }
+
+    @Test
+    void invalidDefinesAreReported() {
+        assertError("#define 5 1", "\"5\" is no valid constant name.");
+        assertError("#define A", "Constant \"A\" needs a value.");
+        assertError("#define A B", "\"B\" is no constant.");
+        assertError("#define A 1 / (2 - 2)", "Division by zero in constant.");
+        assertError("#define A (1", "'(' was not closed!");
+        assertError("#define A 1)", "Unexpected \")\" in constant.");
+
+        MacroTable macros = new MacroTable();
+        define(macros, "#define A 1");
+        PreprocessorException e = assertThrows(PreprocessorException.class, () -> define(macros, "#define A 2"));
+        assertTrue(e.getMessage().contains("Constant \"A\" is already defined."), e.getMessage());
+    }
+
+    private static void define(MacroTable macros, String command) {
+        assertTrue(macros.define(new Line("test.clc", command, 1)));
+    }
+
+    private static void assertError(String command, String message) {
+        PreprocessorException e = assertThrows(PreprocessorException.class, () -> define(new MacroTable(), command));
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PassManagerTest {
+
+    @Test
+    void levels() {
+        List<String> code = TestSources.code("int main() {", "    return 1 + 2;", "}");
+
+        assertSame(code, PassManager.forLevel(OptLevel.O0).run(code));
+        assertTrue(PassManager.forLevel(OptLevel.O1).run(code).contains("_IntVal_ 3"));
+        assertEquals(OptLevel.O2, OptLevel.parse("-O2"));
+        assertEquals(OptLevel.Os, OptLevel.parse("s"));
+        assertThrows(IllegalArgumentException.class, () -> OptLevel.parse("-O3"));
+    }
+
+    @Test
+    void constantsAreFolded() {
+        List<String> code = optimize(OptLevel.O1, "int main() {", "    int x = (2 + 3) * -4 == 0 - 20;", "    return x / 0;", "}");
+
+        assertEquals(List.of("_IntValue_ ", "_IntVal_ 1", "_EndIntValue_ "), statement(code, "_NewInt_ x"));
+        assertTrue(code.contains("_Operator_ /"));         // left to the program
+    }
+
+    @Test
+    void unreachableCodeIsRemoved() {
+        List<String> code = optimize(OptLevel.O1,
+                "int main() {",
+                "    int x = 1;",
+                "    return x;",
+                "    x = 2;",
+                "    while(x < 3) {",
+                "        x = x + 1;",
+                "    }",
+                "}");
+
+        assertFalse(code.contains("_SetInt_ x"));
+        assertEquals(List.of("_IntValue_ ", "_IntVal_ 0", "_EndIntValue_ "), statement(code, "_While_ 0"));
+        assertTrue(code.contains("_EndWhile_ 0"));
+    }
+
+    @Test
+    void deadStoresAndFunctionsAreRemoved() {
+        String[] source = {
+                "int seed = 1;",
+                "int g = used();",
+                "int used() {",
+                "    return seed;",                  // not pure, it is called at run time
+                "}",
+                "int unused() {",
+                "    return 2;",
+                "}",
+                "int main() {",
+                "    int x = 1;",
+                "    int y = 0;",
+                "    x = 2;",
+                "    x = 7;",
+                "    y = used();",
+                "    g = 3;",
+                "    while(x < g) {",
+                "        x = x + 1;",
+                "    }",
+                "    return 0;",
+                "}"};
+
+        List<String> o1 = optimize(OptLevel.O1, source);
+        assertEquals(3, Collections.frequency(o1, "_SetInt_ x"));
+
+        List<String> o2 = optimize(OptLevel.O2, source);
+        assertEquals(2, Collections.frequency(o2, "_SetInt_ x"));      // "x = 2" is overwritten before it is read
+        assertTrue(o2.contains("_SetInt_ y"));                          // calls a function
+        assertTrue(o2.contains("_SetInt_ g"));                          // global
+        assertTrue(o2.contains("_Function_ used"));
+        assertFalse(o2.contains("_Function_ unused"));
+        assertFalse(o2.contains("# test.clc:6 int unused ( ) "));
+    }
+
+    @Test
+    void tailSelfCallsBecomeJumps() {
+        List<String> code = optimize(OptLevel.O1,
+                "int sum(int n, int acc) {",
+                "    if(n == 0) {",
+                "        return acc;",
+                "    }",
+                "    return sum(n - 1, sum(0, acc) + n);",
+                "}",
+                "void count(int n) {",
+                "    if(n > 0) {",
+                "        count(n - 1);",
+                "        return;",
+                "    }",
+                "}",
+                "int main() {",
+                "    count(3);",
+                "    return sum(10, 0) + 1;",
+                "}");
+
+        assertEquals(1, Collections.frequency(code, "_TailCall_ sum"));
+        assertEquals(2, Collections.frequency(code, "_StartFunRet_ sum"));      // in an argument and in main
+        assertEquals(1, Collections.frequency(code, "_TailCall_ count"));
+        assertEquals(2, Collections.frequency(code, "_Return_"));              // "return acc" and main
+        assertEquals("_EndIf_ 0", code.get(code.indexOf("_EndTailCall_ count") + 1));
+
+        ControlFlowGraph graph = ControlFlowGraph.build(code);
+        ControlFlowGraph.Block jump = graph.blockOf(code.indexOf("_EndTailCall_ sum"));
+        assertEquals(List.of(graph.entries().get(0)), jump.successors);
+        assertTrue(CallGraph.build(code).isRecursive("sum"));
+    }
+
+    @Test
+    void pureCallsAreComputed() {
+        List<String> code = optimize(OptLevel.O2,
+                "int seed = 2;",
+                "int test() {",
+                "    return 4;",
+                "}",
+                "int fib(int n) {",
+                "    if(n < 2) {",
+                "        return n;",
+                "    }",
+                "    return fib(n - 1) + fib(n - 2);",
+                "}",
+                "int sum(int n) {",
+                "    int[] parts = {1, 2};",
+                "    int total = 0;",
+                "    while(n > 0) {",
+                "        total = total + parts[n - n / 2 * 2];",
+                "        n = n - 1;",
+                "    }",
+                "    return total;",
+                "}",
+                "int seeded(int n) {",
+                "    return n + seed;",
+                "}",
+                "int broken(int n) {",
+                "    return n / 0;",
+                "}",
+                "int forever(int n) {",
+                "    return forever(n) + 1;",
+                "}",
+                "int lonely = (3 + (1 + test()) + 5);",
+                "int main() {",
+                "    int x = fib(sum(3) + 7);",
+                "    return x + seeded(1) + broken(2) + forever(0);",
+                "}");
+
+        assertEquals(List.of("_IntValue_ ", "_IntVal_ 13", "_EndIntValue_ "), statement(code, "_NewInt_ lonely"));
+        assertEquals(List.of("_IntValue_ ", "_IntVal_ 144", "_EndIntValue_ "), statement(code, "_NewInt_ x"));
+        assertTrue(code.contains("_StartFunRet_ seeded"));             // reads a global
+        assertTrue(code.contains("_StartFunRet_ broken"));             // left to the program
+        assertTrue(code.contains("_StartFunRet_ forever"));
+        assertFalse(code.contains("_Function_ fib"));
+        assertFalse(code.contains("_Function_ test"));
+
+        List<String> functions = TestSources.code(
+                "int g = 0;",
+                "int reads() {",
+                "    return g;",
+                "}",
+                "int calls() {",
+                "    return reads();",
+                "}",
+                "int local(int n) {",
+                "    int[] a = [2];",
+                "    a[1] = n;",
+                "    return a[1];",
+                "}",
+                "int main() {",
+                "    return calls() + local(1);",
+                "}");
+        Purity purity = Purity.compute(functions, CallGraph.build(functions));
+        assertFalse(purity.isPure("reads"));
+        assertFalse(purity.isPure("calls"));
+        assertTrue(purity.isPure("local"));
+        assertFalse(purity.isPure("main"));
+    }
+
+    @Test
+    void countedLoopsAreUnrolled() {
+        String[] source = {
+                "int main() {",
+                "    int s = 0;",
+                "    int i = 2;",
+                "    while(i < 6) {",
+                "        int t = i * 2;",
+                "        s = s + t;",
+                "        i = i + 1;",
+                "    }",
+                "    int k = 0;",
+                "    while(k < 21) {",
+                "        s = s - k;",
+                "        k = k + 1;",
+                "    }",
+                "    while(s > 0) {",
+                "        s = s - 1;",
+                "    }",
+                "    return s + k;",
+                "}"};
+        List<String> code = optimize(OptLevel.O2, source);
+
+        // four folded copies of the first body, each declares its own "t"
+        assertEquals(4, Collections.frequency(code, "_NewInt_ t"));
+        for (int value : new int[] {4, 6, 8, 10}) {
+            assertTrue(code.contains("_IntVal_ " + value), code.toString());
+        }
+        // 21 passes: a loop of two passes of 8 copies, then 5 copies
+        assertEquals(List.of("_IntValue_ ", "_IntVar_ k", "_IntVal_ 16", "_Operator_ !=", "_EndIntValue_ "),
+                statement(code, "_While_ 1"));
+        assertEquals(4 + 8 + 5 + 1, Collections.frequency(code, "_SetInt_ s"));
+        assertTrue(code.contains("_While_ 2"));                  // not counted
+        assertEquals(2, code.stream().filter(instruction -> Ir.is(instruction, Ir.WHILE)).count());
+
+        assertEquals(3, optimize(OptLevel.Os, source).stream()
+                .filter(instruction -> Ir.is(instruction, Ir.WHILE)).count());
+    }
+
+    @Test
+    void framesShareSlots() {
+        List<String> code = TestSources.code(
+                "int f(int n, int unused) {",
+                "    int total = 0;",
+                "    int i = 0;",
+                "    while(i < n) {",
+                "        int sq = i * i;",
+                "        total = total + sq;",
+                "        i = i + 1;",
+                "    }",
+                "    if(total > 10) {",
+                "        int[] tmp = [3];",
+                "        tmp[0] = total;",
+                "        total = tmp[0];",
+                "    } else {",
+                "        int a = total + 1;",
+                "        int b = a * 2;",
+                "        total = b;",
+                "    }",
+                "    return total;",
+                "}",
+                "int main() {",
+                "    return f(4, 0);",
+                "}");
+
+        PassManager scopes = PassManager.forLevel(OptLevel.O0);
+        scopes.run(code);
+        FrameLayout.Frame frame = scopes.frames().frame("f");
+        assertEquals(10, frame.unpackedWords());
+        assertEquals(7, frame.words());                 // the branches share their slots
+
+        PassManager live = PassManager.forLevel(OptLevel.O1);
+        List<String> optimized = live.run(code);
+        frame = live.frames().frame("f");
+        assertEquals(5, frame.words());
+        FrameLayout.Slot n = frame.slot(optimized.indexOf("_Parameter_ 0 n"));
+        FrameLayout.Slot unused = frame.slot(optimized.indexOf("_Parameter_ 1 unused"));
+        FrameLayout.Slot a = frame.slot(optimized.indexOf("_NewInt_ a"));
+        FrameLayout.Slot b = frame.slot(optimized.indexOf("_NewInt_ b"));
+        assertNotEquals(n.offset(), unused.offset());
+        assertEquals(n.offset(), a.offset());           // "n" is not read after the loop
+        assertEquals(a.offset(), b.offset());           // "a" is read for the last time by the value of "b"
+        assertEquals(0, live.frames().frame("main").words());
+        assertTrue(live.frames().toMap().contains("# frame f: 20 -> 10 bytes"));
+    }
+
+    @Test
+    void analysesAreCached() {
+        List<String> code = TestSources.code("int main() {", "    int x = 1;", "    return x;", "}");
+        int[] runs = new int[1];
+        Pass reader = new Pass() {
+            @Override
+            public String name() {
+                return "reader";
+            }
+
+            @Override
+            public Set<Analysis<?>> requires() {
+                return Set.of(Analysis.LIVENESS);
+            }
+
+            @Override
+            public boolean run(List<String> code, PassManager passes) {
+                passes.get(Analysis.CFG);              // required through liveness
+                runs[0]++;
+                return runs[0] == 2;
+            }
+        };
+        Pass undeclared = new Pass() {
+            @Override
+            public String name() {
+                return "undeclared";
+            }
+
+            @Override
+            public boolean run(List<String> code, PassManager passes) {
+                passes.get(Analysis.CALL_GRAPH);
+                return false;
+            }
+        };
+
+        PassManager passes = new PassManager(OptLevel.O1, List.of(reader, reader, reader));
+        passes.run(code);
+        List<String> computed = passes.getReports().stream().filter(report -> report.analysis)
+                .map(report -> report.name).toList();
+        assertEquals(List.of("cfg", "liveness", "cfg", "liveness"), computed);
+        assertEquals(7, passes.getReports().size());
+        assertTrue(passes.getReports().get(2).toString().startsWith("reader: "));
+
+        assertThrows(IllegalStateException.class, () -> new PassManager(OptLevel.O1, List.of(undeclared)).run(code));
+    }
+
+    @Test
+    void controlFlow() {
+        List<String> code = TestSources.code(
+                "int main() {",
+                "    int x = 0;",
+                "    if(x == 0) {",
+                "        x = 1;",
+                "    } else if(x == 1) {",
+                "        return 2;",
+                "    } else {",
+                "        x = 3;",
+                "    }",
+                "    return x;",
+                "}");
+        ControlFlowGraph graph = ControlFlowGraph.build(code);
+        Liveness liveness = Liveness.compute(code, graph);
+
+        ControlFlowGraph.Block entry = graph.entries().get(0);
+        ControlFlowGraph.Block join = graph.blockOf(code.indexOf("_EndIf_ 0"));
+        ControlFlowGraph.Block elseIf = graph.blockOf(code.indexOf("_ElseIf_ 0"));
+        assertEquals(2, entry.successors.size());
+        assertSame(elseIf, entry.successors.get(1));
+        assertEquals(2, join.predecessors.stream().filter(block -> block.reachable).count());
+        assertFalse(graph.blockOf(code.indexOf("_Else_ 0")).reachable);     // after "return 2"
+
+        int x = liveness.variable("x");
+        assertTrue(liveness.liveIn(join).get(x));
+        assertFalse(liveness.liveIn(entry).get(x));
+        assertEquals(-1, liveness.variable("main"));
+    }
+
+    private static List<String> optimize(OptLevel level, String... source) {
+        return PassManager.forLevel(level).run(TestSources.code(source));
+    }
+
+    /**
+     * @return the code between the instruction and the next "_EndIntValue_"
+     */
+    private static List<String> statement(List<String> code, String start) {
+        int from = code.indexOf(start) + 1;
+        int to = from;
+        while(!code.get(to).equals("_EndIntValue_ "))
+            to++;
+        return code.subList(from, to + 1);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileTest {
+
+    private static final String[] PROGRAM = {
+            "int seed = 1;",
+            "int spare() {",
+            "    int t = 0;",
+            "    int k = 0;",
+            "    while(k < 4) {",
+            "        t = t + k * seed;",
+            "        k = k + 1;",
+            "    }",
+            "    return t;",
+            "}",
+            "int check(int x) {",
+            "    if(x > 10000) {",
+            "        x = x - spare();",
+            "    }",
+            "    return x;",
+            "}",
+            "int main() {",
+            "    int s = 0;",
+            "    int i = 0;",
+            "    while(i < 40) {",
+            "        s = s + i * 3;",
+            "        i = i + 1;",
+            "    }",
+            "    return check(s);",
+            "}"};
+
+    private static final int VALUE = 2340;
+
+    @Test
+    void runsAreMappedToTheSource() {
+        LoChipVm vm = new LoChipVm(LoChipVmTest.compile(OptLevel.O0, Backend.REGISTERS, PROGRAM));
+        LoChipVm.Result result = vm.run();
+        Profile profile = vm.profile();
+
+        assertEquals(VALUE, result.value);
+        assertEquals(1, profile.function("check").calls);
+        assertEquals("test.clc:11", profile.function("check").location);
+        assertEquals(0, profile.function("spare").calls);
+        assertEquals(result.cycles, profile.getFunctions().stream().mapToLong(function -> function.cycles).sum());
+
+        assertEquals(OptionalLong.of(40), profile.lineCount("test.clc:21"));
+        assertEquals(OptionalLong.of(0), profile.lineCount("test.clc:13"));
+        assertEquals(OptionalLong.empty(), profile.lineCount("test.clc:14"));      // a closing bracket
+        assertTrue(profile.isHot("test.clc:21"));
+        assertTrue(profile.isCold("test.clc:13"));
+        assertFalse(profile.isHot("test.clc:18"));
+        assertEquals(40, profile.block("main.while0.body").count);
+
+        assertEquals(profile.toLines(), Profile.parse(profile.toLines()).toLines());
+    }
+
+    @Test
+    void badProfilesAreRejected() {
+        assertTrue(Profile.parse(List.of("# clc profile", "", "line a.clc:1 3")).lineCount("a.clc:1").isPresent());
+        assertThrows(IllegalArgumentException.class, () -> Profile.parse(List.of("loop a.clc:1 3")));
+        assertThrows(IllegalArgumentException.class, () -> Profile.parse(List.of("line a.clc:1")));
+        assertThrows(IllegalArgumentException.class, () -> Profile.parse(List.of("line a.clc:1 -3")));
+        assertThrows(IllegalArgumentException.class, () -> Profile.parse(List.of("line a.clc:1 3", "line a.clc:1 4")));
+    }
+
+    @Test
+    void coldBlocksMoveToTheEnd() {
+        Profile profile = profile();
+        for (Backend backend : Backend.values()) {
+            List<String> plain = text(LoChipVmTest.compile(OptLevel.O1, backend, PROGRAM));
+            List<String> laidOut = text(LoChipVmTest.compile(OptLevel.O1, backend, profile, PROGRAM));
+
+            int check = laidOut.indexOf("check:");
+            int ret = laidOut.subList(check, laidOut.size()).indexOf("    ret") + check;
+            assertTrue(laidOut.indexOf("# test.clc:13 x = x - spare ( ) ;") > ret, backend.toString());
+            assertTrue(plain.indexOf("# test.clc:13 x = x - spare ( ) ;") < plain.indexOf("check.return:"));
+
+            LoChipVm.Result before = new LoChipVm(LoChipVmTest.compile(OptLevel.O1, backend, PROGRAM)).run();
+            LoChipVm.Result after = new LoChipVm(LoChipVmTest.compile(OptLevel.O1, backend, profile, PROGRAM)).run();
+            assertEquals(VALUE, after.value);
+            assertTrue(after.cycles <= before.cycles, after + " vs " + before);
+        }
+    }
+
+    @Test
+    void hotLoopsUnrollFurther() {
+        Profile profile = profile();
+        List<String> plain = PassManager.forLevel(OptLevel.O2).run(TestSources.code(PROGRAM));
+        List<String> guided = PassManager.forLevel(OptLevel.O2, profile).run(TestSources.code(PROGRAM));
+
+        // without a profile the short loop is unrolled and the long one partly
+        assertEquals(1, plain.stream().filter(instruction -> Ir.is(instruction, Ir.WHILE)).count());
+        assertTrue(functionHasLoop(plain, "main"));
+        // the hot loop is unrolled completely, the loop that never ran stays
+        assertEquals(1, guided.stream().filter(instruction -> Ir.is(instruction, Ir.WHILE)).count());
+        assertTrue(functionHasLoop(guided, "spare"));
+
+        LoChipVm.Result result = new LoChipVm(LoChipVmTest.compile(OptLevel.O2, Backend.REGISTERS, profile, PROGRAM)).run();
+        assertEquals(VALUE, result.value);
+    }
+
+    private static Profile profile() {
+        LoChipVm vm = new LoChipVm(LoChipVmTest.compile(OptLevel.O0, Backend.REGISTERS, PROGRAM));
+        vm.run();
+        return vm.profile();
+    }
+
+    private static boolean functionHasLoop(List<String> code, String function) {
+        int start = code.indexOf(Ir.FUNCTION + " " + function);
+        int end = code.indexOf(Ir.END_FUNCTION + " " + function);
+        return code.subList(start, end).stream().anyMatch(instruction -> Ir.is(instruction, Ir.WHILE));
+    }
+
+    private static List<String> text(List<Line> assembly) {
+        return assembly.stream().map(line -> line.s).toList();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntaxCheckTest {
+
+    @Test
+    void parallelCheckMatchesSequential() {
+        List<String> source = program(4 * SyntaxCheck.PARALLEL_THRESHOLD, -1);
+
+        Result sequential = check(source, false);
+        Result parallel = check(source, true);
+
+        assertTrue(sequential.errors.isEmpty(), sequential.errors.toString());
+        assertEquals(sequential.code, parallel.code);
+        assertEquals(sequential.definitions, parallel.definitions);
+        assertTrue(parallel.definitions.contains("test.clc:3 a"));      // a local of the first body
+    }
+
+    @Test
+    void parallelErrorsAreReportedInOrder() {
+        List<String> source = program(4 * SyntaxCheck.PARALLEL_THRESHOLD, 3);
+
+        Result sequential = check(source, false);
+        Result parallel = check(source, true);
+
+        assertTrue(sequential.errors.size() >= 8, sequential.errors.toString());
+        assertTrue(sequential.errors.get(1).contains("Name not found: \"g2\""), sequential.errors.get(1));
+        assertEquals(sequential.errors, parallel.errors);
+        assertEquals(sequential.code, parallel.code);
+    }
+
+    /**
+     * Checks a program of thousands of functions on one thread and in
+     * parallel, the parallel check has to be faster on more than two cores.
+     * Runs with the "benchmark" tag.
+     */
+    @Test
+    @Tag("benchmark")
+    void parallelCheckScalesWithCores() {
+        List<String> source = program(Integer.getInteger("clc.benchmark.functions", 4_000), -1);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        long sequential = bestOf(source, false);
+        long parallel = bestOf(source, true);
+        double speedup = (double) sequential / parallel;
+        System.out.printf(Locale.ROOT, "SyntaxCheckTest: %d cores, sequential %.1f ms, parallel %.1f ms, %.2fx%n",
+                cores, sequential / 1e6, parallel / 1e6, speedup);
+        if(cores > 2)
+            assertTrue(speedup > 1.2, "parallel check is only " + speedup + " times as fast on " + cores + " cores");
+    }
+
+    private static long bestOf(List<String> source, boolean parallel) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 10; run++) {
+            long start = System.nanoTime();
+            check(source, parallel);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private record Result(List<String> code, List<String> definitions, List<String> errors) {
+    }
+
+    private static Result check(List<String> source, boolean parallel) {
+        Diagnostics diagnostics = new Diagnostics();
+        Coder coder = new Coder();
+        List<String> code = new ArrayList<>(new SyntaxCheck(TestSources.lines(source), coder, parallel, diagnostics)
+                .checkSyntax());
+        List<String> definitions = coder.getDefinitions().stream()
+                .map(line -> line.fName + ":" + line.num + " " + line.s).toList();
+        List<String> errors = diagnostics.getErrors().stream().map(Throwable::getMessage).toList();
+        return new Result(code, definitions, errors);
+    }
+
+    /**
+     * @param errorEvery every n-th function uses a name that does not exist
+     *                   and a global declared after it, -1 for none
+     */
+    private static List<String> program(int functions, int errorEvery) {
+        List<String> source = new ArrayList<>();
+        for (int i = 0; i < functions; i++) {
+            source.add("int g" + i + " = " + i + ";");
+            source.add("int f" + i + "(int x) {");
+            source.add("    int a = x * " + i + " + g" + i + ";");
+            source.add("    int[] t = { a, 2 };");
+            source.add("    while(a < 10) {");
+            source.add("        a = a + t[1];");
+            source.add("    }");
+            if(errorEvery > 0 && i % errorEvery == 1) {
+                source.add("    a = missing" + i + ";");
+                source.add("    a = g" + (i + 1) + ";");             // declared after the function
+            }
+            source.add("    return a;");
+            source.add("}");
+        }
+        source.addAll(List.of("int main() {", "    return f0(1);", "}"));
+        return source;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single file programs of the tests, split, checked and compiled
+ * by the same code as the files of a {@link Project}
+ */
+final class TestSources {
+
+    static final String FILE = "test.clc";
+
+    private TestSources() {
+    }
+
+    /**
+     * @return the tokens of the file, see {@link ObjectUnit#tokenize(String, List, CompilerConfig)}
+     */
+    static List<Line> lines(String... source) {
+        return lines(List.of(source));
+    }
+
+    static List<Line> lines(List<String> source) {
+        return ObjectUnit.tokenize(FILE, source, CompilerConfig.DEFAULT);
+    }
+
+    /**
+     * @return the unit of the file
+     * @throws ClcException or {@link DiagnosticsException} if the file has errors
+     */
+    static ObjectUnit unit(CompilerConfig config, List<String> source) {
+        return ObjectUnit.compile(FILE, source, List.of(), config);
+    }
+
+    /**
+     * @return the checked, not yet optimized code of the file
+     */
+    static List<String> code(String... source) {
+        return unit(CompilerConfig.DEFAULT, List.of(source)).code;
+    }
+
+    /**
+     * Compiles the file as a program with "int main()"
+     */
+    static CompileResult compile(CompilerConfig config, String... source) {
+        return BatchCompiler.compile(new Project(FILE, Map.of(FILE, List.of(source))), config);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBufferTest {
+
+    static final List<String> SOURCE = List.of(
+            "#include \"lib.clc\"",
+            "int g = 1;      // global",
+            "",
+            "int main() {",
+            "    return g;",
+            "}"
+    );
+
+    @Test
+    void relexMatchesFullTokenize() {
+        TokenBuffer buffer = TokenBuffer.tokenize("/test/a.clc", SOURCE);
+
+        List<String> edited = new ArrayList<>(SOURCE);
+        edited.set(1, "int g = 1 + 2;");
+        edited.remove(2);
+        edited.addAll(4, List.of("    int x = g;", "    x = x * 2;"));
+
+        TokenBuffer relexed = buffer.relex(edited, List.of(
+                new TokenBuffer.Edit(1, 2, 1),
+                new TokenBuffer.Edit(5, 0, 2)));
+
+        assertEquals(3, relexed.relexedLines());
+        assertTokensEqual(TokenBuffer.tokenize("/test/a.clc", edited), relexed);
+    }
+
+    @Test
+    void untouchedLinesReuseTokens() {
+        TokenBuffer buffer = TokenBuffer.tokenize("/test/a.clc", SOURCE);
+
+        List<String> edited = new ArrayList<>(SOURCE);
+        edited.set(4, "    return g + 1;");
+        TokenBuffer relexed = buffer.relex(edited, List.of(TokenBuffer.Edit.changed(4)));
+
+        assertEquals(1, relexed.relexedLines());
+        assertSame(buffer.token(3, 1), relexed.token(3, 1));
+        assertSame(buffer.token(5, 0), relexed.token(5, 0));
+        assertEquals(5, relexed.lineSize(4));
+    }
+
+    @Test
+    void keepsPreprocessorCommands() {
+        TokenBuffer buffer = TokenBuffer.tokenize("/test/a.clc", SOURCE);
+
+        assertTrue(buffer.isCommand(0));
+        assertEquals(0, buffer.lineSize(2));
+        assertEquals(1, buffer.toLines().get(0).num);
+        assertEquals("g", buffer.toLines().get(2).s);
+        assertEquals(2, buffer.toLines().get(2).num);
+    }
+
+    @Test
+    void tokensAreSpansOfTheSource() {
+        TokenBuffer buffer = TokenBuffer.tokenize("/test/a.clc", SOURCE);
+
+        for (int line = 0; line < buffer.lineCount(); line++) {
+            for (int i = 0; i < buffer.lineSize(line); i++) {
+                int column = buffer.column(line, i);
+                String text = SOURCE.get(line).substring(column, column + buffer.sourceLength(line, i));
+                assertEquals(buffer.isCommand(line) ? "#include \"lib.clc\"" : buffer.token(line, i), text);
+            }
+        }
+        assertEquals(4, buffer.column(4, 0));
+        assertSame(buffer.token(1, 1), buffer.token(4, 1));         // "g" is kept once
+    }
+
+    @Test
+    void rejectsEditsNotMatchingContent() {
+        TokenBuffer buffer = TokenBuffer.tokenize("/test/a.clc", SOURCE);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> buffer.relex(SOURCE, List.of(new TokenBuffer.Edit(0, 1, 2))));
+    }
+
+    private static void assertTokensEqual(TokenBuffer expected, TokenBuffer actual) {
+        assertEquals(expected.lineCount(), actual.lineCount());
+        assertEquals(expected.tokenCount(), actual.tokenCount());
+        for (int line = 0; line < expected.lineCount(); line++) {
+            assertEquals(expected.lineSize(line), actual.lineSize(line), "line " + line);
+            for (int i = 0; i < expected.lineSize(line); i++) {
+                assertEquals(expected.token(line, i), actual.token(line, i));
+            }
+        }
+    }
+}
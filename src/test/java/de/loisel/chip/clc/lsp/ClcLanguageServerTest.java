@@ -0,0 +1,186 @@
+/*
+ * Copyright 2022 Elias Taufer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.loisel.chip.clc.lsp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClcLanguageServerTest {
+
+    private static final String URI = "file:///work/test.clc";
+
+    private static final String SOURCE = String.join("\n",
+            "int add(int x, int y) {",
+            "    return x + y;",
+            "}",
+            "int main() {",
+            "    int r = add(1, 2);",
+            "    return q;",
+            "}",
+            "");
+
+    @Test
+    void sessionOverStreams() throws IOException {
+        List<Map<String, Object>> messages = run(
+                request(1, "initialize", Map.of("capabilities", Map.of())),
+                notification("initialized", Map.of()),
+                notification("textDocument/didOpen", Map.of("textDocument",
+                        Map.of("uri", URI, "languageId", "clc", "version", 1, "text", SOURCE))),
+                request(2, "textDocument/definition", Map.of("textDocument", Map.of("uri", URI),
+                        "position", Map.of("line", 4, "character", 13))),
+                notification("textDocument/didChange", Map.of("textDocument", Map.of("uri", URI, "version", 2),
+                        "contentChanges", List.of(Map.of("range", range(5, 11, 5, 12), "text", "r")))),
+                request(3, "textDocument/hover", Map.of()),
+                request(4, "shutdown", null),
+                notification("exit", null));
+
+        assertEquals(6, messages.size(), messages.toString());
+
+        Map<String, Object> capabilities = map(result(messages.get(0), 1).get("capabilities"));
+        assertEquals(true, capabilities.get("definitionProvider"));
+        assertEquals(2L, map(capabilities.get("textDocumentSync")).get("change"));
+
+        List<Object> opened = diagnostics(messages.get(1));
+        assertEquals(1, opened.size(), opened.toString());
+        Map<String, Object> error = map(opened.get(0));
+        assertTrue(((String) error.get("message")).contains("\"q\""), error.toString());
+        assertEquals(5L, map(map(error.get("range")).get("start")).get("line"));
+
+        Map<String, Object> definition = result(messages.get(2), 2);
+        assertEquals(URI, definition.get("uri"));
+        assertEquals(range(0, 4, 0, 7), definition.get("range"));
+
+        assertEquals(List.of(), diagnostics(messages.get(3)));
+
+        assertEquals(3L, messages.get(4).get("id"));
+        assertEquals(-32601L, map(messages.get(4).get("error")).get("code"));
+        assertEquals(4L, messages.get(5).get("id"));
+        assertTrue(messages.get(5).containsKey("result"));
+        assertNull(messages.get(5).get("result"));
+    }
+
+    @Test
+    void exitWithoutShutdownFails() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exitCode = new ClcLanguageServer(new ByteArrayInputStream(frame(notification("exit", null))), out).run();
+
+        assertEquals(1, exitCode);
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void jsonRoundTrip() {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("text", "a \"b\"\n\tc \\ \u0001");
+        value.put("numbers", List.of(0L, -12L, 2.5));
+        value.put("flags", List.of(true, false));
+        value.put("none", null);
+        value.put("empty", Map.of());
+
+        String json = Json.write(value);
+        assertEquals(value, Json.parse(json));
+        assertEquals(Map.of("a", List.of("\u00e9")), Json.parse(" { \"a\" : [ \"\\u00e9\" ] } "));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("{\"a\": 1} 2"));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("[1, x]"));
+    }
+
+    /**
+     * Runs the server over the messages
+     * @return the messages the server sent
+     */
+    @SafeVarargs
+    private static List<Map<String, Object>> run(Map<String, Object>... messages) throws IOException {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        for (Map<String, Object> message : messages) {
+            in.write(frame(message));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, new ClcLanguageServer(new ByteArrayInputStream(in.toByteArray()), out).run());
+
+        List<Map<String, Object>> sent = new ArrayList<>();
+        String text = out.toString(StandardCharsets.UTF_8);
+        int position = 0;
+        while(position < text.length()) {
+            String header = "Content-Length: ";
+            assertTrue(text.startsWith(header, position), text.substring(position));
+            int headerEnd = text.indexOf("\r\n\r\n", position);
+            int length = Integer.parseInt(text.substring(position + header.length(), headerEnd));
+            byte[] rest = text.substring(headerEnd + 4).getBytes(StandardCharsets.UTF_8);
+            String content = new String(rest, 0, length, StandardCharsets.UTF_8);
+            sent.add(map(Json.parse(content)));
+            position = headerEnd + 4 + content.length();
+        }
+        return sent;
+    }
+
+    private static byte[] frame(Map<String, Object> message) {
+        byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        byte[] header = ("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] framed = Arrays.copyOf(header, header.length + content.length);
+        System.arraycopy(content, 0, framed, header.length, content.length);
+        return framed;
+    }
+
+    private static Map<String, Object> request(long id, String method, Object params) {
+        Map<String, Object> request = notification(method, params);
+        request.put("id", id);
+        return request;
+    }
+
+    private static Map<String, Object> notification(String method, Object params) {
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("jsonrpc", "2.0");
+        notification.put("method", method);
+        if(params != null)
+            notification.put("params", params);
+        return notification;
+    }
+
+    private static Map<String, Object> range(long startLine, long startChar, long endLine, long endChar) {
+        return Map.of("start", Map.of("line", startLine, "character", startChar),
+                "end", Map.of("line", endLine, "character", endChar));
+    }
+
+    private static Map<String, Object> result(Map<String, Object> response, long id) {
+        assertEquals(id, response.get("id"), response.toString());
+        return map(response.get("result"));
+    }
+
+    private static List<Object> diagnostics(Map<String, Object> notification) {
+        assertEquals("textDocument/publishDiagnostics", notification.get("method"));
+        Map<String, Object> params = map(notification.get("params"));
+        assertEquals(URI, params.get("uri"));
+        return list(params.get("diagnostics"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object value) {
+        return (List<Object>) value;
+    }
+}